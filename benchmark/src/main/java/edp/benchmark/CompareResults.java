@@ -0,0 +1,105 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 比较两次 JMH 结果（-rf json），任一基准退化超过阈值时以非 0 退出
+ * <p>
+ * 用法：CompareResults &lt;baseline.json&gt; &lt;current.json&gt; [阈值百分比，默认 10]
+ */
+public final class CompareResults {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: CompareResults <baseline.json> <current.json> [threshold-percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10D;
+
+        Map<String, JSONObject> baseline = load(args[0]);
+        Map<String, JSONObject> current = load(args[1]);
+
+        int regressions = 0;
+        System.out.println(String.format("%-80s %14s %14s %9s", "benchmark", "baseline", "current", "change"));
+        for (Map.Entry<String, JSONObject> entry : current.entrySet()) {
+            JSONObject metric = entry.getValue().getJSONObject("primaryMetric");
+            String unit = metric.getString("scoreUnit");
+            double score = metric.getDoubleValue("score");
+
+            JSONObject base = baseline.get(entry.getKey());
+            if (null == base) {
+                System.out.println(String.format("%-80s %14s %14.3f %9s  %s", entry.getKey(), "-", score, "new", unit));
+                continue;
+            }
+
+            double baseScore = base.getJSONObject("primaryMetric").getDoubleValue("score");
+            double change = baseScore == 0D ? 0D : (score - baseScore) * 100D / baseScore;
+            // thrpt 越大越好，其余模式（avgt、sample、ss）越小越好
+            boolean higherIsBetter = "thrpt".equals(entry.getValue().getString("mode"));
+            double regression = higherIsBetter ? -change : change;
+            String flag = "";
+            if (regression > threshold) {
+                regressions++;
+                flag = "  REGRESSION";
+            }
+            System.out.println(String.format("%-80s %14.3f %14.3f %+8.1f%%  %s%s", entry.getKey(), baseScore, score, change, unit, flag));
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed more than " + threshold + "%");
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, JSONObject> load(String path) throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        JSONArray array = JSON.parseArray(json);
+        Map<String, JSONObject> results = new LinkedHashMap<>();
+        for (int i = 0; i < array.size(); i++) {
+            JSONObject result = array.getJSONObject(i);
+            results.put(key(result), result);
+        }
+        return results;
+    }
+
+    private static String key(JSONObject result) {
+        StringBuilder key = new StringBuilder(result.getString("benchmark"));
+        JSONObject params = result.getJSONObject("params");
+        if (null != params && !params.isEmpty()) {
+            new TreeMap<>(params).forEach((k, v) -> key.append(':').append(k).append('=').append(v));
+        }
+        return key.toString();
+    }
+
+    private CompareResults() {
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * 基准测试共用的固定数据集，保证不同提交间的结果可比
+ */
+public final class Fixtures {
+
+    public static final long SEED = 20200101L;
+
+    public static final String MYSQL_SOURCE_CONFIG = "{\"url\":\"jdbc:mysql://localhost:3306/davinci_bench\",\"username\":\"bench\",\"password\":\"bench\"}";
+
+    public static final String[] REGIONS = {"east", "west", "north", "south", "central"};
+
+    public static final String[] CHANNELS = {"online", "store", "partner", "wholesale"};
+
+    /**
+     * 嵌套 and/or 过滤条件，与前端 widget 生成的结构一致
+     *
+     * @return
+     */
+    public static String[] filters() {
+        return new String[]{
+                "{\"name\":\"region\",\"type\":\"filter\",\"value\":\"'east'\",\"sqlType\":\"VARCHAR\",\"operator\":\"=\"}",
+                "{\"name\":\"channel\",\"type\":\"filter\",\"value\":[\"'online'\",\"'store'\",\"'partner'\"],\"sqlType\":\"VARCHAR\",\"operator\":\"in\"}",
+                "{\"name\":\"order_date\",\"type\":\"filter\",\"value\":[\"'2019-01-01'\",\"'2019-12-31'\"],\"sqlType\":\"DATE\",\"operator\":\"between\"}",
+                "{\"name\":\"amount\",\"type\":\"filter\",\"value\":\"100\",\"sqlType\":\"DECIMAL\",\"operator\":\">=\"}",
+                "{\"type\":\"relation\",\"value\":\"or\",\"children\":["
+                        + "{\"name\":\"category\",\"type\":\"filter\",\"value\":\"'office'\",\"sqlType\":\"VARCHAR\",\"operator\":\"=\"},"
+                        + "{\"type\":\"relation\",\"value\":\"and\",\"children\":["
+                        + "{\"name\":\"category\",\"type\":\"filter\",\"value\":\"'furniture'\",\"sqlType\":\"VARCHAR\",\"operator\":\"=\"},"
+                        + "{\"name\":\"discount\",\"type\":\"filter\",\"value\":\"0.2\",\"sqlType\":\"DECIMAL\",\"operator\":\"<\"}"
+                        + "]}]}",
+                "{\"name\":\"customer_name\",\"type\":\"filter\",\"value\":\"'%co%'\",\"sqlType\":\"VARCHAR\",\"operator\":\"like\"}"
+        };
+    }
+
+    /**
+     * 建立订单明细表 orders（12 列）并写入 rows 行
+     *
+     * @param connection
+     * @param rows
+     * @throws SQLException
+     */
+    public static void createOrders(Connection connection, int rows) throws SQLException {
+        try (Statement ddl = connection.createStatement()) {
+            ddl.execute("DROP TABLE IF EXISTS orders");
+            ddl.execute("CREATE TABLE orders (order_id BIGINT PRIMARY KEY, order_date DATE, region VARCHAR(32), city VARCHAR(64), "
+                    + "channel VARCHAR(32), customer_name VARCHAR(128), category VARCHAR(64), product_name VARCHAR(128), "
+                    + "quantity INT, amount DECIMAL(18, 2), discount DOUBLE, remark VARCHAR(255))");
+        }
+
+        Random random = new Random(SEED);
+        long day = 24L * 3600 * 1000;
+        long start = java.sql.Date.valueOf("2019-01-01").getTime();
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO orders VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < rows; i++) {
+                insert.setLong(1, i);
+                insert.setDate(2, new java.sql.Date(start + random.nextInt(365) * day));
+                insert.setString(3, REGIONS[random.nextInt(REGIONS.length)]);
+                insert.setString(4, "city_" + random.nextInt(300));
+                insert.setString(5, CHANNELS[random.nextInt(CHANNELS.length)]);
+                insert.setString(6, "customer_" + random.nextInt(5000));
+                insert.setString(7, "category_" + random.nextInt(20));
+                insert.setString(8, "product_" + random.nextInt(2000));
+                insert.setInt(9, 1 + random.nextInt(50));
+                insert.setBigDecimal(10, BigDecimal.valueOf(random.nextInt(10000000), 2));
+                insert.setDouble(11, random.nextInt(30) / 100.0);
+                insert.setString(12, random.nextInt(10) == 0 ? null : "remark " + random.nextLong());
+                insert.addBatch();
+                if ((i + 1) % 10000 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private Fixtures() {
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.benchmark.load;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个接口的延迟、吞吐与错误统计
+ */
+public class EndpointStats {
+
+    private final String name;
+
+    private long[] latencies = new long[4096];
+
+    private int count = 0;
+
+    private long errors = 0L;
+
+    private final Map<String, Long> statuses = new TreeMap<>();
+
+    public EndpointStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param nanos  从计划发出到收到完整响应的时间
+     * @param ok
+     * @param status http 状态码、ResultMap code 或异常类名
+     */
+    public synchronized void record(long nanos, boolean ok, String status) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+        if (!ok) {
+            errors++;
+        }
+        statuses.merge(status, 1L, Long::sum);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @param seconds 统计时长
+     * @return count、errors、throughput（次/秒）及 mean、p50、p95、p99、max（毫秒）
+     */
+    public synchronized JSONObject summary(double seconds) {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        long total = 0L;
+        for (long latency : sorted) {
+            total += latency;
+        }
+
+        JSONObject summary = new JSONObject(true);
+        summary.put("count", count);
+        summary.put("errors", errors);
+        summary.put("throughput", round(count / seconds));
+        summary.put("mean", count == 0 ? 0D : millis(total / count));
+        summary.put("p50", millis(percentile(sorted, 0.50)));
+        summary.put("p95", millis(percentile(sorted, 0.95)));
+        summary.put("p99", millis(percentile(sorted, 0.99)));
+        summary.put("max", count == 0 ? 0D : millis(sorted[count - 1]));
+        summary.put("statuses", new TreeMap<>(statuses));
+        return summary;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0L;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double millis(long nanos) {
+        return round(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100D) / 100D;
+    }
+}
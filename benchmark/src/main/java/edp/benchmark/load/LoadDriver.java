@@ -0,0 +1,318 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.benchmark.load;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import edp.benchmark.Fixtures;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按配置的速率与比例并发请求各接口（mail 为发送激活邮件，由进程内 smtp 服务接收）
+ * <p>
+ * rate 大于 0 时按固定间隔发出请求（开环），延迟从计划发出时间算起，客户端线程不足时的排队也计入；
+ * rate 为 0 时每个客户端线程连续请求（闭环）。预热期间的请求不计入统计
+ */
+public class LoadDriver {
+
+    public enum Endpoint {
+        GETDATA("getdata"),
+        DISTINCT("distinct"),
+        SHARE_DASHBOARD("share-dashboard"),
+        SHARE_DATA("share-data"),
+        EXPORT("export"),
+        MAIL("mail");
+
+        private final String name;
+
+        Endpoint(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static Endpoint of(String name) {
+            for (Endpoint endpoint : values()) {
+                if (endpoint.name.equalsIgnoreCase(name.trim())) {
+                    return endpoint;
+                }
+            }
+            throw new IllegalArgumentException("unknown endpoint: " + name);
+        }
+    }
+
+    private static final String API = "/api/v3";
+
+    private static final int TIMEOUT_MILLIS = 120000;
+
+    private final String baseUrl;
+
+    private final Seeder seeder;
+
+    private final LoadOptions options;
+
+    private final Map<Endpoint, EndpointStats> stats = new EnumMap<>(Endpoint.class);
+
+    private final Endpoint[] weighted;
+
+    private String shareDataToken;
+
+    private volatile long measureStart;
+
+    private volatile long measureEnd;
+
+    public LoadDriver(String baseUrl, Seeder seeder, LoadOptions options) {
+        this.baseUrl = baseUrl;
+        this.seeder = seeder;
+        this.options = options;
+
+        List<Endpoint> list = new ArrayList<>();
+        options.getMix().forEach((endpoint, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                list.add(endpoint);
+            }
+        });
+        if (list.isEmpty()) {
+            throw new IllegalArgumentException("empty request mix");
+        }
+        weighted = list.toArray(new Endpoint[0]);
+        for (Endpoint endpoint : options.getMix().keySet()) {
+            stats.put(endpoint, new EndpointStats(endpoint.getName()));
+        }
+    }
+
+    /**
+     * 打开一次分享的 dashboard，取得其 widget 的数据 token
+     *
+     * @throws IOException
+     */
+    public void prepare() throws IOException {
+        Response response = call(Endpoint.SHARE_DASHBOARD, new Random(Fixtures.SEED));
+        if (!response.ok) {
+            throw new IllegalStateException("open shared dashboard failed: " + response.status + " " + response.body);
+        }
+        JSONArray widgets = JSON.parseObject(response.body).getJSONObject("payload").getJSONArray("widgets");
+        if (null == widgets || widgets.isEmpty()) {
+            throw new IllegalStateException("shared dashboard has no widgets: " + response.body);
+        }
+        shareDataToken = widgets.getJSONObject(0).getString("dataToken");
+    }
+
+    public Map<Endpoint, EndpointStats> run() throws InterruptedException {
+        long second = TimeUnit.SECONDS.toNanos(1);
+        long start = System.nanoTime();
+        measureStart = start + options.getWarmupSeconds() * second;
+        measureEnd = measureStart + options.getDurationSeconds() * second;
+
+        ExecutorService clients = Executors.newFixedThreadPool(options.getClients());
+        if (options.getRate() > 0D) {
+            Random random = new Random(Fixtures.SEED);
+            long interval = (long) (second / options.getRate());
+            for (long next = start; next < measureEnd; next += interval) {
+                long wait = next - System.nanoTime();
+                if (wait > 0L) {
+                    LockSupport.parkNanos(wait);
+                }
+                long intended = next;
+                Endpoint endpoint = weighted[random.nextInt(weighted.length)];
+                long seed = random.nextLong();
+                clients.execute(() -> execute(endpoint, new Random(seed), intended));
+            }
+        } else {
+            for (int i = 0; i < options.getClients(); i++) {
+                Random random = new Random(Fixtures.SEED + i);
+                clients.execute(() -> {
+                    long intended;
+                    while ((intended = System.nanoTime()) < measureEnd) {
+                        execute(weighted[random.nextInt(weighted.length)], random, intended);
+                    }
+                });
+            }
+        }
+        clients.shutdown();
+        if (!clients.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            clients.shutdownNow();
+        }
+        return stats;
+    }
+
+    private void execute(Endpoint endpoint, Random random, long intended) {
+        Response response;
+        try {
+            response = call(endpoint, random);
+        } catch (Exception e) {
+            response = new Response(false, e.getClass().getSimpleName(), null);
+        }
+        if (intended >= measureStart && intended < measureEnd) {
+            stats.get(endpoint).record(System.nanoTime() - intended, response.ok, response.status);
+        }
+    }
+
+    private Response call(Endpoint endpoint, Random random) throws IOException {
+        int widget = random.nextInt(seeder.getWidgetIds().size());
+        Long widgetId = seeder.getWidgetIds().get(widget);
+        Long viewId = seeder.getWidgetViewIds().get(widget);
+        JSONObject executeParam = executeParam(random);
+
+        switch (endpoint) {
+            case GETDATA:
+                return request("POST", API + "/views/" + viewId + "/getdata", executeParam.toJSONString(), true);
+            case DISTINCT:
+                JSONObject distinctParam = new JSONObject();
+                distinctParam.put("columns", Collections.singletonList("city"));
+                distinctParam.put("filters", executeParam.get("filters"));
+                distinctParam.put("cache", options.isCache());
+                distinctParam.put("expired", options.getCacheSeconds());
+                return request("POST", API + "/views/" + viewId + "/getdistinctvalue", distinctParam.toJSONString(), true);
+            case SHARE_DASHBOARD:
+                return request("GET", API + "/share/dashboard/" + seeder.getDashboardShareToken(), null, false);
+            case SHARE_DATA:
+                return request("POST", API + "/share/data/" + shareDataToken, executeParam.toJSONString(), false);
+            case EXPORT:
+                JSONObject downloadParam = new JSONObject();
+                downloadParam.put("id", widgetId);
+                downloadParam.put("param", executeParam);
+                return request("POST", API + "/download/submit/widget/" + widgetId,
+                        JSON.toJSONString(Collections.singletonList(downloadParam)), true);
+            case MAIL:
+                JSONObject sendMail = new JSONObject();
+                sendMail.put("email", seeder.getEmail());
+                return request("POST", API + "/users/sendmail", sendMail.toJSONString(), true);
+            default:
+                throw new IllegalArgumentException(endpoint.getName());
+        }
+    }
+
+    /**
+     * 与 widget 配置一致的查询参数，随机按地区过滤（包括不过滤）
+     */
+    private JSONObject executeParam(Random random) {
+        JSONObject param = new JSONObject();
+        param.put("groups", Arrays.asList("region", "channel"));
+        JSONArray aggregators = new JSONArray();
+        aggregators.add(aggregator("amount", "sum"));
+        aggregators.add(aggregator("quantity", "sum"));
+        param.put("aggregators", aggregators);
+        param.put("orders", new JSONArray());
+
+        List<String> filters = new ArrayList<>();
+        int region = random.nextInt(Fixtures.REGIONS.length + 1);
+        if (region < Fixtures.REGIONS.length) {
+            JSONObject filter = new JSONObject();
+            filter.put("name", "region");
+            filter.put("type", "filter");
+            filter.put("value", "'" + Fixtures.REGIONS[region] + "'");
+            filter.put("sqlType", "VARCHAR");
+            filter.put("operator", "=");
+            filters.add(filter.toJSONString());
+        }
+        param.put("filters", filters);
+        param.put("cache", options.isCache());
+        param.put("expired", options.getCacheSeconds());
+        param.put("flush", false);
+        param.put("nativeQuery", false);
+        return param;
+    }
+
+    private static JSONObject aggregator(String column, String func) {
+        JSONObject aggregator = new JSONObject();
+        aggregator.put("column", column);
+        aggregator.put("func", func);
+        return aggregator;
+    }
+
+    private Response request(String method, String path, String body, boolean auth) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        if (auth) {
+            connection.setRequestProperty("Authorization", seeder.getToken());
+        }
+        if (null != body) {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+            connection.setFixedLengthStreamingMode(bytes.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(bytes);
+            }
+        }
+
+        int status = connection.getResponseCode();
+        String content = read(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+        if (status != 200) {
+            return new Response(false, String.valueOf(status), content);
+        }
+        // 业务错误时 http 状态仍可能是 200，以 ResultMap 的 header.code 为准
+        if (content.startsWith("{")) {
+            JSONObject header = JSON.parseObject(content).getJSONObject("header");
+            if (null != header && header.getIntValue("code") != 200) {
+                return new Response(false, "code " + header.getIntValue("code"), content);
+            }
+        }
+        return new Response(true, "200", content);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        if (null == in) {
+            return "";
+        }
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = input.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class Response {
+
+        private final boolean ok;
+
+        private final String status;
+
+        private final String body;
+
+        private Response(boolean ok, String status, String body) {
+            this.ok = ok;
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.benchmark.load;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import edp.DavinciServerApplication;
+import edp.benchmark.Fixtures;
+import edp.core.common.mail.MailQueue;
+import edp.core.common.metrics.DataSourcePoolMetrics;
+import edp.davinci.core.enums.DownloadTaskStatus;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端压测：元数据库与样例数据源均为 H2 内存库，无需外部服务
+ * <p>
+ * 启动应用（profile loadtest），通过 mapper 写入项目、view、widget 与 dashboard，
+ * 按配置并发请求 getdata、控件取值、分享页、下载与邮件，输出各接口的 p50/p95/p99、吞吐与错误数；
+ * 邮件发往进程内的 {@link SmtpStub}；
+ * 错误率超过 --load.max-error-percent 时以 1 退出
+ */
+public final class LoadHarness {
+
+    static final String METADATA_URL = "jdbc:h2:mem:davinci_meta;MODE=MySQL;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1";
+
+    static final String SAMPLE_URL = "jdbc:h2:mem:davinci_sample;DB_CLOSE_DELAY=-1";
+
+    private static final String H2_USER = "sa";
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options = LoadOptions.parse(args);
+
+        Path home = Files.createTempDirectory("davinci-load");
+        System.setProperty("DAVINCI3_HOME", home.toString());
+        System.setProperty("mail.mime.splitlongparameters", "false");
+        // HttpURLConnection 每个地址保持的空闲连接数
+        System.setProperty("http.maxConnections", String.valueOf(options.getClients()));
+
+        MetadataSchema.create(METADATA_URL, H2_USER, "");
+        try (Connection connection = DriverManager.getConnection(SAMPLE_URL, H2_USER, "")) {
+            Fixtures.createOrders(connection, options.getRows());
+        }
+
+        SmtpStub smtpStub = new SmtpStub(options.getSmtpDelayMillis());
+
+        SpringApplication application = new SpringApplication(DavinciServerApplication.class);
+        application.setAdditionalProfiles("loadtest");
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put("spring.datasource.url", METADATA_URL);
+        defaults.put("spring.datasource.username", H2_USER);
+        defaults.put("spring.datasource.password", "");
+        defaults.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        defaults.put("spring.mail.host", "127.0.0.1");
+        defaults.put("spring.mail.port", smtpStub.getPort());
+        application.setDefaultProperties(defaults);
+
+        int exitCode;
+        try (SmtpStub stub = smtpStub;
+             ConfigurableApplicationContext context = application.run(options.getSpringArgs())) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+
+            Seeder seeder = new Seeder(context);
+            seeder.seed(SAMPLE_URL, options.getViews(), options.getWidgets());
+
+            LoadDriver driver = new LoadDriver("http://127.0.0.1:" + port, seeder, options);
+            driver.prepare();
+            Map<LoadDriver.Endpoint, EndpointStats> stats = driver.run();
+
+            JSONObject report = new JSONObject(true);
+            report.put("options", options.toJson());
+            JSONObject endpoints = new JSONObject(true);
+            long requests = 0L;
+            long errors = 0L;
+            for (EndpointStats endpointStats : stats.values()) {
+                endpoints.put(endpointStats.getName(), endpointStats.summary(options.getDurationSeconds()));
+                requests += endpointStats.getCount();
+                errors += endpointStats.getErrors();
+            }
+            report.put("endpoints", endpoints);
+            if (stats.containsKey(LoadDriver.Endpoint.EXPORT)) {
+                report.put("exports", drainExports(options.getDrainSeconds()));
+            }
+            if (stats.containsKey(LoadDriver.Endpoint.MAIL)) {
+                report.put("mails", mails(context.getBean(MailQueue.class), stub));
+            }
+            report.put("pools", context.getBean(DataSourcePoolMetrics.class).getPoolStats());
+
+            print(report);
+            Path reportPath = Paths.get(options.getReport()).toAbsolutePath();
+            Files.createDirectories(reportPath.getParent());
+            Files.write(reportPath, JSON.toJSONString(report, SerializerFeature.PrettyFormat).getBytes(StandardCharsets.UTF_8));
+            System.out.println("report: " + reportPath);
+
+            double errorPercent = requests == 0L ? 100D : errors * 100D / requests;
+            exitCode = errorPercent > options.getMaxErrorPercent() ? 1 : 0;
+            if (exitCode != 0) {
+                System.out.println(String.format("error rate %.2f%% exceeds %.2f%%", errorPercent, options.getMaxErrorPercent()));
+            }
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * 等待已提交的下载任务结束，返回各状态的任务数
+     */
+    private static JSONObject drainExports(int drainSeconds) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+        long drainStart = System.nanoTime();
+        JSONObject exports = new JSONObject(true);
+        try (Connection connection = DriverManager.getConnection(METADATA_URL, H2_USER, "");
+             Statement statement = connection.createStatement()) {
+            while (true) {
+                Map<Short, Long> counts = new HashMap<>();
+                try (ResultSet rs = statement.executeQuery("SELECT status, COUNT(*) FROM download_record GROUP BY status")) {
+                    while (rs.next()) {
+                        counts.put(rs.getShort(1), rs.getLong(2));
+                    }
+                }
+                long processing = counts.getOrDefault(DownloadTaskStatus.PROCESSING.getStatus(), 0L);
+                if (processing == 0L || System.nanoTime() > deadline) {
+                    exports.put("success", counts.getOrDefault(DownloadTaskStatus.SUCCESS.getStatus(), 0L));
+                    exports.put("failed", counts.getOrDefault(DownloadTaskStatus.FAILED.getStatus(), 0L));
+                    exports.put("processing", processing);
+                    exports.put("drainSeconds", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - drainStart));
+                    return exports;
+                }
+                TimeUnit.SECONDS.sleep(1L);
+            }
+        }
+    }
+
+    /**
+     * 邮件队列的投递结果与 smtp 服务收到的连接、邮件数，连接数远小于邮件数说明连接被复用
+     */
+    private static JSONObject mails(MailQueue mailQueue, SmtpStub stub) {
+        JSONObject mails = new JSONObject(true);
+        mails.put("submitted", mailQueue.getSubmitted());
+        mails.put("sent", mailQueue.getSent());
+        mails.put("failed", mailQueue.getFailed());
+        mails.put("retried", mailQueue.getRetried());
+        mails.put("smtp", stub.summary());
+        return mails;
+    }
+
+    private static void print(JSONObject report) {
+        System.out.println(String.format("%-16s %8s %7s %9s %9s %9s %9s %9s", "endpoint", "count", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        JSONObject endpoints = report.getJSONObject("endpoints");
+        for (String name : endpoints.keySet()) {
+            JSONObject summary = endpoints.getJSONObject(name);
+            System.out.println(String.format("%-16s %8d %7d %9.2f %9.2f %9.2f %9.2f %9.2f", name,
+                    summary.getLongValue("count"), summary.getLongValue("errors"), summary.getDoubleValue("throughput"),
+                    summary.getDoubleValue("p50"), summary.getDoubleValue("p95"), summary.getDoubleValue("p99"), summary.getDoubleValue("max")));
+        }
+        if (report.containsKey("exports")) {
+            System.out.println("exports: " + report.getJSONObject("exports").toJSONString());
+        }
+        if (report.containsKey("mails")) {
+            System.out.println("mails: " + report.getJSONObject("mails").toJSONString());
+        }
+    }
+}
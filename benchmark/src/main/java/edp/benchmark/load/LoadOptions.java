@@ -0,0 +1,230 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.benchmark.load;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.*;
+
+/**
+ * 压测参数，命令行以 --load.xxx=value 指定，其余参数交给 Spring
+ */
+public class LoadOptions {
+
+    private static final String PREFIX = "--load.";
+
+    private int durationSeconds = 60;
+
+    private int warmupSeconds = 10;
+
+    /**
+     * 每秒请求数，0 表示每个客户端线程连续请求
+     */
+    private double rate = 50D;
+
+    private int clients = 32;
+
+    private Map<LoadDriver.Endpoint, Integer> mix = parseMix("getdata:50,distinct:20,share-dashboard:5,share-data:20,export:5");
+
+    private int rows = 100000;
+
+    private int views = 4;
+
+    private int widgets = 8;
+
+    private boolean cache = false;
+
+    private long cacheSeconds = 300L;
+
+    private int drainSeconds = 120;
+
+    /**
+     * 进程内 smtp 服务在问候及每封邮件后的等待时间
+     */
+    private long smtpDelayMillis = 0L;
+
+    private double maxErrorPercent = 1D;
+
+    private String report = "target/load-report.json";
+
+    private final List<String> springArgs = new ArrayList<>();
+
+    public static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (String arg : args) {
+            if (!arg.startsWith(PREFIX)) {
+                options.springArgs.add(arg);
+                continue;
+            }
+            int index = arg.indexOf('=');
+            if (index < 0) {
+                throw new IllegalArgumentException("missing value: " + arg);
+            }
+            String key = arg.substring(PREFIX.length(), index);
+            String value = arg.substring(index + 1).trim();
+            switch (key) {
+                case "duration":
+                    options.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    options.warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "rate":
+                    options.rate = Double.parseDouble(value);
+                    break;
+                case "clients":
+                    options.clients = Integer.parseInt(value);
+                    break;
+                case "mix":
+                    options.mix = parseMix(value);
+                    break;
+                case "rows":
+                    options.rows = Integer.parseInt(value);
+                    break;
+                case "views":
+                    options.views = Integer.parseInt(value);
+                    break;
+                case "widgets":
+                    options.widgets = Integer.parseInt(value);
+                    break;
+                case "cache":
+                    options.cache = Boolean.parseBoolean(value);
+                    break;
+                case "cache-seconds":
+                    options.cacheSeconds = Long.parseLong(value);
+                    break;
+                case "drain":
+                    options.drainSeconds = Integer.parseInt(value);
+                    break;
+                case "smtp-delay-ms":
+                    options.smtpDelayMillis = Long.parseLong(value);
+                    break;
+                case "max-error-percent":
+                    options.maxErrorPercent = Double.parseDouble(value);
+                    break;
+                case "report":
+                    options.report = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + arg);
+            }
+        }
+        if (options.views < 1 || options.widgets < 1 || options.clients < 1) {
+            throw new IllegalArgumentException("views, widgets and clients must be positive");
+        }
+        return options;
+    }
+
+    /**
+     * @param mix 如 getdata:50,export:5，权重为 0 的接口不请求
+     */
+    private static Map<LoadDriver.Endpoint, Integer> parseMix(String mix) {
+        Map<LoadDriver.Endpoint, Integer> map = new EnumMap<>(LoadDriver.Endpoint.class);
+        for (String item : mix.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            String[] pair = item.split(":");
+            int weight = pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+            if (weight > 0) {
+                map.put(LoadDriver.Endpoint.of(pair[0]), weight);
+            }
+        }
+        return map;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject(true);
+        json.put("duration", durationSeconds);
+        json.put("warmup", warmupSeconds);
+        json.put("rate", rate);
+        json.put("clients", clients);
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        mix.forEach((endpoint, weight) -> weights.put(endpoint.getName(), weight));
+        json.put("mix", weights);
+        json.put("rows", rows);
+        json.put("views", views);
+        json.put("widgets", widgets);
+        json.put("cache", cache);
+        json.put("smtpDelayMillis", smtpDelayMillis);
+        json.put("springArgs", springArgs);
+        return json;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public int getClients() {
+        return clients;
+    }
+
+    public Map<LoadDriver.Endpoint, Integer> getMix() {
+        return mix;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getViews() {
+        return views;
+    }
+
+    public int getWidgets() {
+        return widgets;
+    }
+
+    public boolean isCache() {
+        return cache;
+    }
+
+    public long getCacheSeconds() {
+        return cacheSeconds;
+    }
+
+    public long getSmtpDelayMillis() {
+        return smtpDelayMillis;
+    }
+
+    public int getDrainSeconds() {
+        return drainSeconds;
+    }
+
+    public double getMaxErrorPercent() {
+        return maxErrorPercent;
+    }
+
+    public String getReport() {
+        return report;
+    }
+
+    public String[] getSpringArgs() {
+        return springArgs.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.benchmark.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Pattern;
+
+/**
+ * 将 bin/davinci.sql（MySQL）转换后建到 H2 元数据库
+ * <p>
+ * 去掉 SET 语句、表选项、字符集、注释、普通索引及 ON UPDATE，唯一索引改为 UNIQUE 约束
+ */
+public final class MetadataSchema {
+
+    private static final String SCHEMA = "schema/davinci.sql";
+
+    private static final Pattern LINE_COMMENT = Pattern.compile("(?m)^\\s*--.*$");
+
+    private static final Pattern SET = Pattern.compile("(?im)^\\s*SET\\s+[^;]*;");
+
+    private static final Pattern TABLE_OPTIONS = Pattern.compile("(?is)\\)\\s*ENGINE\\s*=[^;]*;");
+
+    private static final Pattern INDEX = Pattern.compile("(?im)^\\s*(FULLTEXT\\s+)?KEY\\s+`[^`]+`\\s*\\([^)]*\\)[^,\\n]*,?\\s*$");
+
+    private static final Pattern UNIQUE_INDEX = Pattern.compile("(?i)UNIQUE\\s+KEY\\s+`[^`]+`\\s*\\(");
+
+    private static final Pattern COLUMN_COMMENT = Pattern.compile("(?i)\\s+COMMENT\\s*=?\\s*'(?:[^']|'')*'");
+
+    private static final Pattern CHARSET = Pattern.compile("(?i)\\s+(CHARACTER\\s+SET|COLLATE)\\s*=?\\s*\\w+");
+
+    private static final Pattern USING = Pattern.compile("(?i)\\s+USING\\s+(BTREE|HASH)");
+
+    private static final Pattern ON_UPDATE = Pattern.compile("(?i)\\s+ON\\s+UPDATE\\s+CURRENT_TIMESTAMP");
+
+    private static final Pattern TRAILING_COMMA = Pattern.compile(",(\\s*\\)\\s*;)");
+
+    private MetadataSchema() {
+    }
+
+    /**
+     * 建表并写入 davinci.sql 中的初始数据
+     *
+     * @param url H2 元数据库地址，需要 MODE=MySQL
+     * @throws SQLException 转换后仍不被 H2 支持的语句
+     */
+    public static void create(String url, String username, String password) throws IOException, SQLException {
+        String sql = toH2(read());
+        try (Connection connection = DriverManager.getConnection(url, username, password);
+             Statement statement = connection.createStatement()) {
+            for (String stmt : sql.split(";\\s*(\\n|$)")) {
+                if (stmt.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    statement.execute(stmt);
+                } catch (SQLException e) {
+                    throw new SQLException("unsupported metadata statement: " + stmt.trim(), e);
+                }
+            }
+        }
+    }
+
+    static String toH2(String sql) {
+        sql = LINE_COMMENT.matcher(sql).replaceAll("");
+        sql = SET.matcher(sql).replaceAll("");
+        sql = TABLE_OPTIONS.matcher(sql).replaceAll(");");
+        sql = INDEX.matcher(sql).replaceAll("");
+        sql = UNIQUE_INDEX.matcher(sql).replaceAll("UNIQUE (");
+        sql = COLUMN_COMMENT.matcher(sql).replaceAll("");
+        sql = CHARSET.matcher(sql).replaceAll("");
+        sql = USING.matcher(sql).replaceAll("");
+        sql = ON_UPDATE.matcher(sql).replaceAll("");
+        sql = TRAILING_COMMA.matcher(sql).replaceAll("$1");
+        // MySQL 的 \' 转义
+        return sql.replace("\\'", "''");
+    }
+
+    private static String read() throws IOException {
+        try (InputStream in = MetadataSchema.class.getClassLoader().getResourceAsStream(SCHEMA)) {
+            if (null == in) {
+                throw new IOException(SCHEMA + " is not on the classpath");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.benchmark.load;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import edp.core.utils.TokenUtils;
+import edp.davinci.core.enums.UserOrgRoleEnum;
+import edp.davinci.dao.*;
+import edp.davinci.model.*;
+import edp.davinci.service.share.ShareDataPermission;
+import edp.davinci.service.share.ShareFactor;
+import edp.davinci.service.share.ShareMode;
+import edp.davinci.service.share.ShareType;
+import org.mindrot.jbcrypt.BCrypt;
+import org.springframework.context.ApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static edp.core.consts.Consts.TOKEN_PREFIX;
+
+/**
+ * 通过 mapper 写入压测用的用户、组织、项目、数据源、view、widget 与 dashboard
+ */
+public class Seeder {
+
+    private static final String SPLITER = "@davinci@";
+
+    private static final String EMAIL = "loadtest@davinci.cn";
+
+    private static final String[][] MODEL = {
+            {"order_id", "BIGINT", "number", "value"},
+            {"order_date", "DATE", "date", "category"},
+            {"region", "VARCHAR", "string", "category"},
+            {"city", "VARCHAR", "string", "category"},
+            {"channel", "VARCHAR", "string", "category"},
+            {"customer_name", "VARCHAR", "string", "category"},
+            {"category", "VARCHAR", "string", "category"},
+            {"product_name", "VARCHAR", "string", "category"},
+            {"quantity", "INT", "number", "value"},
+            {"amount", "DECIMAL", "number", "value"},
+            {"discount", "DOUBLE", "number", "value"},
+            {"remark", "VARCHAR", "string", "category"}
+    };
+
+    private final ApplicationContext context;
+
+    private Long userId;
+
+    private String token;
+
+    private Long dashboardId;
+
+    private String dashboardShareToken;
+
+    private final List<Long> viewIds = new ArrayList<>();
+
+    private final List<Long> widgetIds = new ArrayList<>();
+
+    private final List<Long> widgetViewIds = new ArrayList<>();
+
+    public Seeder(ApplicationContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @param sampleUrl 样例数据源地址
+     * @param views     view 个数
+     * @param widgets   dashboard 上的 widget 个数，依次使用各个 view
+     */
+    public void seed(String sampleUrl, int views, int widgets) {
+        User user = new User();
+        user.setUsername("loadtest");
+        user.setPassword(BCrypt.hashpw("loadtest", BCrypt.gensalt()));
+        user.setEmail(EMAIL);
+        user.setName("loadtest");
+        user.setActive(true);
+        context.getBean(UserMapper.class).insert(user);
+        userId = user.getId();
+        token = TOKEN_PREFIX + " " + context.getBean(TokenUtils.class).generateToken(user);
+
+        Organization organization = new Organization("loadtest", null, userId);
+        context.getBean(OrganizationMapper.class).insert(organization);
+        context.getBean(RelUserOrganizationMapper.class)
+                .insert(new RelUserOrganization(organization.getId(), userId, UserOrgRoleEnum.OWNER.getRole()));
+
+        Project project = new Project();
+        project.setName("loadtest");
+        project.setOrgId(organization.getId());
+        project.setInitialOrgId(organization.getId());
+        project.setUserId(userId);
+        project.setCreateUserId(userId);
+        context.getBean(ProjectMapper.class).insert(project);
+
+        Source source = new Source();
+        source.setName("sample");
+        source.setType("jdbc");
+        source.setProjectId(project.getId());
+        JSONObject sourceConfig = new JSONObject();
+        sourceConfig.put("url", sampleUrl);
+        sourceConfig.put("username", "sa");
+        sourceConfig.put("password", "");
+        sourceConfig.put("parameters", "");
+        sourceConfig.put("ext", false);
+        source.setConfig(sourceConfig.toJSONString());
+        source.createdBy(userId);
+        context.getBean(SourceMapper.class).insert(source);
+
+        ViewMapper viewMapper = context.getBean(ViewMapper.class);
+        for (int i = 0; i < views; i++) {
+            View view = new View();
+            view.setName("orders_" + i);
+            view.setProjectId(project.getId());
+            view.setSourceId(source.getId());
+            // 每个 view 的 sql 不同，避免共用结果缓存
+            view.setSql("SELECT * FROM orders WHERE order_id >= " + i);
+            view.setModel(model());
+            view.setVariable("[]");
+            view.createdBy(userId);
+            viewMapper.insert(view);
+            viewIds.add(view.getId());
+        }
+
+        DashboardPortal portal = new DashboardPortal();
+        portal.setName("loadtest");
+        portal.setProjectId(project.getId());
+        portal.setPublish(true);
+        portal.createdBy(userId);
+        context.getBean(DashboardPortalMapper.class).insert(portal);
+
+        Dashboard dashboard = new Dashboard();
+        dashboard.setName("loadtest");
+        dashboard.setDashboardPortalId(portal.getId());
+        dashboard.setType((short) 1);
+        dashboard.setParentId(0L);
+        dashboard.setConfig("{}");
+        dashboard.createdBy(userId);
+        context.getBean(DashboardMapper.class).insert(dashboard);
+        dashboardId = dashboard.getId();
+
+        WidgetMapper widgetMapper = context.getBean(WidgetMapper.class);
+        MemDashboardWidgetMapper memDashboardWidgetMapper = context.getBean(MemDashboardWidgetMapper.class);
+        for (int i = 0; i < widgets; i++) {
+            Long viewId = viewIds.get(i % viewIds.size());
+            Widget widget = new Widget();
+            widget.setName("widget_" + i);
+            widget.setViewId(viewId);
+            widget.setProjectId(project.getId());
+            widget.setType(1L);
+            widget.setPublish(true);
+            widget.setConfig(widgetConfig());
+            widget.createdBy(userId);
+            widgetMapper.insert(widget);
+            widgetIds.add(widget.getId());
+            widgetViewIds.add(viewId);
+
+            MemDashboardWidget memDashboardWidget = new MemDashboardWidget();
+            memDashboardWidget.setDashboardId(dashboardId);
+            memDashboardWidget.setWidgetId(widget.getId());
+            memDashboardWidget.setX((i % 2) * 6);
+            memDashboardWidget.setY((i / 2) * 6);
+            memDashboardWidget.setWidth(6);
+            memDashboardWidget.setHeight(6);
+            memDashboardWidget.setFrequency(0);
+            memDashboardWidget.setConfig("{}");
+            memDashboardWidget.createdBy(userId);
+            memDashboardWidgetMapper.insert(memDashboardWidget);
+        }
+
+        dashboardShareToken = ShareFactor.Builder.shareFactor()
+                .withMode(ShareMode.NORMAL)
+                .withType(ShareType.DASHBOARD)
+                .withPermission(ShareDataPermission.SHARER)
+                .withEntityId(dashboardId)
+                .withSharerId(userId)
+                .build()
+                .toShareResult(context.getBean("TOKEN_SECRET", String.class))
+                .getToken();
+    }
+
+    private static String model() {
+        JSONObject model = new JSONObject(true);
+        for (String[] column : MODEL) {
+            JSONObject field = new JSONObject();
+            field.put("sqlType", column[1]);
+            field.put("visualType", column[2]);
+            field.put("modelType", column[3]);
+            model.put(column[0], field);
+        }
+        return model.toJSONString();
+    }
+
+    /**
+     * 表格 widget：地区、渠道分组，金额与数量求和
+     */
+    private static String widgetConfig() {
+        JSONArray cols = new JSONArray();
+        cols.add(field("region", null));
+        cols.add(field("channel", null));
+        JSONArray metrics = new JSONArray();
+        metrics.add(field("amount" + SPLITER + "1", "sum"));
+        metrics.add(field("quantity" + SPLITER + "2", "sum"));
+
+        JSONObject table = new JSONObject();
+        table.put("headerConfig", new JSONArray());
+        table.put("withNoAggregators", false);
+        JSONObject chartStyles = new JSONObject();
+        chartStyles.put("table", table);
+
+        JSONObject config = new JSONObject();
+        config.put("cols", cols);
+        config.put("rows", new JSONArray());
+        config.put("metrics", metrics);
+        config.put("filters", new JSONArray());
+        config.put("chartStyles", chartStyles);
+        config.put("selectedChart", 1);
+        config.put("mode", "chart");
+        return config.toJSONString();
+    }
+
+    private static JSONObject field(String name, String agg) {
+        JSONObject field = new JSONObject();
+        field.put("name", name);
+        if (null != agg) {
+            field.put("agg", agg);
+        }
+        return field;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getEmail() {
+        return EMAIL;
+    }
+
+    public Long getDashboardId() {
+        return dashboardId;
+    }
+
+    public String getDashboardShareToken() {
+        return dashboardShareToken;
+    }
+
+    public List<Long> getViewIds() {
+        return viewIds;
+    }
+
+    public List<Long> getWidgetIds() {
+        return widgetIds;
+    }
+
+    public List<Long> getWidgetViewIds() {
+        return widgetViewIds;
+    }
+}
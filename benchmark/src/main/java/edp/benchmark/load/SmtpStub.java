@@ -0,0 +1,169 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+
+package edp.benchmark.load;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内的 smtp 服务，接收并丢弃邮件，只统计连接数与邮件数
+ * <p>
+ * 不支持 starttls 与认证；delayMillis 大于 0 时在问候及每封邮件的 DATA 结束后等待，模拟较慢的邮件服务器
+ */
+public class SmtpStub implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+
+    private final long delayMillis;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "smtp-stub");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong connections = new AtomicLong();
+
+    private final AtomicLong messages = new AtomicLong();
+
+    private final AtomicLong recipients = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public SmtpStub(long delayMillis) throws IOException {
+        this.delayMillis = delayMillis;
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public JSONObject summary() {
+        JSONObject json = new JSONObject(true);
+        json.put("connections", connections.get());
+        json.put("messages", messages.get());
+        json.put("recipients", recipients.get());
+        json.put("bytes", bytes.get());
+        return json;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                executor.execute(() -> session(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("smtp stub accept error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void session(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+             Writer writer = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.ISO_8859_1)) {
+            pause();
+            reply(writer, "220 loadtest ESMTP");
+            String line;
+            while (null != (line = reader.readLine())) {
+                String command = line.length() < 4 ? line.toUpperCase(Locale.ROOT) : line.substring(0, 4).toUpperCase(Locale.ROOT);
+                switch (command) {
+                    case "EHLO":
+                        reply(writer, "250-loadtest\r\n250-8BITMIME\r\n250 SIZE 0");
+                        break;
+                    case "HELO":
+                    case "MAIL":
+                    case "RSET":
+                    case "NOOP":
+                        reply(writer, "250 OK");
+                        break;
+                    case "RCPT":
+                        recipients.incrementAndGet();
+                        reply(writer, "250 OK");
+                        break;
+                    case "DATA":
+                        reply(writer, "354 End data with <CR><LF>.<CR><LF>");
+                        long size = 0L;
+                        while (null != (line = reader.readLine()) && !".".equals(line)) {
+                            size += line.length() + 2;
+                        }
+                        bytes.addAndGet(size);
+                        messages.incrementAndGet();
+                        pause();
+                        reply(writer, "250 OK queued");
+                        break;
+                    case "QUIT":
+                        reply(writer, "221 Bye");
+                        return;
+                    default:
+                        reply(writer, "502 Command not implemented");
+                }
+            }
+        } catch (IOException e) {
+            // 客户端断开
+        }
+    }
+
+    private void pause() {
+        if (delayMillis <= 0L) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void reply(Writer writer, String reply) throws IOException {
+        writer.write(reply);
+        writer.write("\r\n");
+        writer.flush();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.utils;
+
+import edp.benchmark.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 结果集逐行转换为 Map（H2 内存库，12 列 10000 行）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class ResultMappingBenchmark {
+
+    private static final int ROWS = 10000;
+
+    private static final String QUERY = "SELECT o.order_id, o.order_date, o.region, o.city, o.channel, o.customer_name, "
+            + "o.category, o.product_name, o.quantity, o.amount, o.discount, o.remark FROM orders o";
+
+    private Connection connection;
+
+    private Statement statement;
+
+    private ResultSet resultSet;
+
+    private ResultSetMetaData metaData;
+
+    private Set<String> queryFromsAndJoins;
+
+    private SqlUtils sqlUtils;
+
+    private MethodHandle getResultObjectMap;
+
+    @Setup
+    public void setup() throws Throwable {
+        connection = DriverManager.getConnection("jdbc:h2:mem:result_mapping;DB_CLOSE_DELAY=-1", "sa", "");
+        Fixtures.createOrders(connection, ROWS);
+
+        statement = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        resultSet = statement.executeQuery(QUERY);
+        metaData = resultSet.getMetaData();
+        queryFromsAndJoins = SqlUtils.getQueryFromsAndJoins(QUERY);
+
+        sqlUtils = new SqlUtils();
+        Method method = SqlUtils.class.getDeclaredMethod("getResultObjectMap", Set.class, ResultSet.class, ResultSetMetaData.class, Set.class);
+        method.setAccessible(true);
+        getResultObjectMap = MethodHandles.lookup().unreflect(method);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        resultSet.close();
+        statement.close();
+        connection.close();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> getResultObjectMap() throws Throwable {
+        List<Map<String, Object>> resultList = new ArrayList<>(ROWS);
+        Set<String> excludeColumns = Collections.emptySet();
+        resultSet.beforeFirst();
+        while (resultSet.next()) {
+            resultList.add((Map<String, Object>) getResultObjectMap.invoke(sqlUtils, excludeColumns, resultSet, metaData, queryFromsAndJoins));
+        }
+        return resultList;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.utils;
+
+import edp.davinci.core.model.TokenEntity;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个请求都会经过的 jwt 签发与解析
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class TokenUtilsBenchmark {
+
+    private TokenUtils tokenUtils;
+
+    private TokenEntity tokenEntity;
+
+    private String token;
+
+    @Setup
+    public void setup() throws Exception {
+        tokenUtils = new TokenUtils();
+        set("TOKEN_SECRET", "benchmark-secret");
+        set("TIMEOUT", 1800000L);
+        set("ALGORITHM", "HS512");
+
+        tokenEntity = new TokenEntity();
+        tokenEntity.setUsername("benchmark");
+        tokenEntity.setPassword("$2a$10$benchmarkbenchmarkbenchmarkbenchmarkbenchmark");
+        token = tokenUtils.generateToken(tokenEntity);
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = TokenUtils.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(tokenUtils, value);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return tokenUtils.generateToken(tokenEntity);
+    }
+
+    @Benchmark
+    public String getUsername() {
+        return tokenUtils.getUsername(token);
+    }
+}
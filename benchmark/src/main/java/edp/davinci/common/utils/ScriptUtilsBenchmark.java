@@ -0,0 +1,148 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.common.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import edp.davinci.core.model.ExcelHeader;
+import edp.davinci.dto.viewDto.Param;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过 GraalVM JS 格式化单元格（getFormattedDataRows）及生成下载表格的表头（getFieldsHeader）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class ScriptUtilsBenchmark {
+
+    private static final String SPLITER = "@davinci@";
+
+    private String widgetConfig;
+
+    private List<Param> params;
+
+    @State(Scope.Benchmark)
+    public static class DataRows {
+
+        @org.openjdk.jmh.annotations.Param({"100", "1000"})
+        public int rows;
+
+        private List<Map<String, Object>> values;
+
+        @Setup
+        public void setup() {
+            Random random = new Random(42);
+            values = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("region", "region" + i % 7);
+                row.put("city", "city" + i % 97);
+                row.put("channel", "channel" + i % 3);
+                row.put("category", "category" + i % 11);
+                row.put("sum(amount)", random.nextDouble() * 10000000);
+                row.put("sum(quantity)", random.nextInt(100000));
+                row.put("avg(discount)", random.nextDouble());
+                values.add(row);
+            }
+        }
+    }
+
+    @Setup
+    public void setup() {
+        JSONArray cols = new JSONArray();
+        for (String name : new String[]{"region", "city", "channel", "category"}) {
+            cols.add(field(name, null));
+        }
+        JSONArray metrics = new JSONArray();
+        metrics.add(field("amount" + SPLITER + "1580000000000", "sum", numeric("\u4E07", 2)));
+        metrics.add(field("quantity" + SPLITER + "1580000000000", "sum", numeric("\u65E0", 0)));
+        metrics.add(field("discount" + SPLITER + "1580000000000", "avg", percentage(1)));
+
+        JSONObject table = new JSONObject();
+        table.put("headerConfig", new JSONArray());
+        table.put("withNoAggregators", false);
+        JSONObject chartStyles = new JSONObject();
+        chartStyles.put("table", table);
+
+        JSONObject config = new JSONObject();
+        config.put("cols", cols);
+        config.put("rows", new JSONArray());
+        config.put("metrics", metrics);
+        config.put("filters", new JSONArray());
+        config.put("chartStyles", chartStyles);
+        widgetConfig = JSON.toJSONString(config);
+
+        params = new ArrayList<>();
+    }
+
+    private static JSONObject field(String name, String agg) {
+        return field(name, agg, null);
+    }
+
+    private static JSONObject field(String name, String agg, JSONObject format) {
+        JSONObject field = new JSONObject();
+        field.put("name", name);
+        if (null != agg) {
+            field.put("agg", agg);
+        }
+        if (null != format) {
+            field.put("format", format);
+        }
+        return field;
+    }
+
+    private static JSONObject numeric(String unit, int decimalPlaces) {
+        JSONObject config = new JSONObject();
+        config.put("decimalPlaces", decimalPlaces);
+        config.put("unit", unit);
+        config.put("useThousandSeparator", true);
+        JSONObject format = new JSONObject();
+        format.put("formatType", "numeric");
+        format.put("numeric", config);
+        return format;
+    }
+
+    private static JSONObject percentage(int decimalPlaces) {
+        JSONObject config = new JSONObject();
+        config.put("decimalPlaces", decimalPlaces);
+        JSONObject format = new JSONObject();
+        format.put("formatType", "percentage");
+        format.put("percentage", config);
+        return format;
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> formatCellValue(DataRows dataRows) {
+        return ScriptUtils.formatCellValue(widgetConfig, dataRows.values);
+    }
+
+    @Benchmark
+    public List<ExcelHeader> formatHeader() {
+        return ScriptUtils.formatHeader(widgetConfig, params);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.core.model;
+
+import com.alibaba.fastjson.JSON;
+import edp.benchmark.Fixtures;
+import edp.core.model.BindVariables;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 过滤条件生成，分别测试内联字面量与绑定变量
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class SqlFilterBenchmark {
+
+    @Param({"false", "true"})
+    public boolean bindVariables;
+
+    private List<SqlFilter> filters;
+
+    @Setup
+    public void setup() {
+        filters = new ArrayList<>();
+        for (String str : Fixtures.filters()) {
+            filters.add(JSON.parseObject(str, SqlFilter.class));
+        }
+    }
+
+    @Benchmark
+    public List<String> dealFilter() {
+        BindVariables variables = bindVariables ? new BindVariables() : null;
+        List<String> whereClauses = new ArrayList<>(filters.size());
+        for (SqlFilter filter : filters) {
+            whereClauses.add(SqlFilter.dealFilter(filter, variables));
+        }
+        return whereClauses;
+    }
+}
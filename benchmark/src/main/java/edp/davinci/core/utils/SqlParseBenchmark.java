@@ -0,0 +1,106 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.core.utils;
+
+import edp.davinci.core.model.SqlEntity;
+import edp.davinci.model.SqlVariable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * view sql 变量解析与替换，20 个查询变量与 4 个权限变量
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class SqlParseBenchmark {
+
+    private static final String DELIMITER = "$";
+
+    private static final int QUERY_VARIABLES = 20;
+
+    private static final String[] AUTH_VARIABLES = {"auth_region", "auth_city", "auth_channel", "auth_org"};
+
+    private SqlParseUtils sqlParseUtils;
+
+    private String sql;
+
+    private List<SqlVariable> variables;
+
+    private SqlEntity sqlEntity;
+
+    @Setup
+    public void setup() {
+        sqlParseUtils = new SqlParseUtils();
+        variables = new ArrayList<>();
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("-- 订单明细\n");
+        builder.append("SELECT o.order_id, o.order_date, o.region, o.city, o.channel, c.customer_name, p.category, p.product_name,\n");
+        builder.append("       o.quantity, o.amount, o.discount, o.amount * (1 - o.discount) AS net_amount\n");
+        builder.append("FROM orders o\n");
+        builder.append("JOIN customers c ON c.customer_id = o.customer_id\n");
+        builder.append("JOIN products p ON p.product_id = o.product_id\n");
+        builder.append("WHERE 1 = 1\n");
+        for (int i = 0; i < QUERY_VARIABLES; i++) {
+            String name = "q" + i;
+            boolean number = i % 3 == 0;
+            builder.append("  AND o.col_").append(i).append(number ? " >= " : " = ").append(DELIMITER).append(name).append(DELIMITER).append('\n');
+            variables.add(variable(name, "query", number ? "number" : "string",
+                    number ? Collections.singletonList(i * 10) : Collections.singletonList("value_" + i)));
+        }
+        for (int i = 0; i < AUTH_VARIABLES.length; i++) {
+            String name = AUTH_VARIABLES[i];
+            builder.append("  AND o.").append(name.substring(5)).append(" IN (").append(DELIMITER).append(name).append(DELIMITER).append(")\n");
+            variables.add(variable(name, "auth", "string", Arrays.asList("a" + i, "b" + i, "c" + i)));
+        }
+        builder.append("/* 排序由 widget 决定 */");
+        sql = builder.toString();
+
+        sqlEntity = sqlParseUtils.parseSql(sql, variables, DELIMITER, null, true);
+    }
+
+    private static SqlVariable variable(String name, String type, String valueType, List<Object> defaultValues) {
+        SqlVariable variable = new SqlVariable();
+        variable.setName(name);
+        variable.setType(type);
+        variable.setValueType(valueType);
+        variable.setDefaultValues(defaultValues);
+        return variable;
+    }
+
+    @Benchmark
+    public SqlEntity parseSql() {
+        return sqlParseUtils.parseSql(sql, variables, DELIMITER, null, true);
+    }
+
+    @Benchmark
+    public String replaceParams() {
+        return sqlParseUtils.replaceParams(sqlEntity.getSql(), sqlEntity.getQuaryParams(), sqlEntity.getAuthParams(), DELIMITER);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.excel;
+
+import edp.benchmark.Fixtures;
+import edp.core.model.QueryColumn;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载 excel 时逐行写入 sheet 并输出，每次 100000 行
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@State(Scope.Benchmark)
+public class SheetWriterBenchmark {
+
+    private static final int ROWS = 100000;
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private List<QueryColumn> queryColumns;
+
+    private List<Map<String, Object>> dataList;
+
+    @Setup
+    public void setup() {
+        queryColumns = new ArrayList<>();
+        queryColumns.add(new QueryColumn("order_id", "BIGINT"));
+        queryColumns.add(new QueryColumn("order_date", "DATE"));
+        queryColumns.add(new QueryColumn("region", "VARCHAR"));
+        queryColumns.add(new QueryColumn("city", "VARCHAR"));
+        queryColumns.add(new QueryColumn("channel", "VARCHAR"));
+        queryColumns.add(new QueryColumn("customer_name", "VARCHAR"));
+        queryColumns.add(new QueryColumn("category", "VARCHAR"));
+        queryColumns.add(new QueryColumn("product_name", "VARCHAR"));
+        queryColumns.add(new QueryColumn("quantity", "INT"));
+        queryColumns.add(new QueryColumn("amount", "DECIMAL"));
+        queryColumns.add(new QueryColumn("discount", "DOUBLE"));
+        queryColumns.add(new QueryColumn("remark", "VARCHAR"));
+
+        Random random = new Random(Fixtures.SEED);
+        long day = 24L * 3600 * 1000;
+        long start = java.sql.Date.valueOf("2019-01-01").getTime();
+        dataList = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("order_id", (long) i);
+            row.put("order_date", new java.sql.Date(start + random.nextInt(365) * day));
+            row.put("region", Fixtures.REGIONS[random.nextInt(Fixtures.REGIONS.length)]);
+            row.put("city", "city_" + random.nextInt(300));
+            row.put("channel", Fixtures.CHANNELS[random.nextInt(Fixtures.CHANNELS.length)]);
+            row.put("customer_name", "customer_" + random.nextInt(5000));
+            row.put("category", "category_" + random.nextInt(20));
+            row.put("product_name", "product_" + random.nextInt(2000));
+            row.put("quantity", 1 + random.nextInt(50));
+            row.put("amount", BigDecimal.valueOf(random.nextInt(10000000), 2));
+            row.put("discount", random.nextInt(30) / 100.0);
+            row.put("remark", random.nextInt(10) == 0 ? null : "remark " + random.nextLong());
+            dataList.add(row);
+        }
+    }
+
+    @Benchmark
+    public int writeSheet() throws Exception {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(1000);
+        try {
+            SheetContext context = SheetContext.SheetContextBuilder.newBuilder()
+                    .withWorkbook(workbook)
+                    .withSheet(workbook.createSheet("Sheet0"))
+                    .withQueryColumns(new ArrayList<>(queryColumns))
+                    .withIsTable(false)
+                    .withContain(false)
+                    .build();
+            BenchmarkSheetWriter writer = new BenchmarkSheetWriter();
+            writer.init(context);
+            writer.writeHeader(context);
+            for (Map<String, Object> row : dataList) {
+                writer.writeLine(context, row);
+            }
+            workbook.write(DISCARD);
+            return context.getSheet().getLastRowNum();
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    private static final class BenchmarkSheetWriter extends AbstractSheetWriter {
+    }
+}
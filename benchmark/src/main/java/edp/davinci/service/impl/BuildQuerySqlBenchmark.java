@@ -0,0 +1,97 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.impl;
+
+import edp.benchmark.Fixtures;
+import edp.davinci.dto.viewDto.Aggregator;
+import edp.davinci.dto.viewDto.Order;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import edp.davinci.model.Source;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * widget 查询 sql 生成（分组、聚合、排序、过滤条件，ST 模板渲染）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class BuildQuerySqlBenchmark {
+
+    private static final String VIEW_SQL = "SELECT o.*, c.customer_name, p.category FROM orders o "
+            + "JOIN customers c ON c.customer_id = o.customer_id JOIN products p ON p.product_id = o.product_id";
+
+    private ViewServiceImpl viewService;
+
+    private Source source;
+
+    private ViewExecuteParam executeParam;
+
+    @Setup
+    public void setup() {
+        viewService = new ViewServiceImpl();
+
+        source = new Source();
+        source.setConfig(Fixtures.MYSQL_SOURCE_CONFIG);
+
+        executeParam = new ViewExecuteParam();
+        executeParam.setGroups(Arrays.asList("region", "channel", "category"));
+        List<Aggregator> aggregators = new ArrayList<>();
+        aggregators.add(aggregator("amount", "sum"));
+        aggregators.add(aggregator("quantity", "sum"));
+        aggregators.add(aggregator("discount", "avg"));
+        aggregators.add(aggregator("order_id", "count"));
+        executeParam.setAggregators(aggregators);
+        List<Order> orders = new ArrayList<>();
+        orders.add(order("sum(amount)", "DESC"));
+        orders.add(order("region", "ASC"));
+        executeParam.setOrders(orders);
+        executeParam.setFilters(Arrays.asList(Fixtures.filters()));
+    }
+
+    private static Aggregator aggregator(String column, String func) {
+        Aggregator aggregator = new Aggregator();
+        aggregator.setColumn(column);
+        aggregator.setFunc(func);
+        return aggregator;
+    }
+
+    private static Order order(String column, String direction) {
+        Order order = new Order();
+        order.setColumn(column);
+        order.setDirection(direction);
+        return order;
+    }
+
+    @Benchmark
+    public List<String> buildQuerySql() {
+        List<String> querySqlList = new ArrayList<>(Collections.singletonList(VIEW_SQL));
+        viewService.buildQuerySql(querySqlList, source, executeParam);
+        return querySqlList;
+    }
+}
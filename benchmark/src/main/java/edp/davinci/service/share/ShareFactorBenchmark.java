@@ -0,0 +1,63 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.share;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分享链接 token 的生成与解析（AES + 压缩），分享页每个请求都会解析一次
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class ShareFactorBenchmark {
+
+    private static final String SECRET = "benchmark-secret";
+
+    private ShareFactor shareFactor;
+
+    private String token;
+
+    @Setup
+    public void setup() {
+        shareFactor = ShareFactor.Builder.shareFactor()
+                .withMode(ShareMode.NORMAL)
+                .withType(ShareType.DASHBOARD)
+                .withEntityId(1024L)
+                .withSharerId(1L)
+                .build();
+        token = shareFactor.toShareResult(SECRET).getToken();
+    }
+
+    @Benchmark
+    public String toShareResult() {
+        return shareFactor.toShareResult(SECRET).getToken();
+    }
+
+    @Benchmark
+    public ShareFactor parseShareFactor() {
+        return ShareFactor.parseShareFactor(token, SECRET);
+    }
+}
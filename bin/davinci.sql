@@ -131,8 +131,16 @@ CREATE TABLE `download_record`
     `status`             smallint(1)  NOT NULL,
     `create_time`        datetime     NOT NULL,
     `last_download_time` datetime     DEFAULT NULL,
+    `job_key`            varchar(32)  DEFAULT NULL,
+    `task`               text,
+    `worker`             varchar(128) DEFAULT NULL,
+    `lease_expire_time`  datetime     DEFAULT NULL,
+    `attempts`           int(11)      NOT NULL DEFAULT 0,
+    `finish_time`        datetime     DEFAULT NULL,
     PRIMARY KEY (`id`) USING BTREE,
-    KEY `idx_user` (`user_id`) USING BTREE
+    KEY `idx_user` (`user_id`) USING BTREE,
+    KEY `idx_status_job` (`status`, `job_key`) USING BTREE,
+    KEY `idx_job` (`job_key`) USING BTREE
 ) ENGINE = InnoDB
   DEFAULT CHARSET = utf8mb4;
 
@@ -681,7 +689,15 @@ CREATE TABLE `share_download_record` (
   `status` smallint(1) NOT NULL,
   `create_time` datetime NOT NULL,
   `last_download_time` datetime DEFAULT NULL,
-  PRIMARY KEY (`id`) USING BTREE
+  `job_key` varchar(32) DEFAULT NULL,
+  `task` text,
+  `worker` varchar(128) DEFAULT NULL,
+  `lease_expire_time` datetime DEFAULT NULL,
+  `attempts` int(11) NOT NULL DEFAULT 0,
+  `finish_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`) USING BTREE,
+  KEY `idx_status_job` (`status`, `job_key`) USING BTREE,
+  KEY `idx_job` (`job_key`) USING BTREE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 
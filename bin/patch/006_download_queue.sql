@@ -0,0 +1,38 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ */
+
+ALTER TABLE `download_record`
+ADD COLUMN `job_key` varchar(32) NULL AFTER `last_download_time`,
+ADD COLUMN `task` text NULL AFTER `job_key`,
+ADD COLUMN `worker` varchar(128) NULL AFTER `task`,
+ADD COLUMN `lease_expire_time` datetime NULL AFTER `worker`,
+ADD COLUMN `attempts` int(11) NOT NULL DEFAULT 0 AFTER `lease_expire_time`,
+ADD COLUMN `finish_time` datetime NULL AFTER `attempts`,
+ADD INDEX `idx_status_job`(`status`, `job_key`) USING BTREE,
+ADD INDEX `idx_job`(`job_key`) USING BTREE;
+
+
+ALTER TABLE `share_download_record`
+ADD COLUMN `job_key` varchar(32) NULL AFTER `last_download_time`,
+ADD COLUMN `task` text NULL AFTER `job_key`,
+ADD COLUMN `worker` varchar(128) NULL AFTER `task`,
+ADD COLUMN `lease_expire_time` datetime NULL AFTER `worker`,
+ADD COLUMN `attempts` int(11) NOT NULL DEFAULT 0 AFTER `lease_expire_time`,
+ADD COLUMN `finish_time` datetime NULL AFTER `attempts`,
+ADD INDEX `idx_status_job`(`status`, `job_key`) USING BTREE,
+ADD INDEX `idx_job`(`job_key`) USING BTREE;
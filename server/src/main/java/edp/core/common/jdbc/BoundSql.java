@@ -0,0 +1,301 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+import edp.core.model.BindVariables;
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcNamedParameter;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.parser.TokenMgrError;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.Join;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.util.deparser.ExpressionDeParser;
+import net.sf.jsqlparser.util.deparser.SelectDeParser;
+import net.sf.jsqlparser.util.deparser.StatementDeParser;
+
+import java.util.*;
+
+/**
+ * 绑定变量展开后的 sql
+ * <p>
+ * 只有全部出现在 WHERE/HAVING/ON 条件中的占位符转为 ? 并按位置绑定，List 值展开为 ?, ?；
+ * LIMIT/TOP、标识符、select 列、GROUP BY/ORDER BY、引号内的占位符及无法解析的 sql 内联为字面量。
+ * 只识别 BindVariables 登记的占位符，用户 sql 中的 :name、:: 等原样保留
+ */
+public final class BoundSql {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final String sql;
+
+    private final Object[] args;
+
+    private BoundSql(String sql, Object[] args) {
+        this.sql = sql;
+        this.args = args;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public Object[] getArgs() {
+        return args;
+    }
+
+    public boolean hasArgs() {
+        return args.length > 0;
+    }
+
+    public static BoundSql of(String sql, BindVariables bindVariables) {
+        if (null == sql || null == bindVariables || bindVariables.isEmpty()) {
+            return new BoundSql(sql, NO_ARGS);
+        }
+
+        Map<String, Object> values = bindVariables.getValues();
+        List<Placeholder> placeholders = scan(sql, values.keySet());
+        if (placeholders.isEmpty()) {
+            return new BoundSql(sql, NO_ARGS);
+        }
+
+        Set<String> bindable = getBindable(sql, placeholders);
+        StringBuilder builder = new StringBuilder(sql.length());
+        List<Object> args = new ArrayList<>();
+        int last = 0;
+        for (Placeholder placeholder : placeholders) {
+            builder.append(sql, last, placeholder.start);
+            last = placeholder.end;
+            if (!bindable.contains(placeholder.name)) {
+                builder.append(bindVariables.getLiteral(placeholder.name));
+                continue;
+            }
+            Object value = values.get(placeholder.name);
+            if (value instanceof Collection) {
+                Collection<?> items = (Collection<?>) value;
+                for (int i = 0; i < items.size(); i++) {
+                    builder.append(i == 0 ? "?" : ", ?");
+                }
+                args.addAll(items);
+            } else {
+                builder.append("?");
+                args.add(value);
+            }
+        }
+        builder.append(sql, last, sql.length());
+        return new BoundSql(builder.toString(), args.isEmpty() ? NO_ARGS : args.toArray());
+    }
+
+    /**
+     * 可绑定的占位符：不在引号内，且每次出现都位于条件表达式中
+     */
+    private static Set<String> getBindable(String sql, List<Placeholder> placeholders) {
+        Map<String, Integer> predicateCounts;
+        try {
+            predicateCounts = countPredicateParameters(sql);
+        } catch (JSQLParserException | TokenMgrError e) {
+            // 无法解析时全部内联
+            return Collections.emptySet();
+        }
+
+        Map<String, Integer> counts = new HashMap<>();
+        Set<String> quoted = new HashSet<>();
+        for (Placeholder placeholder : placeholders) {
+            if (placeholder.quoted) {
+                quoted.add(placeholder.name);
+            } else {
+                counts.merge(placeholder.name, 1, Integer::sum);
+            }
+        }
+
+        Set<String> bindable = new HashSet<>();
+        counts.forEach((name, count) -> {
+            if (!quoted.contains(name) && count.equals(predicateCounts.get(name))) {
+                bindable.add(name);
+            }
+        });
+        return bindable;
+    }
+
+    private static Map<String, Integer> countPredicateParameters(String sql) throws JSQLParserException {
+        Statement statement = CCJSqlParserUtil.parse(sql);
+        StringBuilder buffer = new StringBuilder(sql.length());
+        PredicateParameterCounter counter = new PredicateParameterCounter();
+        SelectDeParser selectDeParser = new PredicateScopeDeParser(counter, buffer);
+        counter.setSelectVisitor(selectDeParser);
+        counter.setBuffer(buffer);
+        statement.accept(new StatementDeParser(counter, selectDeParser, buffer));
+        return counter.predicateCounts;
+    }
+
+    /**
+     * 查找已登记的占位符，跳过注释；引号内的占位符标记为 quoted
+     */
+    static List<Placeholder> scan(String sql, Set<String> names) {
+        List<Placeholder> placeholders = new ArrayList<>();
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                int end = closeQuote(sql, i, c);
+                findQuoted(sql, i + 1, end, names, placeholders);
+                i = end + 1;
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == ':' && i + 1 < length && sql.charAt(i + 1) == ':') {
+                i += 2;
+            } else if (c == ':') {
+                int end = nameEnd(sql, i + 1);
+                String name = sql.substring(i + 1, end);
+                if (names.contains(name)) {
+                    placeholders.add(new Placeholder(name, i, end, false));
+                }
+                i = Math.max(end, i + 1);
+            } else {
+                i++;
+            }
+        }
+        return placeholders;
+    }
+
+    private static int closeQuote(String sql, int start, char quote) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i;
+            }
+            i++;
+        }
+        return sql.length();
+    }
+
+    private static void findQuoted(String sql, int start, int end, Set<String> names, List<Placeholder> placeholders) {
+        int i = sql.indexOf(':', start);
+        while (i >= 0 && i < end) {
+            int nameEnd = Math.min(nameEnd(sql, i + 1), end);
+            String name = sql.substring(i + 1, nameEnd);
+            if (names.contains(name)) {
+                placeholders.add(new Placeholder(name, i, nameEnd, true));
+            }
+            i = sql.indexOf(':', i + 1);
+        }
+    }
+
+    private static int nameEnd(String sql, int start) {
+        int i = start;
+        while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) {
+            i++;
+        }
+        return i;
+    }
+
+    static final class Placeholder {
+        final String name;
+        final int start;
+        final int end;
+        final boolean quoted;
+
+        Placeholder(String name, int start, int end, boolean quoted) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.quoted = quoted;
+        }
+    }
+
+    /**
+     * 统计条件表达式中的命名参数
+     */
+    private static final class PredicateParameterCounter extends ExpressionDeParser {
+
+        private final Map<String, Integer> predicateCounts = new HashMap<>();
+
+        private boolean predicate = false;
+
+        @Override
+        public void visit(JdbcNamedParameter jdbcNamedParameter) {
+            super.visit(jdbcNamedParameter);
+            if (predicate) {
+                predicateCounts.merge(jdbcNamedParameter.getName(), 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * 先遍历 select 列、FROM、GROUP BY 等非条件部分，再单独遍历 WHERE/HAVING/ON；
+     * 条件中的子查询重新按此规则区分
+     */
+    private static final class PredicateScopeDeParser extends SelectDeParser {
+
+        private final PredicateParameterCounter counter;
+
+        PredicateScopeDeParser(PredicateParameterCounter counter, StringBuilder buffer) {
+            super(counter, buffer);
+            this.counter = counter;
+        }
+
+        @Override
+        public void visit(PlainSelect plainSelect) {
+            Expression where = plainSelect.getWhere();
+            Expression having = plainSelect.getHaving();
+            List<Join> joins = null == plainSelect.getJoins() ? Collections.emptyList() : plainSelect.getJoins();
+            List<Expression> ons = new ArrayList<>(joins.size());
+            for (Join join : joins) {
+                ons.add(join.getOnExpression());
+                join.setOnExpression(null);
+            }
+            plainSelect.setWhere(null);
+            plainSelect.setHaving(null);
+
+            boolean predicate = counter.predicate;
+            try {
+                counter.predicate = false;
+                super.visit(plainSelect);
+                counter.predicate = true;
+                accept(where);
+                accept(having);
+                ons.forEach(this::accept);
+            } finally {
+                plainSelect.setWhere(where);
+                plainSelect.setHaving(having);
+                for (int i = 0; i < joins.size(); i++) {
+                    joins.get(i).setOnExpression(ons.get(i));
+                }
+                counter.predicate = predicate;
+            }
+        }
+
+        private void accept(Expression expression) {
+            if (null != expression) {
+                expression.accept(counter);
+            }
+        }
+    }
+}
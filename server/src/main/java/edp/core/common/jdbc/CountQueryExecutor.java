@@ -0,0 +1,232 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.common.metrics.QueryMetrics;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 分页总数查询
+ * <p>
+ * count 与分页查询并发执行（独立连接，占用单独的执行名额），结果按 sql 缓存，过期时间跟随结果缓存
+ */
+@Slf4j
+@Component
+public class CountQueryExecutor {
+
+    @Value("${source.count.concurrency:8}")
+    private int concurrency;
+
+    @Value("${source.count.cache-expire-seconds:60}")
+    private long defaultExpireSeconds;
+
+    @Value("${source.count.cache-max-size:10000}")
+    private int cacheMaxSize;
+
+    @Autowired
+    private QueryMetrics queryMetrics;
+
+    @Autowired
+    private QueryLog queryLog;
+
+    private ThreadPoolExecutor executor;
+
+    private Cache<String, CountEntry> countCache;
+
+    @PostConstruct
+    public void init() {
+        int threads = Math.max(1, concurrency);
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(threads * 16),
+                new ThreadFactoryBuilder().setNameFormat("Query-count-%d").setDaemon(true).build(),
+                // 队列已满时在调用线程执行，退化为串行 count
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+
+        countCache = Caffeine.newBuilder()
+                .recordStats()
+                .maximumSize(cacheMaxSize)
+                .expireAfter(new Expiry<String, CountEntry>() {
+                    @Override
+                    public long expireAfterCreate(String key, CountEntry value, long currentTime) {
+                        return TimeUnit.SECONDS.toNanos(value.expireSeconds);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, CountEntry value, long currentTime, long currentDuration) {
+                        return TimeUnit.SECONDS.toNanos(value.expireSeconds);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, CountEntry value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交 count 查询，命中缓存时直接返回
+     *
+     * @param jdbcTemplate  需使用独立于分页查询的 JdbcTemplate
+     * @param countSql      绑定变量展开后的 count sql
+     * @param cacheKey
+     * @param expireSeconds 小于 1 时使用 source.count.cache-expire-seconds
+     * @param flush         忽略缓存重新计算
+     * @param origin        查询来源，用于查询记录，可为 null
+     * @param admission     count 独立连接的执行名额，count 结束或未执行即被取消时关闭
+     * @return
+     */
+    public Future<Long> submit(JdbcTemplate jdbcTemplate, BoundSql countSql, String cacheKey, long expireSeconds, boolean flush,
+                               QueryLog.Origin origin, WorkloadManager.Admission admission) {
+        if (!flush) {
+            CountEntry entry = getCached(cacheKey);
+            if (null != entry) {
+                admission.close();
+                return CompletableFuture.completedFuture(entry.count);
+            }
+        }
+
+        // count 在线程池中执行，指标标签取自提交线程
+        Tags tags = queryMetrics.currentTags();
+        CountTask task = new CountTask(() -> doCount(jdbcTemplate, countSql, cacheKey, expireSeconds, tags, origin), admission);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * 在调用线程执行 count，用于依赖会话状态、需与分页查询共用连接的场景
+     *
+     * @param jdbcTemplate
+     * @param countSql      绑定变量展开后的 count sql
+     * @param cacheKey
+     * @param expireSeconds 小于 1 时使用 source.count.cache-expire-seconds
+     * @param flush         忽略缓存重新计算
+     * @param origin        查询来源，用于查询记录，可为 null
+     * @return
+     */
+    public long count(JdbcTemplate jdbcTemplate, BoundSql countSql, String cacheKey, long expireSeconds, boolean flush, QueryLog.Origin origin) {
+        if (!flush) {
+            CountEntry entry = getCached(cacheKey);
+            if (null != entry) {
+                return entry.count;
+            }
+        }
+        return doCount(jdbcTemplate, countSql, cacheKey, expireSeconds, queryMetrics.currentTags(), origin);
+    }
+
+    private CountEntry getCached(String cacheKey) {
+        CountEntry entry = countCache.getIfPresent(cacheKey);
+        queryMetrics.recordCache(QueryMetrics.CACHE_COUNT, null != entry);
+        return entry;
+    }
+
+    private long doCount(JdbcTemplate jdbcTemplate, BoundSql countSql, String cacheKey, long expireSeconds, Tags tags, QueryLog.Origin origin) {
+        long start = System.nanoTime();
+        long expire = expireSeconds > 0 ? expireSeconds : defaultExpireSeconds;
+        List<Object> list;
+        try {
+            list = countSql.hasArgs() ? jdbcTemplate.queryForList(countSql.getSql(), countSql.getArgs(), Object.class)
+                    : jdbcTemplate.queryForList(countSql.getSql(), Object.class);
+        } catch (RuntimeException e) {
+            queryLog.record(QueryLog.Kind.COUNT, origin, countSql.getSql(), System.nanoTime() - start, 0L, 0L, true);
+            throw e;
+        }
+        queryLog.record(QueryLog.Kind.COUNT, origin, countSql.getSql(), System.nanoTime() - start, list.size(), 8L * list.size(), false);
+        long count = list.isEmpty() || null == list.get(0) ? 0L : Long.parseLong(String.valueOf(list.get(0)));
+        queryMetrics.record(QueryMetrics.Stage.COUNT, tags, System.nanoTime() - start);
+        if (expire > 0) {
+            countCache.put(cacheKey, new CountEntry(count, expire));
+        }
+        return count;
+    }
+
+    public Cache<String, ?> getCountCache() {
+        return countCache;
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * 执行结束后释放名额；执行中被取消时等查询返回后再释放，避免名额先于连接归还
+     */
+    private static final class CountTask extends FutureTask<Long> {
+
+        private final WorkloadManager.Admission admission;
+
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private CountTask(Callable<Long> callable, WorkloadManager.Admission admission) {
+            super(callable);
+            this.admission = admission;
+        }
+
+        @Override
+        public void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                super.run();
+            } finally {
+                admission.close();
+            }
+        }
+
+        @Override
+        protected void done() {
+            // 未开始执行即被取消，run 不会再执行查询
+            if (isCancelled() && started.compareAndSet(false, true)) {
+                admission.close();
+            }
+        }
+    }
+
+    private static final class CountEntry {
+        private final long count;
+        private final long expireSeconds;
+
+        private CountEntry(long count, long expireSeconds) {
+            this.count = count;
+            this.expireSeconds = expireSeconds;
+        }
+    }
+}
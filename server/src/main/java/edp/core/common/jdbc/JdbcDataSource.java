@@ -23,6 +23,7 @@ import static com.alibaba.druid.pool.DruidDataSourceFactory.*;
 import static edp.core.consts.Consts.JDBC_DATASOURCE_DEFAULT_VERSION;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
@@ -38,6 +39,7 @@ import com.alibaba.druid.pool.DruidDataSource;
 import com.alibaba.druid.pool.ElasticSearchDruidDataSourceFactory;
 import com.alibaba.druid.util.StringUtils;
 
+import edp.core.common.metrics.DataSourcePoolMetrics;
 import edp.core.consts.Consts;
 import edp.core.enums.DataTypeEnum;
 import edp.core.exception.SourceException;
@@ -142,6 +144,9 @@ public class JdbcDataSource {
 	@Autowired
 	private ESDataSource esDataSource;
 
+    @Autowired
+    private DataSourcePoolMetrics dataSourcePoolMetrics;
+
     @Value("${source.max-active:8}")
     @Getter
     protected int maxActive;
@@ -371,6 +376,7 @@ public class JdbcDataSource {
             }
 
             dataSourceMap.put(key, druidDataSource);
+            dataSourcePoolMetrics.register(key, jdbcSourceInfo.getSourceId(), jdbcSourceInfo.getSourceName());
 
         }finally {
             lock.unlock();
@@ -379,6 +385,15 @@ public class JdbcDataSource {
         return druidDataSource;
     }
     
+    /**
+     * 当前所有连接池
+     *
+     * @return
+     */
+    public static Map<String, DruidDataSource> getDataSources() {
+        return Collections.unmodifiableMap(dataSourceMap);
+    }
+
     private String getDataSourceKey (JdbcSourceInfo jdbcSourceInfo) {
         return SourceUtils.getKey(jdbcSourceInfo.getJdbcUrl(),
                 jdbcSourceInfo.getUsername(),
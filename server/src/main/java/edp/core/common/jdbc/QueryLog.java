@@ -0,0 +1,446 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+
+package edp.core.common.jdbc;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.common.metrics.QueryMetrics;
+import edp.core.exception.ServerException;
+import edp.core.utils.SqlUtils;
+import edp.davinci.core.enums.LogNameEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 查询记录与 sql 指纹统计
+ * <p>
+ * 查询线程只把记录写入定长环形缓冲区，后台线程每 source.query-log.aggregate-interval-seconds
+ * 计算指纹并按指纹汇总次数、耗时、行数与来源（view、widget、用户、数据源）；
+ * 汇总前被覆盖的记录计入 dropped。耗时不小于 slow-threshold-ms 的查询写入慢查询日志
+ */
+@Slf4j
+@Component
+public class QueryLog {
+
+    private static final Logger slowLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SLOW_SQL.getName());
+
+    public static final String ORDER_TOTAL = "total";
+
+    public static final String ORDER_P95 = "p95";
+
+    public static final String ORDER_COUNT = "count";
+
+    /**
+     * 每个指纹保留的来源（view、widget、用户、数据源）个数
+     */
+    private static final int MAX_ORIGINS = 20;
+
+    private static final int MAX_SAMPLE_LENGTH = 4000;
+
+    public enum Kind {
+        QUERY("query"),
+        PAGE("page"),
+        EACH("each"),
+        COUNT("count"),
+        EXECUTE("execute"),
+        EXPORT("export");
+
+        private final String name;
+
+        Kind(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    @Autowired
+    private QueryMetrics queryMetrics;
+
+    @Value("${source.query-log.enable:true}")
+    private boolean enable;
+
+    @Value("${source.query-log.buffer-size:8192}")
+    private int bufferSize;
+
+    @Value("${source.query-log.aggregate-interval-seconds:5}")
+    private long aggregateIntervalSeconds;
+
+    @Value("${source.query-log.max-fingerprints:2000}")
+    private int maxFingerprints;
+
+    @Value("${source.query-log.latency-samples:512}")
+    private int latencySamples;
+
+    @Value("${source.query-log.slow-threshold-ms:0}")
+    private long slowThresholdMillis;
+
+    private AtomicReferenceArray<Record> buffer;
+
+    private int mask;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private long drained = 0L;
+
+    private long dropped = 0L;
+
+    private long aggregated = 0L;
+
+    /**
+     * 按最近出现时间淘汰，仅在持有 this 锁时访问
+     */
+    private LinkedHashMap<String, Stats> stats;
+
+    private Cache<String, SqlFingerprint> fingerprints;
+
+    private ScheduledExecutorService aggregator;
+
+    @PostConstruct
+    public void init() {
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize) - 1) << 1;
+        buffer = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+        stats = new LinkedHashMap<String, Stats>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stats> eldest) {
+                return size() > Math.max(1, maxFingerprints);
+            }
+        };
+        // 同一 sql 只解析一次
+        fingerprints = Caffeine.newBuilder()
+                .maximumWeight(64L * 1024 * 1024)
+                .weigher((String sql, SqlFingerprint fingerprint) -> sql.length() + fingerprint.getSql().length())
+                .expireAfterAccess(1, TimeUnit.HOURS)
+                .build();
+        if (enable) {
+            aggregator = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("Query-log-%d").setDaemon(true).build());
+            long interval = Math.max(1L, aggregateIntervalSeconds);
+            aggregator.scheduleWithFixedDelay(this::aggregate, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (null != aggregator) {
+            aggregator.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enable;
+    }
+
+    /**
+     * 当前线程查询的来源，view id 取自 {@link QueryMetrics#scope(String, Long)}
+     *
+     * @param source       数据源标识
+     * @param runningQuery 可为 null
+     * @return
+     */
+    public Origin origin(String source, RunningQuery runningQuery) {
+        return new Origin(queryMetrics.currentViewId(), null, source, runningQuery);
+    }
+
+    /**
+     * 记录一次查询，只写入缓冲区
+     *
+     * @param kind
+     * @param origin
+     * @param sql
+     * @param nanos  执行与读取结果的总耗时
+     * @param rows
+     * @param bytes  结果集估算大小
+     * @param failed
+     */
+    public void record(Kind kind, Origin origin, String sql, long nanos, long rows, long bytes, boolean failed) {
+        if (!enable || null == sql) {
+            return;
+        }
+        long seq = sequence.getAndIncrement();
+        buffer.set((int) (seq & mask), new Record(seq, kind, origin, sql, nanos, rows, bytes, failed));
+    }
+
+    /**
+     * 结果值的估算字节数
+     *
+     * @param value
+     * @return
+     */
+    public static long sizeOf(Object value) {
+        if (null == value) {
+            return 0L;
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Date) {
+            return 8L;
+        }
+        return 16L;
+    }
+
+    /**
+     * 按总耗时、p95 或执行次数排序的前 N 个指纹
+     *
+     * @param orderBy total / p95 / count
+     * @param limit
+     * @return
+     */
+    public Map<String, Object> top(String orderBy, int limit) throws ServerException {
+        Comparator<Map<String, Object>> comparator;
+        if (null == orderBy || ORDER_TOTAL.equalsIgnoreCase(orderBy)) {
+            comparator = Comparator.comparing(m -> (Long) m.get("totalMillis"));
+        } else if (ORDER_P95.equalsIgnoreCase(orderBy)) {
+            comparator = Comparator.comparing(m -> (Long) m.get("p95Millis"));
+        } else if (ORDER_COUNT.equalsIgnoreCase(orderBy)) {
+            comparator = Comparator.comparing(m -> (Long) m.get("count"));
+        } else {
+            throw new ServerException("unknown order: " + orderBy);
+        }
+
+        List<Map<String, Object>> list = new ArrayList<>();
+        Map<String, Object> result = new LinkedHashMap<>();
+        synchronized (this) {
+            drain();
+            stats.values().forEach(s -> list.add(s.snapshot()));
+            result.put("recorded", sequence.get());
+            result.put("aggregated", aggregated);
+            result.put("dropped", dropped);
+            result.put("fingerprints", stats.size());
+        }
+        list.sort(comparator.reversed());
+        result.put("orderBy", null == orderBy ? ORDER_TOTAL : orderBy.toLowerCase());
+        result.put("top", list.subList(0, Math.min(Math.max(limit, 0), list.size())));
+        return result;
+    }
+
+    private void aggregate() {
+        try {
+            synchronized (this) {
+                drain();
+            }
+        } catch (Exception e) {
+            log.warn("aggregate query log error: {}", e.getMessage());
+        }
+    }
+
+    private void drain() {
+        long end = sequence.get();
+        int capacity = buffer.length();
+        if (end - drained > capacity) {
+            dropped += end - drained - capacity;
+            drained = end - capacity;
+        }
+        while (drained < end) {
+            Record record = buffer.get((int) (drained & mask));
+            if (null == record || record.seq < drained) {
+                // 序号已分配但记录尚未写入，下次再汇总
+                break;
+            }
+            if (record.seq > drained) {
+                dropped++;
+            } else {
+                add(record);
+            }
+            drained++;
+        }
+    }
+
+    private void add(Record record) {
+        SqlFingerprint fingerprint = fingerprints.get(record.sql, SqlFingerprint::of);
+        stats.computeIfAbsent(fingerprint.getId(), id -> new Stats(fingerprint, Math.max(1, latencySamples))).add(record);
+        aggregated++;
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(record.nanos);
+        if (slowThresholdMillis > 0 && millis >= slowThresholdMillis) {
+            Origin origin = record.origin;
+            slowLogger.info("{} {} for({} ms) at {}, rows: {}, bytes: {}, failed: {}, view: {}, widget: {}, user: {}, source: {}, sql:{}",
+                    fingerprint.getId(), record.kind.getName(), millis, new Date(record.timestamp), record.rows, record.bytes, record.failed,
+                    origin.viewId, origin.widgetId, origin.username, origin.source, SqlUtils.formatSql(record.sql));
+        }
+    }
+
+    /**
+     * 查询来源
+     */
+    public static final class Origin {
+
+        private final Long viewId;
+
+        private final Long widgetId;
+
+        private final String source;
+
+        private final Long userId;
+
+        private final String username;
+
+        /**
+         * 客户端查询标识，交互查询中通常对应 widget
+         */
+        private final String queryKey;
+
+        public Origin(Long viewId, Long widgetId, String source, RunningQuery runningQuery) {
+            this.viewId = viewId;
+            this.widgetId = widgetId;
+            this.source = source;
+            this.userId = null == runningQuery ? null : runningQuery.getUserId();
+            this.username = null == runningQuery ? null : runningQuery.getUsername();
+            this.queryKey = null == runningQuery ? null : runningQuery.getQueryKey();
+        }
+    }
+
+    private static final class Record {
+        private final long seq;
+        private final Kind kind;
+        private final Origin origin;
+        private final String sql;
+        private final long nanos;
+        private final long rows;
+        private final long bytes;
+        private final boolean failed;
+        private final long timestamp = System.currentTimeMillis();
+
+        private Record(long seq, Kind kind, Origin origin, String sql, long nanos, long rows, long bytes, boolean failed) {
+            this.seq = seq;
+            this.kind = kind;
+            this.origin = null == origin ? new Origin(null, null, null, null) : origin;
+            this.sql = sql;
+            this.nanos = nanos;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.failed = failed;
+        }
+    }
+
+    private static final class Stats {
+        private final SqlFingerprint fingerprint;
+        private final Set<String> kinds = new TreeSet<>();
+        private String sample;
+        private long count;
+        private long errors;
+        private long totalNanos;
+        private long maxNanos;
+        private long rows;
+        private long bytes;
+        private long firstSeen;
+        private long lastSeen;
+        /**
+         * 最近 N 次耗时，用于计算 p95
+         */
+        private final long[] latencies;
+        private final Map<Long, Long> views = new HashMap<>();
+        private final Map<String, Long> widgets = new HashMap<>();
+        private final Map<String, Long> users = new HashMap<>();
+        private final Map<String, Long> sources = new HashMap<>();
+
+        private Stats(SqlFingerprint fingerprint, int samples) {
+            this.fingerprint = fingerprint;
+            this.latencies = new long[samples];
+        }
+
+        private void add(Record record) {
+            latencies[(int) (count % latencies.length)] = record.nanos;
+            count++;
+            if (record.failed) {
+                errors++;
+            }
+            totalNanos += record.nanos;
+            maxNanos = Math.max(maxNanos, record.nanos);
+            rows += record.rows;
+            bytes += record.bytes;
+            if (0 == firstSeen) {
+                firstSeen = record.timestamp;
+            }
+            lastSeen = record.timestamp;
+            if (record.nanos >= maxNanos || null == sample) {
+                sample = record.sql.length() > MAX_SAMPLE_LENGTH ? record.sql.substring(0, MAX_SAMPLE_LENGTH) : record.sql;
+            }
+            kinds.add(record.kind.getName());
+
+            Origin origin = record.origin;
+            increase(views, origin.viewId);
+            if (null != origin.widgetId) {
+                increase(widgets, String.valueOf(origin.widgetId));
+            } else {
+                increase(widgets, origin.queryKey);
+            }
+            increase(users, null == origin.username ? null : origin.username + "(" + origin.userId + ")");
+            increase(sources, origin.source);
+        }
+
+        private static <K> void increase(Map<K, Long> map, K key) {
+            if (null == key || (map.size() >= MAX_ORIGINS && !map.containsKey(key))) {
+                return;
+            }
+            map.merge(key, 1L, Long::sum);
+        }
+
+        private Map<String, Object> snapshot() {
+            int size = (int) Math.min(count, latencies.length);
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            long p95 = size == 0 ? 0L : sorted[Math.min(size - 1, (int) Math.ceil(size * 0.95) - 1)];
+
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("fingerprint", fingerprint.getId());
+            map.put("sql", fingerprint.getSql());
+            map.put("sample", sample);
+            map.put("kinds", new ArrayList<>(kinds));
+            map.put("count", count);
+            map.put("errors", errors);
+            map.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(totalNanos));
+            map.put("avgMillis", count == 0 ? 0L : TimeUnit.NANOSECONDS.toMillis(totalNanos / count));
+            map.put("p95Millis", TimeUnit.NANOSECONDS.toMillis(p95));
+            map.put("maxMillis", TimeUnit.NANOSECONDS.toMillis(maxNanos));
+            map.put("rows", rows);
+            map.put("bytes", bytes);
+            map.put("firstSeen", new Date(firstSeen));
+            map.put("lastSeen", new Date(lastSeen));
+            map.put("views", new HashMap<>(views));
+            map.put("widgets", new HashMap<>(widgets));
+            map.put("users", new HashMap<>(users));
+            map.put("sources", new HashMap<>(sources));
+            return map;
+        }
+    }
+}
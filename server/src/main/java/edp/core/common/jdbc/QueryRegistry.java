@@ -0,0 +1,144 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+import com.alibaba.druid.util.StringUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 查询注册表
+ * <p>
+ * 记录所有正在执行的查询，同一用户同一 queryKey 的新查询会取消旧查询；
+ * 客户端放弃请求（页面跳转、组件卸载）时可按 queryKey 主动取消，管理员可查看并终止任意查询
+ */
+@Slf4j
+@Component
+public class QueryRegistry {
+
+    public static final String REASON_SUPERSEDED = "superseded";
+
+    public static final String REASON_ABORTED = "aborted by client";
+
+    public static final String REASON_KILLED = "killed by ";
+
+    @Value("${source.query-max-timeout-seconds:3600}")
+    private int maxTimeoutSeconds;
+
+    @Value("${source.query-admins:}")
+    private String queryAdmins;
+
+    private final Map<String, RunningQuery> runningQueries = new ConcurrentHashMap<>();
+
+    private final Map<String, RunningQuery> keyedQueries = new ConcurrentHashMap<>();
+
+    /**
+     * 登记查询
+     *
+     * @param userId
+     * @param username
+     * @param queryKey       为空时不参与覆盖取消
+     * @param timeoutSeconds 请求指定超时，不超过 source.query-max-timeout-seconds
+     * @return
+     */
+    public RunningQuery register(Long userId, String username, String queryKey, Integer timeoutSeconds) {
+        int timeout = null == timeoutSeconds || timeoutSeconds < 1 ? 0 : timeoutSeconds;
+        if (maxTimeoutSeconds > 0 && timeout > maxTimeoutSeconds) {
+            timeout = maxTimeoutSeconds;
+        }
+
+        String id = UUID.randomUUID().toString().replace("-", "");
+        RunningQuery query = new RunningQuery(id, userId, username, queryKey, timeout);
+        runningQueries.put(id, query);
+
+        if (!StringUtils.isEmpty(queryKey)) {
+            RunningQuery previous = keyedQueries.put(getKey(userId, queryKey), query);
+            if (null != previous && previous.cancel(REASON_SUPERSEDED)) {
+                log.info("query({}) of user({}) key({}) superseded by query({})", previous.getId(), userId, queryKey, id);
+            }
+        }
+        return query;
+    }
+
+    public void complete(RunningQuery query) {
+        if (null == query) {
+            return;
+        }
+        runningQueries.remove(query.getId());
+        if (!StringUtils.isEmpty(query.getQueryKey())) {
+            keyedQueries.remove(getKey(query.getUserId(), query.getQueryKey()), query);
+        }
+    }
+
+    /**
+     * 客户端放弃请求时取消对应查询
+     *
+     * @param userId
+     * @param queryKey
+     * @return
+     */
+    public boolean abort(Long userId, String queryKey) {
+        if (StringUtils.isEmpty(queryKey)) {
+            return false;
+        }
+        RunningQuery query = keyedQueries.get(getKey(userId, queryKey));
+        return null != query && query.cancel(REASON_ABORTED);
+    }
+
+    public boolean kill(String id, String operator) {
+        RunningQuery query = runningQueries.get(id);
+        if (null == query) {
+            return false;
+        }
+        log.info("query({}) of user({}) is killed by {}", id, query.getUserId(), operator);
+        return query.cancel(REASON_KILLED + operator);
+    }
+
+    public RunningQuery get(String id) {
+        return runningQueries.get(id);
+    }
+
+    public List<RunningQuery> list(Long userId) {
+        return runningQueries.values().stream()
+                .filter(q -> null == userId || userId.equals(q.getUserId()))
+                .sorted(Comparator.comparingLong(RunningQuery::getStartTime))
+                .collect(Collectors.toList());
+    }
+
+    public int size() {
+        return runningQueries.size();
+    }
+
+    public boolean isAdmin(String username) {
+        if (StringUtils.isEmpty(queryAdmins) || StringUtils.isEmpty(username)) {
+            return false;
+        }
+        return Arrays.stream(queryAdmins.split(",")).map(String::trim).anyMatch(username::equals);
+    }
+
+    private String getKey(Long userId, String queryKey) {
+        return userId + ":" + queryKey;
+    }
+}
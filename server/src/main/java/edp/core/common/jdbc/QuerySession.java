@@ -0,0 +1,190 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+import com.alibaba.druid.pool.DruidPooledConnection;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.SourceUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 查询会话
+ * <p>
+ * view 的前置语句（set、临时表等）与查询固定在同一连接上执行，前置语句合并为一次批量提交；
+ * 前置语句均为会话设置时按物理连接记录已执行的语句，连接复用时跳过重复初始化
+ */
+@Slf4j
+public class QuerySession implements AutoCloseable {
+
+    private static final Pattern PATTERN_SESSION_SETTING = Pattern.compile("^\\s*(set|use|alter\\s+session)\\s+", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern PATTERN_QUERY = Pattern.compile("^\\s*\\(?\\s*(select|with)\\s+", Pattern.CASE_INSENSITIVE);
+
+    private static final String STATEMENT_DELIMITER = ";\n";
+
+    /**
+     * 物理连接 -> 已执行的会话设置，weakKeys 按引用比较，连接销毁后自动回收
+     */
+    private static final Cache<Connection, String> INITIALIZED_CONNECTIONS = Caffeine.newBuilder()
+            .weakKeys()
+            .maximumSize(10000)
+            .recordStats()
+            .build();
+
+    private final Connection connection;
+
+    private final Connection physicalConnection;
+
+    private final SingleConnectionDataSource dataSource;
+
+    private final boolean initCacheEnable;
+
+    private volatile boolean closed = false;
+
+    public QuerySession(Connection connection, boolean initCacheEnable) {
+        this.connection = connection;
+        this.physicalConnection = getPhysicalConnection(connection);
+        // 连接由会话关闭时归还连接池
+        this.dataSource = new SingleConnectionDataSource(connection, true);
+        this.initCacheEnable = initCacheEnable;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * 执行前置语句
+     *
+     * @param statements   已过滤注释并通过敏感语句检查
+     * @param timeout      超时时间（秒），小于 1 时不限制
+     * @param runningQuery 可为空
+     * @return 命中初始化缓存未实际执行时返回 false
+     * @throws SQLException
+     */
+    public boolean prepare(List<String> statements, int timeout, RunningQuery runningQuery) throws SQLException {
+        if (CollectionUtils.isEmpty(statements)) {
+            return false;
+        }
+
+        String signature = initCacheEnable && isSessionSettings(statements) ? String.join(STATEMENT_DELIMITER, statements) : null;
+        if (null != signature && signature.equals(INITIALIZED_CONNECTIONS.getIfPresent(physicalConnection))) {
+            log.debug("session already initialized, skip {} statements", statements.size());
+            return false;
+        }
+
+        // 执行失败时会话状态未知，先清除记录
+        INITIALIZED_CONNECTIONS.invalidate(physicalConnection);
+        try (Statement statement = connection.createStatement()) {
+            if (timeout > 0) {
+                statement.setQueryTimeout(timeout);
+            }
+            if (null != runningQuery) {
+                runningQuery.attach(statement);
+            }
+            if (statements.size() < 2 || !executeBatch(statement, statements)) {
+                for (String sql : statements) {
+                    statement.execute(sql);
+                }
+            }
+        }
+
+        if (null != signature) {
+            INITIALIZED_CONNECTIONS.put(physicalConnection, signature);
+        }
+        return true;
+    }
+
+    private boolean executeBatch(Statement statement, List<String> statements) throws SQLException {
+        // 返回结果集的语句不能批量执行
+        for (String sql : statements) {
+            if (PATTERN_QUERY.matcher(sql).find()) {
+                return false;
+            }
+        }
+        if (!supportsBatchUpdates()) {
+            return false;
+        }
+        try {
+            for (String sql : statements) {
+                statement.addBatch(sql);
+            }
+        } catch (SQLFeatureNotSupportedException e) {
+            return false;
+        }
+        statement.executeBatch();
+        return true;
+    }
+
+    private boolean supportsBatchUpdates() {
+        try {
+            return connection.getMetaData().supportsBatchUpdates();
+        } catch (SQLException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static boolean isSessionSettings(List<String> statements) {
+        for (String sql : statements) {
+            if (null == sql || !PATTERN_SESSION_SETTING.matcher(sql).find()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Connection getPhysicalConnection(Connection connection) {
+        if (connection instanceof DruidPooledConnection) {
+            Connection physical = ((DruidPooledConnection) connection).getConnection();
+            if (null != physical) {
+                return physical;
+            }
+        }
+        return connection;
+    }
+
+    public static Cache<Connection, String> getInitializedConnections() {
+        return INITIALIZED_CONNECTIONS;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        SourceUtils.releaseConnection(connection);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 正在执行的查询，记录当前 Statement 以便超时/取消
+ */
+@Slf4j
+@Getter
+public class RunningQuery {
+
+    private final String id;
+
+    private final Long userId;
+
+    private final String username;
+
+    /**
+     * 客户端查询标识（如 widget / dashboard item），同一用户同一标识的新查询会取消旧查询
+     */
+    private final String queryKey;
+
+    /**
+     * 请求指定的超时时间（秒），0 表示使用 source 配置
+     */
+    private final int timeoutSeconds;
+
+    private final long startTime;
+
+    private volatile String sql;
+
+    private volatile String cancelReason;
+
+    /**
+     * 同一查询可能并发执行多个 Statement（如分页与 count）
+     */
+    @Getter(AccessLevel.NONE)
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean cancelled = false;
+
+    RunningQuery(String id, Long userId, String username, String queryKey, int timeoutSeconds) {
+        this.id = id;
+        this.userId = userId;
+        this.username = username;
+        this.queryKey = queryKey;
+        this.timeoutSeconds = timeoutSeconds;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    public void setSql(String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * 绑定即将执行的 Statement，已取消的查询不再执行
+     *
+     * @param statement
+     * @throws SQLException
+     */
+    void attach(Statement statement) throws SQLException {
+        checkCancelled();
+        statements.add(statement);
+        // 绑定与取消并发时再检查一次，避免漏掉 cancel
+        checkCancelled();
+    }
+
+    public void checkCancelled() throws SQLException {
+        if (cancelled) {
+            throw new SQLException("query(" + id + ") is cancelled: " + cancelReason);
+        }
+    }
+
+    /**
+     * 取消查询，正在执行的 Statement 由驱动中断
+     *
+     * @param reason
+     * @return
+     */
+    public boolean cancel(String reason) {
+        if (cancelled) {
+            return false;
+        }
+        this.cancelReason = reason;
+        this.cancelled = true;
+        for (Statement statement : statements) {
+            try {
+                statement.cancel();
+            } catch (SQLException | RuntimeException e) {
+                // Statement 可能已关闭
+                log.debug("cancel query({}) error: {}", id, e.getMessage());
+            }
+        }
+        return true;
+    }
+}
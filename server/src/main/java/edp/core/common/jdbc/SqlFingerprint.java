@@ -0,0 +1,173 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+
+package edp.core.common.jdbc;
+
+import edp.core.utils.MD5Util;
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.*;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.parser.TokenMgrError;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.util.deparser.ExpressionDeParser;
+import net.sf.jsqlparser.util.deparser.SelectDeParser;
+import net.sf.jsqlparser.util.deparser.StatementDeParser;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * sql 指纹
+ * <p>
+ * 去掉字面量（字符串、数字、日期、命名参数替换为 ?，全为字面量的 IN 列表合并为 (?)）后的 sql，
+ * 过滤条件取值不同的同一查询得到相同指纹；无法解析的 sql 按正则去除字面量
+ */
+public final class SqlFingerprint {
+
+    private static final String PLACEHOLDER = "?";
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+
+    private static final Pattern NAMED_PARAMETER = Pattern.compile("(?<![:\\w]):\\w+");
+
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?:[eE][-+]?\\d+)?(?![\\w.])");
+
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final String id;
+
+    private final String sql;
+
+    private SqlFingerprint(String sql) {
+        this.sql = sql;
+        this.id = MD5Util.getMD5(sql, true, 16);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public static SqlFingerprint of(String sql) {
+        if (null == sql) {
+            return new SqlFingerprint("");
+        }
+        String normalized;
+        try {
+            normalized = parse(sql);
+        } catch (JSQLParserException | TokenMgrError e) {
+            // 方言语法或模板片段 JSqlParser 无法解析
+            normalized = strip(sql);
+        }
+        return new SqlFingerprint(WHITESPACE.matcher(normalized).replaceAll(" ").trim());
+    }
+
+    private static String parse(String sql) throws JSQLParserException {
+        Statement statement = CCJSqlParserUtil.parse(sql);
+        StringBuilder buffer = new StringBuilder(sql.length());
+        LiteralMaskingDeParser expressionDeParser = new LiteralMaskingDeParser();
+        SelectDeParser selectDeParser = new SelectDeParser(expressionDeParser, buffer);
+        expressionDeParser.setSelectVisitor(selectDeParser);
+        expressionDeParser.setBuffer(buffer);
+        statement.accept(new StatementDeParser(expressionDeParser, selectDeParser, buffer));
+        return buffer.toString();
+    }
+
+    static String strip(String sql) {
+        String stripped = STRING_LITERAL.matcher(sql).replaceAll(PLACEHOLDER);
+        stripped = NAMED_PARAMETER.matcher(stripped).replaceAll(PLACEHOLDER);
+        stripped = NUMBER_LITERAL.matcher(stripped).replaceAll(PLACEHOLDER);
+        return PLACEHOLDER_LIST.matcher(stripped).replaceAll("(?)");
+    }
+
+    private static boolean isLiteral(Expression expression) {
+        if (expression instanceof SignedExpression) {
+            return isLiteral(((SignedExpression) expression).getExpression());
+        }
+        return expression instanceof StringValue
+                || expression instanceof LongValue
+                || expression instanceof DoubleValue
+                || expression instanceof DateValue
+                || expression instanceof TimeValue
+                || expression instanceof TimestampValue
+                || expression instanceof HexValue
+                || expression instanceof JdbcParameter
+                || expression instanceof JdbcNamedParameter;
+    }
+
+    private static final class LiteralMaskingDeParser extends ExpressionDeParser {
+
+        @Override
+        public void visit(StringValue stringValue) {
+            getBuffer().append(PLACEHOLDER);
+        }
+
+        @Override
+        public void visit(LongValue longValue) {
+            getBuffer().append(PLACEHOLDER);
+        }
+
+        @Override
+        public void visit(DoubleValue doubleValue) {
+            getBuffer().append(PLACEHOLDER);
+        }
+
+        @Override
+        public void visit(DateValue dateValue) {
+            getBuffer().append(PLACEHOLDER);
+        }
+
+        @Override
+        public void visit(TimeValue timeValue) {
+            getBuffer().append(PLACEHOLDER);
+        }
+
+        @Override
+        public void visit(TimestampValue timestampValue) {
+            getBuffer().append(PLACEHOLDER);
+        }
+
+        @Override
+        public void visit(HexValue hexValue) {
+            getBuffer().append(PLACEHOLDER);
+        }
+
+        @Override
+        public void visit(JdbcNamedParameter jdbcNamedParameter) {
+            getBuffer().append(PLACEHOLDER);
+        }
+
+        @Override
+        public void visit(ExpressionList expressionList) {
+            List<Expression> expressions = expressionList.getExpressions();
+            if (null != expressions && expressions.size() > 1 && expressions.stream().allMatch(SqlFingerprint::isLiteral)) {
+                getBuffer().append("(").append(PLACEHOLDER).append(")");
+                return;
+            }
+            super.visit(expressionList);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+/**
+ * 查询负载类别，按优先级从高到低排列
+ */
+public enum WorkloadClass {
+
+    /**
+     * dashboard / display 中的 widget 查询与控件取值
+     */
+    INTERACTIVE,
+
+    /**
+     * sql 编辑器中执行的查询
+     */
+    ADHOC,
+
+    /**
+     * 下载 excel
+     */
+    EXPORT,
+
+    /**
+     * 定时任务：邮件附件、extract 刷新
+     */
+    SCHEDULED;
+
+    public String getName() {
+        return name().toLowerCase();
+    }
+}
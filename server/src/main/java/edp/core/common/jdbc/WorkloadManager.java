@@ -0,0 +1,408 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+import edp.core.exception.ServerException;
+import edp.core.exception.ServiceUnavailableException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按数据源的查询准入控制
+ * <p>
+ * 每个数据源限制同时执行的查询总数（source.workload.max-concurrency）及各负载类别的并发数；
+ * 名额释放时按类别优先级（交互 &gt; sql 编辑器 &gt; 下载 &gt; 定时任务）唤醒等待的请求，同类别先到先得；
+ * 等待超过该类别的 max-wait-ms 时拒绝，由客户端稍后重试
+ */
+@Slf4j
+@Component
+public class WorkloadManager {
+
+    private static final WorkloadClass[] CLASSES = WorkloadClass.values();
+
+    /**
+     * 等待期间检查查询是否已被取消的间隔
+     */
+    private static final long CANCEL_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Value("${source.workload.enable:false}")
+    private boolean enable;
+
+    @Value("${source.workload.max-concurrency:8}")
+    private int maxConcurrency;
+
+    @Value("${source.workload.retry-after-seconds:5}")
+    private int retryAfterSeconds;
+
+    @Value("${source.workload.interactive.max-concurrency:8}")
+    private int interactiveConcurrency;
+
+    @Value("${source.workload.interactive.max-wait-ms:10000}")
+    private long interactiveMaxWait;
+
+    @Value("${source.workload.adhoc.max-concurrency:4}")
+    private int adhocConcurrency;
+
+    @Value("${source.workload.adhoc.max-wait-ms:30000}")
+    private long adhocMaxWait;
+
+    @Value("${source.workload.export.max-concurrency:2}")
+    private int exportConcurrency;
+
+    @Value("${source.workload.export.max-wait-ms:300000}")
+    private long exportMaxWait;
+
+    @Value("${source.workload.scheduled.max-concurrency:2}")
+    private int scheduledConcurrency;
+
+    @Value("${source.workload.scheduled.max-wait-ms:600000}")
+    private long scheduledMaxWait;
+
+    private int[] quotas;
+
+    private long[] maxWaits;
+
+    private final Map<String, SourceGate> gates = new ConcurrentHashMap<>();
+
+    private final Map<WorkloadClass, ClassStats> stats = new EnumMap<>(WorkloadClass.class);
+
+    @PostConstruct
+    public void init() {
+        quotas = new int[]{interactiveConcurrency, adhocConcurrency, exportConcurrency, scheduledConcurrency};
+        maxWaits = new long[]{interactiveMaxWait, adhocMaxWait, exportMaxWait, scheduledMaxWait};
+        for (WorkloadClass workloadClass : CLASSES) {
+            stats.put(workloadClass, new ClassStats(workloadClass));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enable;
+    }
+
+    /**
+     * 申请执行名额，返回的 Admission 必须关闭
+     *
+     * @param sourceKey     数据源标识
+     * @param workloadClass
+     * @param runningQuery  等待期间被取消时放弃，可为 null
+     * @return
+     * @throws ServiceUnavailableException 等待超时
+     */
+    public Admission admit(String sourceKey, WorkloadClass workloadClass, RunningQuery runningQuery) throws ServiceUnavailableException {
+        if (!enable) {
+            return Admission.NONE;
+        }
+        SourceGate gate = gates.computeIfAbsent(sourceKey, SourceGate::new);
+        return gate.admit(null == workloadClass ? WorkloadClass.INTERACTIVE : workloadClass, runningQuery);
+    }
+
+    /**
+     * 不等待地申请执行名额：有空闲名额且没有同级或更高优先级的等待者时返回 Admission，否则返回 null
+     *
+     * @param sourceKey     数据源标识
+     * @param workloadClass
+     * @return
+     */
+    public Admission tryAdmit(String sourceKey, WorkloadClass workloadClass) {
+        if (!enable) {
+            return Admission.NONE;
+        }
+        SourceGate gate = gates.computeIfAbsent(sourceKey, SourceGate::new);
+        return gate.tryAdmit(null == workloadClass ? WorkloadClass.INTERACTIVE : workloadClass);
+    }
+
+    /**
+     * 各负载类别的排队数、执行数、准入/拒绝次数与等待时间
+     *
+     * @return
+     */
+    public Collection<ClassStats> getStats() {
+        return stats.values();
+    }
+
+    /**
+     * 各数据源当前的排队与执行数
+     *
+     * @return
+     */
+    public List<Map<String, Object>> getSourceStats() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        gates.values().forEach(gate -> list.add(gate.snapshot()));
+        return list;
+    }
+
+    public static class Admission implements AutoCloseable {
+
+        public static final Admission NONE = new Admission(null, null);
+
+        private final SourceGate gate;
+
+        private final WorkloadClass workloadClass;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Admission(SourceGate gate, WorkloadClass workloadClass) {
+            this.gate = gate;
+            this.workloadClass = workloadClass;
+        }
+
+        @Override
+        public void close() {
+            // 可能由不同线程重复关闭，只释放一次
+            if (null == gate || !closed.compareAndSet(false, true)) {
+                return;
+            }
+            gate.release(workloadClass);
+        }
+    }
+
+    public static class ClassStats {
+
+        private final WorkloadClass workloadClass;
+
+        private final AtomicLong waiting = new AtomicLong();
+
+        private final AtomicLong running = new AtomicLong();
+
+        private final AtomicLong admitted = new AtomicLong();
+
+        private final AtomicLong rejected = new AtomicLong();
+
+        private final AtomicLong totalWaitMillis = new AtomicLong();
+
+        private final AtomicLong maxWaitMillis = new AtomicLong();
+
+        private ClassStats(WorkloadClass workloadClass) {
+            this.workloadClass = workloadClass;
+        }
+
+        public WorkloadClass getWorkloadClass() {
+            return workloadClass;
+        }
+
+        public long getWaiting() {
+            return waiting.get();
+        }
+
+        public long getRunning() {
+            return running.get();
+        }
+
+        public long getAdmitted() {
+            return admitted.get();
+        }
+
+        public long getRejected() {
+            return rejected.get();
+        }
+
+        public long getTotalWaitMillis() {
+            return totalWaitMillis.get();
+        }
+
+        public long getMaxWaitMillis() {
+            return maxWaitMillis.get();
+        }
+
+        private void recordWait(long waitMillis) {
+            totalWaitMillis.addAndGet(waitMillis);
+            maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+        }
+    }
+
+    private static final class Waiter {
+
+        private final WorkloadClass workloadClass;
+
+        private final Condition condition;
+
+        private boolean granted = false;
+
+        private Waiter(WorkloadClass workloadClass, Condition condition) {
+            this.workloadClass = workloadClass;
+            this.condition = condition;
+        }
+    }
+
+    private final class SourceGate {
+
+        private final String sourceKey;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final int[] running = new int[CLASSES.length];
+
+        private final List<Deque<Waiter>> queues = new ArrayList<>(CLASSES.length);
+
+        private int total = 0;
+
+        private SourceGate(String sourceKey) {
+            this.sourceKey = sourceKey;
+            for (int i = 0; i < CLASSES.length; i++) {
+                queues.add(new ArrayDeque<>());
+            }
+        }
+
+        private Admission admit(WorkloadClass workloadClass, RunningQuery runningQuery) {
+            ClassStats classStats = stats.get(workloadClass);
+            int index = workloadClass.ordinal();
+            long start = System.nanoTime();
+            Waiter waiter;
+            lock.lock();
+            try {
+                if (canRun(index) && !hasWaiters(index)) {
+                    grant(index);
+                    classStats.admitted.incrementAndGet();
+                    return new Admission(this, workloadClass);
+                }
+
+                waiter = new Waiter(workloadClass, lock.newCondition());
+                queues.get(index).addLast(waiter);
+                classStats.waiting.incrementAndGet();
+                // 更高优先级的等待者可能只受自身类别并发限制
+                dispatch();
+                try {
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, maxWaits[index]));
+                    while (!waiter.granted && remaining > 0L) {
+                        if (null != runningQuery && runningQuery.isCancelled()) {
+                            break;
+                        }
+                        long slice = Math.min(remaining, CANCEL_CHECK_NANOS);
+                        remaining -= slice - waiter.condition.awaitNanos(slice);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    classStats.waiting.decrementAndGet();
+                    if (!waiter.granted) {
+                        queues.get(index).remove(waiter);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            classStats.recordWait(waitMillis);
+            if (waiter.granted) {
+                classStats.admitted.incrementAndGet();
+                return new Admission(this, workloadClass);
+            }
+            if (null != runningQuery && runningQuery.isCancelled()) {
+                throw new ServerException("query is cancelled: " + runningQuery.getCancelReason());
+            }
+            classStats.rejected.incrementAndGet();
+            log.warn("{} query on source({}) rejected after waiting {} ms, running: {}", workloadClass.getName(), sourceKey, waitMillis, total);
+            throw new ServiceUnavailableException("too many queries on this source, please retry later", retryAfterSeconds);
+        }
+
+        private Admission tryAdmit(WorkloadClass workloadClass) {
+            int index = workloadClass.ordinal();
+            lock.lock();
+            try {
+                if (!canRun(index) || hasWaiters(index)) {
+                    return null;
+                }
+                grant(index);
+            } finally {
+                lock.unlock();
+            }
+            stats.get(workloadClass).admitted.incrementAndGet();
+            return new Admission(this, workloadClass);
+        }
+
+        private void release(WorkloadClass workloadClass) {
+            lock.lock();
+            try {
+                running[workloadClass.ordinal()]--;
+                total--;
+                stats.get(workloadClass).running.decrementAndGet();
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 按优先级唤醒可执行的等待者
+         */
+        private void dispatch() {
+            for (int i = 0; i < CLASSES.length; i++) {
+                Deque<Waiter> queue = queues.get(i);
+                while (!queue.isEmpty() && canRun(i)) {
+                    Waiter waiter = queue.pollFirst();
+                    waiter.granted = true;
+                    grant(i);
+                    waiter.condition.signal();
+                }
+            }
+        }
+
+        private boolean canRun(int index) {
+            return (maxConcurrency <= 0 || total < maxConcurrency) && (quotas[index] <= 0 || running[index] < quotas[index]);
+        }
+
+        /**
+         * 同类别或更高优先级是否有请求在等待
+         */
+        private boolean hasWaiters(int index) {
+            for (int i = 0; i <= index; i++) {
+                if (!queues.get(i).isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void grant(int index) {
+            running[index]++;
+            total++;
+            stats.get(CLASSES[index]).running.incrementAndGet();
+        }
+
+        private Map<String, Object> snapshot() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            lock.lock();
+            try {
+                map.put("source", sourceKey);
+                map.put("running", total);
+                for (int i = 0; i < CLASSES.length; i++) {
+                    Map<String, Object> classMap = new LinkedHashMap<>();
+                    classMap.put("running", running[i]);
+                    classMap.put("waiting", queues.get(i).size());
+                    map.put(CLASSES[i].getName(), classMap);
+                }
+            } finally {
+                lock.unlock();
+            }
+            return map;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc.buffer;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * 占用结果缓冲预算的查询结果
+ * <p>
+ * 只读；请求中产生的结果在响应写出后释放内存预算与溢写文件，请求外使用的由调用方 {@link #close()}，
+ * 未释放的由 {@link ResultBufferManager} 在结果被回收后兜底释放。需要在释放后继续持有（如缓存）时复制为普通列表
+ */
+public class BufferedResultList extends AbstractList<Map<String, Object>> implements RandomAccess, Serializable, AutoCloseable {
+
+    private static final long serialVersionUID = 1L;
+
+    final transient List<Map<String, Object>> head;
+
+    private transient volatile Runnable releaser;
+
+    private transient volatile boolean released = false;
+
+    BufferedResultList(List<Map<String, Object>> head) {
+        this.head = head;
+    }
+
+    /**
+     * 释放结果占用的预算，缓冲之外的列表不做处理
+     *
+     * @param list
+     */
+    public static void release(List<?> list) {
+        if (list instanceof BufferedResultList) {
+            ((BufferedResultList) list).close();
+        }
+    }
+
+    void setReleaser(Runnable releaser) {
+        this.releaser = releaser;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    @Override
+    public int size() {
+        return head.size();
+    }
+
+    @Override
+    public Map<String, Object> get(int index) {
+        return head.get(index);
+    }
+
+    @Override
+    public void close() {
+        released = true;
+        Runnable current = releaser;
+        releaser = null;
+        if (null != current) {
+            current.run();
+        }
+    }
+
+    /**
+     * 序列化（如写入缓存）时转为普通列表
+     */
+    protected Object writeReplace() throws ObjectStreamException {
+        return new ArrayList<>(this);
+    }
+}
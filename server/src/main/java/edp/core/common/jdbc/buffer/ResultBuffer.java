@@ -0,0 +1,192 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+
+package edp.core.common.jdbc.buffer;
+
+import edp.core.common.jdbc.QueryLog;
+import edp.core.exception.ServerException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 查询结果缓冲
+ * <p>
+ * 行先保存在内存中，超过单个查询的内存预算或全局内存预算不足时，之后的行编码后按块写入溢写文件；
+ * {@link #finish()} 返回结果列表，之后由结果列表负责释放；未完成时 {@link #close()} 释放占用
+ */
+public class ResultBuffer implements AutoCloseable {
+
+    private final ResultBufferManager manager;
+
+    private final List<Map<String, Object>> rows = new ArrayList<>();
+
+    private long memoryBytes = 0L;
+
+    private SpillFile spill;
+
+    private BlockOutput block;
+
+    private DataOutputStream out;
+
+    private int blockFirstRow = 0;
+
+    private int spilledRows = 0;
+
+    private long diskBytes = 0L;
+
+    private long resultBytes = 0L;
+
+    private boolean closed = false;
+
+    /**
+     * @param manager 为 null 或未启用时只在内存中保存
+     */
+    public ResultBuffer(ResultBufferManager manager) {
+        this.manager = null != manager && manager.isEnabled() ? manager : null;
+    }
+
+    public void add(Map<String, Object> row) throws ServerException {
+        for (Object value : row.values()) {
+            resultBytes += QueryLog.sizeOf(value);
+        }
+        if (null == manager) {
+            rows.add(row);
+            return;
+        }
+        try {
+            if (null == spill) {
+                long size = RowCodec.estimateSize(row);
+                if (memoryBytes + size <= manager.getMemoryPerQuery() && manager.reserveMemory(size)) {
+                    rows.add(row);
+                    memoryBytes += size;
+                    return;
+                }
+                spill = manager.createSpillFile();
+                block = new BlockOutput(manager.getBlockSize());
+                out = new DataOutputStream(block);
+            }
+            RowCodec.write(out, row, spill);
+            spilledRows++;
+            if (block.size() >= manager.getBlockSize()) {
+                flushBlock();
+            }
+        } catch (IOException e) {
+            close();
+            throw new ServerException("spill query result error: " + e.getMessage());
+        }
+    }
+
+    public boolean isSpilled() {
+        return null != spill;
+    }
+
+    /**
+     * 结果值的估算大小，见 {@link QueryLog#sizeOf(Object)}
+     *
+     * @return
+     */
+    public long getResultBytes() {
+        return resultBytes;
+    }
+
+    /**
+     * 完成写入，之后内存与溢写文件在请求结束或 {@link BufferedResultList#close()} 时释放
+     *
+     * @return
+     * @throws ServerException
+     */
+    public List<Map<String, Object>> finish() throws ServerException {
+        if (closed) {
+            throw new ServerException("result buffer is closed");
+        }
+        if (null != spill) {
+            try {
+                flushBlock();
+            } catch (IOException e) {
+                close();
+                throw new ServerException("spill query result error: " + e.getMessage());
+            }
+        }
+        closed = true;
+        if (null == manager) {
+            return rows;
+        }
+        if (null == spill) {
+            return manager.track(new BufferedResultList(rows), memoryBytes, null, 0L);
+        }
+        return manager.track(new SpilledResultList(rows, spill, spilledRows), memoryBytes, spill, diskBytes);
+    }
+
+    /**
+     * 查询失败时释放已占用的内存与溢写文件，已完成时不做处理
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (null != manager) {
+            release();
+        }
+    }
+
+    private void release() {
+        rows.clear();
+        manager.releaseMemory(memoryBytes);
+        memoryBytes = 0L;
+        if (null != spill) {
+            spill.delete();
+            manager.releaseDisk(diskBytes);
+            diskBytes = 0L;
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (block.size() == 0) {
+            return;
+        }
+        out.flush();
+        int written = spill.writeBlock(block.buffer(), block.size(), blockFirstRow);
+        manager.reserveDisk(written);
+        diskBytes += written;
+        blockFirstRow = spilledRows;
+        block.reset();
+    }
+
+    /**
+     * 直接压缩内部数组，避免 toByteArray 复制
+     */
+    private static final class BlockOutput extends ByteArrayOutputStream {
+
+        private BlockOutput(int size) {
+            super(size);
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+
+package edp.core.common.jdbc.buffer;
+
+import edp.core.exception.ServerException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 查询结果的全局内存预算与溢写文件管理
+ * <p>
+ * 所有请求在内存中保存的结果行共用 source.result-buffer.max-memory-mb，预算不足时新的行写入溢写文件；
+ * 结果在请求结束或 {@link BufferedResultList#close()} 时释放内存预算并删除溢写文件，
+ * 未释放的结果列表被回收后兜底释放
+ */
+@Slf4j
+@Component
+public class ResultBufferManager {
+
+    private static final String SPILL_SUFFIX = ".spill";
+
+    private static final long MB = 1024L * 1024L;
+
+    private static final String RELEASE_CALLBACK_PREFIX = ResultBufferManager.class.getName() + ".release.";
+
+    @Value("${source.result-buffer.enable:true}")
+    private boolean enable;
+
+    @Value("${source.result-buffer.memory-per-query-mb:64}")
+    private long memoryPerQueryMb;
+
+    /**
+     * 0 表示最大堆的 1/4
+     */
+    @Value("${source.result-buffer.max-memory-mb:0}")
+    private long maxMemoryMb;
+
+    /**
+     * 0 表示不限制
+     */
+    @Value("${source.result-buffer.max-disk-mb:10240}")
+    private long maxDiskMb;
+
+    @Value("${source.result-buffer.block-kb:256}")
+    private int blockKb;
+
+    @Value("${source.result-buffer.spill-path:}")
+    private String spillPath;
+
+    private long memoryPerQuery;
+
+    private long maxMemory;
+
+    private long maxDisk;
+
+    private int blockSize;
+
+    private File spillDir;
+
+    private final AtomicLong memoryUsed = new AtomicLong();
+
+    private final AtomicLong diskUsed = new AtomicLong();
+
+    private final AtomicLong spilledResults = new AtomicLong();
+
+    private final AtomicLong leakedResults = new AtomicLong();
+
+    private final AtomicLong callbackSequence = new AtomicLong();
+
+    private final ReferenceQueue<Object> referenceQueue = new ReferenceQueue<>();
+
+    /**
+     * 持有 Tracker 本身，避免其先于结果列表被回收
+     */
+    private final Set<Tracker> trackers = ConcurrentHashMap.newKeySet();
+
+    private Thread cleaner;
+
+    @PostConstruct
+    public void init() {
+        memoryPerQuery = Math.max(1L, memoryPerQueryMb) * MB;
+        maxMemory = maxMemoryMb > 0 ? maxMemoryMb * MB : Runtime.getRuntime().maxMemory() / 4;
+        maxDisk = maxDiskMb * MB;
+        blockSize = Math.max(16, blockKb) * 1024;
+        if (!enable) {
+            return;
+        }
+
+        spillDir = new File(StringUtils.isEmpty(spillPath) ? System.getProperty("java.io.tmpdir") + File.separator + "davinci-spill" : spillPath);
+        if (!spillDir.exists() && !spillDir.mkdirs()) {
+            log.warn("create spill directory({}) failed", spillDir.getAbsolutePath());
+        }
+        // 上次进程遗留的溢写文件
+        File[] files = spillDir.listFiles((dir, name) -> name.endsWith(SPILL_SUFFIX));
+        if (null != files) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    log.warn("delete stale spill file({}) failed", file.getName());
+                }
+            }
+        }
+
+        cleaner = new Thread(this::clean, "Result-buffer-cleaner");
+        cleaner.setDaemon(true);
+        cleaner.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (null != cleaner) {
+            cleaner.interrupt();
+        }
+        trackers.forEach(Tracker::release);
+    }
+
+    public boolean isEnabled() {
+        return enable;
+    }
+
+    long getMemoryPerQuery() {
+        return memoryPerQuery;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed.get();
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    public long getDiskUsed() {
+        return diskUsed.get();
+    }
+
+    public long getSpilledResults() {
+        return spilledResults.get();
+    }
+
+    /**
+     * 未显式释放、由回收兜底释放的结果数
+     *
+     * @return
+     */
+    public long getLeakedResults() {
+        return leakedResults.get();
+    }
+
+    boolean reserveMemory(long bytes) {
+        long used;
+        do {
+            used = memoryUsed.get();
+            if (used + bytes > maxMemory) {
+                return false;
+            }
+        } while (!memoryUsed.compareAndSet(used, used + bytes));
+        return true;
+    }
+
+    void releaseMemory(long bytes) {
+        if (bytes > 0) {
+            memoryUsed.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * @param bytes
+     * @throws ServerException 超过 source.result-buffer.max-disk-mb
+     */
+    void reserveDisk(long bytes) throws ServerException {
+        long used = diskUsed.addAndGet(bytes);
+        if (maxDisk > 0 && used > maxDisk) {
+            diskUsed.addAndGet(-bytes);
+            throw new ServerException("query result is too large, spill space is exhausted");
+        }
+    }
+
+    void releaseDisk(long bytes) {
+        if (bytes > 0) {
+            diskUsed.addAndGet(-bytes);
+        }
+    }
+
+    SpillFile createSpillFile() throws IOException {
+        spilledResults.incrementAndGet();
+        return new SpillFile(new File(spillDir, UUID.randomUUID().toString().replace("-", "") + SPILL_SUFFIX));
+    }
+
+    /**
+     * 结果在当前请求结束、显式释放或被回收时释放其内存预算与溢写文件
+     *
+     * @param result
+     * @param memoryBytes
+     * @param spill       可为 null
+     * @param diskBytes
+     * @return
+     */
+    <T extends BufferedResultList> T track(T result, long memoryBytes, SpillFile spill, long diskBytes) {
+        if (memoryBytes <= 0 && null == spill) {
+            return result;
+        }
+        Tracker tracker = new Tracker(result, referenceQueue, memoryBytes, spill, diskBytes);
+        trackers.add(tracker);
+        result.setReleaser(tracker::release);
+
+        // 响应写出后由 DispatcherServlet 回调
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (null != attributes) {
+            attributes.registerDestructionCallback(RELEASE_CALLBACK_PREFIX + callbackSequence.incrementAndGet(),
+                    result::close, RequestAttributes.SCOPE_REQUEST);
+        }
+        return result;
+    }
+
+    private void clean() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Tracker tracker = (Tracker) referenceQueue.remove();
+                if (trackers.contains(tracker)) {
+                    leakedResults.incrementAndGet();
+                    log.debug("result buffer released by gc, memory: {}, disk: {}", tracker.memoryBytes, tracker.diskBytes);
+                }
+                tracker.release();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.warn("release result buffer error: {}", e.getMessage());
+            }
+        }
+    }
+
+    private final class Tracker extends PhantomReference<Object> {
+
+        private final long memoryBytes;
+
+        private final SpillFile spill;
+
+        private final long diskBytes;
+
+        private Tracker(Object referent, ReferenceQueue<Object> queue, long memoryBytes, SpillFile spill, long diskBytes) {
+            super(referent, queue);
+            this.memoryBytes = memoryBytes;
+            this.spill = spill;
+            this.diskBytes = diskBytes;
+        }
+
+        private void release() {
+            if (!trackers.remove(this)) {
+                return;
+            }
+            clear();
+            releaseMemory(memoryBytes);
+            if (null != spill) {
+                spill.delete();
+                releaseDisk(diskBytes);
+            }
+        }
+    }
+}
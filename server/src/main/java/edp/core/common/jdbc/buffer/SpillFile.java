@@ -0,0 +1,198 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+
+package edp.core.common.jdbc.buffer;
+
+import lombok.extern.slf4j.Slf4j;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * 溢写文件
+ * <p>
+ * 由 lz4 压缩的行块顺序组成，块的偏移、长度与首行号保存在内存索引中；
+ * 写入只在构建结果时单线程进行，完成后可并发按块读取
+ */
+@Slf4j
+final class SpillFile {
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+    private static final int MAX_KEYS = 0xFFFF;
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    private final List<String> keys = new ArrayList<>();
+
+    private final Map<String, Integer> keyIndexes = new HashMap<>();
+
+    private long length = 0L;
+
+    private int blocks = 0;
+
+    private long[] offsets = new long[16];
+
+    private int[] rawLengths = new int[16];
+
+    private int[] compressedLengths = new int[16];
+
+    private int[] firstRows = new int[16];
+
+    private boolean deleted = false;
+
+    SpillFile(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    int keyIndex(String key) throws IOException {
+        Integer index = keyIndexes.get(key);
+        if (null == index) {
+            if (keys.size() >= MAX_KEYS) {
+                throw new IOException("too many columns to spill: " + keys.size());
+            }
+            index = keys.size();
+            keys.add(key);
+            keyIndexes.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * 压缩并追加一个行块
+     *
+     * @param raw
+     * @param rawLength
+     * @param firstRow  块内第一行在溢写部分中的行号
+     * @return 写入的字节数
+     * @throws IOException
+     */
+    int writeBlock(byte[] raw, int rawLength, int firstRow) throws IOException {
+        LZ4Compressor compressor = LZ4.fastCompressor();
+        byte[] compressed = new byte[compressor.maxCompressedLength(rawLength)];
+        int compressedLength = compressor.compress(raw, 0, rawLength, compressed, 0, compressed.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, compressedLength);
+        long position = length;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+        if (blocks == offsets.length) {
+            int capacity = blocks * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            rawLengths = Arrays.copyOf(rawLengths, capacity);
+            compressedLengths = Arrays.copyOf(compressedLengths, capacity);
+            firstRows = Arrays.copyOf(firstRows, capacity);
+        }
+        offsets[blocks] = length;
+        rawLengths[blocks] = rawLength;
+        compressedLengths[blocks] = compressedLength;
+        firstRows[blocks] = firstRow;
+        blocks++;
+        length = position;
+        return compressedLength;
+    }
+
+    int getBlocks() {
+        return blocks;
+    }
+
+    int getFirstRow(int block) {
+        return firstRows[block];
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * 行所在的块
+     *
+     * @param row 溢写部分中的行号
+     * @return
+     */
+    int findBlock(int row) {
+        int index = Arrays.binarySearch(firstRows, 0, blocks, row);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * 读取并解码一个行块，可并发调用
+     *
+     * @param block
+     * @return
+     * @throws IOException
+     */
+    List<Map<String, Object>> readBlock(int block) throws IOException {
+        byte[] compressed = new byte[compressedLengths[block]];
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        long position = offsets[block];
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("unexpected end of spill file: " + file.getName());
+            }
+            position += read;
+        }
+        byte[] raw = new byte[rawLengths[block]];
+        LZ4.fastDecompressor().decompress(compressed, 0, raw, 0, raw.length);
+
+        int rows = (block + 1 < blocks ? firstRows[block + 1] : Integer.MAX_VALUE) - firstRows[block];
+        List<Map<String, Object>> list = new ArrayList<>(Math.min(rows, 1024));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+        while (in.available() > 0) {
+            list.add(RowCodec.read(in, keys));
+        }
+        return list;
+    }
+
+    /**
+     * 关闭并删除文件
+     */
+    synchronized void delete() {
+        if (deleted) {
+            return;
+        }
+        deleted = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("close spill file({}) error: {}", file.getName(), e.getMessage());
+        }
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            log.warn("delete spill file({}) error: {}", file.getName(), e.getMessage());
+        }
+    }
+}
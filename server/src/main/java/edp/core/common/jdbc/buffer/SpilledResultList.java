@@ -0,0 +1,128 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+
+package edp.core.common.jdbc.buffer;
+
+import edp.core.exception.ServerException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 部分行在溢写文件中的查询结果
+ * <p>
+ * 顺序访问（迭代、按下标递增读取）每个块只解码一次，释放后溢写文件被删除，不能再读取溢写的行
+ */
+public final class SpilledResultList extends BufferedResultList {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient SpillFile spill;
+
+    private final transient int spilledRows;
+
+    private transient int cachedBlock = -1;
+
+    private transient List<Map<String, Object>> cachedRows;
+
+    SpilledResultList(List<Map<String, Object>> head, SpillFile spill, int spilledRows) {
+        super(head);
+        this.spill = spill;
+        this.spilledRows = spilledRows;
+    }
+
+    public int getSpilledRows() {
+        return spilledRows;
+    }
+
+    public long getSpilledBytes() {
+        return spill.getLength();
+    }
+
+    @Override
+    public int size() {
+        return head.size() + spilledRows;
+    }
+
+    @Override
+    public Map<String, Object> get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        if (index < head.size()) {
+            return head.get(index);
+        }
+        int row = index - head.size();
+        int block = spill.findBlock(row);
+        synchronized (this) {
+            if (block != cachedBlock) {
+                cachedRows = readBlock(block);
+                cachedBlock = block;
+            }
+            return cachedRows.get(row - spill.getFirstRow(block));
+        }
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> iterator() {
+        return new Iterator<Map<String, Object>>() {
+            private int index = 0;
+            private int block = -1;
+            private List<Map<String, Object>> rows = Collections.emptyList();
+            private int offset = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size();
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (index < head.size()) {
+                    return head.get(index++);
+                }
+                if (offset >= rows.size()) {
+                    rows = readBlock(++block);
+                    offset = 0;
+                }
+                index++;
+                return rows.get(offset++);
+            }
+        };
+    }
+
+    private List<Map<String, Object>> readBlock(int block) {
+        if (isReleased()) {
+            throw new ServerException("query result has been released");
+        }
+        try {
+            return spill.readBlock(block);
+        } catch (IOException e) {
+            throw new ServerException("read spilled result error: " + e.getMessage());
+        }
+    }
+}
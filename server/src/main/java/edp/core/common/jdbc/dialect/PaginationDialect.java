@@ -0,0 +1,60 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc.dialect;
+
+/**
+ * 分页方言
+ * <p>
+ * 将 offset/limit 下推到生成的 sql 中，避免客户端 setMaxRows + rs.absolute 逐行跳过；
+ * 自定义数据源可在 datasource_driver.yml 的 pagination 中配置内置方言名或实现类全名
+ */
+public interface PaginationDialect {
+
+    /**
+     * 生成分页sql
+     *
+     * @param sql
+     * @param offset 跳过的行数，从 0 开始
+     * @param limit  返回的行数
+     * @return 无法下推时返回 null，由客户端跳过 offset 行
+     */
+    String paginate(String sql, int offset, int limit);
+
+    /**
+     * 生成只限制返回行数的sql
+     *
+     * @param sql
+     * @param limit
+     * @return 无法下推时返回原sql
+     */
+    default String limit(String sql, int limit) {
+        String limitSql = paginate(sql, 0, limit);
+        return null == limitSql ? sql : limitSql;
+    }
+
+    /**
+     * 分页产生的辅助行号列，返回结果中需剔除
+     *
+     * @return
+     */
+    default String getRowNumberColumn() {
+        return null;
+    }
+}
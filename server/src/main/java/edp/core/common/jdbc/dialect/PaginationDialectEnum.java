@@ -0,0 +1,267 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc.dialect;
+
+import edp.core.utils.CollectionUtils;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static edp.core.consts.Consts.SEMICOLON;
+
+/**
+ * 内置分页方言
+ */
+@Slf4j
+public enum PaginationDialectEnum implements PaginationDialect {
+
+    /**
+     * LIMIT n OFFSET m
+     */
+    LIMIT_OFFSET {
+        @Override
+        public String paginate(String sql, int offset, int limit) {
+            if (!isAppendable(sql)) {
+                return null;
+            }
+            String pageSql = trim(sql) + " LIMIT " + limit;
+            return offset > 0 ? pageSql + " OFFSET " + offset : pageSql;
+        }
+    },
+
+    /**
+     * LIMIT n OFFSET m，OFFSET 要求有 ORDER BY（Impala）
+     */
+    ORDERED_LIMIT_OFFSET {
+        @Override
+        public String paginate(String sql, int offset, int limit) {
+            if (offset > 0 && !hasOrderBy(sql)) {
+                return null;
+            }
+            return LIMIT_OFFSET.paginate(sql, offset, limit);
+        }
+    },
+
+    /**
+     * OFFSET m LIMIT n（Presto）
+     */
+    OFFSET_LIMIT {
+        @Override
+        public String paginate(String sql, int offset, int limit) {
+            if (!isAppendable(sql)) {
+                return null;
+            }
+            return offset > 0 ? trim(sql) + " OFFSET " + offset + " LIMIT " + limit : trim(sql) + " LIMIT " + limit;
+        }
+    },
+
+    /**
+     * OFFSET m ROWS FETCH NEXT n ROWS ONLY（SQL Server 2012+），缺少 ORDER BY 时补 ORDER BY (SELECT NULL)
+     */
+    OFFSET_FETCH {
+        @Override
+        public String paginate(String sql, int offset, int limit) {
+            if (!isAppendable(sql)) {
+                return null;
+            }
+            StringBuilder builder = new StringBuilder(trim(sql));
+            if (!hasOrderBy(sql)) {
+                builder.append(" ORDER BY (SELECT NULL)");
+            }
+            builder.append(" OFFSET ").append(offset).append(" ROWS FETCH NEXT ").append(limit).append(" ROWS ONLY");
+            return builder.toString();
+        }
+    },
+
+    /**
+     * ROWNUM 嵌套（Oracle 全版本），外层 DAVINCI_T_.* 要求列名唯一，否则报 ORA-00918，无法确定时不下推
+     */
+    ROWNUM {
+        @Override
+        public String paginate(String sql, int offset, int limit) {
+            if (!hasUniqueColumns(sql)) {
+                return null;
+            }
+            String rownumSql = "SELECT DAVINCI_T_.*, ROWNUM " + ROW_NUMBER_COLUMN + " FROM (" + trim(sql) + ") DAVINCI_T_ WHERE ROWNUM <= " + (offset + limit);
+            if (offset < 1) {
+                return rownumSql;
+            }
+            return "SELECT * FROM (" + rownumSql + ") WHERE " + ROW_NUMBER_COLUMN + " > " + offset;
+        }
+
+        @Override
+        public String getRowNumberColumn() {
+            return ROW_NUMBER_COLUMN;
+        }
+    },
+
+    /**
+     * 仅支持 LIMIT n，offset 由客户端跳过
+     */
+    LIMIT {
+        @Override
+        public String paginate(String sql, int offset, int limit) {
+            if (offset > 0 || !isAppendable(sql)) {
+                return null;
+            }
+            return trim(sql) + " LIMIT " + limit;
+        }
+    },
+
+    /**
+     * 不下推，保持客户端 setMaxRows
+     */
+    NONE {
+        @Override
+        public String paginate(String sql, int offset, int limit) {
+            return null;
+        }
+    };
+
+    public static final String ROW_NUMBER_COLUMN = "DAVINCI_RN_";
+
+    /**
+     * 最后一个右括号之后出现的分页关键字，说明sql已自带分页
+     */
+    private static final Pattern PATTERN_PAGINATED = Pattern.compile("\\b(limit|offset|fetch|top)\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern PATTERN_ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+    public static PaginationDialectEnum nameOf(String name) {
+        for (PaginationDialectEnum dialect : values()) {
+            if (dialect.name().equalsIgnoreCase(name)) {
+                return dialect;
+            }
+        }
+        return null;
+    }
+
+    static String trim(String sql) {
+        String trimSql = sql.trim();
+        while (trimSql.endsWith(SEMICOLON)) {
+            trimSql = trimSql.substring(0, trimSql.length() - 1).trim();
+        }
+        return trimSql;
+    }
+
+    static boolean isAppendable(String sql) {
+        return !PATTERN_PAGINATED.matcher(getTail(sql)).find();
+    }
+
+    static boolean hasOrderBy(String sql) {
+        try {
+            Statement statement = CCJSqlParserUtil.parse(trim(sql));
+            if (statement instanceof Select) {
+                SelectBody selectBody = ((Select) statement).getSelectBody();
+                if (selectBody instanceof PlainSelect) {
+                    return !CollectionUtils.isEmpty(((PlainSelect) selectBody).getOrderByElements());
+                }
+                if (selectBody instanceof SetOperationList) {
+                    return !CollectionUtils.isEmpty(((SetOperationList) selectBody).getOrderByElements());
+                }
+            }
+        } catch (JSQLParserException e) {
+            log.debug(e.getMessage(), e);
+        }
+        return PATTERN_ORDER_BY.matcher(getTail(sql)).find();
+    }
+
+    /**
+     * 查询结果的列名是否唯一，无法解析或无法确定（如多表的 *）时返回 false
+     */
+    static boolean hasUniqueColumns(String sql) {
+        try {
+            Statement statement = CCJSqlParserUtil.parse(trim(sql));
+            if (statement instanceof Select) {
+                Select select = (Select) statement;
+                return hasUniqueColumns(select.getSelectBody(), !CollectionUtils.isEmpty(select.getWithItemsList()));
+            }
+        } catch (JSQLParserException e) {
+            log.debug(e.getMessage(), e);
+        }
+        return false;
+    }
+
+    private static boolean hasUniqueColumns(SelectBody selectBody, boolean withItems) {
+        if (selectBody instanceof SetOperationList) {
+            // 列名取自第一个查询
+            List<SelectBody> selects = ((SetOperationList) selectBody).getSelects();
+            return !CollectionUtils.isEmpty(selects) && hasUniqueColumns(selects.get(0), withItems);
+        }
+        if (!(selectBody instanceof PlainSelect)) {
+            return false;
+        }
+        PlainSelect plainSelect = (PlainSelect) selectBody;
+        List<SelectItem> items = plainSelect.getSelectItems();
+        Set<String> names = new HashSet<>();
+        for (SelectItem item : items) {
+            if (!(item instanceof SelectExpressionItem)) {
+                // * 或 t.*：只查询单表或单个子查询时列名可确定
+                if (items.size() > 1 || !CollectionUtils.isEmpty(plainSelect.getJoins())) {
+                    return false;
+                }
+                FromItem fromItem = plainSelect.getFromItem();
+                if (fromItem instanceof SubSelect) {
+                    return hasUniqueColumns(((SubSelect) fromItem).getSelectBody(), withItems);
+                }
+                // with 子句定义的查询可能含重复列
+                return fromItem instanceof Table && !withItems;
+            }
+            if (!names.add(getColumnName((SelectExpressionItem) item))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getColumnName(SelectExpressionItem item) {
+        Expression expression = item.getExpression();
+        String name;
+        if (null != item.getAlias() && null != item.getAlias().getName()) {
+            name = item.getAlias().getName();
+        } else if (expression instanceof Column) {
+            name = ((Column) expression).getColumnName();
+        } else {
+            name = expression.toString();
+        }
+        if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+            return name.substring(1, name.length() - 1);
+        }
+        // 未加引号的标识符不区分大小写
+        return name.toUpperCase(Locale.ROOT);
+    }
+
+    private static String getTail(String sql) {
+        String trimSql = trim(sql);
+        int index = trimSql.lastIndexOf(')');
+        return index < 0 ? trimSql : trimSql.substring(index + 1);
+    }
+}
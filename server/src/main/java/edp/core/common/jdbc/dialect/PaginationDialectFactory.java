@@ -0,0 +1,106 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc.dialect;
+
+import com.alibaba.druid.util.StringUtils;
+import edp.core.enums.DataTypeEnum;
+import edp.core.model.CustomDataSource;
+import edp.core.utils.CustomDataSourceUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 根据数据源获取分页方言
+ */
+@Slf4j
+public class PaginationDialectFactory {
+
+    private static final Map<String, PaginationDialect> customDialectMap = new ConcurrentHashMap<>();
+
+    private PaginationDialectFactory() {
+
+    }
+
+    public static PaginationDialect getDialect(String jdbcUrl, String dbVersion) {
+        if (StringUtils.isEmpty(jdbcUrl)) {
+            return PaginationDialectEnum.NONE;
+        }
+
+        CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
+        if (null != customDataSource) {
+            return getCustomDialect(customDataSource.getPagination());
+        }
+
+        DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
+        if (null == dataTypeEnum) {
+            return PaginationDialectEnum.NONE;
+        }
+
+        switch (dataTypeEnum) {
+            case MYSQL:
+            case H2:
+            case CLICKHOUSE:
+            case VERTICA:
+            case KYLIN:
+            case HANA:
+            case PHOENIX:
+                return PaginationDialectEnum.LIMIT_OFFSET;
+            case IMPALA:
+                return PaginationDialectEnum.ORDERED_LIMIT_OFFSET;
+            case PRESTO:
+                return PaginationDialectEnum.OFFSET_LIMIT;
+            case SQLSERVER:
+                return PaginationDialectEnum.OFFSET_FETCH;
+            case ORACLE:
+                return PaginationDialectEnum.ROWNUM;
+            default:
+                return PaginationDialectEnum.NONE;
+        }
+    }
+
+    /**
+     * 自定义数据源的分页方言，支持内置方言名或 PaginationDialect 实现类全名
+     *
+     * @param pagination
+     * @return
+     */
+    private static PaginationDialect getCustomDialect(String pagination) {
+        if (StringUtils.isEmpty(pagination)) {
+            return PaginationDialectEnum.NONE;
+        }
+
+        PaginationDialectEnum dialectEnum = PaginationDialectEnum.nameOf(pagination.trim());
+        if (null != dialectEnum) {
+            return dialectEnum;
+        }
+
+        return customDialectMap.computeIfAbsent(pagination.trim(), className -> {
+            try {
+                Class<?> clazz = Class.forName(className);
+                return (PaginationDialect) clazz.newInstance();
+            } catch (Exception e) {
+                log.error("Load pagination dialect({}) error: {}", className, e.getMessage());
+                return PaginationDialectEnum.NONE;
+            }
+        });
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+
+package edp.core.common.mail;
+
+import javax.mail.Address;
+import javax.mail.internet.MimeMessage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 一封邮件的投递状态，由 {@link MailQueue} 更新
+ */
+public class MailDelivery {
+
+    public enum Status {
+        QUEUED,
+        SENDING,
+        RETRYING,
+        SENT,
+        FAILED
+    }
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final long id = SEQUENCE.incrementAndGet();
+
+    private final String description;
+
+    private final MimeMessage message;
+
+    private final long createTime = System.currentTimeMillis();
+
+    private final CompletableFuture<MailDelivery> future = new CompletableFuture<>();
+
+    private volatile Status status = Status.QUEUED;
+
+    private volatile int attempts = 0;
+
+    private volatile String lastError;
+
+    private volatile long finishTime;
+
+    /**
+     * 重试时的收件人，部分收件人已投递后只发给其余收件人；null 为邮件的全部收件人
+     */
+    private volatile Address[] recipients;
+
+    MailDelivery(String description, MimeMessage message) {
+        this.description = description;
+        this.message = message;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public long getFinishTime() {
+        return finishTime;
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    public boolean isSent() {
+        return status == Status.SENT;
+    }
+
+    /**
+     * 投递结束（成功或最终失败）后回调，已结束时在当前线程立即回调
+     *
+     * @param callback
+     * @return
+     */
+    public MailDelivery whenDone(Consumer<MailDelivery> callback) {
+        future.thenAccept(callback);
+        return this;
+    }
+
+    /**
+     * 等待投递结束
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    public MailDelivery await() throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // future 只会正常完成
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    MimeMessage getMessage() {
+        return message;
+    }
+
+    Address[] getRecipients() {
+        return recipients;
+    }
+
+    void setRecipients(Address[] recipients) {
+        this.recipients = recipients;
+    }
+
+    void sending() {
+        attempts++;
+        status = Status.SENDING;
+    }
+
+    void retrying(String error) {
+        lastError = error;
+        status = Status.RETRYING;
+    }
+
+    void requeued() {
+        status = Status.QUEUED;
+    }
+
+    void sent() {
+        finish(Status.SENT);
+    }
+
+    void failed(String error) {
+        lastError = error;
+        finish(Status.FAILED);
+    }
+
+    private void finish(Status status) {
+        this.finishTime = System.currentTimeMillis();
+        this.status = status;
+        future.complete(this);
+    }
+
+    @Override
+    public String toString() {
+        return "MailDelivery{" +
+                "id=" + id +
+                ", status=" + status +
+                ", attempts=" + attempts +
+                ", lastError='" + lastError + '\'' +
+                ", " + description +
+                '}';
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+
+package edp.core.common.mail;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.util.MailConnectException;
+import edp.core.exception.ServerException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 邮件发送队列
+ * <p>
+ * 邮件在调用线程生成后入队，由固定数量的发送线程投递；每个发送线程保持自己的 smtp 连接，
+ * 一次取出至多 mail.queue.batch-size 封在同一连接上发送，空闲超过 idle-close-seconds 或发送出错后关闭连接。
+ * 连接失败、超时及 smtp 4xx 等临时错误按指数退避重试，5xx 与认证失败不重试；
+ * 部分收件人已投递时，重试只发给未投递与被拒绝的收件人
+ */
+@Slf4j
+@Component
+public class MailQueue {
+
+    /**
+     * 连接空闲超过该时间后，复用前先检查连接是否仍可用
+     */
+    private static final long CHECK_IDLE_MILLIS = 5000L;
+
+    @Value("${mail.queue.concurrency:2}")
+    private int concurrency;
+
+    @Value("${mail.queue.capacity:1000}")
+    private int capacity;
+
+    @Value("${mail.queue.batch-size:20}")
+    private int batchSize;
+
+    @Value("${mail.queue.max-messages-per-connection:100}")
+    private int maxMessagesPerConnection;
+
+    @Value("${mail.queue.idle-close-seconds:30}")
+    private long idleCloseSeconds;
+
+    @Value("${mail.queue.shutdown-timeout-seconds:30}")
+    private long shutdownTimeoutSeconds;
+
+    @Value("${mail.queue.retry.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${mail.queue.retry.initial-backoff-ms:1000}")
+    private long initialBackoffMillis;
+
+    @Value("${mail.queue.retry.max-backoff-ms:60000}")
+    private long maxBackoffMillis;
+
+    @Autowired
+    private JavaMailSender javaMailSender;
+
+    private BlockingQueue<MailDelivery> queue;
+
+    private ExecutorService workers;
+
+    private ScheduledExecutorService retryScheduler;
+
+    private final Set<MailDelivery> retrying = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong retried = new AtomicLong();
+
+    private volatile boolean running = false;
+
+    @PostConstruct
+    public void init() {
+        int threads = Math.max(1, concurrency);
+        queue = new LinkedBlockingQueue<>(Math.max(1, capacity));
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("Mail-sender-%d").setDaemon(true).build());
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("Mail-retry-%d").setDaemon(true).build());
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            workers.execute(new Sender());
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        retryScheduler.shutdownNow();
+        retrying.forEach(delivery -> fail(delivery, "mail queue is shut down"));
+        retrying.clear();
+        // 唤醒空闲的发送线程，队列中剩余的邮件仍会发送
+        workers.shutdownNow();
+        try {
+            if (!workers.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+                log.warn("mail senders are not finished in {} seconds", shutdownTimeoutSeconds);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        MailDelivery delivery;
+        while (null != (delivery = queue.poll())) {
+            fail(delivery, "mail queue is shut down");
+        }
+    }
+
+    /**
+     * 邮件入队
+     *
+     * @param message
+     * @param description 用于日志，如收件人与主题
+     * @return
+     * @throws ServerException 队列已满或已关闭
+     */
+    public MailDelivery submit(MimeMessage message, String description) throws ServerException {
+        if (!running) {
+            throw new ServerException("mail queue is shut down");
+        }
+        MailDelivery delivery = new MailDelivery(description, message);
+        if (!queue.offer(delivery)) {
+            throw new ServerException("too many mails waiting to be sent, please retry later");
+        }
+        submitted.incrementAndGet();
+        return delivery;
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public int getRetrying() {
+        return retrying.size();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    private void fail(MailDelivery delivery, String error) {
+        failed.incrementAndGet();
+        delivery.failed(error);
+    }
+
+    private void requeue(MailDelivery delivery) {
+        if (!retrying.remove(delivery)) {
+            return;
+        }
+        delivery.requeued();
+        if (!running || !queue.offer(delivery)) {
+            fail(delivery, running ? "mail queue is full" : "mail queue is shut down");
+        }
+    }
+
+    /**
+     * 临时错误：连接失败、io 异常及 smtp 4xx
+     */
+    static boolean isTransient(Throwable e) {
+        for (Throwable t = e; null != t; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof AuthenticationFailedException || t instanceof MailAuthenticationException) {
+                return false;
+            }
+            if (t instanceof SMTPSendFailedException) {
+                return ((SMTPSendFailedException) t).getReturnCode() / 100 == 4;
+            }
+            if (t instanceof SMTPAddressFailedException) {
+                return ((SMTPAddressFailedException) t).getReturnCode() / 100 == 4;
+            }
+            if (t instanceof MailConnectException || t instanceof IOException) {
+                return true;
+            }
+            if (t instanceof MailSendException) {
+                for (Exception messageException : ((MailSendException) t).getMessageExceptions()) {
+                    if (isTransient(messageException)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 部分收件人已投递时返回地址有效但未投递的收件人，被服务器拒绝的地址重试也不会成功，不再发送；
+     * 否则返回 null 表示仍发给原收件人
+     */
+    static Address[] getRetryRecipients(Throwable e) {
+        for (Throwable t = e; null != t; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof SendFailedException) {
+                SendFailedException sendFailed = (SendFailedException) t;
+                Address[] validSent = sendFailed.getValidSentAddresses();
+                if (null == validSent || validSent.length == 0) {
+                    return null;
+                }
+                Address[] invalid = sendFailed.getInvalidAddresses();
+                if (null != invalid && invalid.length > 0) {
+                    log.warn("mail recipients rejected: {}", Arrays.toString(invalid));
+                }
+                Address[] validUnsent = sendFailed.getValidUnsentAddresses();
+                return null == validUnsent ? new Address[0] : validUnsent;
+            }
+        }
+        return null;
+    }
+
+    private final class Sender implements Runnable {
+
+        private Transport transport;
+
+        private int sentOnConnection = 0;
+
+        private long lastUsed = 0L;
+
+        @Override
+        public void run() {
+            List<MailDelivery> batch = new ArrayList<>(Math.max(1, batchSize));
+            try {
+                while (running) {
+                    MailDelivery first;
+                    try {
+                        first = queue.poll(idleCloseSeconds, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (null == first) {
+                        close();
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, Math.max(1, batchSize) - 1);
+                    batch.forEach(this::deliver);
+                    batch.clear();
+                }
+                // 停止后发送队列中剩余的邮件，不再重试
+                MailDelivery delivery;
+                while (null != (delivery = queue.poll())) {
+                    deliver(delivery);
+                }
+            } finally {
+                close();
+            }
+        }
+
+        private void deliver(MailDelivery delivery) {
+            delivery.sending();
+            try {
+                send(delivery);
+                sent.incrementAndGet();
+                delivery.sent();
+                log.debug("mail sent: {}", delivery);
+            } catch (Exception e) {
+                close();
+                String error = e.getMessage();
+                // 已投递的收件人不再重复发送
+                Address[] remaining = getRetryRecipients(e);
+                if (null != remaining) {
+                    if (remaining.length == 0) {
+                        sent.incrementAndGet();
+                        delivery.sent();
+                        return;
+                    }
+                    delivery.setRecipients(remaining);
+                }
+                if (running && delivery.getAttempts() < maxAttempts && isTransient(e)) {
+                    long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(20, delivery.getAttempts() - 1));
+                    delivery.retrying(error);
+                    retried.incrementAndGet();
+                    retrying.add(delivery);
+                    log.warn("send mail({}) failed on attempt {}, retry in {} ms: {}", delivery.getDescription(), delivery.getAttempts(), backoff, error);
+                    try {
+                        retryScheduler.schedule(() -> requeue(delivery), backoff, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException re) {
+                        if (retrying.remove(delivery)) {
+                            fail(delivery, error);
+                        }
+                    }
+                } else {
+                    log.error("send mail({}) failed after {} attempts: {}", delivery.getDescription(), delivery.getAttempts(), error);
+                    fail(delivery, error);
+                }
+            }
+        }
+
+        private void send(MailDelivery delivery) throws MessagingException {
+            MimeMessage message = delivery.getMessage();
+            if (!(javaMailSender instanceof JavaMailSenderImpl)) {
+                javaMailSender.send(message);
+                return;
+            }
+            if (sentOnConnection >= maxMessagesPerConnection) {
+                close();
+            }
+            Transport connected = connect((JavaMailSenderImpl) javaMailSender);
+            if (null == message.getSentDate()) {
+                message.setSentDate(new Date());
+            }
+            // 重试时保持相同的 Message-ID
+            String messageId = message.getMessageID();
+            message.saveChanges();
+            if (null != messageId) {
+                message.setHeader("Message-ID", messageId);
+            }
+            Address[] addresses = null != delivery.getRecipients() ? delivery.getRecipients() : message.getAllRecipients();
+            connected.sendMessage(message, null == addresses ? new Address[0] : addresses);
+            sentOnConnection++;
+            lastUsed = System.currentTimeMillis();
+        }
+
+        private Transport connect(JavaMailSenderImpl sender) throws MessagingException {
+            if (null != transport) {
+                if (System.currentTimeMillis() - lastUsed < CHECK_IDLE_MILLIS || transport.isConnected()) {
+                    return transport;
+                }
+                close();
+            }
+            String username = sender.getUsername();
+            String password = sender.getPassword();
+            if (StringUtils.isEmpty(username)) {
+                username = null;
+                password = null;
+            } else if (StringUtils.isEmpty(password)) {
+                password = null;
+            }
+            Transport newTransport = sender.getSession().getTransport(StringUtils.isEmpty(sender.getProtocol()) ? "smtp" : sender.getProtocol());
+            newTransport.connect(sender.getHost(), sender.getPort(), username, password);
+            transport = newTransport;
+            sentOnConnection = 0;
+            lastUsed = System.currentTimeMillis();
+            return transport;
+        }
+
+        private void close() {
+            if (null == transport) {
+                return;
+            }
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                log.debug("close mail transport error: {}", e.getMessage());
+            }
+            transport = null;
+            sentOnConnection = 0;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.metrics;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import edp.core.common.jdbc.JdbcDataSource;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 数据源连接池指标，按 source（davinci 数据源 id）标记，不暴露连接地址与账号
+ * <p>
+ * 连接池按需创建，新建后通过 {@link #register(String, Long, String)} 注册；
+ * 不属于 davinci 数据源的连接池（如统计库）标记为 unnamed-序号；连接池移除后指标值为 NaN
+ */
+@Component
+public class DataSourcePoolMetrics implements MeterBinder {
+
+    private volatile MeterRegistry registry;
+
+    /**
+     * 已注册的连接池 key，同时作为 gauge 的强引用
+     */
+    private final Set<String> bound = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 连接池 key 含有账号与密码，只用于查找，标签与统计使用对应的数据源
+     */
+    private final Map<String, SourceLabel> labels = new ConcurrentHashMap<>();
+
+    private final AtomicInteger unnamed = new AtomicInteger();
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        sync();
+    }
+
+    /**
+     * 新建连接池后注册
+     *
+     * @param key        连接池 key
+     * @param sourceId   davinci 数据源 id，可为 null
+     * @param sourceName
+     */
+    public void register(String key, Long sourceId, String sourceName) {
+        if (null != sourceId) {
+            labels.putIfAbsent(key, new SourceLabel(String.valueOf(sourceId), sourceName));
+        }
+        sync();
+    }
+
+    public void sync() {
+        MeterRegistry registry = this.registry;
+        if (null == registry) {
+            return;
+        }
+        JdbcDataSource.getDataSources().forEach((key, dataSource) -> {
+            if (bound.add(key)) {
+                bind(registry, key, getLabel(key).id);
+            }
+        });
+    }
+
+    private void bind(MeterRegistry registry, String key, String source) {
+        Tags tags = Tags.of("source", source);
+        gauge(registry, "davinci.datasource.pool.active", key, tags, DruidDataSource::getActiveCount);
+        gauge(registry, "davinci.datasource.pool.idle", key, tags, DruidDataSource::getPoolingCount);
+        gauge(registry, "davinci.datasource.pool.max", key, tags, DruidDataSource::getMaxActive);
+        gauge(registry, "davinci.datasource.pool.pending", key, tags, DruidDataSource::getWaitThreadCount);
+        gauge(registry, "davinci.datasource.pool.usage", key, tags, DataSourcePoolMetrics::getUsage);
+        FunctionCounter.builder("davinci.datasource.pool.connect.errors", key, k -> value(k, DruidDataSource::getConnectErrorCount))
+                .tags(tags)
+                .register(registry);
+        FunctionTimer.builder("davinci.datasource.pool.wait", key,
+                k -> (long) value(k, DruidDataSource::getNotEmptyWaitCount),
+                k -> value(k, DruidDataSource::getNotEmptyWaitMillis),
+                TimeUnit.MILLISECONDS)
+                .tags(tags)
+                .register(registry);
+    }
+
+    private static void gauge(MeterRegistry registry, String name, String key, Tags tags, ToDoubleFunction<DruidDataSource> f) {
+        Gauge.builder(name, key, k -> value(k, f)).tags(tags).register(registry);
+    }
+
+    private static double value(String key, ToDoubleFunction<DruidDataSource> f) {
+        DruidDataSource dataSource = JdbcDataSource.getDataSources().get(key);
+        return null == dataSource || dataSource.isClosed() ? Double.NaN : f.applyAsDouble(dataSource);
+    }
+
+    private static double getUsage(DruidDataSource dataSource) {
+        return dataSource.getMaxActive() > 0 ? (double) dataSource.getActiveCount() / dataSource.getMaxActive() : 0D;
+    }
+
+    private SourceLabel getLabel(String key) {
+        return labels.computeIfAbsent(key, k -> new SourceLabel("unnamed-" + unnamed.incrementAndGet(), null));
+    }
+
+    /**
+     * 各连接池的占用情况，按使用率降序
+     *
+     * @return
+     */
+    public List<Map<String, Object>> getPoolStats() {
+        sync();
+        List<Map.Entry<String, DruidDataSource>> dataSources = new ArrayList<>();
+        JdbcDataSource.getDataSources().entrySet().forEach(entry -> {
+            if (!entry.getValue().isClosed()) {
+                dataSources.add(entry);
+            }
+        });
+        dataSources.sort(Comparator.comparingDouble((Map.Entry<String, DruidDataSource> entry) -> getUsage(entry.getValue())).reversed());
+
+        List<Map<String, Object>> list = new ArrayList<>(dataSources.size());
+        for (Map.Entry<String, DruidDataSource> entry : dataSources) {
+            DruidDataSource dataSource = entry.getValue();
+            SourceLabel label = getLabel(entry.getKey());
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("source", label.id);
+            stats.put("sourceName", label.name);
+            stats.put("maxActive", dataSource.getMaxActive());
+            stats.put("active", dataSource.getActiveCount());
+            stats.put("activePeak", dataSource.getActivePeak());
+            stats.put("idle", dataSource.getPoolingCount());
+            stats.put("pending", dataSource.getWaitThreadCount());
+            stats.put("usage", getUsage(dataSource));
+            stats.put("waitCount", dataSource.getNotEmptyWaitCount());
+            stats.put("waitMillis", dataSource.getNotEmptyWaitMillis());
+            stats.put("connectErrors", dataSource.getConnectErrorCount());
+            list.add(stats);
+        }
+        return list;
+    }
+
+    private static final class SourceLabel {
+
+        private final String id;
+
+        private final String name;
+
+        private SourceLabel(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.metrics;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Caffeine 缓存与线程池的指标注册
+ */
+public final class MetricsBinders {
+
+    private MetricsBinders() {
+    }
+
+    /**
+     * 缓存大小、命中/未命中、加载与淘汰次数，命中统计需缓存开启 recordStats
+     *
+     * @param registry
+     * @param name
+     * @param cache
+     */
+    public static void bindCache(MeterRegistry registry, String name, Cache<?, ?> cache) {
+        if (null == cache) {
+            return;
+        }
+        Tags tags = Tags.of("cache", name);
+        Gauge.builder("davinci.cache.size", cache, Cache::estimatedSize).tags(tags).register(registry);
+        FunctionCounter.builder("davinci.cache.gets", cache, c -> c.stats().hitCount()).tags(tags.and("result", "hit")).register(registry);
+        FunctionCounter.builder("davinci.cache.gets", cache, c -> c.stats().missCount()).tags(tags.and("result", "miss")).register(registry);
+        FunctionCounter.builder("davinci.cache.loads", cache, c -> c.stats().loadCount()).tags(tags).register(registry);
+        FunctionCounter.builder("davinci.cache.evictions", cache, c -> c.stats().evictionCount()).tags(tags).register(registry);
+        Gauge.builder("davinci.cache.hit.ratio", cache, c -> c.stats().hitRate()).tags(tags).register(registry);
+    }
+
+    /**
+     * 线程数、活跃线程、队列长度与完成任务数，仅支持 ThreadPoolExecutor
+     *
+     * @param registry
+     * @param name
+     * @param executorService
+     */
+    public static void bindExecutor(MeterRegistry registry, String name, ExecutorService executorService) {
+        if (!(executorService instanceof ThreadPoolExecutor)) {
+            return;
+        }
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) executorService;
+        Tags tags = Tags.of("executor", name);
+        Gauge.builder("davinci.executor.active", executor, ThreadPoolExecutor::getActiveCount).tags(tags).register(registry);
+        Gauge.builder("davinci.executor.pool.size", executor, ThreadPoolExecutor::getPoolSize).tags(tags).register(registry);
+        Gauge.builder("davinci.executor.pool.max", executor, ThreadPoolExecutor::getMaximumPoolSize).tags(tags).register(registry);
+        Gauge.builder("davinci.executor.queued", executor, e -> e.getQueue().size()).tags(tags).register(registry);
+        FunctionCounter.builder("davinci.executor.completed", executor, ThreadPoolExecutor::getCompletedTaskCount).tags(tags).register(registry);
+    }
+}
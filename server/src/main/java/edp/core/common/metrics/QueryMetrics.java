@@ -0,0 +1,252 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * view 查询链路分段耗时统计
+ * <p>
+ * 各阶段耗时记录在 davinci.query.stage（stage、source_type、view 标签），
+ * source_type 与 view 由调用线程通过 {@link #scope(String, Long)} 设置，未设置时为 none。
+ * AUTH 与 SERIALIZE 只对打开了 scope 的请求（widget/view 取数）记录，使用该请求的 view 标签
+ */
+@Component
+public class QueryMetrics {
+
+    public static final String STAGE_TIMER = "davinci.query.stage";
+
+    public static final String BORROW_TIMER = "davinci.datasource.borrow";
+
+    public static final String CACHE_COUNTER = "davinci.query.cache";
+
+    public static final String CACHE_HIT_RATIO = "davinci.query.cache.hit.ratio";
+
+    public static final String ROWS_SUMMARY = "davinci.query.rows";
+
+    public static final String THROUGHPUT_SUMMARY = "davinci.query.rows.per.second";
+
+    public static final String CACHE_RESULT = "result";
+
+    public static final String CACHE_COUNT = "count";
+
+    private static final String NONE = "none";
+
+    private static final Tags NONE_TAGS = Tags.of("source_type", NONE, "view", NONE);
+
+    private static final ThreadLocal<Context> CONTEXT = new ThreadLocal<>();
+
+    /**
+     * 请求的登录校验耗时，由拦截器设置，打开 scope 时记录
+     */
+    public static final String AUTH_NANOS_ATTRIBUTE = QueryMetrics.class.getName() + ".AUTH_NANOS";
+
+    private static final String REQUEST_TAGS_ATTRIBUTE = QueryMetrics.class.getName() + ".REQUEST_TAGS";
+
+    public enum Stage {
+        AUTH("auth"),
+        PARSE("parse"),
+        PARAMS("params"),
+        REPLACE("replace"),
+        RENDER("render"),
+        CACHE("cache"),
+        COUNT("count"),
+        FETCH("fetch"),
+        MAPPING("mapping"),
+        SERIALIZE("serialize");
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * view id 作为标签，view 数量较多时可关闭以控制指标数量
+     */
+    @Value("${source.metrics.view-id-tag:true}")
+    private boolean viewIdTag;
+
+    private final Map<String, CacheCounts> cacheCounts = new ConcurrentHashMap<>();
+
+    /**
+     * 设置当前线程的 source_type、view 标签，关闭时恢复之前的标签
+     *
+     * @param sourceType
+     * @param viewId
+     * @return
+     */
+    public Scope scope(String sourceType, Long viewId) {
+        Context previous = CONTEXT.get();
+        Context context = new Context(Tags.of("source_type", null == sourceType ? NONE : sourceType,
+                "view", viewIdTag && null != viewId ? String.valueOf(viewId) : NONE), viewId);
+        CONTEXT.set(context);
+        bindRequest(context.tags);
+        return new Scope(previous);
+    }
+
+    /**
+     * 在请求线程打开 scope 时记录登录校验耗时，并保存标签供响应序列化使用
+     */
+    private void bindRequest(Tags tags) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (null == attributes) {
+            return;
+        }
+        attributes.setAttribute(REQUEST_TAGS_ATTRIBUTE, tags, RequestAttributes.SCOPE_REQUEST);
+        Object authNanos = attributes.getAttribute(AUTH_NANOS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (authNanos instanceof Long) {
+            attributes.removeAttribute(AUTH_NANOS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+            record(Stage.AUTH, tags, (Long) authNanos);
+        }
+    }
+
+    /**
+     * 当前请求查询的标签，请求未打开过 scope 时为 null
+     *
+     * @return
+     */
+    public Tags requestTags() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (null == attributes) {
+            return null;
+        }
+        Object tags = attributes.getAttribute(REQUEST_TAGS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        return tags instanceof Tags ? (Tags) tags : null;
+    }
+
+    public Tags currentTags() {
+        Context context = CONTEXT.get();
+        return null == context ? NONE_TAGS : context.tags;
+    }
+
+    /**
+     * 当前线程查询的 view id，不受 view-id-tag 影响，未设置时为 null
+     *
+     * @return
+     */
+    public Long currentViewId() {
+        Context context = CONTEXT.get();
+        return null == context ? null : context.viewId;
+    }
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void record(Stage stage, long startNanos) {
+        record(stage, currentTags(), System.nanoTime() - startNanos);
+    }
+
+    public void record(Stage stage, Tags tags, long nanos) {
+        meterRegistry.timer(STAGE_TIMER, tags.and("stage", stage.getName())).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 连接池借出连接的等待时间
+     *
+     * @param nanos
+     */
+    public void recordBorrow(long nanos) {
+        meterRegistry.timer(BORROW_TIMER, currentTags()).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordCache(String cache, boolean hit) {
+        meterRegistry.counter(CACHE_COUNTER, currentTags().and("cache", cache, "result", hit ? "hit" : "miss")).increment();
+        CacheCounts counts = cacheCounts.computeIfAbsent(cache, name -> {
+            CacheCounts c = new CacheCounts();
+            Gauge.builder(CACHE_HIT_RATIO, c, CacheCounts::ratio).tags("cache", name).register(meterRegistry);
+            return c;
+        });
+        (hit ? counts.hits : counts.misses).incrementAndGet();
+    }
+
+    /**
+     * 结果集行数与读取速率
+     *
+     * @param rows
+     * @param nanos 执行与读取结果的总耗时
+     */
+    public void recordRows(long rows, long nanos) {
+        Tags tags = currentTags();
+        meterRegistry.summary(ROWS_SUMMARY, tags).record(rows);
+        if (nanos > 0) {
+            meterRegistry.summary(THROUGHPUT_SUMMARY, tags).record(rows * 1e9 / nanos);
+        }
+    }
+
+    public static final class Scope implements AutoCloseable {
+        private final Context previous;
+
+        private Scope(Context previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (null == previous) {
+                CONTEXT.remove();
+            } else {
+                CONTEXT.set(previous);
+            }
+        }
+    }
+
+    private static final class Context {
+        private final Tags tags;
+        private final Long viewId;
+
+        private Context(Tags tags, Long viewId) {
+            this.tags = tags;
+            this.viewId = viewId;
+        }
+    }
+
+    private static final class CacheCounts {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        private double ratio() {
+            long h = hits.get();
+            long total = h + misses.get();
+            return total == 0 ? 0D : (double) h / total;
+        }
+    }
+}
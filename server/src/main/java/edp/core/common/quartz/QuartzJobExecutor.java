@@ -29,66 +29,83 @@ import edp.davinci.core.config.SpringContextHolder;
 import edp.davinci.core.enums.CheckEntityEnum;
 import edp.davinci.core.enums.LockType;
 import edp.davinci.core.enums.LogNameEnum;
-import edp.davinci.service.excel.ExecutorUtil;
+import edp.davinci.model.CronJob;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.quartz.TriggerKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import org.springframework.beans.factory.annotation.Autowired;
 
 public class QuartzJobExecutor implements Job {
 
     private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
 
-    public static final ExecutorService executorService = Executors.newFixedThreadPool(4);
+    @Autowired
+    private ScheduleJobEngine scheduleJobEngine;
+
+    @Autowired
+    private ScheduleClusterManager scheduleClusterManager;
 
     @Override
     public void execute(JobExecutionContext jobExecutionContext) {
-        ExecutorUtil.printThreadPoolStatusLog(executorService, "Cronjob_Executor", scheduleLogger);
-        executorService.submit(() -> {
-            TriggerKey triggerKey = jobExecutionContext.getTrigger().getKey();
-            ScheduleJob scheduleJob = (ScheduleJob) jobExecutionContext.getMergedJobDataMap().get(QuartzHandler.getJobDataKey(triggerKey));
-            if (scheduleJob == null) {
-            	scheduleLogger.warn("ScheduleJob({}) is not found", triggerKey.getName());
+        TriggerKey triggerKey = jobExecutionContext.getTrigger().getKey();
+        ScheduleJob scheduleJob = (ScheduleJob) jobExecutionContext.getMergedJobDataMap().get(QuartzHandler.getJobDataKey(triggerKey));
+        if (scheduleJob == null) {
+            scheduleLogger.warn("ScheduleJob({}) is not found", triggerKey.getName());
+            return;
+        }
+
+        if (!scheduleClusterManager.isOwner(scheduleJob.getId())) {
+            scheduleLogger.info("ScheduleJob({}) is owned by other node, skip", scheduleJob.getId());
+            return;
+        }
+
+        String jobType = scheduleJob.getJobType() == null ? null : scheduleJob.getJobType().trim();
+        if (StringUtils.isEmpty(jobType)) {
+            scheduleLogger.warn("Unknown job type [{}], jobId(:{})", jobType, scheduleJob.getId());
+            return;
+        }
+
+        Long projectId = scheduleJob instanceof CronJob ? ((CronJob) scheduleJob).getProjectId() : null;
+        long scheduledFireTime = jobExecutionContext.getScheduledFireTime() == null ?
+                System.currentTimeMillis() : jobExecutionContext.getScheduledFireTime().getTime();
+
+        scheduleJobEngine.submit(jobType, scheduleJob.getId(), projectId, ScheduleJobEngine.PRIORITY_SCHEDULED, scheduledFireTime,
+                () -> doExecute(scheduleJob, jobType));
+    }
+
+    private void doExecute(ScheduleJob scheduleJob, String jobType) {
+        Long id = scheduleJob.getId();
+        if (scheduleJob.getStartDate().getTime() > System.currentTimeMillis()
+                || scheduleJob.getEndDate().getTime() < System.currentTimeMillis()) {
+            Object[] args = {
+                    id,
+                    DateUtils.toyyyyMMddHHmmss(System.currentTimeMillis()),
+                    DateUtils.toyyyyMMddHHmmss(scheduleJob.getStartDate()),
+                    DateUtils.toyyyyMMddHHmmss(scheduleJob.getEndDate()),
+                    scheduleJob.getCronExpression()
+            };
+            scheduleLogger.warn("ScheduleJob (:{}), current time [{}] is not within the planned execution time, StartTime: [{}], EndTime: [{}], Cron Expression: [{}]", args);
+            return;
+        }
+
+        ScheduleService scheduleService = (ScheduleService) SpringContextHolder.getBean(jobType + "ScheduleService");
+        if (scheduleService == null) {
+            scheduleLogger.warn("Unknown job type [{}], jobId(:{})", jobType, id);
+            return;
+        }
+
+        try {
+            String lockKey = CheckEntityEnum.CRONJOB.getSource().toUpperCase() + Constants.AT_SYMBOL + id + Constants.AT_SYMBOL + "EXECUTED";
+            if (!LockFactory.getLock(lockKey, 500, LockType.REDIS).getLock()) {
+                scheduleLogger.warn("ScheduleJob({}) has been executed by other instance", id);
                 return;
             }
-            
-			Long id = scheduleJob.getId();
-            if (scheduleJob.getStartDate().getTime() > System.currentTimeMillis()
-                    || scheduleJob.getEndDate().getTime() < System.currentTimeMillis()) {
-            	 Object[] args = {
-            			 id,
-                         DateUtils.toyyyyMMddHHmmss(System.currentTimeMillis()),
-                         DateUtils.toyyyyMMddHHmmss(scheduleJob.getStartDate()),
-                         DateUtils.toyyyyMMddHHmmss(scheduleJob.getEndDate()),
-                         scheduleJob.getCronExpression()
-                 };
-                 scheduleLogger.warn("ScheduleJob (:{}), current time [{}] is not within the planned execution time, StartTime: [{}], EndTime: [{}], Cron Expression: [{}]", args);
-                 return;
-            }
-
-			String jobType = scheduleJob.getJobType().trim();
-			ScheduleService scheduleService = (ScheduleService) SpringContextHolder
-					.getBean(jobType + "ScheduleService");
-			if (StringUtils.isEmpty(jobType) || scheduleService == null) {
-				scheduleLogger.warn("Unknown job type [{}], jobId(:{})", jobType, scheduleJob.getId());
-				return;
-			}
-			
-			try {
-				String lockKey = CheckEntityEnum.CRONJOB.getSource().toUpperCase() + Constants.AT_SYMBOL + id + Constants.AT_SYMBOL + "EXECUTED";
-				if (!LockFactory.getLock(lockKey, 500, LockType.REDIS).getLock()) {
-					scheduleLogger.warn("ScheduleJob({}) has been executed by other instance", id);
-					return;
-				}
-				scheduleService.execute(id);
-			} catch (Exception e) {
-				scheduleLogger.error("ScheduleJob({}) execute error:{}", id, e.getMessage());
-				scheduleLogger.error(e.getMessage(), e);
-			}
-        });
+            scheduleService.execute(id);
+        } catch (Exception e) {
+            scheduleLogger.error("ScheduleJob({}) execute error:{}", id, e.getMessage());
+            scheduleLogger.error(e.getMessage(), e);
+        }
     }
 }
@@ -0,0 +1,297 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.quartz;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.davinci.core.enums.LogNameEnum;
+import org.apache.commons.lang.StringUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 定时任务集群分片
+ * 各节点在zookeeper注册临时节点，按一致性hash把任务分配到存活节点上，
+ * 节点变化或任务启停时通知各节点重新平衡，每个任务只在一个节点上触发
+ * 未加入集群、与zookeeper失联或不在成员列表中时本节点不触发任何任务，失联期间由会话超时后的新成员列表接管
+ * 未开启 schedule.cluster.enable 时所有任务都属于本节点
+ */
+@Component
+public class ScheduleClusterManager {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    private static final String MEMBERS_PATH = "/schedule/members";
+
+    private static final String VERSION_PATH = "/schedule/version";
+
+    private static final int VIRTUAL_NODES = 160;
+
+    @Autowired
+    private Environment environment;
+
+    private CuratorFramework client;
+
+    private String nodeId;
+
+    private volatile boolean enabled = false;
+
+    /**
+     * 与zookeeper的连接状态，SUSPENDED/LOST 后到重新注册前为 false
+     */
+    private volatile boolean connected = false;
+
+    private final ConnectionStateListener connectionStateListener = this::onConnectionStateChanged;
+
+    private volatile ConsistentHashRing ring = new ConsistentHashRing(Collections.emptyList(), VIRTUAL_NODES);
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicBoolean rebalancePending = new AtomicBoolean(false);
+
+    private final ExecutorService rebalanceExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("Schedule-rebalance-%d").setDaemon(true).build());
+
+    public boolean isEnabled() {
+        return environment.getProperty("schedule.cluster.enable", Boolean.class, false);
+    }
+
+    public boolean isJoined() {
+        return enabled;
+    }
+
+    /**
+     * 加入集群，之后节点变化时回调已注册的监听
+     */
+    public synchronized void join() throws Exception {
+        if (enabled || !isEnabled()) {
+            return;
+        }
+
+        String zookeeperUrl = environment.getProperty("schedule.cluster.zookeeper-url");
+        if (StringUtils.isBlank(zookeeperUrl)) {
+            throw new IllegalStateException("schedule.cluster.zookeeper-url is required when schedule cluster is enabled");
+        }
+
+        CuratorFramework client = CuratorFrameworkFactory.builder()
+                .connectString(zookeeperUrl)
+                .namespace(environment.getProperty("schedule.cluster.namespace", "davinci"))
+                .retryPolicy(new ExponentialBackoffRetry(1000, 3))
+                .build();
+        client.start();
+
+        String nodeId = this.nodeId;
+        if (StringUtils.isBlank(nodeId)) {
+            nodeId = environment.getProperty("schedule.cluster.node-id");
+        }
+        if (StringUtils.isBlank(nodeId)) {
+            nodeId = InetAddress.getLocalHost().getHostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+
+        try {
+            join(client, nodeId);
+        } catch (Exception e) {
+            // 加入失败时关闭client，由定期校正重试
+            connected = false;
+            this.client = null;
+            client.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 使用给定的client加入集群，可配合curator-test的TestingServer使用
+     *
+     * @param client
+     * @param nodeId
+     */
+    public synchronized void join(CuratorFramework client, String nodeId) throws Exception {
+        this.client = client;
+        this.nodeId = nodeId;
+
+        // 重试加入时复用同一个监听，避免重复注册
+        client.getConnectionStateListenable().removeListener(connectionStateListener);
+        client.getConnectionStateListenable().addListener(connectionStateListener);
+
+        register();
+        connected = true;
+        if (client.checkExists().forPath(VERSION_PATH) == null) {
+            try {
+                client.create().creatingParentsIfNeeded().forPath(VERSION_PATH, new byte[0]);
+            } catch (KeeperException.NodeExistsException e) {
+                // created by another node
+            }
+        }
+
+        enabled = true;
+        scheduleLogger.info("Schedule node {} joined cluster", nodeId);
+
+        watchVersion();
+        refreshMembers();
+    }
+
+    /**
+     * 任务是否由本节点触发，集群模式下只有已加入、连接正常且在成员列表中的节点才可能是 owner
+     *
+     * @param jobId
+     * @return
+     */
+    public boolean isOwner(long jobId) {
+        if (!isEnabled()) {
+            return true;
+        }
+        if (!enabled || !connected) {
+            return false;
+        }
+        ConsistentHashRing current = ring;
+        return !current.isEmpty() && nodeId.equals(current.getOwner(String.valueOf(jobId)));
+    }
+
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 任务启停后通知所有节点重新平衡
+     */
+    public void notifyChanged() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            client.setData().forPath(VERSION_PATH, String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            scheduleLogger.error("Schedule node {} notify cluster error: {}", nodeId, e.getMessage());
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        rebalanceExecutor.shutdownNow();
+        connected = false;
+        if (client != null) {
+            enabled = false;
+            client.close();
+        }
+    }
+
+    private void onConnectionStateChanged(CuratorFramework client, ConnectionState state) {
+        switch (state) {
+            case SUSPENDED:
+            case LOST:
+                // 失联期间其他节点可能已接管本节点的任务，清空成员列表，重连后按最新成员重新分配
+                connected = false;
+                ring = new ConsistentHashRing(Collections.emptyList(), VIRTUAL_NODES);
+                scheduleLogger.warn("Schedule node {} connection {}, stop firing jobs", nodeId, state);
+                break;
+            case CONNECTED:
+            case RECONNECTED:
+                try {
+                    register();
+                } catch (Exception e) {
+                    scheduleLogger.error("Schedule node {} re-register error: {}", nodeId, e.getMessage());
+                    break;
+                }
+                connected = true;
+                refreshMembers();
+                break;
+            default:
+        }
+    }
+
+    private void register() throws Exception {
+        try {
+            client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
+                    .forPath(MEMBERS_PATH + "/" + nodeId, new byte[0]);
+        } catch (KeeperException.NodeExistsException e) {
+            // still registered in current session
+        }
+    }
+
+    private void refreshMembers() {
+        try {
+            List<String> members = client.getChildren().usingWatcher((CuratorWatcher) event -> refreshMembers()).forPath(MEMBERS_PATH);
+            List<String> sorted = new ArrayList<>(members);
+            Collections.sort(sorted);
+            ring = new ConsistentHashRing(sorted, VIRTUAL_NODES);
+            scheduleLogger.info("Schedule cluster members changed: {}", sorted);
+            fireRebalance();
+        } catch (Exception e) {
+            scheduleLogger.error("Schedule node {} refresh members error: {}", nodeId, e.getMessage());
+        }
+    }
+
+    private void watchVersion() {
+        try {
+            client.getData().usingWatcher((CuratorWatcher) event -> {
+                watchVersion();
+                fireRebalance();
+            }).forPath(VERSION_PATH);
+        } catch (Exception e) {
+            scheduleLogger.error("Schedule node {} watch version error: {}", nodeId, e.getMessage());
+        }
+    }
+
+    private void fireRebalance() {
+        // 合并短时间内的多次变化，避免zookeeper事件线程被阻塞
+        if (!rebalancePending.compareAndSet(false, true)) {
+            return;
+        }
+        rebalanceExecutor.execute(() -> {
+            rebalancePending.set(false);
+            for (Runnable listener : listeners) {
+                try {
+                    listener.run();
+                } catch (Exception e) {
+                    scheduleLogger.error("Schedule rebalance error: {}", e.getMessage());
+                    scheduleLogger.error(e.getMessage(), e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.quartz;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * 定时任务执行引擎
+ * 每种jobType一个独立通道，并发数通过 schedule.executor.concurrency.{jobType} 配置；
+ * 截图/Excel等生成阶段可通过stage线程池并行，邮件投递由 MailQueue 异步发送
+ */
+@Component
+public class ScheduleJobEngine {
+
+    /**
+     * 手动执行，优先于计划任务且不受misfire阈值限制
+     */
+    public static final int PRIORITY_MANUAL = 0;
+
+    public static final int PRIORITY_SCHEDULED = 1;
+
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    private static final long DEFAULT_MISFIRE_THRESHOLD_SECONDS = 3600L;
+
+    @Autowired
+    private Environment environment;
+
+    private final ConcurrentHashMap<String, ScheduleJobLane> lanes = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor stageExecutor;
+
+    @PostConstruct
+    public void init() {
+        int stageConcurrency = Math.max(1, environment.getProperty("schedule.executor.stage-concurrency", Integer.class, DEFAULT_CONCURRENCY));
+        stageExecutor = new ThreadPoolExecutor(stageConcurrency, stageConcurrency, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("Cronjob-stage-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        lanes.values().forEach(ScheduleJobLane::shutdown);
+        stageExecutor.shutdownNow();
+    }
+
+    public boolean submit(String jobType, long jobId, Long projectId, int priority, long scheduledFireTime, Runnable task) {
+        return getLane(jobType).submit(jobId, projectId, priority, scheduledFireTime, task);
+    }
+
+    public <T> Future<T> submitStage(Callable<T> task) {
+        return stageExecutor.submit(task);
+    }
+
+    public ScheduleJobLane getLane(String jobType) {
+        return lanes.computeIfAbsent(jobType, type -> {
+            int concurrency = environment.getProperty("schedule.executor.concurrency." + type, Integer.class,
+                    environment.getProperty("schedule.executor.concurrency.default", Integer.class, DEFAULT_CONCURRENCY));
+            long misfireThreshold = environment.getProperty("schedule.executor.misfire-threshold-seconds." + type, Long.class,
+                    environment.getProperty("schedule.executor.misfire-threshold-seconds.default", Long.class, DEFAULT_MISFIRE_THRESHOLD_SECONDS));
+            return new ScheduleJobLane(type, concurrency, TimeUnit.SECONDS.toMillis(misfireThreshold));
+        });
+    }
+
+    public Map<String, ScheduleJobLane> getLanes() {
+        return Collections.unmodifiableMap(lanes);
+    }
+
+    public ThreadPoolExecutor getStageExecutor() {
+        return stageExecutor;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.quartz;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.davinci.core.enums.LogNameEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 某一类任务(jobType)的执行通道
+ * 通道内按优先级分层，同一优先级下各项目轮转出队(fair-share)，同一项目内按计划触发时间先后执行；
+ * 同一任务已在排队时不重复入队，出队时超过迟到阈值的计划任务按misfire丢弃
+ */
+public class ScheduleJobLane {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    private final String jobType;
+
+    private final long misfireThresholdMillis;
+
+    private final ThreadPoolExecutor executor;
+
+    private final TreeMap<Integer, LinkedHashMap<Long, PriorityQueue<QueuedJob>>> queues = new TreeMap<>();
+
+    private final Set<Long> queuedJobIds = new HashSet<>();
+
+    private int queued = 0;
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder completed = new LongAdder();
+
+    private final LongAdder misfired = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder running = new LongAdder();
+
+    private final LongAdder totalQueueDelayMillis = new LongAdder();
+
+    private final AtomicLong maxQueueDelayMillis = new AtomicLong();
+
+    public ScheduleJobLane(String jobType, int concurrency, long misfireThresholdMillis) {
+        this.jobType = jobType;
+        this.misfireThresholdMillis = misfireThresholdMillis;
+        int threads = Math.max(1, concurrency);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("Cronjob-" + jobType + "-%d").setDaemon(true).build());
+    }
+
+    /**
+     * 任务入队，每次入队对应向线程池提交一个出队令牌，实际执行哪个任务在出队时决定
+     *
+     * @return 同一任务已在排队时返回false
+     */
+    public boolean submit(long jobId, Long projectId, int priority, long scheduledFireTime, Runnable task) {
+        QueuedJob job = new QueuedJob(jobId, projectId == null ? -jobId : projectId, priority, scheduledFireTime, task);
+        synchronized (queues) {
+            if (!queuedJobIds.add(jobId)) {
+                coalesced.increment();
+                scheduleLogger.warn("ScheduleJob({}) is already waiting in {} queue, skip this fire", jobId, jobType);
+                return false;
+            }
+            queues.computeIfAbsent(priority, k -> new LinkedHashMap<>())
+                    .computeIfAbsent(job.projectKey, k -> new PriorityQueue<>(Comparator.comparingLong(QueuedJob::getScheduledFireTime)))
+                    .add(job);
+            queued++;
+        }
+        submitted.increment();
+        executor.execute(this::runNext);
+        return true;
+    }
+
+    private QueuedJob poll() {
+        synchronized (queues) {
+            for (Iterator<LinkedHashMap<Long, PriorityQueue<QueuedJob>>> it = queues.values().iterator(); it.hasNext(); ) {
+                LinkedHashMap<Long, PriorityQueue<QueuedJob>> projects = it.next();
+                if (projects.isEmpty()) {
+                    it.remove();
+                    continue;
+                }
+                Map.Entry<Long, PriorityQueue<QueuedJob>> head = projects.entrySet().iterator().next();
+                PriorityQueue<QueuedJob> projectQueue = projects.remove(head.getKey());
+                QueuedJob job = projectQueue.poll();
+                if (!projectQueue.isEmpty()) {
+                    // 轮转到队尾，让其他项目先执行
+                    projects.put(head.getKey(), projectQueue);
+                }
+                if (projects.isEmpty()) {
+                    it.remove();
+                }
+                queuedJobIds.remove(job.jobId);
+                queued--;
+                return job;
+            }
+            return null;
+        }
+    }
+
+    private void runNext() {
+        QueuedJob job = poll();
+        if (job == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long queueDelay = now - job.enqueueTime;
+        totalQueueDelayMillis.add(queueDelay);
+        maxQueueDelayMillis.accumulateAndGet(queueDelay, Math::max);
+
+        long lateness = now - job.scheduledFireTime;
+        if (job.priority != ScheduleJobEngine.PRIORITY_MANUAL && misfireThresholdMillis > 0 && lateness > misfireThresholdMillis) {
+            misfired.increment();
+            scheduleLogger.warn("ScheduleJob({}) is misfired, {}ms late exceeds threshold {}ms", job.jobId, lateness, misfireThresholdMillis);
+            return;
+        }
+
+        running.increment();
+        try {
+            job.task.run();
+        } catch (Exception e) {
+            scheduleLogger.error("ScheduleJob({}) execute error:{}", job.jobId, e.getMessage());
+            scheduleLogger.error(e.getMessage(), e);
+        } finally {
+            running.decrement();
+            completed.increment();
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public String getJobType() {
+        return jobType;
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    public int getQueued() {
+        synchronized (queues) {
+            return queued;
+        }
+    }
+
+    public long getRunning() {
+        return running.sum();
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getMisfired() {
+        return misfired.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getTotalQueueDelayMillis() {
+        return totalQueueDelayMillis.sum();
+    }
+
+    public long getMaxQueueDelayMillis() {
+        return maxQueueDelayMillis.get();
+    }
+
+    private static class QueuedJob {
+
+        private final long jobId;
+
+        private final long projectKey;
+
+        private final int priority;
+
+        private final long scheduledFireTime;
+
+        private final long enqueueTime;
+
+        private final Runnable task;
+
+        QueuedJob(long jobId, long projectKey, int priority, long scheduledFireTime, Runnable task) {
+            this.jobId = jobId;
+            this.projectKey = projectKey;
+            this.priority = priority;
+            this.scheduledFireTime = scheduledFireTime;
+            this.enqueueTime = System.currentTimeMillis();
+            this.task = task;
+        }
+
+        long getScheduledFireTime() {
+            return scheduledFireTime;
+        }
+    }
+}
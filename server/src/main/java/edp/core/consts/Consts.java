@@ -174,6 +174,8 @@ public class Consts {
 
     public static final String DIR_TEMP = File.separator + "tempFiles" + File.separator;
 
+    public static final String DIR_EXTRACT = File.separator + "extracts" + File.separator;
+
     public static final String HTTP_PROTOCOL = "http";
 
     public static final String HTTPS_PROTOCOL = "https";
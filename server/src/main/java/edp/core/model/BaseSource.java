@@ -25,6 +25,10 @@ import edp.davinci.model.Source;
 
 public abstract class BaseSource extends RecordInfo<Source> {
 
+	public abstract Long getId();
+
+	public abstract String getName();
+
 	public abstract String getJdbcUrl();
 
 	public abstract String getUsername();
@@ -39,4 +43,6 @@ public abstract class BaseSource extends RecordInfo<Source> {
 
 	public abstract boolean isExt();
 
+	public abstract Integer getQueryTimeout();
+
 }
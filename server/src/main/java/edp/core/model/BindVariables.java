@@ -0,0 +1,184 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.model;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 绑定变量
+ * <p>
+ * 过滤条件与 query@var 生成 :name 占位符，执行时由 BoundSql 将 WHERE/HAVING/ON 条件中的占位符转为 ? 绑定，
+ * 同一 sql 文本可复用数据库执行计划与 PreparedStatement 缓存；其余位置（LIMIT、标识符、select 列等）
+ * 及不能绑定的场景通过 inline 还原为字面量
+ */
+public class BindVariables {
+
+    public static final String QUERY_PREFIX = "dv_q";
+
+    public static final String FILTER_PREFIX = "dv_f";
+
+    private static final Pattern PATTERN_BIND_NAME = Pattern.compile(":((" + QUERY_PREFIX + "|" + FILTER_PREFIX + ")\\d+)\\b");
+
+    private static final char APOSTROPHE = '\'';
+
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    private final Map<String, String> literals = new HashMap<>();
+
+    private int sequence = 0;
+
+    /**
+     * 登记绑定值
+     *
+     * @param prefix
+     * @param value   单值或 List（IN 条件）
+     * @param literal 内联时使用的 sql 字面量
+     * @return 占位符
+     */
+    public String bind(String prefix, Object value, String literal) {
+        String name = prefix + (sequence++);
+        values.put(name, value);
+        literals.put(name, literal);
+        return ":" + name;
+    }
+
+    public Map<String, Object> getValues() {
+        return values;
+    }
+
+    public String getLiteral(String name) {
+        return literals.get(name);
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * 绑定值签名，用于结果缓存 key
+     *
+     * @return
+     */
+    public String getSignature() {
+        return values.toString();
+    }
+
+    /**
+     * 将占位符还原为字面量
+     *
+     * @param sql
+     * @return
+     */
+    public String inline(String sql) {
+        if (null == sql || values.isEmpty()) {
+            return sql;
+        }
+        Matcher matcher = PATTERN_BIND_NAME.matcher(sql);
+        StringBuffer buffer = new StringBuffer();
+        while (matcher.find()) {
+            String literal = literals.get(matcher.group(1));
+            matcher.appendReplacement(buffer, Matcher.quoteReplacement(null == literal ? matcher.group() : literal));
+        }
+        matcher.appendTail(buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * 解析 'a','b' 形式的字面量列表
+     *
+     * @param literal
+     * @return 格式不符时返回 null
+     */
+    public static List<String> parseQuotedList(String literal) {
+        if (null == literal) {
+            return null;
+        }
+        String src = literal.trim();
+        List<String> list = new ArrayList<>();
+        int i = 0;
+        while (i < src.length()) {
+            if (src.charAt(i) != APOSTROPHE) {
+                return null;
+            }
+            StringBuilder value = new StringBuilder();
+            i++;
+            boolean closed = false;
+            while (i < src.length()) {
+                char c = src.charAt(i);
+                if (c == APOSTROPHE) {
+                    if (i + 1 < src.length() && src.charAt(i + 1) == APOSTROPHE) {
+                        value.append(APOSTROPHE);
+                        i += 2;
+                        continue;
+                    }
+                    closed = true;
+                    i++;
+                    break;
+                }
+                value.append(c);
+                i++;
+            }
+            if (!closed) {
+                return null;
+            }
+            list.add(value.toString());
+            while (i < src.length() && Character.isWhitespace(src.charAt(i))) {
+                i++;
+            }
+            if (i < src.length()) {
+                if (src.charAt(i) != ',') {
+                    return null;
+                }
+                i++;
+                while (i < src.length() && Character.isWhitespace(src.charAt(i))) {
+                    i++;
+                }
+                if (i == src.length()) {
+                    return null;
+                }
+            }
+        }
+        return list.isEmpty() ? null : list;
+    }
+
+    /**
+     * 解析 1,2,3 形式的数值列表
+     *
+     * @param literal
+     * @return 格式不符时返回 null
+     */
+    public static List<BigDecimal> parseNumberList(String literal) {
+        if (null == literal || literal.trim().isEmpty()) {
+            return null;
+        }
+        List<BigDecimal> list = new ArrayList<>();
+        for (String item : literal.split(",")) {
+            try {
+                list.add(new BigDecimal(item.trim()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return list;
+    }
+}
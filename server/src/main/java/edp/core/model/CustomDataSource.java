@@ -34,6 +34,8 @@ public class CustomDataSource {
     private String keyword_suffix;
     private String alias_prefix;
     private String alias_suffix;
+    private String pagination;
+    private boolean bind_variables;
 
 
     public void setKeyword_prefix(String keyword_prefix) {
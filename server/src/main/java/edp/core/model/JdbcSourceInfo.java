@@ -40,7 +40,15 @@ public class JdbcSourceInfo {
 
     private boolean ext;
 
-    private JdbcSourceInfo(String jdbcUrl, String username, String password, String database, String dbVersion, List<Dict> properties, boolean ext) {
+    /**
+     * davinci 数据源，不参与连接池的区分，只用于指标标记
+     */
+    private Long sourceId;
+
+    private String sourceName;
+
+    private JdbcSourceInfo(String jdbcUrl, String username, String password, String database, String dbVersion, List<Dict> properties, boolean ext,
+                           Long sourceId, String sourceName) {
         this.jdbcUrl = jdbcUrl;
         this.username = username;
         this.password = password;
@@ -48,6 +56,8 @@ public class JdbcSourceInfo {
         this.dbVersion = dbVersion;
         this.properties = properties;
         this.ext = ext;
+        this.sourceId = sourceId;
+        this.sourceName = sourceName;
     }
 
 
@@ -59,6 +69,8 @@ public class JdbcSourceInfo {
         private String dbVersion;
         private List<Dict> properties;
         private boolean ext;
+        private Long sourceId;
+        private String sourceName;
 
         private JdbcSourceInfoBuilder() {
         }
@@ -102,8 +114,18 @@ public class JdbcSourceInfo {
             return this;
         }
 
+        public JdbcSourceInfoBuilder withSourceId(Long sourceId) {
+            this.sourceId = sourceId;
+            return this;
+        }
+
+        public JdbcSourceInfoBuilder withSourceName(String sourceName) {
+            this.sourceName = sourceName;
+            return this;
+        }
+
         public JdbcSourceInfo build() {
-            return new JdbcSourceInfo(jdbcUrl, username, password, database, dbVersion, properties, ext);
+            return new JdbcSourceInfo(jdbcUrl, username, password, database, dbVersion, properties, ext, sourceId, sourceName);
         }
     }
 }
@@ -27,4 +27,9 @@ import java.util.Map;
 @Data
 public class PaginateWithQueryColumns extends Paginate<Map<String, Object>> {
     List<QueryColumn> columns;
+
+    /**
+     * 总数为估算值（仅知道还有下一页）
+     */
+    boolean totalCountEstimated = false;
 }
@@ -0,0 +1,246 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.utils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 文件下载
+ * <p>
+ * 支持单个 byte range（断点续传）、ETag/Last-Modified 条件请求及 HEAD；
+ * 容器支持 sendfile 时由 Tomcat 直接发送文件，否则通过 FileChannel.transferTo 写出，不在堆上缓存文件内容
+ */
+public final class DownloadUtils {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * 小于该大小的文件直接写出
+     */
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024L;
+
+    private DownloadUtils() {
+    }
+
+    /**
+     * 发送文件，Content-Type 与 Content-Disposition 由调用方设置
+     *
+     * @param file
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    public static void sendFile(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (null == file || !file.isFile()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        long length = file.length();
+        // http 日期精确到秒
+        long lastModified = file.lastModified() / 1000L * 1000L;
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+
+        if (!checkPreconditions(request, response, etag, lastModified)) {
+            return;
+        }
+
+        long start = 0L;
+        long end = length - 1;
+        String range = request.getHeader("Range");
+        if (null != range && matchIfRange(request, etag, lastModified)) {
+            long[] bounds = parseRange(range, length);
+            if (null != bounds) {
+                if (bounds.length == 0) {
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setHeader("Content-Length", String.valueOf(count));
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || count <= 0L) {
+            return;
+        }
+
+        if (count >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+            while (remaining > 0L) {
+                long transferred = channel.transferTo(position, remaining, out);
+                if (transferred <= 0L) {
+                    // 文件在下载过程中被截断
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+        response.flushBuffer();
+    }
+
+    /**
+     * If-Match/If-Unmodified-Since 不满足时返回 412，If-None-Match/If-Modified-Since 命中时返回 304
+     *
+     * @return 是否继续发送文件
+     */
+    private static boolean checkPreconditions(HttpServletRequest request, HttpServletResponse response, String etag, long lastModified) throws IOException {
+        String ifMatch = request.getHeader("If-Match");
+        if (null != ifMatch) {
+            if (!matchEtag(ifMatch, etag)) {
+                response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+                return false;
+            }
+        } else {
+            long ifUnmodifiedSince = getDateHeader(request, "If-Unmodified-Since");
+            if (ifUnmodifiedSince >= 0L && lastModified > ifUnmodifiedSince) {
+                response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+                return false;
+            }
+        }
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (null != ifNoneMatch) {
+            if (matchEtag(ifNoneMatch, etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return false;
+            }
+        } else {
+            long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+            if (ifModifiedSince >= 0L && lastModified <= ifModifiedSince) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 没有 If-Range 或文件未变化时按 Range 发送，否则发送整个文件
+     */
+    private static boolean matchIfRange(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (null == ifRange) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range 只接受强校验
+            return ifRange.equals(etag);
+        }
+        long date = getDateHeader(request, "If-Range");
+        return date >= 0L && date == lastModified;
+    }
+
+    private static boolean matchEtag(String header, String etag) {
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if ("*".equals(tag) || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * 解析单个 byte range，多段或格式错误时忽略 Range
+     *
+     * @param range
+     * @param length 文件大小
+     * @return null：忽略 Range；空数组：无法满足；否则为 [start, end]
+     */
+    static long[] parseRange(String range, long length) {
+        range = range.trim();
+        if (!range.startsWith("bytes=")) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // bytes=-n，最后 n 个字节
+                long suffix = Long.parseLong(last);
+                if (suffix < 0L) {
+                    return null;
+                }
+                if (suffix == 0L || length == 0L) {
+                    return new long[0];
+                }
+                start = Math.max(0L, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (start < 0L || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                    return null;
+                }
+                if (start >= length) {
+                    return new long[0];
+                }
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -20,26 +20,17 @@
 package edp.core.utils;
 
 import com.alibaba.druid.util.StringUtils;
-import com.sun.image.codec.jpeg.JPEGCodec;
-import com.sun.image.codec.jpeg.JPEGImageEncoder;
 import edp.davinci.core.enums.ActionEnum;
 import edp.davinci.core.enums.FileTypeEnum;
-import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.service.excel.MsgWrapper;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.util.FileCopyUtils;
 import org.springframework.web.multipart.MultipartFile;
 
-import javax.imageio.ImageIO;
 import javax.servlet.http.HttpServletResponse;
-import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.*;
 import java.nio.charset.Charset;
-import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -53,8 +44,6 @@ import static edp.core.consts.Consts.*;
 @Component
 public class FileUtils {
 
-    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
-
     @Value("${file.userfiles-path}")
     public String fileBasePath;
 
@@ -128,46 +117,6 @@ public class FileUtils {
     }
 
 
-    /**
-     * 下载文件
-     *
-     * @param filePath
-     * @param response
-     */
-    public void download(String filePath, HttpServletResponse response) {
-        if (!StringUtils.isEmpty(filePath)) {
-            File file = null;
-            if (!filePath.startsWith(fileBasePath)) {
-                file = new File(fileBasePath + filePath);
-            } else {
-                file = new File(filePath);
-            }
-            if (file.exists()) {
-                byte[] buffer = null;
-                InputStream is = null;
-                OutputStream os = null;
-                try {
-                    is = new BufferedInputStream(new FileInputStream(filePath));
-                    buffer = new byte[is.available()];
-                    is.read(buffer);
-                    response.reset();
-                    response.addHeader("Content-Disposition", "attachment;filename=" + new String(file.getName().getBytes(), "UTF-8"));
-                    response.addHeader("Content-Length", EMPTY + file.length());
-                    os = new BufferedOutputStream(response.getOutputStream());
-                    response.setContentType("application/octet-stream;charset=UTF-8");
-                    os.write(buffer);
-                    os.flush();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } finally {
-                    closeCloseable(os);
-                    closeCloseable(is);
-                    remove(filePath);
-                }
-            }
-        }
-    }
-
     /**
      * 删除文件
      *
@@ -257,73 +206,6 @@ public class FileUtils {
         }
     }
 
-    /**
-     * 图片压缩，图片比例按原比例输出
-     * tips: 压缩后的图片会替换原有的图片
-     * @param filepath
-     */
-    public static File compressedImage(String filepath) {
-        try {
-            File file = new File(filepath);
-            BufferedImage img_dest= null;
-
-            BufferedImage img_src = ImageIO.read(file);
-            int width = img_src.getWidth();
-            int height = img_src.getHeight();
-            long imageLength = file.length();
-
-            // 如果首次压缩图片还大于2M，则继续压缩
-            while (imageLength > (2 * 1024 * 1024)) {
-                // 开始读取文件并进行压缩
-
-                // 压缩模式设置
-                img_dest = new BufferedImage( width,  height, BufferedImage.TYPE_INT_RGB);
-                img_dest.getGraphics().drawImage(img_src.getScaledInstance(width, height, Image.SCALE_SMOOTH), 0, 0, null);
-
-                // 缩小
-                ImageIO.write(img_dest, "jpg", file);
-
-                // 计算图片压缩率
-                float rate = calcCompressedRate(imageLength, file.length());
-                // 如果压缩率小于10%，则不再进行压缩
-                if (rate < 10) {
-                    scheduleLogger.warn("Forced interruption, compression rate is less than {}",rate);
-                    break;
-                }
-
-                imageLength = file.length();
-                scheduleLogger.warn("File size after compression {},Compress again",imageLength);
-            }
-            imageLength = file.length();
-            scheduleLogger.warn("Final compressed file size {}",imageLength);
-
-            FileOutputStream output = new FileOutputStream(filepath);
-            //将图片按JPEG压缩
-            JPEGImageEncoder encoder = JPEGCodec.createJPEGEncoder(output);
-            encoder.encode(img_dest);
-            output.close();
-
-            return new File(filepath);
-        } catch (Exception e) {
-            scheduleLogger.error("Image compression failed",e);
-        }
-        return null;
-    }
-
-    /**
-     * 计算图片压缩率
-     * @param originLength
-     * @param compressedLength
-     * @return
-     */
-    public static float calcCompressedRate(long originLength, long compressedLength) {
-        DecimalFormat df = new DecimalFormat("0.000");
-        String rate = df.format((float)compressedLength  / originLength);
-        float result=  Float.valueOf(rate) * 100;
-        scheduleLogger.info("compression {}/{}={}%",compressedLength,originLength,result);
-        return result;
-    }
-
     public String getFilePath(FileTypeEnum type, MsgWrapper msgWrapper) {
         StringBuilder sb = new StringBuilder(this.fileBasePath);
         if (!sb.toString().endsWith(File.separator)) {
@@ -21,6 +21,8 @@ package edp.core.utils;
 
 import com.alibaba.druid.util.StringUtils;
 import com.google.common.base.Stopwatch;
+import edp.core.common.mail.MailDelivery;
+import edp.core.common.mail.MailQueue;
 import edp.core.exception.ServerException;
 import edp.core.model.MailContent;
 import lombok.extern.slf4j.Slf4j;
@@ -54,6 +56,9 @@ public class MailUtils {
     @Autowired
     private TemplateEngine templateEngine;
 
+    @Autowired
+    private MailQueue mailQueue;
+
     @Value("${spring.mail.username}")
     private String mailUsername;
 
@@ -67,8 +72,51 @@ public class MailUtils {
     private static final String MAIL_HTML_KEY = "html";
 
 
+    /**
+     * 发送邮件并等待投递结束（包括重试）
+     *
+     * @param mailContent
+     * @param customLogger
+     * @throws ServerException 邮件内容无效或最终发送失败
+     */
     public void sendMail(MailContent mailContent, Logger customLogger) throws ServerException {
+        MailDelivery delivery = sendMailAsync(mailContent, customLogger);
+        try {
+            delivery.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted while sending mail");
+        }
+        if (!delivery.isSent()) {
+            throw new ServerException(delivery.getLastError());
+        }
+    }
+
+    /**
+     * 生成邮件并放入发送队列，不等待投递
+     *
+     * @param mailContent
+     * @param customLogger
+     * @return 投递状态
+     * @throws ServerException 邮件内容无效或队列已满
+     */
+    public MailDelivery sendMailAsync(MailContent mailContent, Logger customLogger) throws ServerException {
         Stopwatch watch = Stopwatch.createStarted();
+        MimeMessage message = createMessage(mailContent, customLogger);
+        MailDelivery delivery = mailQueue.submit(message, mailContent.toString());
+        if (customLogger != null) {
+            delivery.whenDone(d -> {
+                if (d.isSent()) {
+                    customLogger.info("Email sending content:{}, attempts:{}, cost:{}", mailContent.toString(), d.getAttempts(), watch.elapsed(TimeUnit.MILLISECONDS));
+                } else {
+                    customLogger.error("Send mail error:{}", d.getLastError());
+                }
+            });
+        }
+        return delivery;
+    }
+
+    private MimeMessage createMessage(MailContent mailContent, Logger customLogger) throws ServerException {
         if (mailContent == null) {
             if (customLogger != null) {
                 customLogger.error("Email content is null");
@@ -194,16 +242,13 @@ public class MailUtils {
                 });
             }
 
-            javaMailSender.send(message);
-            if (customLogger != null) {
-                customLogger.info("Email sending content:{}, cost:{}", mailContent.toString(), watch.elapsed(TimeUnit.MILLISECONDS));
-            }
+            return message;
         } catch (Exception e) {
             if (customLogger != null) {
-                customLogger.error("Send mail error:{}", e.getMessage());
+                customLogger.error("Create mail error:{}", e.getMessage());
             }
-            e.printStackTrace();
+            log.error(e.getMessage(), e);
             throw new ServerException(e.getMessage());
-        } 
+        }
     }
 }
@@ -26,6 +26,7 @@ import edp.core.model.ScheduleJob;
 import edp.davinci.core.enums.LogNameEnum;
 import lombok.extern.slf4j.Slf4j;
 import org.quartz.*;
+import org.quartz.impl.matchers.GroupMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,6 +34,8 @@ import org.springframework.scheduling.quartz.SchedulerFactoryBean;
 import org.springframework.stereotype.Component;
 
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 @Slf4j
 @Component
@@ -170,6 +173,28 @@ public class QuartzHandler {
         return false;
     }
 
+    /**
+     * 当前节点已调度的任务id
+     *
+     * @return
+     * @throws ServerException
+     */
+    public Set<Long> getScheduledJobIds() throws ServerException {
+        Scheduler scheduler = schedulerFactoryBean.getScheduler();
+        Set<Long> ids = new HashSet<>();
+        try {
+            for (TriggerKey triggerKey : scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup())) {
+                String name = triggerKey.getName();
+                if (name.startsWith(JOB_NAME_PREFIX)) {
+                    ids.add(Long.parseLong(name.substring(JOB_NAME_PREFIX.length())));
+                }
+            }
+        } catch (SchedulerException e) {
+            throw new ServerException(e.getMessage());
+        }
+        return ids;
+    }
+
     public void shutdownJobs() throws ServerException {
         Scheduler scheduler = schedulerFactoryBean.getScheduler();
         try {
@@ -20,11 +20,27 @@ package edp.core.utils;
 
 import com.alibaba.druid.sql.SQLUtils;
 import com.alibaba.druid.util.StringUtils;
+import edp.core.common.jdbc.BoundSql;
+import edp.core.common.jdbc.CountQueryExecutor;
 import edp.core.common.jdbc.JdbcDataSource;
+import edp.core.common.jdbc.QueryLog;
+import edp.core.common.jdbc.QuerySession;
+import edp.core.common.jdbc.QueryTrackingJdbcTemplate;
+import edp.core.common.jdbc.RunningQuery;
+import edp.core.common.jdbc.WorkloadClass;
+import edp.core.common.jdbc.WorkloadManager;
+import edp.core.common.jdbc.buffer.BufferedResultList;
+import edp.core.common.jdbc.buffer.ResultBuffer;
+import edp.core.common.jdbc.buffer.ResultBufferManager;
+import edp.core.common.jdbc.dialect.PaginationDialect;
+import edp.core.common.jdbc.dialect.PaginationDialectFactory;
+import edp.core.common.metrics.QueryMetrics;
+import edp.core.common.metrics.TimedDataSource;
 import edp.core.consts.Consts;
 import edp.core.enums.DataTypeEnum;
 import edp.core.enums.SqlTypeEnum;
 import edp.core.exception.ServerException;
+import edp.core.exception.ServiceUnavailableException;
 import edp.core.exception.SourceException;
 import edp.core.model.*;
 import edp.davinci.core.enums.LogNameEnum;
@@ -47,7 +63,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.annotation.Scope;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
@@ -55,6 +73,9 @@ import java.math.BigDecimal;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 
 import static edp.core.consts.Consts.*;
@@ -70,12 +91,33 @@ public class SqlUtils {
     @Autowired
     private JdbcDataSource jdbcDataSource;
 
+    @Autowired
+    private CountQueryExecutor countQueryExecutor;
+
+    @Autowired
+    private WorkloadManager workloadManager;
+
+    @Autowired
+    private QueryMetrics queryMetrics;
+
+    @Autowired
+    private QueryLog queryLog;
+
+    @Autowired
+    private ResultBufferManager resultBufferManager;
+
     @Value("${source.result-limit:1000000}")
     private int resultLimit;
 
     @Value("${source.enable-query-log:false}")
     private boolean isQueryLogEnable;
 
+    @Value("${source.query-timeout-seconds:600}")
+    private int queryTimeout;
+
+    @Value("${source.session.init-cache:true}")
+    private boolean sessionInitCache;
+
     private static final String TABLE = "TABLE";
 
     private static final String VIEW = "VIEW";
@@ -93,6 +135,23 @@ public class SqlUtils {
 
     private SourceUtils sourceUtils;
 
+    private RunningQuery runningQuery;
+
+    /**
+     * 调用方申请名额时的负载类别，并发 count 按同一类别另占名额
+     */
+    private WorkloadClass workloadClass;
+
+    private long countCacheExpired;
+
+    private boolean countCacheFlush;
+
+    private boolean estimatedCount;
+
+    private BindVariables bindVariables;
+
+    private QuerySession querySession;
+
     public SqlUtils init(BaseSource source) {
         // Password decryption
         String decrypt = SourcePasswordEncryptUtils.decrypt(source.getPassword());
@@ -104,9 +163,18 @@ public class SqlUtils {
                 .withDbVersion(source.getDbVersion())
                 .withProperties(source.getProperties())
                 .withIsExt(source.isExt())
+                .withSourceId(source.getId())
+                .withSourceName(source.getName())
                 .withJdbcDataSource(this.jdbcDataSource)
+                .withCountQueryExecutor(this.countQueryExecutor)
+                .withWorkloadManager(this.workloadManager)
+                .withQueryMetrics(this.queryMetrics)
+                .withQueryLog(this.queryLog)
+                .withResultBufferManager(this.resultBufferManager)
+                .withSessionInitCache(this.sessionInitCache)
                 .withResultLimit(this.resultLimit)
                 .withIsQueryLogEnable(this.isQueryLogEnable)
+                .withQueryTimeout(null != source.getQueryTimeout() && source.getQueryTimeout() > 0 ? source.getQueryTimeout() : this.queryTimeout)
                 .build();
     }
 
@@ -122,26 +190,231 @@ public class SqlUtils {
                 .withProperties(properties)
                 .withIsExt(ext)
                 .withJdbcDataSource(this.jdbcDataSource)
+                .withCountQueryExecutor(this.countQueryExecutor)
+                .withWorkloadManager(this.workloadManager)
+                .withQueryMetrics(this.queryMetrics)
+                .withQueryLog(this.queryLog)
+                .withResultBufferManager(this.resultBufferManager)
+                .withSessionInitCache(this.sessionInitCache)
                 .withResultLimit(this.resultLimit)
                 .withIsQueryLogEnable(this.isQueryLogEnable)
+                .withQueryTimeout(this.queryTimeout)
                 .build();
     }
 
-    public void execute(String sql) throws ServerException {
-        sql = filterAnnotate(sql);
-        checkSensitiveSql(sql);
-        if (isQueryLogEnable) {
-            String md5 = MD5Util.getMD5(sql, true, 16);
-            sqlLogger.info("{} execute for sql:{}", md5, formatSql(sql));
+    /**
+     * 绑定查询注册表中的查询，之后的 Statement 可被超时/取消
+     *
+     * @param runningQuery
+     * @return
+     */
+    public SqlUtils withRunningQuery(RunningQuery runningQuery) {
+        this.runningQuery = runningQuery;
+        return this;
+    }
+
+    /**
+     * 总数缓存跟随结果缓存的过期时间
+     *
+     * @param expired 小于 1 时使用 source.count.cache-expire-seconds
+     * @param flush   忽略已缓存的总数
+     * @return
+     */
+    public SqlUtils withCountCache(long expired, boolean flush) {
+        this.countCacheExpired = expired;
+        this.countCacheFlush = flush;
+        return this;
+    }
+
+    /**
+     * 估算总数：不执行 count，多取一行判断是否还有下一页
+     *
+     * @param estimatedCount
+     * @return
+     */
+    public SqlUtils withEstimatedCount(boolean estimatedCount) {
+        this.estimatedCount = estimatedCount;
+        return this;
+    }
+
+    /**
+     * 使用绑定变量执行查询，条件中的占位符按位置绑定，其余位置内联为字面量，见 BoundSql
+     *
+     * @param bindVariables
+     * @return
+     */
+    public SqlUtils withBindVariables(BindVariables bindVariables) {
+        this.bindVariables = bindVariables;
+        return this;
+    }
+
+    /**
+     * 按负载类别申请数据源的执行名额，由调用方关闭；等待超时抛出 ServiceUnavailableException
+     *
+     * @param workloadClass
+     * @return
+     * @throws ServiceUnavailableException
+     */
+    public WorkloadManager.Admission admit(WorkloadClass workloadClass) throws ServiceUnavailableException {
+        if (null == workloadManager) {
+            return WorkloadManager.Admission.NONE;
+        }
+        this.workloadClass = workloadClass;
+        return workloadManager.admit(getSourceKey(), workloadClass, runningQuery);
+    }
+
+    /**
+     * 为并发 count 的独立连接不等待地申请同类别的名额，没有空闲名额时返回 null
+     *
+     * @return
+     */
+    private WorkloadManager.Admission tryAdmitCount() {
+        if (null == workloadManager) {
+            return WorkloadManager.Admission.NONE;
+        }
+        return workloadManager.tryAdmit(getSourceKey(), workloadClass);
+    }
+
+    private String getSourceKey() {
+        return jdbcSourceInfo.getUsername() + AT_SYMBOL + jdbcSourceInfo.getJdbcUrl();
+    }
+
+    private QueryLog.Origin getQueryOrigin() {
+        return null == queryLog ? null : queryLog.origin(getSourceKey(), runningQuery);
+    }
+
+    private void logQuery(QueryLog.Kind kind, String sql, long startNanos, long rows, long bytes, boolean failed) {
+        if (null != queryLog) {
+            queryLog.record(kind, getQueryOrigin(), sql, System.nanoTime() - startNanos, rows, bytes, failed);
+        }
+    }
+
+    /**
+     * 记录在 SqlUtils 之外执行的查询（如下载）
+     *
+     * @param kind
+     * @param viewId
+     * @param widgetId
+     * @param sql
+     * @param startNanos
+     * @param rows
+     * @param bytes      结果集估算大小
+     * @param failed
+     */
+    public void logQuery(QueryLog.Kind kind, Long viewId, Long widgetId, String sql, long startNanos, long rows, long bytes, boolean failed) {
+        if (null != queryLog) {
+            queryLog.record(kind, new QueryLog.Origin(viewId, widgetId, getSourceKey(), runningQuery), sql,
+                    System.nanoTime() - startNanos, rows, bytes, failed);
+        }
+    }
+
+    /**
+     * 打开查询会话，之后的语句与查询固定在同一连接上执行，由调用方关闭
+     *
+     * @return
+     * @throws SourceException
+     */
+    public QuerySession openSession() throws SourceException {
+        if (null == querySession || querySession.isClosed()) {
+            querySession = new QuerySession(sourceUtils.getConnection(jdbcSourceInfo), sessionInitCache);
+        }
+        return querySession;
+    }
+
+    private boolean hasSession() {
+        return null != querySession && !querySession.isClosed();
+    }
+
+    private boolean hasBindVariables() {
+        return null != bindVariables && !bindVariables.isEmpty();
+    }
+
+    private <T> T query(JdbcTemplate jdbcTemplate, String sql, ResultSetExtractor<T> extractor) {
+        return query(jdbcTemplate, sql, null, extractor);
+    }
+
+    /**
+     * @param args sql 末尾 ? 占位符的值，位于绑定变量之后
+     */
+    private <T> T query(JdbcTemplate jdbcTemplate, String sql, Object[] args, ResultSetExtractor<T> extractor) {
+        BoundSql boundSql = BoundSql.of(sql, bindVariables);
+        Object[] allArgs = boundSql.getArgs();
+        if (null != args && args.length > 0) {
+            allArgs = Arrays.copyOf(allArgs, allArgs.length + args.length);
+            System.arraycopy(args, 0, allArgs, allArgs.length - args.length, args.length);
+        }
+        if (allArgs.length > 0) {
+            return jdbcTemplate.query(boundSql.getSql(), allArgs, extractor);
+        }
+        return jdbcTemplate.query(boundSql.getSql(), extractor);
+    }
+
+    private void trackSql(String sql) {
+        if (null != runningQuery) {
+            runningQuery.setSql(sql);
         }
+    }
+
+    public void execute(String sql) throws ServerException {
+        sql = prepareExecuteSql(sql);
+        long start = System.nanoTime();
         try {
             jdbcTemplate().execute(sql);
+            logQuery(QueryLog.Kind.EXECUTE, sql, start, 0L, 0L, false);
         } catch (Exception e) {
+            logQuery(QueryLog.Kind.EXECUTE, sql, start, 0L, 0L, true);
             log.error(e.getMessage(), e);
             throw new ServerException(e.getMessage());
         }
     }
 
+    /**
+     * 执行前置语句，已打开会话时在会话连接上批量执行
+     *
+     * @param sqlList
+     * @throws ServerException
+     */
+    public void execute(List<String> sqlList) throws ServerException {
+        if (CollectionUtils.isEmpty(sqlList)) {
+            return;
+        }
+        if (!hasSession()) {
+            sqlList.forEach(this::execute);
+            return;
+        }
+        List<String> statements = new ArrayList<>(sqlList.size());
+        for (String sql : sqlList) {
+            statements.add(prepareExecuteSql(sql));
+        }
+        long start = System.nanoTime();
+        try {
+            if (querySession.prepare(statements, getQueryTimeout(), runningQuery)) {
+                logQuery(QueryLog.Kind.EXECUTE, String.join(";\n", statements), start, 0L, 0L, false);
+            } else if (isQueryLogEnable) {
+                sqlLogger.info("session already initialized, skip {} statements", statements.size());
+            }
+        } catch (Exception e) {
+            logQuery(QueryLog.Kind.EXECUTE, String.join(";\n", statements), start, 0L, 0L, true);
+            log.error(e.getMessage(), e);
+            throw new ServerException(e.getMessage());
+        }
+    }
+
+    private String prepareExecuteSql(String sql) {
+        // 非查询语句不绑定变量
+        if (null != bindVariables) {
+            sql = bindVariables.inline(sql);
+        }
+        sql = filterAnnotate(sql);
+        checkSensitiveSql(sql);
+        if (isQueryLogEnable) {
+            String md5 = MD5Util.getMD5(sql, true, 16);
+            sqlLogger.info("{} execute for sql:{}", md5, formatSql(sql));
+        }
+        trackSql(sql);
+        return sql;
+    }
+
     @Cacheable(value = "query", keyGenerator = "keyGenerator", sync = true)
     public PaginateWithQueryColumns syncQuery4Paginate(String sql, Integer pageNo, Integer pageSize, Integer totalCount, Integer limit, Set<String> excludeColumns) throws Exception {
         if (null == pageNo || pageNo < 1) {
@@ -164,12 +437,39 @@ public class SqlUtils {
     public List<Map<String, Object>> query4List(String sql, int limit) throws Exception {
         sql = filterAnnotate(sql);
         checkSensitiveSql(sql);
+        trackSql(sql);
         JdbcTemplate jdbcTemplate = jdbcTemplate();
         jdbcTemplate.setMaxRows(limit > resultLimit ? resultLimit : limit);
 
         long before = System.currentTimeMillis();
+        long start = System.nanoTime();
 
-        List<Map<String, Object>> list = jdbcTemplate.queryForList(sql);
+        List<Map<String, Object>> list;
+        // 超过内存预算的行溢写到磁盘
+        ResultBuffer resultBuffer = new ResultBuffer(resultBufferManager);
+        try {
+            ColumnMapRowMapper rowMapper = new ColumnMapRowMapper();
+            query(jdbcTemplate, sql, rs -> {
+                int rowNum = 0;
+                while (rs.next()) {
+                    resultBuffer.add(rowMapper.mapRow(rs, rowNum++));
+                }
+                return null;
+            });
+            list = resultBuffer.finish();
+        } catch (Exception e) {
+            logQuery(QueryLog.Kind.QUERY, sql, start, 0L, 0L, true);
+            throw e;
+        } finally {
+            resultBuffer.close();
+        }
+        logQuery(QueryLog.Kind.QUERY, sql, start, list.size(), resultBuffer.getResultBytes(), false);
+
+        if (null != queryMetrics) {
+            long nanos = System.nanoTime() - start;
+            queryMetrics.record(QueryMetrics.Stage.FETCH, queryMetrics.currentTags(), nanos);
+            queryMetrics.recordRows(list.size(), nanos);
+        }
 
         if (isQueryLogEnable) {
             String md5 = MD5Util.getMD5(sql, true, 16);
@@ -179,28 +479,108 @@ public class SqlUtils {
         return list;
     }
 
+    /**
+     * 逐行读取查询结果，不在内存中保留整个结果集
+     *
+     * @param sql
+     * @param limit           最多读取行数，不大于 0 时不限制
+     * @param columnsConsumer 读取第一行前回调列信息
+     * @param rowConsumer     按列顺序回调每行的值
+     * @throws Exception
+     */
+    public void query4Each(String sql, int limit, Consumer<List<QueryColumn>> columnsConsumer, Consumer<Object[]> rowConsumer) throws Exception {
+        query4Each(sql, null, limit, columnsConsumer, rowConsumer);
+    }
+
+    /**
+     * 逐行读取查询结果，sql 中的 ? 按位置绑定 args
+     *
+     * @param sql
+     * @param args            ? 占位符的值
+     * @param limit           最多读取行数，不大于 0 时不限制
+     * @param columnsConsumer 读取第一行前回调列信息
+     * @param rowConsumer     按列顺序回调每行的值
+     * @throws Exception
+     */
+    public void query4Each(String sql, Object[] args, int limit, Consumer<List<QueryColumn>> columnsConsumer, Consumer<Object[]> rowConsumer) throws Exception {
+        sql = filterAnnotate(sql);
+        checkSensitiveSql(sql);
+        trackSql(sql);
+        JdbcTemplate jdbcTemplate = jdbcTemplate();
+        if (limit > 0) {
+            jdbcTemplate.setMaxRows(limit);
+        }
+        // special for mysql
+        if (getDataTypeEnum() == DataTypeEnum.MYSQL) {
+            jdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+        }
+
+        long before = System.currentTimeMillis();
+        long start = System.nanoTime();
+        long[] bytes = new long[1];
+        Set<String> queryFromsAndJoins = getQueryFromsAndJoins(sql);
+        int count;
+        try {
+            count = query(jdbcTemplate, sql, args, rs -> {
+                ResultSetMetaData metaData = rs.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                List<QueryColumn> queryColumns = new ArrayList<>(columnCount);
+                for (int i = 1; i <= columnCount; i++) {
+                    String type = metaData.getColumnTypeName(i);
+                    queryColumns.add(new QueryColumn(getColumnLabel(queryFromsAndJoins, metaData.getColumnLabel(i)),
+                            StringUtils.isEmpty(type) ? "VARCHAR" : type));
+                }
+                columnsConsumer.accept(queryColumns);
+                int rows = 0;
+                while (rs.next()) {
+                    Object[] values = new Object[columnCount];
+                    for (int i = 1; i <= columnCount; i++) {
+                        values[i - 1] = rs.getObject(i);
+                        bytes[0] += QueryLog.sizeOf(values[i - 1]);
+                    }
+                    rowConsumer.accept(values);
+                    rows++;
+                }
+                return rows;
+            });
+        } catch (Exception e) {
+            logQuery(QueryLog.Kind.EACH, sql, start, 0L, bytes[0], true);
+            throw e;
+        }
+        logQuery(QueryLog.Kind.EACH, sql, start, count, bytes[0], false);
+
+        if (isQueryLogEnable) {
+            String md5 = MD5Util.getMD5(sql, true, 16);
+            sqlLogger.info("{} query each for({} ms) total count: {} sql:{}", md5, System.currentTimeMillis() - before, count, formatSql(sql));
+        }
+    }
+
     @CachePut(value = "query", keyGenerator = "keyGenerator")
     public PaginateWithQueryColumns query4Paginate(String sql, int pageNo, int pageSize, int totalCount, int limit, Set<String> excludeColumns) throws Exception {
         PaginateWithQueryColumns paginateWithQueryColumns = new PaginateWithQueryColumns();
         sql = filterAnnotate(sql);
         checkSensitiveSql(sql);
+        trackSql(sql);
 
         long before = System.currentTimeMillis();
 
         JdbcTemplate jdbcTemplate = jdbcTemplate();
         jdbcTemplate.setMaxRows(resultLimit);
+
+        PaginationDialect dialect = PaginationDialectFactory.getDialect(jdbcSourceInfo.getJdbcUrl(), jdbcSourceInfo.getDbVersion());
+        Set<String> resultExcludeColumns = getResultExcludeColumns(dialect, excludeColumns);
+
         if (pageNo < 1 && pageSize < 1) {
 
-            if (limit > 0) {
-                jdbcTemplate.setMaxRows(Math.min(limit, resultLimit));
-            }
+            int maxRows = limit > 0 ? Math.min(limit, resultLimit) : resultLimit;
+            jdbcTemplate.setMaxRows(maxRows);
 
             // special for mysql
             if (getDataTypeEnum() == DataTypeEnum.MYSQL) {
                 jdbcTemplate.setFetchSize(Integer.MIN_VALUE);
             }
 
-            getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
+            getResultForPaginate(dialect.limit(sql, maxRows), sql, paginateWithQueryColumns, jdbcTemplate, resultExcludeColumns, -1);
             paginateWithQueryColumns.setPageNo(1);
             int size = paginateWithQueryColumns.getResultList().size();
             paginateWithQueryColumns.setPageSize(size);
@@ -212,30 +592,69 @@ public class SqlUtils {
 
             int startRow = (pageNo - 1) * pageSize;
 
-            if (pageNo == 1 || totalCount == 0) {
-                Object o = jdbcTemplate.queryForList(getCountSql(sql), Object.class).get(0);
-                totalCount = Integer.parseInt(String.valueOf(o));
+            int fetchRows = pageSize;
+            if (limit > 0) {
+                fetchRows = Math.max(Math.min(limit - startRow, pageSize), 0);
+            }
+
+            // count 使用独立连接与分页查询并发执行，独立连接需另占一个执行名额；
+            // 没有空闲名额或会话中的查询（依赖会话状态）在分页查询之后于同一连接、同一名额下顺序执行
+            boolean needCount = !estimatedCount && (pageNo == 1 || totalCount == 0);
+            Future<Long> countFuture = null;
+            if (needCount && !hasSession()) {
+                WorkloadManager.Admission countAdmission = tryAdmitCount();
+                if (null != countAdmission) {
+                    String countSql = getCountSql(sql);
+                    countFuture = countQueryExecutor.submit(jdbcTemplate(), BoundSql.of(countSql, bindVariables),
+                            getCountCacheKey(countSql), countCacheExpired, countCacheFlush, getQueryOrigin(), countAdmission);
+                }
             }
 
-            if (limit > 0) {
-                totalCount = Math.min(Math.min(limit, resultLimit), totalCount);
-                if (limit < pageNo * pageSize) {
-                    jdbcTemplate.setMaxRows(limit - startRow);
+            int queryRows = estimatedCount ? fetchRows + 1 : fetchRows;
+            try {
+                if (fetchRows <= 0) {
+                    // 页超出 limit，直接返回空页，避免生成 FETCH NEXT 0 ROWS 等非法分页
+                    paginateWithQueryColumns.setColumns(new ArrayList<>());
+                    paginateWithQueryColumns.setResultList(new ArrayList<>());
                 } else {
-                    jdbcTemplate.setMaxRows(Math.min(limit, pageSize));
+                    // 分页下推到sql，方言不支持时由客户端跳过
+                    String pageSql = dialect.paginate(sql, startRow, queryRows);
+                    if (null != pageSql) {
+                        jdbcTemplate.setMaxRows(queryRows);
+                        getResultForPaginate(pageSql, sql, paginateWithQueryColumns, jdbcTemplate, resultExcludeColumns, -1);
+                    } else {
+                        jdbcTemplate.setMaxRows(Math.min(startRow + queryRows, resultLimit));
+                        getResultForPaginate(dialect.limit(sql, startRow + queryRows), sql, paginateWithQueryColumns, jdbcTemplate, resultExcludeColumns, startRow);
+                    }
                 }
-            } else {
-                jdbcTemplate.setMaxRows(pageNo * pageSize);
+            } catch (Exception e) {
+                if (null != countFuture) {
+                    countFuture.cancel(true);
+                }
+                throw e;
             }
 
-            paginateWithQueryColumns.setTotalCount(totalCount);
+            if (estimatedCount) {
+                List<Map<String, Object>> resultList = paginateWithQueryColumns.getResultList();
+                boolean hasMore = resultList.size() > fetchRows;
+                if (hasMore) {
+                    paginateWithQueryColumns.setResultList(new ArrayList<>(resultList.subList(0, fetchRows)));
+                    BufferedResultList.release(resultList);
+                }
+                totalCount = Math.max(totalCount, startRow + paginateWithQueryColumns.getResultList().size() + (hasMore ? 1 : 0));
+                paginateWithQueryColumns.setTotalCountEstimated(hasMore);
+            } else if (null != countFuture) {
+                totalCount = (int) Math.min(getCount(countFuture), Integer.MAX_VALUE);
+            } else if (needCount) {
+                String countSql = getCountSql(sql);
+                long count = countQueryExecutor.count(jdbcTemplate, BoundSql.of(countSql, bindVariables), getCountCacheKey(countSql), countCacheExpired, countCacheFlush, getQueryOrigin());
+                totalCount = (int) Math.min(count, Integer.MAX_VALUE);
+            }
 
-            if (this.dataTypeEnum == MYSQL) {
-                sql = sql + " LIMIT " + startRow + ", " + pageSize;
-                getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
-            } else {
-                getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, startRow);
+            if (limit > 0) {
+                totalCount = Math.min(Math.min(limit, resultLimit), totalCount);
             }
+            paginateWithQueryColumns.setTotalCount(totalCount);
         }
 
         if (isQueryLogEnable) {
@@ -250,47 +669,91 @@ public class SqlUtils {
         return paginateWithQueryColumns;
     }
 
-    private void getResultForPaginate(String sql, PaginateWithQueryColumns paginateWithQueryColumns, JdbcTemplate jdbcTemplate, Set<String> excludeColumns, int startRow) {
-        Set<String> queryFromsAndJoins = getQueryFromsAndJoins(sql);
-        jdbcTemplate.query(sql, rs -> {
-            if (null == rs) {
-                return paginateWithQueryColumns;
-            }
+    private long getCount(Future<Long> countFuture) throws Exception {
+        try {
+            return countFuture.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
 
-            ResultSetMetaData metaData = rs.getMetaData();
-            List<QueryColumn> queryColumns = new ArrayList<>();
-            for (int i = 1; i <= metaData.getColumnCount(); i++) {
-                String key = getColumnLabel(queryFromsAndJoins, metaData.getColumnLabel(i));
-                if (!CollectionUtils.isEmpty(excludeColumns) && excludeColumns.contains(key)) {
-                    continue;
-                }
-                queryColumns.add(new QueryColumn(key, metaData.getColumnTypeName(i)));
-            }
-            paginateWithQueryColumns.setColumns(queryColumns);
+    private String getCountCacheKey(String countSql) {
+        String signature = hasBindVariables() ? bindVariables.getSignature() : EMPTY;
+        return MD5Util.getMD5(jdbcSourceInfo.getJdbcUrl() + jdbcSourceInfo.getUsername() + countSql.replaceAll("\\s+", SPACE).trim() + signature, true, 32);
+    }
 
-            List<Map<String, Object>> resultList = new ArrayList<>();
+    private Set<String> getResultExcludeColumns(PaginationDialect dialect, Set<String> excludeColumns) {
+        if (null == dialect.getRowNumberColumn()) {
+            return excludeColumns;
+        }
+        Set<String> columns = CollectionUtils.isEmpty(excludeColumns) ? new HashSet<>() : new HashSet<>(excludeColumns);
+        columns.add(dialect.getRowNumberColumn());
+        return columns;
+    }
 
-            try {
-                if (startRow > 0) {
-                    rs.absolute(startRow);
+    private void getResultForPaginate(String sql, String srcSql, PaginateWithQueryColumns paginateWithQueryColumns, JdbcTemplate jdbcTemplate, Set<String> excludeColumns, int startRow) {
+        Set<String> queryFromsAndJoins = getQueryFromsAndJoins(srcSql);
+        long start = System.nanoTime();
+        long[] mappingNanos = new long[1];
+        ResultBuffer resultBuffer = new ResultBuffer(resultBufferManager);
+        try {
+            query(jdbcTemplate, sql, rs -> {
+                if (null == rs) {
+                    return paginateWithQueryColumns;
                 }
-                while (rs.next()) {
-                    resultList.add(getResultObjectMap(excludeColumns, rs, metaData, queryFromsAndJoins));
+
+                ResultSetMetaData metaData = rs.getMetaData();
+                List<QueryColumn> queryColumns = new ArrayList<>();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    String key = getColumnLabel(queryFromsAndJoins, metaData.getColumnLabel(i));
+                    if (!CollectionUtils.isEmpty(excludeColumns) && excludeColumns.contains(key)) {
+                        continue;
+                    }
+                    queryColumns.add(new QueryColumn(key, metaData.getColumnTypeName(i)));
                 }
-            } catch (Throwable e) {
-                int currentRow = 0;
-                while (rs.next()) {
-                    if (currentRow >= startRow) {
-                        resultList.add(getResultObjectMap(excludeColumns, rs, metaData, queryFromsAndJoins));
+                paginateWithQueryColumns.setColumns(queryColumns);
+
+                try {
+                    if (startRow > 0) {
+                        rs.absolute(startRow);
+                    }
+                    while (rs.next()) {
+                        long mapStart = System.nanoTime();
+                        resultBuffer.add(getResultObjectMap(excludeColumns, rs, metaData, queryFromsAndJoins));
+                        mappingNanos[0] += System.nanoTime() - mapStart;
+                    }
+                } catch (Throwable e) {
+                    int currentRow = 0;
+                    while (rs.next()) {
+                        if (currentRow >= startRow) {
+                            long mapStart = System.nanoTime();
+                            resultBuffer.add(getResultObjectMap(excludeColumns, rs, metaData, queryFromsAndJoins));
+                            mappingNanos[0] += System.nanoTime() - mapStart;
+                        }
+                        currentRow++;
                     }
-                    currentRow++;
                 }
-            }
 
-            paginateWithQueryColumns.setResultList(resultList);
+                paginateWithQueryColumns.setResultList(resultBuffer.finish());
 
-            return paginateWithQueryColumns;
-        });
+                return paginateWithQueryColumns;
+            });
+        } catch (RuntimeException e) {
+            logQuery(QueryLog.Kind.PAGE, sql, start, 0L, 0L, true);
+            throw e;
+        } finally {
+            resultBuffer.close();
+        }
+        List<Map<String, Object>> pageList = paginateWithQueryColumns.getResultList();
+        logQuery(QueryLog.Kind.PAGE, sql, start, null == pageList ? 0L : pageList.size(), resultBuffer.getResultBytes(), false);
+
+        // fetch 为执行与读取结果集的耗时，不含行转换
+        if (null != queryMetrics) {
+            long nanos = System.nanoTime() - start;
+            queryMetrics.record(QueryMetrics.Stage.FETCH, queryMetrics.currentTags(), nanos - mappingNanos[0]);
+            queryMetrics.record(QueryMetrics.Stage.MAPPING, queryMetrics.currentTags(), mappingNanos[0]);
+            queryMetrics.recordRows(null == pageList ? 0 : pageList.size(), nanos);
+        }
     }
 
     private Map<String, Object> getResultObjectMap(Set<String> excludeColumns, ResultSet rs, ResultSetMetaData metaData, Set<String> queryFromsAndJoins) throws SQLException {
@@ -671,18 +1134,107 @@ public class SqlUtils {
     }
 
     public JdbcTemplate jdbcTemplate() throws SourceException {
-        Connection connection = null;
-        try {
-            connection = sourceUtils.getConnection(jdbcSourceInfo);
-        } finally {
-            SourceUtils.releaseConnection(connection);
+        DataSource dataSource;
+        if (hasSession()) {
+            dataSource = querySession.getDataSource();
+        } else {
+            Connection connection = null;
+            try {
+                connection = sourceUtils.getConnection(jdbcSourceInfo);
+            } finally {
+                SourceUtils.releaseConnection(connection);
+            }
+            dataSource = sourceUtils.getDataSource(jdbcSourceInfo);
+            if (null != queryMetrics) {
+                dataSource = new TimedDataSource(dataSource, queryMetrics);
+            }
         }
-        DataSource dataSource = sourceUtils.getDataSource(jdbcSourceInfo);
-        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        JdbcTemplate jdbcTemplate = null == runningQuery ? new JdbcTemplate(dataSource) : new QueryTrackingJdbcTemplate(dataSource, runningQuery);
         jdbcTemplate.setFetchSize(500);
+        int timeout = getQueryTimeout();
+        if (timeout > 0) {
+            jdbcTemplate.setQueryTimeout(timeout);
+        }
         return jdbcTemplate;
     }
 
+    /**
+     * 请求指定的超时优先，其次为 source 配置，最后为 source.query-timeout-seconds
+     *
+     * @return
+     */
+    public int getQueryTimeout() {
+        if (null != runningQuery && runningQuery.getTimeoutSeconds() > 0) {
+            return runningQuery.getTimeoutSeconds();
+        }
+        return queryTimeout;
+    }
+
+    /**
+     * 数据源是否支持绑定变量，自定义数据源通过 datasource_driver.yml 的 bind_variables 开启
+     *
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public static boolean isBindVariablesSupported(String jdbcUrl, String dbVersion) {
+        if (StringUtils.isEmpty(jdbcUrl)) {
+            return false;
+        }
+        CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
+        if (null != customDataSource) {
+            return customDataSource.isBind_variables();
+        }
+        DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
+        if (null == dataTypeEnum) {
+            return false;
+        }
+        switch (dataTypeEnum) {
+            case MYSQL:
+            case ORACLE:
+            case SQLSERVER:
+            case H2:
+            case PHOENIX:
+            case CLICKHOUSE:
+            case KYLIN:
+            case VERTICA:
+            case HANA:
+            case IMPALA:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 数据源默认是否按二进制比较字符串（大小写敏感），本地计算据此决定字符串过滤能否在内存中执行；
+     * mysql、sqlserver 等默认排序规则大小写不敏感，自定义数据源无法确定
+     *
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public static boolean isBinaryStringComparison(String jdbcUrl, String dbVersion) {
+        if (StringUtils.isEmpty(jdbcUrl) || null != CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion)) {
+            return false;
+        }
+        DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
+        if (null == dataTypeEnum) {
+            return false;
+        }
+        switch (dataTypeEnum) {
+            case ORACLE:
+            case H2:
+            case PRESTO:
+            case CLICKHOUSE:
+            case PHOENIX:
+            case IMPALA:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     public boolean testConnection() throws SourceException {
         try (Connection connection = sourceUtils.getConnection(jdbcSourceInfo);) {
             if (null != connection) {
@@ -963,6 +1515,15 @@ public class SqlUtils {
         private List<Dict> properties;
         private String dbVersion;
         private boolean isExt;
+        private int queryTimeout;
+        private CountQueryExecutor countQueryExecutor;
+        private WorkloadManager workloadManager;
+        private QueryMetrics queryMetrics;
+        private QueryLog queryLog;
+        private ResultBufferManager resultBufferManager;
+        private boolean sessionInitCache;
+        private Long sourceId;
+        private String sourceName;
 
         private SqlUtilsBuilder() {
 
@@ -1017,6 +1578,51 @@ public class SqlUtils {
             return this;
         }
 
+        SqlUtilsBuilder withSourceId(Long sourceId) {
+            this.sourceId = sourceId;
+            return this;
+        }
+
+        SqlUtilsBuilder withSourceName(String sourceName) {
+            this.sourceName = sourceName;
+            return this;
+        }
+
+        SqlUtilsBuilder withCountQueryExecutor(CountQueryExecutor countQueryExecutor) {
+            this.countQueryExecutor = countQueryExecutor;
+            return this;
+        }
+
+        SqlUtilsBuilder withWorkloadManager(WorkloadManager workloadManager) {
+            this.workloadManager = workloadManager;
+            return this;
+        }
+
+        SqlUtilsBuilder withQueryMetrics(QueryMetrics queryMetrics) {
+            this.queryMetrics = queryMetrics;
+            return this;
+        }
+
+        SqlUtilsBuilder withQueryLog(QueryLog queryLog) {
+            this.queryLog = queryLog;
+            return this;
+        }
+
+        SqlUtilsBuilder withResultBufferManager(ResultBufferManager resultBufferManager) {
+            this.resultBufferManager = resultBufferManager;
+            return this;
+        }
+
+        SqlUtilsBuilder withQueryTimeout(int queryTimeout) {
+            this.queryTimeout = queryTimeout;
+            return this;
+        }
+
+        SqlUtilsBuilder withSessionInitCache(boolean sessionInitCache) {
+            this.sessionInitCache = sessionInitCache;
+            return this;
+        }
+
         public SqlUtils build() throws ServerException {
             String datasource = SourceUtils.isSupportedDatasource(jdbcUrl);
             SourceUtils.checkDriver(datasource, jdbcUrl, dbVersion, isExt);
@@ -1031,12 +1637,21 @@ public class SqlUtils {
                     .withDbVersion(this.dbVersion)
                     .withProperties(this.properties)
                     .withExt(this.isExt)
+                    .withSourceId(this.sourceId)
+                    .withSourceName(this.sourceName)
                     .build();
 
             SqlUtils sqlUtils = new SqlUtils(jdbcSourceInfo);
             sqlUtils.jdbcDataSource = this.jdbcDataSource;
             sqlUtils.resultLimit = this.resultLimit;
             sqlUtils.isQueryLogEnable = this.isQueryLogEnable;
+            sqlUtils.queryTimeout = this.queryTimeout;
+            sqlUtils.countQueryExecutor = this.countQueryExecutor;
+            sqlUtils.workloadManager = this.workloadManager;
+            sqlUtils.queryMetrics = this.queryMetrics;
+            sqlUtils.queryLog = this.queryLog;
+            sqlUtils.resultBufferManager = this.resultBufferManager;
+            sqlUtils.sessionInitCache = this.sessionInitCache;
             sqlUtils.sourceUtils = new SourceUtils(this.jdbcDataSource);
 
             return sqlUtils;
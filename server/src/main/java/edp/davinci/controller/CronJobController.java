@@ -132,7 +132,9 @@ public class CronJobController extends BaseController {
                                          @ApiIgnore @CurrentUser User user,
                                          HttpServletRequest request) {
 
-        cronJobService.executeCronJob(id, user);
+        if (!cronJobService.executeCronJob(id, user)) {
+            return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).message("The job is already waiting to run"));
+        }
         return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request));
     }
 
@@ -0,0 +1,198 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.controller;
+
+import edp.core.annotation.CurrentUser;
+import edp.core.common.jdbc.QueryLog;
+import edp.core.common.jdbc.QueryRegistry;
+import edp.core.common.jdbc.RunningQuery;
+import edp.core.common.jdbc.WorkloadManager;
+import edp.core.common.metrics.DataSourcePoolMetrics;
+import edp.core.enums.HttpCodeEnum;
+import edp.core.exception.ServerException;
+import edp.davinci.common.controller.BaseController;
+import edp.davinci.core.common.Constants;
+import edp.davinci.core.common.ResultMap;
+import edp.davinci.model.User;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import springfox.documentation.annotations.ApiIgnore;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Api(value = "/queries", tags = "queries", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+@ApiResponses(@ApiResponse(code = 404, message = "query not found"))
+@Slf4j
+@RestController
+@RequestMapping(value = Constants.BASE_API_PATH + "/queries", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+public class QueryController extends BaseController {
+
+    @Autowired
+    private QueryRegistry queryRegistry;
+
+    @Autowired
+    private WorkloadManager workloadManager;
+
+    @Autowired
+    private DataSourcePoolMetrics dataSourcePoolMetrics;
+
+    @Autowired
+    private QueryLog queryLog;
+
+    /**
+     * 获取正在执行的查询，source.query-admins 中的用户可查看全部
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get running queries")
+    @GetMapping
+    public ResponseEntity getRunningQueries(@ApiIgnore @CurrentUser User user, HttpServletRequest request) {
+        List<RunningQuery> queries = queryRegistry.list(queryRegistry.isAdmin(user.getUsername()) ? null : user.getId());
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payloads(queries));
+    }
+
+    /**
+     * 查询准入状态：各负载类别的排队、执行、拒绝与等待时间，及各数据源的当前占用，仅 source.query-admins 可查看
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get workload stats")
+    @GetMapping("/workload")
+    public ResponseEntity getWorkload(@ApiIgnore @CurrentUser User user, HttpServletRequest request) {
+        if (!queryRegistry.isAdmin(user.getUsername())) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request, HttpCodeEnum.FORBIDDEN).message("you have not permission to view workload");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        Map<String, Object> workload = new HashMap<>();
+        workload.put("enabled", workloadManager.isEnabled());
+        workload.put("classes", workloadManager.getStats());
+        workload.put("sources", workloadManager.getSourceStats());
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(workload));
+    }
+
+    /**
+     * 各数据源连接池的占用与等待情况，按使用率降序，仅 source.query-admins 可查看
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get datasource pool stats")
+    @GetMapping("/pools")
+    public ResponseEntity getPools(@ApiIgnore @CurrentUser User user, HttpServletRequest request) {
+        if (!queryRegistry.isAdmin(user.getUsername())) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request, HttpCodeEnum.FORBIDDEN).message("you have not permission to view pools");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payloads(dataSourcePoolMetrics.getPoolStats()));
+    }
+
+    /**
+     * 按 sql 指纹汇总的查询，取总耗时（total）、p95 或执行次数（count）最高的前 N 个，仅 source.query-admins 可查看
+     *
+     * @param orderBy
+     * @param limit
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get top query fingerprints")
+    @GetMapping("/top")
+    public ResponseEntity getTopQueries(@RequestParam(required = false, defaultValue = QueryLog.ORDER_TOTAL) String orderBy,
+                                        @RequestParam(required = false, defaultValue = "20") int limit,
+                                        @ApiIgnore @CurrentUser User user,
+                                        HttpServletRequest request) {
+        if (!queryRegistry.isAdmin(user.getUsername())) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request, HttpCodeEnum.FORBIDDEN).message("you have not permission to view query log");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+        if (!queryLog.isEnabled()) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("query log is disabled");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        try {
+            return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(queryLog.top(orderBy, limit)));
+        } catch (ServerException e) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message(e.getMessage());
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+    }
+
+    /**
+     * 终止查询
+     *
+     * @param id
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "kill running query")
+    @DeleteMapping("/{id}")
+    public ResponseEntity killQuery(@PathVariable String id,
+                                    @ApiIgnore @CurrentUser User user,
+                                    HttpServletRequest request) {
+        RunningQuery query = queryRegistry.get(id);
+        if (null == query) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("query is not found or finished");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        if (!queryRegistry.isAdmin(user.getUsername()) && !user.getId().equals(query.getUserId())) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request, HttpCodeEnum.FORBIDDEN).message("you have not permission to kill this query");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        queryRegistry.kill(id, user.getUsername());
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request));
+    }
+
+    /**
+     * 客户端放弃请求（页面跳转、组件卸载）时取消对应查询
+     *
+     * @param queryKey
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "abort query by query key")
+    @PostMapping("/abort")
+    public ResponseEntity abortQuery(@RequestParam String queryKey,
+                                     @ApiIgnore @CurrentUser User user,
+                                     HttpServletRequest request) {
+        boolean aborted = queryRegistry.abort(user.getId(), queryKey);
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(aborted));
+    }
+}
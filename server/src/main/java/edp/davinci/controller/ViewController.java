@@ -30,6 +30,7 @@ import edp.davinci.dto.viewDto.*;
 import edp.davinci.model.DacChannel;
 import edp.davinci.model.User;
 import edp.davinci.service.ViewService;
+import edp.davinci.service.extract.ExtractMeta;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
@@ -114,6 +115,54 @@ public class ViewController extends BaseController {
     }
 
 
+    /**
+     * 获取view extract状态：构建时间、行数、文件大小与耗时
+     *
+     * @param id
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get view extract")
+    @GetMapping("/{id}/extract")
+    public ResponseEntity getExtract(@PathVariable Long id,
+                                     @ApiIgnore @CurrentUser User user,
+                                     HttpServletRequest request) {
+
+        if (invalidId(id)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid view id");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        ExtractMeta meta = viewService.getExtractMeta(id, user);
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(meta));
+    }
+
+
+    /**
+     * 立即刷新view extract
+     *
+     * @param id
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "refresh view extract")
+    @PostMapping("/{id}/extract")
+    public ResponseEntity refreshExtract(@PathVariable Long id,
+                                         @ApiIgnore @CurrentUser User user,
+                                         HttpServletRequest request) {
+
+        if (invalidId(id)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid view id");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        ExtractMeta meta = viewService.refreshExtract(id, user);
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(meta));
+    }
+
+
     /**
      * 新建view
      *
@@ -272,6 +321,38 @@ public class ViewController extends BaseController {
     }
 
 
+    /**
+     * 控件去重值搜索，分页返回匹配关键字的值
+     *
+     * @param id
+     * @param param
+     * @param bindingResult
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "search distinct value")
+    @PostMapping(value = "/{id}/searchdistinctvalue", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity searchDistinctValue(@PathVariable Long id,
+                                              @Valid @RequestBody DistinctSearchParam param,
+                                              @ApiIgnore BindingResult bindingResult,
+                                              @ApiIgnore @CurrentUser User user,
+                                              HttpServletRequest request) {
+        if (invalidId(id)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid view id");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        if (bindingResult.hasErrors()) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message(bindingResult.getFieldErrors().get(0).getDefaultMessage());
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        Paginate<Map<String, Object>> paginate = viewService.searchDistinctValue(id, param, user);
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(paginate));
+    }
+
+
     @ApiOperation(value = "get dac channels")
     @GetMapping("/dac/channels")
     public ResponseEntity getDacChannels(@ApiIgnore @CurrentUser User user, HttpServletRequest request) {
@@ -0,0 +1,208 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.core.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import edp.core.common.jdbc.CountQueryExecutor;
+import edp.core.common.jdbc.QueryRegistry;
+import edp.core.common.jdbc.QuerySession;
+import edp.core.common.jdbc.WorkloadManager;
+import edp.core.common.jdbc.buffer.ResultBufferManager;
+import edp.core.common.mail.MailQueue;
+import edp.core.common.quartz.ScheduleJobEngine;
+import edp.core.common.quartz.ScheduleJobLane;
+import edp.core.common.quartz.ScheduleService;
+import edp.davinci.service.compute.LocalComputeEngine;
+import edp.davinci.service.distinct.DistinctIndexCache;
+import edp.davinci.service.elastic.ElasticOperationService;
+import edp.davinci.service.excel.ExecutorUtil;
+import edp.davinci.service.extract.ExtractStore;
+import edp.davinci.service.impl.ViewServiceImpl;
+import edp.davinci.service.screenshot.ImagePipeline;
+import edp.davinci.service.screenshot.ScreenshotUtil;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+
+import static edp.core.common.metrics.MetricsBinders.bindCache;
+import static edp.core.common.metrics.MetricsBinders.bindExecutor;
+
+/**
+ * 缓存、线程池、定时任务通道、查询准入、邮件队列及统计写入的指标
+ * <p>
+ * 启动完成后注册，避免与依赖 MeterRegistry 的组件形成循环依赖；数据源连接池见 DataSourcePoolMetrics
+ */
+@Configuration
+public class MetricsConfig {
+
+    private static final String SCHEDULE_SERVICE_SUFFIX = "ScheduleService";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private CountQueryExecutor countQueryExecutor;
+
+    @Autowired
+    private QueryRegistry queryRegistry;
+
+    @Autowired
+    private WorkloadManager workloadManager;
+
+    @Autowired
+    private ResultBufferManager resultBufferManager;
+
+    @Autowired
+    private ScheduleJobEngine scheduleJobEngine;
+
+    @Autowired
+    private ScreenshotUtil screenshotUtil;
+
+    @Autowired
+    private ImagePipeline imagePipeline;
+
+    @Autowired
+    private LocalComputeEngine localComputeEngine;
+
+    @Autowired
+    private ExtractStore extractStore;
+
+    @Autowired
+    private DistinctIndexCache distinctIndexCache;
+
+    @Autowired
+    private MailQueue mailQueue;
+
+    @Autowired
+    private ElasticOperationService elasticOperationService;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void bindMetrics() {
+        bindCaches();
+        bindExecutors();
+        bindScheduleLanes();
+        bindQueries();
+        bindMail();
+        bindStatistic();
+    }
+
+    private void bindCaches() {
+        for (String name : cacheManager.getCacheNames()) {
+            Object nativeCache = cacheManager.getCache(name).getNativeCache();
+            if (nativeCache instanceof Cache) {
+                bindCache(meterRegistry, name, (Cache<?, ?>) nativeCache);
+            }
+        }
+        bindCache(meterRegistry, "count", countQueryExecutor.getCountCache());
+        bindCache(meterRegistry, "sessionInit", QuerySession.getInitializedConnections());
+        bindCache(meterRegistry, "localCompute", localComputeEngine.getTableCache());
+        bindCache(meterRegistry, "extract", extractStore.getTableCache());
+        bindCache(meterRegistry, "distinct", distinctIndexCache.getCache());
+    }
+
+    private void bindExecutors() {
+        bindExecutor(meterRegistry, "workbook", ExecutorUtil.WORKBOOK_WORKERS);
+        bindExecutor(meterRegistry, "sheet", ExecutorUtil.SHEET_WORKERS);
+        bindExecutor(meterRegistry, "screenshot", screenshotUtil.getExecutorService());
+        bindExecutor(meterRegistry, "roleParam", ViewServiceImpl.getRoleParamThreadPool());
+        bindExecutor(meterRegistry, "count", countQueryExecutor.getExecutor());
+        bindExecutor(meterRegistry, "scheduleStage", scheduleJobEngine.getStageExecutor());
+        bindExecutor(meterRegistry, "distinctRefresh", distinctIndexCache.getRefreshExecutor());
+
+        Gauge.builder("davinci.screenshot.drivers", screenshotUtil, s -> s.getWebDriverPool().getTotal())
+                .register(meterRegistry);
+        Gauge.builder("davinci.screenshot.drivers.idle", screenshotUtil, s -> s.getWebDriverPool().getIdle())
+                .register(meterRegistry);
+
+        bindExecutor(meterRegistry, "image", imagePipeline.getExecutorService());
+        FunctionCounter.builder("davinci.image.processed", imagePipeline, ImagePipeline::getImages).register(meterRegistry);
+        FunctionCounter.builder("davinci.image.bytes", imagePipeline, ImagePipeline::getOriginalBytes)
+                .tags("stage", "original").baseUnit("bytes").register(meterRegistry);
+        FunctionCounter.builder("davinci.image.bytes", imagePipeline, ImagePipeline::getProcessedBytes)
+                .tags("stage", "processed").baseUnit("bytes").register(meterRegistry);
+    }
+
+    /**
+     * 定时任务通道按 jobType 创建，jobType 取自 {jobType}ScheduleService
+     */
+    private void bindScheduleLanes() {
+        for (String beanName : applicationContext.getBeanNamesForType(ScheduleService.class)) {
+            if (!beanName.endsWith(SCHEDULE_SERVICE_SUFFIX)) {
+                continue;
+            }
+            String jobType = beanName.substring(0, beanName.length() - SCHEDULE_SERVICE_SUFFIX.length());
+            ScheduleJobLane lane = scheduleJobEngine.getLane(jobType);
+            Tags tags = Tags.of("job_type", jobType);
+            bindExecutor(meterRegistry, "schedule-" + jobType, lane.getExecutor());
+            Gauge.builder("davinci.schedule.queued", lane, ScheduleJobLane::getQueued).tags(tags).register(meterRegistry);
+            Gauge.builder("davinci.schedule.running", lane, ScheduleJobLane::getRunning).tags(tags).register(meterRegistry);
+            FunctionCounter.builder("davinci.schedule.submitted", lane, ScheduleJobLane::getSubmitted).tags(tags).register(meterRegistry);
+            FunctionCounter.builder("davinci.schedule.completed", lane, ScheduleJobLane::getCompleted).tags(tags).register(meterRegistry);
+            FunctionCounter.builder("davinci.schedule.misfired", lane, ScheduleJobLane::getMisfired).tags(tags).register(meterRegistry);
+            FunctionCounter.builder("davinci.schedule.coalesced", lane, ScheduleJobLane::getCoalesced).tags(tags).register(meterRegistry);
+        }
+    }
+
+    private void bindQueries() {
+        Gauge.builder("davinci.query.running", queryRegistry, QueryRegistry::size).register(meterRegistry);
+        Gauge.builder("davinci.result.buffer.memory", resultBufferManager, ResultBufferManager::getMemoryUsed).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("davinci.result.buffer.disk", resultBufferManager, ResultBufferManager::getDiskUsed).baseUnit("bytes").register(meterRegistry);
+        FunctionCounter.builder("davinci.result.buffer.spilled", resultBufferManager, ResultBufferManager::getSpilledResults).register(meterRegistry);
+        FunctionCounter.builder("davinci.result.buffer.leaked", resultBufferManager, ResultBufferManager::getLeakedResults).register(meterRegistry);
+        for (WorkloadManager.ClassStats stats : workloadManager.getStats()) {
+            Tags tags = Tags.of("workload", stats.getWorkloadClass().getName());
+            Gauge.builder("davinci.workload.waiting", stats, WorkloadManager.ClassStats::getWaiting).tags(tags).register(meterRegistry);
+            Gauge.builder("davinci.workload.running", stats, WorkloadManager.ClassStats::getRunning).tags(tags).register(meterRegistry);
+            FunctionCounter.builder("davinci.workload.admitted", stats, WorkloadManager.ClassStats::getAdmitted).tags(tags).register(meterRegistry);
+            FunctionCounter.builder("davinci.workload.rejected", stats, WorkloadManager.ClassStats::getRejected).tags(tags).register(meterRegistry);
+        }
+    }
+
+    private void bindMail() {
+        Gauge.builder("davinci.mail.queued", mailQueue, MailQueue::getQueued).register(meterRegistry);
+        Gauge.builder("davinci.mail.retrying", mailQueue, MailQueue::getRetrying).register(meterRegistry);
+        FunctionCounter.builder("davinci.mail.deliveries", mailQueue, MailQueue::getSent).tags("result", "sent").register(meterRegistry);
+        FunctionCounter.builder("davinci.mail.deliveries", mailQueue, MailQueue::getFailed).tags("result", "failed").register(meterRegistry);
+        FunctionCounter.builder("davinci.mail.retries", mailQueue, MailQueue::getRetried).register(meterRegistry);
+    }
+
+    /**
+     * kafka 的发送耗时与失败次数由 KafkaOperationService 在回调中记录
+     */
+    private void bindStatistic() {
+        FunctionCounter.builder("davinci.statistic.elastic.documents", elasticOperationService, ElasticOperationService::getIndexedCount)
+                .tags("result", "indexed").register(meterRegistry);
+        FunctionCounter.builder("davinci.statistic.elastic.documents", elasticOperationService, ElasticOperationService::getFailedCount)
+                .tags("result", "failed").register(meterRegistry);
+    }
+}
@@ -23,16 +23,19 @@ import edp.core.enums.HttpCodeEnum;
 import edp.core.exception.ForbiddenException;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
+import edp.core.exception.ServiceUnavailableException;
 import edp.core.exception.UnAuthorizedException;
 import edp.core.utils.TokenUtils;
 import edp.davinci.core.common.ResultMap;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 @ControllerAdvice(annotations = RestController.class)
 @Slf4j
@@ -81,6 +84,17 @@ public class RestExceptionHandler {
         return new ResultMap(tokenUtils).failAndRefreshToken(request, HttpCodeEnum.NOT_FOUND).message(e.getMessage());
     }
 
+    @ExceptionHandler(value = ServiceUnavailableException.class)
+    @ResponseBody
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    private ResultMap serviceUnavailableExceptionHandler(HttpServletRequest request, HttpServletResponse response, ServiceUnavailableException e) {
+        log.warn(e.toString());
+        if (e.getRetryAfterSeconds() > 0) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+        }
+        return new ResultMap(tokenUtils).failAndRefreshToken(request, HttpCodeEnum.SERVICE_UNAVAILABLE).message(e.getMessage());
+    }
+
     @ExceptionHandler(value = MethodArgumentNotValidException.class)
     @ResponseBody
     @ResponseStatus(HttpStatus.BAD_REQUEST)
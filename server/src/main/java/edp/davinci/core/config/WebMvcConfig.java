@@ -23,15 +23,19 @@ import com.alibaba.fastjson.serializer.SerializerFeature;
 import com.alibaba.fastjson.serializer.ValueFilter;
 import com.alibaba.fastjson.support.config.FastJsonConfig;
 import com.alibaba.fastjson.support.spring.FastJsonHttpMessageConverter;
+import edp.core.common.metrics.QueryMetrics;
 import edp.core.inteceptor.RequestJsonHandlerArgumentResolver;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.inteceptor.AuthenticationInterceptor;
 import edp.davinci.core.inteceptor.CurrentPlatformMethodArgumentResolver;
 import edp.davinci.core.inteceptor.CurrentUserMethodArgumentResolver;
 import edp.davinci.core.inteceptor.PlatformAuthInterceptor;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpOutputMessage;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.web.method.support.HandlerMethodArgumentResolver;
@@ -39,6 +43,7 @@ import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurationSupport;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
@@ -55,6 +60,9 @@ public class WebMvcConfig extends WebMvcConfigurationSupport {
     @Value("${file.web_resources}")
     private String webResources;
 
+    @Autowired
+    private QueryMetrics queryMetrics;
+
     /**
      * 登录校验拦截器
      *
@@ -147,7 +155,23 @@ public class WebMvcConfig extends WebMvcConfigurationSupport {
 
     @Override
     protected void configureMessageConverters(List<HttpMessageConverter<?>> converters) {
-        FastJsonHttpMessageConverter fastConverter = new FastJsonHttpMessageConverter();
+        // 记录取数请求的响应序列化耗时
+        FastJsonHttpMessageConverter fastConverter = new FastJsonHttpMessageConverter() {
+            @Override
+            protected void writeInternal(Object object, HttpOutputMessage outputMessage) throws IOException {
+                Tags tags = queryMetrics.requestTags();
+                if (null == tags) {
+                    super.writeInternal(object, outputMessage);
+                    return;
+                }
+                long start = queryMetrics.start();
+                try {
+                    super.writeInternal(object, outputMessage);
+                } finally {
+                    queryMetrics.record(QueryMetrics.Stage.SERIALIZE, tags, System.nanoTime() - start);
+                }
+            }
+        };
         FastJsonConfig fastJsonConfig = new FastJsonConfig();
         fastJsonConfig.setSerializerFeatures(SerializerFeature.QuoteFieldNames,
                 SerializerFeature.WriteEnumUsingToString,
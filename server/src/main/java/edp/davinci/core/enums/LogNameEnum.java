@@ -21,6 +21,7 @@ package edp.davinci.core.enums;
 
 public enum LogNameEnum {
     BUSINESS_SQL("BUSINESS_SQL"),
+    BUSINESS_SLOW_SQL("BUSINESS_SLOW_SQL"),
     BUSINESS_OPERATION("BUSINESS_OPERATION"),
     BUSINESS_SCHEDULE("BUSINESS_SCHEDULE"),
     BUSINESS_DOWNLOAD("BUSINESS_DOWNLOAD");
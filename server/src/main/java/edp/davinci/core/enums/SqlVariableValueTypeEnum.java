@@ -19,10 +19,12 @@
 
 package edp.davinci.core.enums;
 
+import edp.core.model.BindVariables;
 import edp.core.utils.SqlUtils;
 import edp.davinci.core.common.Constants;
 import org.apache.commons.lang.StringUtils;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -106,6 +108,60 @@ public enum SqlVariableValueTypeEnum {
         return value;
     }
 
+    /**
+     * 获取绑定变量值
+     *
+     * @param valueType
+     * @param value     getValue/getValues 的结果
+     * @param udf
+     * @return 单值或 List，不能绑定（sql、boolean、udf 或格式不符）时返回 null
+     */
+    public static Object getBindValue(String valueType, Object value, boolean udf) {
+        if (udf || null == value || null == valueType) {
+            return null;
+        }
+
+        SqlVariableValueTypeEnum valueTypeEnum = SqlVariableValueTypeEnum.valueTypeOf(valueType.toLowerCase());
+        if (null == valueTypeEnum) {
+            return null;
+        }
+
+        List<String> literals = value instanceof List ? ((List<Object>) value).stream().map(String::valueOf).collect(Collectors.toList())
+                : Arrays.asList(String.valueOf(value));
+        if (literals.isEmpty()) {
+            return null;
+        }
+
+        List<Object> values = new ArrayList<>();
+        switch (valueTypeEnum) {
+            case STRING:
+            case DATE:
+                for (String literal : literals) {
+                    if (literal.contains(Constants.NO_AUTH_PERMISSION)) {
+                        return null;
+                    }
+                    List<String> list = BindVariables.parseQuotedList(literal);
+                    if (null == list) {
+                        return null;
+                    }
+                    values.addAll(list);
+                }
+                break;
+            case NUMBER:
+                for (String literal : literals) {
+                    List<BigDecimal> list = BindVariables.parseNumberList(literal);
+                    if (null == list) {
+                        return null;
+                    }
+                    values.addAll(list);
+                }
+                break;
+            default:
+                return null;
+        }
+        return values.size() == 1 ? values.get(0) : values;
+    }
+
     public static SqlVariableValueTypeEnum valueTypeOf(String valueType) {
         for (SqlVariableValueTypeEnum valueTypeEnum : values()) {
             if (valueTypeEnum.valueType.equals(valueType)) {
@@ -23,6 +23,7 @@ import com.alibaba.druid.util.StringUtils;
 import com.alibaba.fastjson.JSONObject;
 import edp.core.annotation.AuthIgnore;
 import edp.core.annotation.AuthShare;
+import edp.core.common.metrics.QueryMetrics;
 import edp.core.enums.HttpCodeEnum;
 import edp.core.utils.TokenUtils;
 import edp.davinci.core.common.Constants;
@@ -49,8 +50,21 @@ public class AuthenticationInterceptor implements HandlerInterceptor {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private QueryMetrics queryMetrics;
+
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        long start = queryMetrics.start();
+        try {
+            return authenticate(request, response, handler);
+        } finally {
+            // 只有取数请求打开查询 scope 时才按 view 标签记录
+            request.setAttribute(QueryMetrics.AUTH_NANOS_ATTRIBUTE, System.nanoTime() - start);
+        }
+    }
+
+    private boolean authenticate(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
 
         HandlerMethod handlerMethod = null;
         try {
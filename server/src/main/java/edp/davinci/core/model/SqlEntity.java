@@ -19,6 +19,7 @@
 
 package edp.davinci.core.model;
 
+import edp.core.model.BindVariables;
 import lombok.Data;
 
 import java.util.List;
@@ -34,6 +35,9 @@ public class SqlEntity {
 
     private Map<String, List<String>> authParams;
 
+    //绑定变量，为空时参数以字面量替换
+    private BindVariables bindVariables;
+
     public SqlEntity() {
     }
 
@@ -2,11 +2,17 @@ package edp.davinci.core.model;
 
 import com.alibaba.fastjson.JSONArray;
 import edp.core.consts.Consts;
+import edp.core.model.BindVariables;
 import edp.davinci.core.enums.SqlOperatorEnum;
 import lombok.Data;
 import org.apache.commons.lang.StringUtils;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 @Data
@@ -26,6 +32,12 @@ public class SqlFilter {
 
     private static String pattern = "^'.*?'$";
 
+    /**
+     * 可以使用绑定变量的操作符，其余操作符保持字面量
+     */
+    private static final Set<String> BINDABLE_OPERATORS = new HashSet<>(Arrays.asList(
+            "=", "!=", "<>", ">", ">=", "<", "<=", "LIKE", "NOT LIKE", "IN", "NOT IN", "BETWEEN"));
+
     public static class Type {
         public static final String filter = "filter";
         public static final String relation = "relation";
@@ -58,18 +70,29 @@ public class SqlFilter {
     }
 
     public static String dealFilter(SqlFilter filter){
+        return dealFilter(filter, null);
+    }
+
+    /**
+     * 生成过滤条件，bindVariables 不为空时条件值使用绑定变量
+     *
+     * @param filter
+     * @param bindVariables
+     * @return
+     */
+    public static String dealFilter(SqlFilter filter, BindVariables bindVariables){
         StringBuilder condition = new StringBuilder();
         String type = filter.getType();
 
         if(Type.filter.equalsIgnoreCase(type)){
-            condition.append(dealOperator(filter));
+            condition.append(dealOperator(filter, bindVariables));
         }
 
         if(Type.relation.equalsIgnoreCase(type)){
             List<SqlFilter> childs = filter.getChildren();
             condition.append(Consts.PARENTHESES_START);
             for(int i=0; i<childs.size(); i++){
-                condition.append(i == 0 ? dealFilter(childs.get(i)) : Consts.SPACE + filter.getValue().toString() + Consts.SPACE + dealFilter(childs.get(i)));
+                condition.append(i == 0 ? dealFilter(childs.get(i), bindVariables) : Consts.SPACE + filter.getValue().toString() + Consts.SPACE + dealFilter(childs.get(i), bindVariables));
             }
             condition.append(Consts.PARENTHESES_END);
         }
@@ -77,7 +100,7 @@ public class SqlFilter {
         return condition.toString();
     }
 
-    private static String dealOperator(SqlFilter filter){
+    private static String dealOperator(SqlFilter filter, BindVariables bindVariables){
         String name     = filter.getName();
         Object value    = filter.getValue();
         String operator = filter.getOperator();
@@ -91,9 +114,87 @@ public class SqlFilter {
             criterion = new Criterion(name, operator, value, sqlType);
         }
 
+        if (null != bindVariables && null != operator && BINDABLE_OPERATORS.contains(operator.trim().toUpperCase())) {
+            String bindClause = bindGenerator(criterion, bindVariables);
+            if (null != bindClause) {
+                return bindClause;
+            }
+        }
+
         return generator(criterion);
     }
 
+    private static String bindGenerator(Criterion criterion, BindVariables bindVariables){
+        StringBuilder whereClause = new StringBuilder();
+        if(criterion.isSingleValue()){
+            Object value = getBindValue(criterion, criterion.getValue().toString());
+            if (null == value) {
+                return null;
+            }
+            whereClause.append(criterion.getColumn() + Consts.SPACE + criterion.getOperator() + Consts.SPACE);
+            whereClause.append(bindVariables.bind(BindVariables.FILTER_PREFIX, value, getLiteral(criterion, criterion.getValue().toString())));
+
+        }else if(criterion.isBetweenValue()){
+            String value1 = criterion.getValue().toString();
+            String value2 = criterion.getSecondValue().toString();
+            Object bindValue1 = getBindValue(criterion, value1);
+            Object bindValue2 = getBindValue(criterion, value2);
+            if (null == bindValue1 || null == bindValue2) {
+                return null;
+            }
+            whereClause.append(Consts.PARENTHESES_START);
+            whereClause.append(criterion.getColumn()+ Consts.SPACE + SqlOperatorEnum.GREATERTHANEQUALS.getValue() + Consts.SPACE);
+            whereClause.append(bindVariables.bind(BindVariables.FILTER_PREFIX, bindValue1, getLiteral(criterion, value1)));
+            whereClause.append(Consts.SPACE + SqlFilter.Type.and + Consts.SPACE);
+            whereClause.append(criterion.getColumn()+ Consts.SPACE + SqlOperatorEnum.MINORTHANEQUALS.getValue() + Consts.SPACE);
+            whereClause.append(bindVariables.bind(BindVariables.FILTER_PREFIX, bindValue2, getLiteral(criterion, value2)));
+            whereClause.append(Consts.PARENTHESES_END);
+
+        }else if(criterion.isListValue()){
+            List values = (List) criterion.getValue();
+            if (values.isEmpty()) {
+                return null;
+            }
+            List<Object> bindValues = new ArrayList<>();
+            List<String> literals = new ArrayList<>();
+            for (Object value : values) {
+                Object bindValue = getBindValue(criterion, value.toString());
+                if (null == bindValue) {
+                    return null;
+                }
+                bindValues.add(bindValue);
+                literals.add(getLiteral(criterion, value.toString()));
+            }
+            whereClause.append(criterion.getColumn() + Consts.SPACE + criterion.getOperator() + Consts.SPACE);
+            whereClause.append(Consts.PARENTHESES_START);
+            whereClause.append(bindVariables.bind(BindVariables.FILTER_PREFIX, bindValues, StringUtils.join(literals, Consts.COMMA)));
+            whereClause.append(Consts.PARENTHESES_END);
+        }
+        return whereClause.toString();
+    }
+
+    private static Object getBindValue(Criterion criterion, String value){
+        if (criterion.isNeedApostrophe()) {
+            if (!Pattern.matches(pattern, value)) {
+                return value;
+            }
+            List<String> list = BindVariables.parseQuotedList(value);
+            return null != list && list.size() == 1 ? list.get(0) : null;
+        }
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String getLiteral(Criterion criterion, String value){
+        if (criterion.isNeedApostrophe() && !Pattern.matches(pattern, value)) {
+            return Consts.APOSTROPHE + value + Consts.APOSTROPHE;
+        }
+        return value;
+    }
+
     private static String generator(Criterion criterion){
         StringBuilder whereClause = new StringBuilder();
         if(criterion.isSingleValue()){
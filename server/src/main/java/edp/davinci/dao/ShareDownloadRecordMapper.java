@@ -77,4 +77,78 @@ public interface ShareDownloadRecordMapper {
             ")\n"})
     List<ShareDownloadRecord> getShareDownloadRecords();
 
-}
\ No newline at end of file
+    @Select({
+            "select job_key from share_download_record",
+            "where status = 1 and task is not null and job_key is not null",
+            "group by job_key",
+            "having sum(case when lease_expire_time >= NOW() then 1 else 0 end) = 0",
+            "and min(attempts) < #{maxAttempts}",
+            "order by min(id) limit #{limit}"
+    })
+    List<String> getQueuedJobKeys(@Param("maxAttempts") int maxAttempts, @Param("limit") int limit);
+
+    @Update({
+            "update share_download_record",
+            "set worker = #{worker,jdbcType=VARCHAR},",
+            "lease_expire_time = TIMESTAMPADD(SECOND, #{leaseSeconds}, NOW()),",
+            "attempts = attempts + 1",
+            "where job_key = #{jobKey,jdbcType=VARCHAR} and status = 1 and task is not null",
+            "and (lease_expire_time is null or lease_expire_time < NOW())"
+    })
+    int claim(@Param("jobKey") String jobKey, @Param("worker") String worker, @Param("leaseSeconds") int leaseSeconds);
+
+    @Select({
+            "select * from share_download_record",
+            "where job_key = #{jobKey,jdbcType=VARCHAR} and worker = #{worker,jdbcType=VARCHAR} and status = 1",
+            "order by id"
+    })
+    List<ShareDownloadRecord> getClaimed(@Param("jobKey") String jobKey, @Param("worker") String worker);
+
+    @Update({
+            "update share_download_record",
+            "set lease_expire_time = TIMESTAMPADD(SECOND, #{leaseSeconds}, NOW())",
+            "where job_key = #{jobKey,jdbcType=VARCHAR} and worker = #{worker,jdbcType=VARCHAR} and status = 1"
+    })
+    int renewLease(@Param("jobKey") String jobKey, @Param("worker") String worker, @Param("leaseSeconds") int leaseSeconds);
+
+    @Update({
+            "update share_download_record",
+            "set status = #{status,jdbcType=SMALLINT},",
+            "path = #{path,jdbcType=VARCHAR},",
+            "finish_time = NOW(),",
+            "worker = null,",
+            "lease_expire_time = null",
+            "where job_key = #{jobKey,jdbcType=VARCHAR} and status <> 4",
+            "and (worker = #{worker,jdbcType=VARCHAR} or (status = 1 and (lease_expire_time is null or lease_expire_time < NOW())))"
+    })
+    int complete(@Param("jobKey") String jobKey, @Param("worker") String worker, @Param("status") short status,
+                 @Param("path") String path);
+
+    @Update({
+            "update share_download_record",
+            "set worker = null, lease_expire_time = null",
+            "where worker = #{worker,jdbcType=VARCHAR} and status = 1"
+    })
+    int releaseLeases(@Param("worker") String worker);
+
+    @Update({
+            "update share_download_record",
+            "set status = 3, finish_time = NOW(), worker = null, lease_expire_time = null",
+            "where status = 1 and task is not null and attempts >= #{maxAttempts}",
+            "and (lease_expire_time is null or lease_expire_time < NOW())"
+    })
+    int failExhausted(@Param("maxAttempts") int maxAttempts);
+
+    @Select({
+            "select path from share_download_record",
+            "where job_key = #{jobKey,jdbcType=VARCHAR} and status in (2, 4) and path is not null",
+            "and TIMESTAMPADD(SECOND, #{seconds}, finish_time) > NOW()",
+            "order by finish_time desc limit 1"
+    })
+    String getReusablePath(@Param("jobKey") String jobKey, @Param("seconds") int seconds);
+
+    @Select({
+            "select count(1) from share_download_record where path = #{path,jdbcType=VARCHAR}"
+    })
+    int countByPath(@Param("path") String path);
+}
@@ -33,4 +33,9 @@ public class BatchInviteMemberResult {
     private Set<UserBaseInfo> successes;
     private Set<Long> notUsers;
     private Set<UserBaseInfo> exists;
+
+    /**
+     * 邀请邮件未能放入发送队列的用户，可稍后重新邀请
+     */
+    private Set<UserBaseInfo> failures;
 }
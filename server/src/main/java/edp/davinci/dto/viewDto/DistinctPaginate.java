@@ -0,0 +1,38 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.viewDto;
+
+import edp.core.model.Paginate;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.util.Map;
+
+/**
+ * 控件去重值搜索结果
+ */
+@EqualsAndHashCode(callSuper = true)
+@Data
+public class DistinctPaginate extends Paginate<Map<String, Object>> {
+
+    /**
+     * 去重值超过 source.distinct.max-values 被截断，totalCount 与结果只包含截断前的值
+     */
+    private boolean truncated = false;
+}
@@ -40,4 +40,8 @@ public class DistinctParam  extends ConcurrencyStrategy{
     private Boolean cache;
 
     private Long expired;
+
+    private String queryKey;
+
+    private Integer queryTimeout;
 }
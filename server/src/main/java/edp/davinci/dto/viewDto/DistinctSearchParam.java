@@ -0,0 +1,42 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.dto.viewDto;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * 控件去重值搜索，只支持一个列
+ */
+@EqualsAndHashCode(callSuper = true)
+@Data
+public class DistinctSearchParam extends DistinctParam {
+
+    private String keyword;
+
+    /**
+     * 只匹配前缀，默认同时匹配包含关键字的值
+     */
+    private boolean prefix = false;
+
+    private int pageNo = 1;
+
+    private int pageSize = 20;
+}
@@ -50,6 +50,21 @@ public class ViewExecuteParam extends ConcurrencyStrategy{
 
     private boolean nativeQuery = false;
 
+    /**
+     * 客户端查询标识，同一用户同一标识的新查询会取消旧查询
+     */
+    private String queryKey;
+
+    /**
+     * 查询超时时间（秒）
+     */
+    private Integer queryTimeout;
+
+    /**
+     * 估算总数，不执行 count
+     */
+    private boolean estimatedCount = false;
+
     public ViewExecuteParam() {
     }
 
@@ -37,4 +37,18 @@ public class DownloadRecordBaseInfo {
     private Date createTime;
 
     private Date lastDownloadTime;
+
+    /**
+     * 相同 widget、参数与权限范围的下载共用一个任务及文件
+     */
+    @JSONField(serialize = false)
+    private String jobKey;
+
+    /**
+     * 排队任务内容，由领取任务的节点重建导出上下文
+     */
+    @JSONField(serialize = false)
+    private String task;
+
+    private Date finishTime;
 }
@@ -164,6 +164,28 @@ public class Source extends BaseSource {
         return ext;
     }
 
+    /**
+     * 从config中获取查询超时时间（秒）
+     * <p>
+     * json key: queryTimeout
+     *
+     * @return
+     */
+    @Override
+    @JSONField(serialize = false)
+    public Integer getQueryTimeout() {
+        if (null == config) {
+            return null;
+        }
+        try {
+            JSONObject jsonObject = JSONObject.parseObject(this.config);
+            return jsonObject.getInteger("queryTimeout");
+        } catch (Exception e) {
+            log.error("get query timeout from source config, {}", e.getMessage());
+        }
+        return null;
+    }
+
     @JSONField(serialize = false)
     public List<Dict> getProperties() {
         if (null == config) {
@@ -24,10 +24,13 @@ import edp.core.exception.ServerException;
 import edp.core.utils.*;
 import edp.davinci.core.enums.FileTypeEnum;
 import edp.davinci.dao.CronJobMapper;
+import edp.davinci.dao.DownloadRecordMapper;
 import edp.davinci.dao.ShareDownloadRecordMapper;
 import edp.davinci.model.CronJob;
 import edp.davinci.model.ShareDownloadRecord;
+import edp.davinci.service.CronJobService;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
@@ -56,6 +59,12 @@ public class SystemSchedule {
     @Autowired
     private ShareDownloadRecordMapper shareDownloadRecordMapper;
 
+    @Autowired
+    private DownloadRecordMapper downloadRecordMapper;
+
+    @Autowired
+    private CronJobService cronJobService;
+
     private static final ExecutorService CLEAR_TEMPDIR_THREADPOOL = Executors.newFixedThreadPool(3);
 
     @Scheduled(cron = "0 0 1 * * *")
@@ -89,15 +98,30 @@ public class SystemSchedule {
         }
     }
 
+    /**
+     * 集群模式下定期按分片结果校正本节点调度的任务，兜底丢失的zookeeper通知及加入集群失败
+     */
+    @Scheduled(cron = "30 * * * * *")
+    public void rebalanceCronJob() {
+        cronJobService.reconcileJobs();
+    }
+
     @Scheduled(cron = "0 0 1 * * *")
     public void clearShareDownloadRecord() {
 
         List<ShareDownloadRecord> records = shareDownloadRecordMapper.getShareDownloadRecords();    //deleting
-        for(ShareDownloadRecord record : records){
-            deleteFile(new File(record.getPath()));
-        }
-
         shareDownloadRecordMapper.deleteByCondition();
+
+        // 相同下载任务的记录共用文件，仍被其他记录引用时保留
+        for (ShareDownloadRecord record : records) {
+            String path = record.getPath();
+            if (StringUtils.isEmpty(path)
+                    || shareDownloadRecordMapper.countByPath(path) > 0
+                    || downloadRecordMapper.countByPath(path) > 0) {
+                continue;
+            }
+            deleteFile(new File(path));
+        }
     }
 
     private void deleteFile(File file){
@@ -48,5 +48,16 @@ public interface CronJobService extends CheckEntityService {
 
     void startAllJobs();
 
+    void rebalanceJobs();
+
+    void reconcileJobs();
+
+    /**
+     * 立即执行
+     *
+     * @param id
+     * @param user
+     * @return 任务已在排队等待执行、本次请求被合并时返回 false
+     */
     boolean executeCronJob(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException;
 }
@@ -23,6 +23,7 @@ import edp.davinci.core.enums.DownloadType;
 import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
 import edp.davinci.model.DownloadRecord;
 import edp.davinci.model.User;
+import edp.davinci.service.excel.WorkBookContext;
 
 import java.util.List;
 
@@ -65,4 +66,13 @@ public interface DownloadService {
      * @return
      */
     Boolean submit(DownloadType type, Long id, User user, List<DownloadViewExecuteParam> params);
+
+
+    /**
+     * 由排队中的下载记录构建导出上下文
+     *
+     * @param record 领取到的下载记录
+     * @return
+     */
+    WorkBookContext getQueuedWorkBookContext(DownloadRecord record);
 }
@@ -23,6 +23,7 @@ import edp.davinci.core.enums.DownloadType;
 import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
 import edp.davinci.model.ShareDownloadRecord;
 import edp.davinci.model.User;
+import edp.davinci.service.excel.WorkBookContext;
 
 import java.util.List;
 
@@ -55,4 +56,13 @@ public interface ShareDownloadService {
      * @return
      */
     ShareDownloadRecord downloadById(String id, String uuid);
+
+
+    /**
+     * 由排队中的下载记录构建导出上下文
+     *
+     * @param record 领取到的下载记录
+     * @return
+     */
+    WorkBookContext getQueuedWorkBookContext(ShareDownloadRecord record);
 }
@@ -30,6 +30,7 @@ import edp.davinci.dto.viewDto.*;
 import edp.davinci.model.SqlVariable;
 import edp.davinci.model.User;
 import edp.davinci.service.excel.SQLContext;
+import edp.davinci.service.extract.ExtractMeta;
 
 import java.sql.SQLException;
 import java.util.List;
@@ -54,8 +55,14 @@ public interface ViewService extends CheckEntityService {
 
     List<Map<String, Object>> getDistinctValue(Long id, DistinctParam param, User user) throws NotFoundException, ServerException, UnAuthorizedException;
 
+    DistinctPaginate searchDistinctValue(Long id, DistinctSearchParam param, User user) throws NotFoundException, ServerException, UnAuthorizedException;
+
     List getDistinctValueData(boolean isMaintainer, ViewWithSource viewWithSource, DistinctParam param, User user) throws ServerException;
 
+    ExtractMeta refreshExtract(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException;
+
+    ExtractMeta getExtractMeta(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException;
+
     ViewWithSourceBaseInfo getView(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException;
 
     SQLContext getSQLContext(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user);
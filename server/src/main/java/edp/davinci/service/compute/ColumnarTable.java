@@ -0,0 +1,390 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.compute;
+
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 列式内存表
+ * <p>
+ * 每列按字典编码：行上只保存字典下标，过滤条件先在字典上求值再按下标映射到行，
+ * 分组直接使用字典下标，MIN/MAX 使用字典排序后的序号
+ */
+public class ColumnarTable {
+
+    private final List<QueryColumn> columns;
+
+    private final Map<String, Column> columnMap = new HashMap<>();
+
+    private final Map<String, Column> lowerCaseColumnMap = new HashMap<>();
+
+    private final int rowCount;
+
+    private ColumnarTable(List<QueryColumn> columns, List<Column> data, int rowCount) {
+        this.columns = Collections.unmodifiableList(columns);
+        this.rowCount = rowCount;
+        for (Column column : data) {
+            columnMap.put(column.name, column);
+            lowerCaseColumnMap.putIfAbsent(column.name.toLowerCase(), column);
+        }
+    }
+
+    public static ColumnarTable of(PaginateWithQueryColumns paginate) {
+        List<QueryColumn> columns = null == paginate.getColumns() ? new ArrayList<>() : new ArrayList<>(paginate.getColumns());
+        List<Map<String, Object>> rows = null == paginate.getResultList() ? Collections.emptyList() : paginate.getResultList();
+        List<Column> data = new ArrayList<>(columns.size());
+        for (QueryColumn queryColumn : columns) {
+            data.add(Column.of(queryColumn, rows));
+        }
+        return new ColumnarTable(columns, data, rows.size());
+    }
+
+    /**
+     * 由已编码的列构建，各列行数需一致
+     *
+     * @param data
+     * @param rowCount
+     * @return
+     */
+    public static ColumnarTable of(List<Column> data, int rowCount) {
+        List<QueryColumn> columns = new ArrayList<>(data.size());
+        for (Column column : data) {
+            if (column.codes.length != rowCount) {
+                throw new IllegalArgumentException("row count mismatch, column: " + column.name);
+            }
+            columns.add(new QueryColumn(column.name, column.type));
+        }
+        return new ColumnarTable(columns, data, rowCount);
+    }
+
+    public List<QueryColumn> getColumns() {
+        return columns;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getCellCount() {
+        return (long) rowCount * Math.max(1, columns.size());
+    }
+
+    /**
+     * 按列名查找，大小写不敏感
+     *
+     * @param name
+     * @return 不存在时返回 null
+     */
+    public Column getColumn(String name) {
+        if (null == name) {
+            return null;
+        }
+        Column column = columnMap.get(name);
+        return null != column ? column : lowerCaseColumnMap.get(name.toLowerCase());
+    }
+
+    public static final class Column {
+
+        private final String name;
+
+        private final String type;
+
+        /**
+         * 行 -> 字典下标，-1 为 null
+         */
+        private final int[] codes;
+
+        private final Object[] dictionary;
+
+        /**
+         * 字典数值，仅数值列
+         */
+        private final double[] numbers;
+
+        /**
+         * 字典时间戳（毫秒），仅日期列
+         */
+        private final long[] times;
+
+        /**
+         * 字典整数值，仅整数列，避免大整数经 double 丢失精度
+         */
+        private final long[] longs;
+
+        /**
+         * DECIMAL/NUMERIC 列及超出 long 的整数列，聚合使用 BigDecimal
+         */
+        private final boolean decimal;
+
+        private volatile int[] ranks;
+
+        private Column(String name, String type, int[] codes, Object[] dictionary, double[] numbers, long[] times, long[] longs, boolean decimal) {
+            this.name = name;
+            this.type = type;
+            this.codes = codes;
+            this.dictionary = dictionary;
+            this.numbers = numbers;
+            this.times = times;
+            this.longs = longs;
+            this.decimal = decimal;
+        }
+
+        private static Column of(QueryColumn queryColumn, List<Map<String, Object>> rows) {
+            String name = queryColumn.getName();
+            int[] codes = new int[rows.size()];
+            Map<Object, Integer> dictionaryMap = new LinkedHashMap<>();
+            for (int i = 0; i < codes.length; i++) {
+                Object value = normalize(rows.get(i).get(name));
+                if (null == value) {
+                    codes[i] = -1;
+                    continue;
+                }
+                Integer code = dictionaryMap.get(value);
+                if (null == code) {
+                    code = dictionaryMap.size();
+                    dictionaryMap.put(value, code);
+                }
+                codes[i] = code;
+            }
+            return of(name, queryColumn.getType(), dictionaryMap.keySet().toArray(), codes);
+        }
+
+        /**
+         * 由字典与行下标构建列
+         *
+         * @param name
+         * @param type
+         * @param dictionary 不含 null 且不重复
+         * @param codes      行 -> 字典下标，-1 为 null
+         * @return
+         */
+        public static Column of(String name, String type, Object[] dictionary, int[] codes) {
+            boolean numeric = true;
+            boolean temporal = true;
+            boolean integral = true;
+            boolean decimal = false;
+            for (Object value : dictionary) {
+                numeric = numeric && value instanceof Number;
+                temporal = temporal && value instanceof Date;
+                integral = integral && isIntegral(value);
+                decimal = decimal || value instanceof BigDecimal || value instanceof BigInteger;
+            }
+
+            double[] numbers = null;
+            long[] times = null;
+            long[] longs = null;
+            if (dictionary.length > 0 && numeric) {
+                numbers = new double[dictionary.length];
+                longs = integral ? new long[dictionary.length] : null;
+                for (int i = 0; i < dictionary.length; i++) {
+                    numbers[i] = ((Number) dictionary[i]).doubleValue();
+                    if (integral) {
+                        longs[i] = ((Number) dictionary[i]).longValue();
+                    }
+                }
+            } else if (dictionary.length > 0 && temporal) {
+                times = new long[dictionary.length];
+                for (int i = 0; i < dictionary.length; i++) {
+                    times[i] = ((Date) dictionary[i]).getTime();
+                }
+            }
+            return new Column(name, type, codes, dictionary, numbers, times, longs, null != numbers && !integral && decimal);
+        }
+
+        /**
+         * 统一 java.time 与二进制值，便于比较与序列化
+         *
+         * @param value
+         * @return
+         */
+        public static Object normalize(Object value) {
+            if (value instanceof LocalDateTime) {
+                return Timestamp.valueOf((LocalDateTime) value);
+            }
+            if (value instanceof LocalDate) {
+                return java.sql.Date.valueOf((LocalDate) value);
+            }
+            if (value instanceof byte[]) {
+                return new String((byte[]) value);
+            }
+            return value;
+        }
+
+        private static boolean isIntegral(Object value) {
+            return value instanceof Long || value instanceof Integer || value instanceof Short
+                    || value instanceof Byte || (value instanceof BigInteger && ((BigInteger) value).bitLength() < Long.SIZE);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public int code(int row) {
+            return codes[row];
+        }
+
+        public int[] getCodes() {
+            return codes;
+        }
+
+        public int getDictionarySize() {
+            return dictionary.length;
+        }
+
+        public Object getDictionaryValue(int code) {
+            return code < 0 ? null : dictionary[code];
+        }
+
+        public Object valueOf(int row) {
+            return getDictionaryValue(codes[row]);
+        }
+
+        public boolean isNumeric() {
+            return null != numbers;
+        }
+
+        public boolean isTemporal() {
+            return null != times;
+        }
+
+        public boolean isIntegral() {
+            return null != longs;
+        }
+
+        public boolean isDecimal() {
+            return decimal;
+        }
+
+        public BigDecimal getDecimal(int code) {
+            Object value = dictionary[code];
+            if (value instanceof BigDecimal) {
+                return (BigDecimal) value;
+            }
+            if (value instanceof BigInteger) {
+                return new BigDecimal((BigInteger) value);
+            }
+            if (value instanceof Double || value instanceof Float) {
+                return BigDecimal.valueOf(((Number) value).doubleValue());
+            }
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+
+        public double getNumber(int code) {
+            return numbers[code];
+        }
+
+        public long getTime(int code) {
+            return times[code];
+        }
+
+        public long getLong(int code) {
+            return longs[code];
+        }
+
+        /**
+         * 字典值排序序号，用于 MIN/MAX 与排序
+         *
+         * @return
+         */
+        public int[] getRanks() {
+            int[] ranks = this.ranks;
+            if (null == ranks) {
+                Integer[] order = new Integer[dictionary.length];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> compareCodes(a, b));
+                ranks = new int[dictionary.length];
+                for (int i = 0; i < order.length; i++) {
+                    ranks[order[i]] = i;
+                }
+                this.ranks = ranks;
+            }
+            return ranks;
+        }
+
+        private int compareCodes(int a, int b) {
+            if (null != longs) {
+                return Long.compare(longs[a], longs[b]);
+            }
+            if (decimal) {
+                return getDecimal(a).compareTo(getDecimal(b));
+            }
+            if (null != numbers) {
+                return Double.compare(numbers[a], numbers[b]);
+            }
+            if (null != times) {
+                return Long.compare(times[a], times[b]);
+            }
+            return compareValues(dictionary[a], dictionary[b]);
+        }
+    }
+
+    /**
+     * 比较两个非空值，整数与 DECIMAL 精确比较，含浮点数时按 double、日期按时间戳、同类型按自然顺序，其余按字符串比较
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static int compareValues(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            if (isExact(a) && isExact(b)) {
+                return toDecimal((Number) a).compareTo(toDecimal((Number) b));
+            }
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if (a instanceof Date && b instanceof Date) {
+            return Long.compare(((Date) a).getTime(), ((Date) b).getTime());
+        }
+        if (a instanceof Comparable && a.getClass() == b.getClass()) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+        return String.valueOf(a).compareTo(String.valueOf(b));
+    }
+
+    private static boolean isExact(Object value) {
+        return value instanceof BigDecimal || value instanceof BigInteger || value instanceof Long
+                || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static BigDecimal toDecimal(Number value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        }
+        return BigDecimal.valueOf(value.longValue());
+    }
+}
@@ -0,0 +1,639 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.compute;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edp.core.common.jdbc.buffer.BufferedResultList;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.core.utils.CollectionUtils;
+import edp.davinci.core.model.SqlFilter;
+import edp.davinci.dto.viewDto.Aggregator;
+import edp.davinci.dto.viewDto.Order;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地聚合计算
+ * <p>
+ * 行数不超过 source.local-compute.max-rows 的 view 只查询一次基础结果并缓存为列式表，
+ * 之后 widget 的分组、聚合、过滤、排序与分页在内存中完成，不再访问数据源
+ */
+@Slf4j
+@Component
+public class LocalComputeEngine {
+
+    private static final Set<String> SUPPORTED_FUNCS = new HashSet<>(Arrays.asList("SUM", "COUNT", "AVG", "MIN", "MAX", "COUNTDISTINCT"));
+
+    private static final String COUNTDISTINCT = "COUNTDISTINCT";
+
+    private static final String DESC = "DESC";
+
+    @Value("${source.local-compute.enable:false}")
+    private boolean enable;
+
+    @Value("${source.local-compute.max-rows:100000}")
+    private int maxRows;
+
+    @Value("${source.local-compute.cache-expire-seconds:300}")
+    private long cacheExpireSeconds;
+
+    @Value("${source.local-compute.cache-max-cells:50000000}")
+    private long cacheMaxCells;
+
+    @Value("${source.local-compute.parallelism:0}")
+    private int parallelism;
+
+    @Value("${source.local-compute.chunk-size:16384}")
+    private int chunkSize;
+
+    @Value("${source.result-limit:1000000}")
+    private int resultLimit;
+
+    private ForkJoinPool pool;
+
+    private ParallelLoop loop;
+
+    private Cache<String, ColumnarTable> tableCache;
+
+    /**
+     * 超过行数阈值的 view，过期前不再尝试本地计算
+     */
+    private Cache<String, Boolean> oversizedCache;
+
+    @FunctionalInterface
+    public interface BaseResultLoader {
+        /**
+         * 查询 view 基础结果
+         *
+         * @param limit 最多返回行数
+         * @return
+         * @throws Exception
+         */
+        PaginateWithQueryColumns load(int limit) throws Exception;
+    }
+
+    @PostConstruct
+    public void init() {
+        pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        loop = new ParallelLoop(pool, chunkSize);
+        tableCache = Caffeine.newBuilder()
+                .recordStats()
+                .maximumWeight(cacheMaxCells)
+                .weigher((String key, ColumnarTable table) -> (int) Math.min(Integer.MAX_VALUE, table.getCellCount()))
+                .expireAfterWrite(cacheExpireSeconds, TimeUnit.SECONDS)
+                .build();
+        oversizedCache = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(cacheExpireSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        pool.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enable;
+    }
+
+    /**
+     * 查询参数能否在本地计算
+     *
+     * @param executeParam
+     * @return
+     */
+    public boolean isSupported(ViewExecuteParam executeParam) {
+        if (null == executeParam) {
+            return false;
+        }
+        if (!CollectionUtils.isEmpty(executeParam.getAggregators()) && !executeParam.isNativeQuery()) {
+            for (Aggregator aggregator : executeParam.getAggregators()) {
+                if (null == aggregator.getFunc() || !SUPPORTED_FUNCS.contains(aggregator.getFunc().trim().toUpperCase())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取 view 基础结果的列式表，同一 key 并发请求只查询一次
+     *
+     * @param key    基础 sql 及其参数的签名
+     * @param loader
+     * @return 超过行数阈值时返回 null
+     * @throws Exception
+     */
+    public ColumnarTable getTable(String key, BaseResultLoader loader) throws Exception {
+        if (null != oversizedCache.getIfPresent(key)) {
+            return null;
+        }
+        try {
+            return tableCache.get(key, k -> {
+                try {
+                    PaginateWithQueryColumns paginate = loader.load(maxRows + 1);
+                    int size = null == paginate || null == paginate.getResultList() ? 0 : paginate.getResultList().size();
+                    try {
+                        // 达到 result-limit 时结果可能被截断
+                        if (null == paginate || size > maxRows || size >= resultLimit) {
+                            log.info("view result exceeds local compute rows({}), fallback to source", maxRows);
+                            oversizedCache.put(k, Boolean.TRUE);
+                            return null;
+                        }
+                        // 列式表复制了结果的值，行结果不再需要
+                        return ColumnarTable.of(paginate);
+                    } finally {
+                        if (null != paginate) {
+                            BufferedResultList.release(paginate.getResultList());
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * 在列式表上执行查询，语义与 querySql 模板生成的 sql 一致
+     *
+     * @param table
+     * @param executeParam
+     * @param filters        已解析的过滤条件
+     * @param excludeColumns 无权限查看的列
+     * @param keywordPrefix
+     * @param keywordSuffix
+     * @param binaryStrings  数据源是否按二进制比较字符串，否则字符串过滤回退到数据源
+     * @return
+     * @throws LocalComputeUnsupportedException 不能在本地计算时，调用方应回退到数据源查询
+     */
+    public PaginateWithQueryColumns execute(ColumnarTable table,
+                                            ViewExecuteParam executeParam,
+                                            List<SqlFilter> filters,
+                                            Set<String> excludeColumns,
+                                            String keywordPrefix,
+                                            String keywordSuffix,
+                                            boolean binaryStrings) {
+
+        boolean[] mask = new RowFilter(table, loop, keywordPrefix, keywordSuffix, binaryStrings).evaluate(filters);
+        int[] rows = selectRows(mask);
+
+        List<OutputColumn> outputColumns = getOutputColumns(table, executeParam, keywordPrefix, keywordSuffix);
+        // nativeQuery 不分组，直接返回明细
+        List<Object[]> resultRows = executeParam.isNativeQuery() ? project(outputColumns, rows) : aggregate(outputColumns, rows);
+
+        sort(resultRows, outputColumns, executeParam.getOrders(), keywordPrefix, keywordSuffix);
+
+        return paginate(resultRows, outputColumns, executeParam, excludeColumns);
+    }
+
+    private boolean hasAggregation(ViewExecuteParam executeParam) {
+        return !CollectionUtils.isEmpty(executeParam.getAggregators());
+    }
+
+    private int[] selectRows(boolean[] mask) {
+        List<int[]> chunks = loop.map(mask.length, (from, to) -> {
+            int[] selected = new int[to - from];
+            int size = 0;
+            for (int i = from; i < to; i++) {
+                if (mask[i]) {
+                    selected[size++] = i;
+                }
+            }
+            return Arrays.copyOf(selected, size);
+        });
+        int total = 0;
+        for (int[] chunk : chunks) {
+            total += chunk.length;
+        }
+        int[] rows = new int[total];
+        int offset = 0;
+        for (int[] chunk : chunks) {
+            System.arraycopy(chunk, 0, rows, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return rows;
+    }
+
+    private List<OutputColumn> getOutputColumns(ColumnarTable table, ViewExecuteParam executeParam, String keywordPrefix, String keywordSuffix) {
+        List<OutputColumn> outputColumns = new ArrayList<>();
+        if (!CollectionUtils.isEmpty(executeParam.getGroups())) {
+            for (String group : executeParam.getGroups()) {
+                ColumnarTable.Column column = getColumn(table, group, keywordPrefix, keywordSuffix);
+                outputColumns.add(new OutputColumn(group.trim(), column.getType(), column, null));
+            }
+        }
+        if (hasAggregation(executeParam)) {
+            for (Aggregator aggregator : executeParam.getAggregators()) {
+                ColumnarTable.Column column = getColumn(table, aggregator.getColumn(), keywordPrefix, keywordSuffix);
+                if (executeParam.isNativeQuery()) {
+                    outputColumns.add(new OutputColumn(aggregator.getColumn().trim(), column.getType(), column, null));
+                    continue;
+                }
+                String func = aggregator.getFunc().trim();
+                String upperFunc = func.toUpperCase();
+                String label = (COUNTDISTINCT.equals(upperFunc) ? COUNTDISTINCT : func) + "(" + aggregator.getColumn().trim() + ")";
+                String type;
+                switch (upperFunc) {
+                    case "SUM":
+                    case "AVG":
+                        if (!column.isNumeric() && column.getDictionarySize() > 0) {
+                            throw new LocalComputeUnsupportedException(upperFunc + " on non-numeric column: " + column.getName());
+                        }
+                        type = "DECIMAL";
+                        break;
+                    case "COUNT":
+                    case COUNTDISTINCT:
+                        type = "BIGINT";
+                        break;
+                    default:
+                        type = column.getType();
+                }
+                outputColumns.add(new OutputColumn(label, type, column, upperFunc));
+            }
+        }
+        return outputColumns;
+    }
+
+    private ColumnarTable.Column getColumn(ColumnarTable table, String name, String keywordPrefix, String keywordSuffix) {
+        ColumnarTable.Column column = table.getColumn(RowFilter.unquote(name, keywordPrefix, keywordSuffix));
+        if (null == column) {
+            throw new LocalComputeUnsupportedException("column not found: " + name);
+        }
+        return column;
+    }
+
+    private List<Object[]> project(List<OutputColumn> outputColumns, int[] rows) {
+        List<Object[]> resultRows = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            Object[] values = new Object[outputColumns.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = outputColumns.get(i).column.valueOf(row);
+            }
+            resultRows.add(values);
+        }
+        return resultRows;
+    }
+
+    private List<Object[]> aggregate(List<OutputColumn> outputColumns, int[] rows) {
+        List<OutputColumn> groupColumns = new ArrayList<>();
+        List<OutputColumn> aggColumns = new ArrayList<>();
+        for (OutputColumn outputColumn : outputColumns) {
+            (null == outputColumn.func ? groupColumns : aggColumns).add(outputColumn);
+        }
+
+        // 分组键：各分组列字典下标（null 为 0）的混合进制编码
+        long[] multipliers = new long[groupColumns.size()];
+        long radix = 1L;
+        for (int i = groupColumns.size() - 1; i >= 0; i--) {
+            multipliers[i] = radix;
+            try {
+                radix = Math.multiplyExact(radix, groupColumns.get(i).column.getDictionarySize() + 1L);
+            } catch (ArithmeticException e) {
+                throw new LocalComputeUnsupportedException("too many group combinations");
+            }
+        }
+
+        List<Map<Long, Accumulator[]>> partials = loop.map(rows.length, (from, to) -> {
+            Map<Long, Accumulator[]> groups = new LinkedHashMap<>();
+            for (int r = from; r < to; r++) {
+                int row = rows[r];
+                long key = 0L;
+                for (int g = 0; g < multipliers.length; g++) {
+                    key += (groupColumns.get(g).column.code(row) + 1L) * multipliers[g];
+                }
+                Accumulator[] accumulators = groups.computeIfAbsent(key, k -> newAccumulators(aggColumns));
+                for (int a = 0; a < accumulators.length; a++) {
+                    accumulators[a].add(aggColumns.get(a), row);
+                }
+            }
+            return groups;
+        });
+
+        Map<Long, Accumulator[]> merged = new LinkedHashMap<>();
+        for (Map<Long, Accumulator[]> partial : partials) {
+            partial.forEach((key, accumulators) -> {
+                Accumulator[] target = merged.get(key);
+                if (null == target) {
+                    merged.put(key, accumulators);
+                } else {
+                    for (int a = 0; a < target.length; a++) {
+                        target[a].merge(aggColumns.get(a), accumulators[a]);
+                    }
+                }
+            });
+        }
+
+        // 无分组的聚合总是返回一行
+        if (merged.isEmpty() && groupColumns.isEmpty()) {
+            merged.put(0L, newAccumulators(aggColumns));
+        }
+
+        List<Object[]> resultRows = new ArrayList<>(merged.size());
+        merged.forEach((key, accumulators) -> {
+            Object[] values = new Object[outputColumns.size()];
+            int g = 0;
+            int a = 0;
+            for (int i = 0; i < values.length; i++) {
+                OutputColumn outputColumn = outputColumns.get(i);
+                if (null == outputColumn.func) {
+                    int code = (int) (key / multipliers[g] % (outputColumn.column.getDictionarySize() + 1L)) - 1;
+                    values[i] = outputColumn.column.getDictionaryValue(code);
+                    g++;
+                } else {
+                    values[i] = accumulators[a].result(outputColumn);
+                    a++;
+                }
+            }
+            resultRows.add(values);
+        });
+        return resultRows;
+    }
+
+    private Accumulator[] newAccumulators(List<OutputColumn> aggColumns) {
+        Accumulator[] accumulators = new Accumulator[aggColumns.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i] = new Accumulator(COUNTDISTINCT.equals(aggColumns.get(i).func));
+        }
+        return accumulators;
+    }
+
+    private void sort(List<Object[]> resultRows, List<OutputColumn> outputColumns, List<Order> orders, String keywordPrefix, String keywordSuffix) {
+        if (CollectionUtils.isEmpty(orders) || resultRows.size() < 2) {
+            return;
+        }
+        Comparator<Object[]> comparator = null;
+        for (Order order : orders) {
+            int index = indexOf(outputColumns, RowFilter.unquote(order.getColumn(), keywordPrefix, keywordSuffix));
+            boolean desc = DESC.equalsIgnoreCase(null == order.getDirection() ? null : order.getDirection().trim());
+            // 与 mysql 一致：升序时 null 在前
+            Comparator<Object[]> c = (a, b) -> {
+                Object va = a[index];
+                Object vb = b[index];
+                if (va == vb) {
+                    return 0;
+                }
+                if (null == va) {
+                    return -1;
+                }
+                if (null == vb) {
+                    return 1;
+                }
+                return ColumnarTable.compareValues(va, vb);
+            };
+            if (desc) {
+                c = c.reversed();
+            }
+            comparator = null == comparator ? c : comparator.thenComparing(c);
+        }
+        resultRows.sort(comparator);
+    }
+
+    private int indexOf(List<OutputColumn> outputColumns, String name) {
+        for (int i = 0; i < outputColumns.size(); i++) {
+            if (outputColumns.get(i).label.equals(name)) {
+                return i;
+            }
+        }
+        for (int i = 0; i < outputColumns.size(); i++) {
+            if (outputColumns.get(i).label.equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new LocalComputeUnsupportedException("order column not in result: " + name);
+    }
+
+    private PaginateWithQueryColumns paginate(List<Object[]> resultRows, List<OutputColumn> outputColumns, ViewExecuteParam executeParam, Set<String> excludeColumns) {
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        List<QueryColumn> queryColumns = new ArrayList<>();
+        boolean[] excluded = new boolean[outputColumns.size()];
+        for (int i = 0; i < outputColumns.size(); i++) {
+            OutputColumn outputColumn = outputColumns.get(i);
+            excluded[i] = !CollectionUtils.isEmpty(excludeColumns) && excludeColumns.contains(outputColumn.label);
+            if (!excluded[i]) {
+                queryColumns.add(new QueryColumn(outputColumn.label, outputColumn.type));
+            }
+        }
+        paginate.setColumns(queryColumns);
+
+        int pageNo = executeParam.getPageNo();
+        int pageSize = executeParam.getPageSize();
+        int limit = executeParam.getLimit();
+        int total = resultRows.size();
+        int from;
+        int to;
+        if (pageNo < 1 && pageSize < 1) {
+            int max = limit > 0 ? Math.min(limit, resultLimit) : resultLimit;
+            from = 0;
+            to = Math.min(total, max);
+            paginate.setPageNo(1);
+            paginate.setPageSize(to);
+            paginate.setTotalCount(to);
+        } else {
+            pageNo = Math.max(pageNo, 1);
+            pageSize = Math.max(pageSize, 0);
+            from = (pageNo - 1) * pageSize;
+            int fetchRows = limit > 0 ? Math.max(Math.min(limit - from, pageSize), 0) : pageSize;
+            from = Math.min(from, total);
+            to = Math.min(total, from + fetchRows);
+            paginate.setPageNo(pageNo);
+            paginate.setPageSize(pageSize);
+            paginate.setTotalCount(limit > 0 ? Math.min(Math.min(limit, resultLimit), total) : total);
+        }
+
+        List<Map<String, Object>> resultList = new ArrayList<>(to - from);
+        for (Object[] values : resultRows.subList(from, to)) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < values.length; i++) {
+                if (!excluded[i]) {
+                    map.put(outputColumns.get(i).label, values[i]);
+                }
+            }
+            resultList.add(map);
+        }
+        paginate.setResultList(resultList);
+        return paginate;
+    }
+
+    public Cache<String, ColumnarTable> getTableCache() {
+        return tableCache;
+    }
+
+    private static final class OutputColumn {
+        private final String label;
+        private final String type;
+        private final ColumnarTable.Column column;
+        /**
+         * 聚合函数，分组列与明细列为 null
+         */
+        private final String func;
+
+        private OutputColumn(String label, String type, ColumnarTable.Column column, String func) {
+            this.label = label;
+            this.type = type;
+            this.column = column;
+            this.func = func;
+        }
+    }
+
+    private static final class Accumulator {
+        private long count;
+        private double sum;
+        private long longSum;
+        /**
+         * DECIMAL 列的和，以及整数列 longSum 溢出后转入的部分
+         */
+        private BigDecimal decimalSum;
+        private int minCode = -1;
+        private int maxCode = -1;
+        private final Set<Integer> distinct;
+
+        private Accumulator(boolean countDistinct) {
+            this.distinct = countDistinct ? new HashSet<>() : null;
+        }
+
+        private void add(OutputColumn outputColumn, int row) {
+            ColumnarTable.Column column = outputColumn.column;
+            int code = column.code(row);
+            if (code < 0) {
+                return;
+            }
+            count++;
+            switch (outputColumn.func) {
+                case "SUM":
+                case "AVG":
+                    if (column.isIntegral()) {
+                        addLong(column.getLong(code));
+                    } else if (column.isDecimal()) {
+                        addDecimal(column.getDecimal(code));
+                    } else {
+                        sum += column.getNumber(code);
+                    }
+                    break;
+                case "MIN":
+                case "MAX":
+                    int[] ranks = column.getRanks();
+                    if (minCode < 0 || ranks[code] < ranks[minCode]) {
+                        minCode = code;
+                    }
+                    if (maxCode < 0 || ranks[code] > ranks[maxCode]) {
+                        maxCode = code;
+                    }
+                    break;
+                case COUNTDISTINCT:
+                    distinct.add(code);
+                    break;
+                default:
+            }
+        }
+
+        private void merge(OutputColumn outputColumn, Accumulator other) {
+            count += other.count;
+            sum += other.sum;
+            addLong(other.longSum);
+            addDecimal(other.decimalSum);
+            if (null != distinct) {
+                distinct.addAll(other.distinct);
+            }
+            if (other.minCode >= 0) {
+                int[] ranks = outputColumn.column.getRanks();
+                if (minCode < 0 || ranks[other.minCode] < ranks[minCode]) {
+                    minCode = other.minCode;
+                }
+                if (maxCode < 0 || ranks[other.maxCode] > ranks[maxCode]) {
+                    maxCode = other.maxCode;
+                }
+            }
+        }
+
+        private void addLong(long value) {
+            try {
+                longSum = Math.addExact(longSum, value);
+            } catch (ArithmeticException e) {
+                addDecimal(BigDecimal.valueOf(longSum).add(BigDecimal.valueOf(value)));
+                longSum = 0L;
+            }
+        }
+
+        private void addDecimal(BigDecimal value) {
+            if (null != value) {
+                decimalSum = null == decimalSum ? value : decimalSum.add(value);
+            }
+        }
+
+        /**
+         * 整数列未溢出时为 Long，否则为 BigDecimal
+         */
+        private Number exactSum() {
+            if (null == decimalSum) {
+                return longSum;
+            }
+            return longSum == 0L ? decimalSum : decimalSum.add(BigDecimal.valueOf(longSum));
+        }
+
+        private Object result(OutputColumn outputColumn) {
+            ColumnarTable.Column column = outputColumn.column;
+            switch (outputColumn.func) {
+                case "COUNT":
+                    return count;
+                case COUNTDISTINCT:
+                    return (long) distinct.size();
+                case "SUM":
+                    if (count == 0) {
+                        return null;
+                    }
+                    if (column.isDecimal()) {
+                        return decimalSum;
+                    }
+                    return column.isIntegral() ? (Object) exactSum() : (Object) sum;
+                case "AVG":
+                    if (count == 0) {
+                        return null;
+                    }
+                    if (column.isDecimal()) {
+                        return decimalSum.divide(BigDecimal.valueOf(count), MathContext.DECIMAL128);
+                    }
+                    return (column.isIntegral() ? exactSum().doubleValue() : sum) / count;
+                case "MIN":
+                    return column.getDictionaryValue(minCode);
+                case "MAX":
+                    return column.getDictionaryValue(maxCode);
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.compute;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 按行分块并行执行，行数不超过一块时在调用线程执行
+ */
+final class ParallelLoop {
+
+    @FunctionalInterface
+    interface RangeTask {
+        void run(int from, int to);
+    }
+
+    @FunctionalInterface
+    interface RangeFunction<T> {
+        T apply(int from, int to);
+    }
+
+    private final ForkJoinPool pool;
+
+    private final int chunkSize;
+
+    ParallelLoop(ForkJoinPool pool, int chunkSize) {
+        this.pool = pool;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    void forEach(int size, RangeTask task) {
+        map(size, (from, to) -> {
+            task.run(from, to);
+            return null;
+        });
+    }
+
+    /**
+     * @param size
+     * @param function
+     * @param <T>
+     * @return 按块顺序排列的结果
+     */
+    <T> List<T> map(int size, RangeFunction<T> function) {
+        int chunks = Math.max(1, (size + chunkSize - 1) / chunkSize);
+        if (chunks == 1) {
+            return Collections.singletonList(function.apply(0, size));
+        }
+        try {
+            return pool.submit(() -> IntStream.range(0, chunks)
+                    .parallel()
+                    .mapToObj(c -> function.apply(c * chunkSize, Math.min(size, (c + 1) * chunkSize)))
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("local compute interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.compute;
+
+import edp.davinci.core.model.SqlFilter;
+import org.apache.commons.lang.StringUtils;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 在列式表上求值过滤条件
+ * <p>
+ * 条件先在列字典上求值，再按行的字典下标映射为行掩码；与 sql 一致，null 值只匹配 IS NULL。
+ * 整数与 DECIMAL 列按 BigDecimal 精确比较；字符串的比较结果取决于数据源的排序规则（如 mysql 默认大小写不敏感），
+ * 只有数据源按二进制比较时才在本地执行 =、IN、LIKE，范围比较总是回退到数据源
+ */
+final class RowFilter {
+
+    private static final Pattern PATTERN_QUOTED = Pattern.compile("^'.*'$", Pattern.DOTALL);
+
+    private static final List<DateTimeFormatter> DATE_TIME_FORMATTERS = Arrays.asList(
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"),
+            DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss")
+    );
+
+    private static final List<DateTimeFormatter> DATE_FORMATTERS = Arrays.asList(
+            DateTimeFormatter.ofPattern("yyyy-MM-dd"),
+            DateTimeFormatter.ofPattern("yyyy/MM/dd")
+    );
+
+    private final ColumnarTable table;
+
+    private final ParallelLoop loop;
+
+    private final String keywordPrefix;
+
+    private final String keywordSuffix;
+
+    private final boolean binaryStrings;
+
+    /**
+     * @param table
+     * @param loop
+     * @param keywordPrefix
+     * @param keywordSuffix
+     * @param binaryStrings 数据源是否按二进制比较字符串，见 SqlUtils.isBinaryStringComparison
+     */
+    RowFilter(ColumnarTable table, ParallelLoop loop, String keywordPrefix, String keywordSuffix, boolean binaryStrings) {
+        this.table = table;
+        this.loop = loop;
+        this.keywordPrefix = keywordPrefix;
+        this.keywordSuffix = keywordSuffix;
+        this.binaryStrings = binaryStrings;
+    }
+
+    /**
+     * 多个条件之间为 AND
+     *
+     * @param filters
+     * @return 行掩码
+     */
+    boolean[] evaluate(List<SqlFilter> filters) {
+        boolean[] mask = new boolean[table.getRowCount()];
+        Arrays.fill(mask, true);
+        if (null == filters) {
+            return mask;
+        }
+        for (SqlFilter filter : filters) {
+            and(mask, evaluate(filter));
+        }
+        return mask;
+    }
+
+    private boolean[] evaluate(SqlFilter filter) {
+        if (SqlFilter.Type.relation.equalsIgnoreCase(filter.getType())) {
+            String relation = String.valueOf(filter.getValue()).trim();
+            boolean isAnd = SqlFilter.Type.and.equalsIgnoreCase(relation);
+            if (!isAnd && !SqlFilter.Type.or.equalsIgnoreCase(relation)) {
+                throw new LocalComputeUnsupportedException("unsupported filter relation: " + relation);
+            }
+            boolean[] mask = new boolean[table.getRowCount()];
+            Arrays.fill(mask, isAnd);
+            if (null != filter.getChildren()) {
+                for (SqlFilter child : filter.getChildren()) {
+                    if (isAnd) {
+                        and(mask, evaluate(child));
+                    } else {
+                        or(mask, evaluate(child));
+                    }
+                }
+            }
+            return mask;
+        }
+
+        if (SqlFilter.Type.filter.equalsIgnoreCase(filter.getType())) {
+            return evaluateCondition(filter);
+        }
+
+        throw new LocalComputeUnsupportedException("unsupported filter type: " + filter.getType());
+    }
+
+    private boolean[] evaluateCondition(SqlFilter filter) {
+        ColumnarTable.Column column = table.getColumn(unquote(filter.getName(), keywordPrefix, keywordSuffix));
+        if (null == column) {
+            throw new LocalComputeUnsupportedException("filter column not found: " + filter.getName());
+        }
+
+        String operator = null == filter.getOperator() ? "" : filter.getOperator().trim().toUpperCase().replaceAll("\\s+", " ");
+        switch (operator) {
+            case "IS NULL":
+                return mapRows(column, null, true);
+            case "IS NOT NULL":
+                boolean[] all = new boolean[column.getDictionarySize()];
+                Arrays.fill(all, true);
+                return mapRows(column, all, false);
+            default:
+                return mapRows(column, evaluateDictionary(column, operator, filter.getValue()), false);
+        }
+    }
+
+    private boolean[] evaluateDictionary(ColumnarTable.Column column, String operator, Object value) {
+        int size = column.getDictionarySize();
+        boolean[] matches = new boolean[size];
+        if (size > 0 && isString(column)) {
+            checkStringOperator(operator);
+        }
+        switch (operator) {
+            case "=":
+            case "!=":
+            case "<>":
+            case ">":
+            case ">=":
+            case "<":
+            case "<=": {
+                Comparable<Object> literal = toComparable(column, single(value));
+                for (int code = 0; code < size; code++) {
+                    int c = literal.compareTo(key(column, code));
+                    // literal 与值比较，方向相反
+                    matches[code] = test(operator, -c);
+                }
+                return matches;
+            }
+            case "BETWEEN": {
+                List<String> values = literals(value);
+                if (values.size() != 2) {
+                    throw new LocalComputeUnsupportedException("between requires 2 values");
+                }
+                Comparable<Object> from = toComparable(column, values.get(0));
+                Comparable<Object> to = toComparable(column, values.get(1));
+                for (int code = 0; code < size; code++) {
+                    Object key = key(column, code);
+                    matches[code] = from.compareTo(key) <= 0 && to.compareTo(key) >= 0;
+                }
+                return matches;
+            }
+            case "IN":
+            case "NOT IN": {
+                List<Comparable<Object>> values = new ArrayList<>();
+                for (String literal : literals(value)) {
+                    values.add(toComparable(column, literal));
+                }
+                boolean in = "IN".equals(operator);
+                for (int code = 0; code < size; code++) {
+                    Object key = key(column, code);
+                    boolean found = false;
+                    for (Comparable<Object> v : values) {
+                        if (v.compareTo(key) == 0) {
+                            found = true;
+                            break;
+                        }
+                    }
+                    matches[code] = found == in;
+                }
+                return matches;
+            }
+            case "LIKE":
+            case "NOT LIKE": {
+                Pattern pattern = likePattern(single(value));
+                boolean like = "LIKE".equals(operator);
+                for (int code = 0; code < size; code++) {
+                    matches[code] = pattern.matcher(String.valueOf(column.getDictionaryValue(code))).matches() == like;
+                }
+                return matches;
+            }
+            default:
+                throw new LocalComputeUnsupportedException("unsupported filter operator: " + operator);
+        }
+    }
+
+    private static boolean isString(ColumnarTable.Column column) {
+        return !column.isNumeric() && !column.isTemporal();
+    }
+
+    private void checkStringOperator(String operator) {
+        if (!binaryStrings) {
+            throw new LocalComputeUnsupportedException("string filter depends on source collation: " + operator);
+        }
+        switch (operator) {
+            case "=":
+            case "!=":
+            case "<>":
+            case "IN":
+            case "NOT IN":
+            case "LIKE":
+            case "NOT LIKE":
+                return;
+            default:
+                throw new LocalComputeUnsupportedException("string range filter depends on source collation: " + operator);
+        }
+    }
+
+    private boolean[] mapRows(ColumnarTable.Column column, boolean[] matches, boolean matchNull) {
+        int[] codes = column.getCodes();
+        boolean[] mask = new boolean[codes.length];
+        loop.forEach(codes.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int code = codes[i];
+                mask[i] = code < 0 ? matchNull : null != matches && matches[code];
+            }
+        });
+        return mask;
+    }
+
+    private void and(boolean[] mask, boolean[] other) {
+        loop.forEach(mask.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                mask[i] = mask[i] && other[i];
+            }
+        });
+    }
+
+    private void or(boolean[] mask, boolean[] other) {
+        loop.forEach(mask.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                mask[i] = mask[i] || other[i];
+            }
+        });
+    }
+
+    private static boolean test(String operator, int c) {
+        switch (operator) {
+            case "=":
+                return c == 0;
+            case "!=":
+            case "<>":
+                return c != 0;
+            case ">":
+                return c > 0;
+            case ">=":
+                return c >= 0;
+            case "<":
+                return c < 0;
+            default:
+                return c <= 0;
+        }
+    }
+
+    /**
+     * 字典值的比较键，与 toComparable 的类型对应
+     */
+    private static Object key(ColumnarTable.Column column, int code) {
+        if (isExactNumeric(column)) {
+            return column.getDecimal(code);
+        }
+        if (column.isNumeric()) {
+            return column.getNumber(code);
+        }
+        if (column.isTemporal()) {
+            return column.getTime(code);
+        }
+        return String.valueOf(column.getDictionaryValue(code));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> toComparable(ColumnarTable.Column column, String literal) {
+        if (column.isNumeric()) {
+            BigDecimal number;
+            try {
+                number = new BigDecimal(literal.trim());
+            } catch (NumberFormatException e) {
+                throw new LocalComputeUnsupportedException("not a number: " + literal);
+            }
+            return isExactNumeric(column) ? (Comparable) number : (Comparable) number.doubleValue();
+        }
+        if (column.isTemporal()) {
+            Long time = parseTime(literal.trim());
+            return (Comparable) time;
+        }
+        return (Comparable) literal;
+    }
+
+    /**
+     * 整数与 DECIMAL 列精确比较，浮点列与 sql 一致按 double 比较
+     */
+    private static boolean isExactNumeric(ColumnarTable.Column column) {
+        return column.isIntegral() || column.isDecimal();
+    }
+
+    private static Long parseTime(String literal) {
+        for (DateTimeFormatter formatter : DATE_TIME_FORMATTERS) {
+            try {
+                return Timestamp.valueOf(LocalDateTime.parse(literal, formatter)).getTime();
+            } catch (DateTimeParseException e) {
+                // try next
+            }
+        }
+        for (DateTimeFormatter formatter : DATE_FORMATTERS) {
+            try {
+                return Timestamp.valueOf(LocalDate.parse(literal, formatter).atStartOfDay()).getTime();
+            } catch (DateTimeParseException e) {
+                // try next
+            }
+        }
+        throw new LocalComputeUnsupportedException("not a date: " + literal);
+    }
+
+    private static Pattern likePattern(String literal) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder plain = new StringBuilder();
+        boolean escaped = false;
+        for (char c : literal.toCharArray()) {
+            if (escaped) {
+                plain.append(c);
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '%' || c == '_') {
+                if (plain.length() > 0) {
+                    regex.append(Pattern.quote(plain.toString()));
+                    plain.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                plain.append(c);
+            }
+        }
+        if (plain.length() > 0) {
+            regex.append(Pattern.quote(plain.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static String single(Object value) {
+        List<String> values = literals(value);
+        if (values.size() != 1) {
+            throw new LocalComputeUnsupportedException("single value required");
+        }
+        return values.get(0);
+    }
+
+    private static List<String> literals(Object value) {
+        if (null == value) {
+            throw new LocalComputeUnsupportedException("empty filter value");
+        }
+        if (value instanceof List) {
+            List<String> literals = new ArrayList<>();
+            for (Object item : (List<?>) value) {
+                if (null == item) {
+                    throw new LocalComputeUnsupportedException("empty filter value");
+                }
+                literals.add(literal(item));
+            }
+            return literals;
+        }
+        return Collections.singletonList(literal(value));
+    }
+
+    private static String literal(Object value) {
+        String literal = String.valueOf(value);
+        if (PATTERN_QUOTED.matcher(literal).matches() && literal.length() > 1) {
+            return literal.substring(1, literal.length() - 1).replace("''", "'");
+        }
+        return literal;
+    }
+
+    /**
+     * 去掉列名两侧的关键字引用符
+     */
+    static String unquote(String name, String keywordPrefix, String keywordSuffix) {
+        if (null == name) {
+            return null;
+        }
+        String column = name.trim();
+        if (!StringUtils.isEmpty(keywordPrefix) && column.startsWith(keywordPrefix)) {
+            column = column.substring(keywordPrefix.length());
+        }
+        if (!StringUtils.isEmpty(keywordSuffix) && column.endsWith(keywordSuffix)) {
+            column = column.substring(0, column.length() - keywordSuffix.length());
+        }
+        return column;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.distinct;
+
+import java.util.*;
+
+/**
+ * 列的去重值字典，按小写字符串排序
+ * <p>
+ * 前缀查询在有序字典上二分定位，包含查询使用按需构建的三元组倒排索引，
+ * 结果中前缀匹配的值排在前面；大小写按 {@link Locale#ROOT} 转换，与服务器语言环境无关
+ */
+public class DistinctIndex {
+
+    private static final int GRAM = 3;
+
+    private final Object[] values;
+
+    private final String[] keys;
+
+    private final boolean truncated;
+
+    private volatile Map<String, int[]> grams;
+
+    private volatile int gramWeight;
+
+    private DistinctIndex(Object[] values, String[] keys, boolean truncated) {
+        this.values = values;
+        this.keys = keys;
+        this.truncated = truncated;
+    }
+
+    public static DistinctIndex of(Collection<?> rawValues) {
+        return of(rawValues, false);
+    }
+
+    /**
+     * 构建字典，null 值不参与查询
+     *
+     * @param rawValues
+     * @param truncated 数据源的去重值多于 rawValues
+     * @return
+     */
+    public static DistinctIndex of(Collection<?> rawValues, boolean truncated) {
+        List<Object[]> entries = new ArrayList<>(rawValues.size());
+        for (Object value : rawValues) {
+            if (null != value) {
+                String text = String.valueOf(value);
+                entries.add(new Object[]{text.toLowerCase(Locale.ROOT), text, value});
+            }
+        }
+        entries.sort((a, b) -> {
+            int c = ((String) a[0]).compareTo((String) b[0]);
+            return c != 0 ? c : ((String) a[1]).compareTo((String) b[1]);
+        });
+        Object[] values = new Object[entries.size()];
+        String[] keys = new String[entries.size()];
+        for (int i = 0; i < values.length; i++) {
+            keys[i] = (String) entries.get(i)[0];
+            values[i] = entries.get(i)[2];
+        }
+        return new DistinctIndex(values, keys, truncated);
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * 三元组索引是否已构建
+     *
+     * @return
+     */
+    public boolean isGramIndexed() {
+        return null != grams;
+    }
+
+    /**
+     * 缓存权重，按字符数估算，包含已构建的三元组索引
+     *
+     * @return
+     */
+    public int weight() {
+        long weight = gramWeight;
+        for (String key : keys) {
+            weight += key.length() + 16;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, weight);
+    }
+
+    /**
+     * 查询匹配的值
+     *
+     * @param keyword    为空时返回全部
+     * @param prefixOnly 只匹配前缀
+     * @param offset
+     * @param limit
+     * @return
+     */
+    public Result search(String keyword, boolean prefixOnly, int offset, int limit) {
+        offset = Math.max(0, offset);
+        limit = Math.max(0, limit);
+
+        if (null == keyword || keyword.isEmpty()) {
+            return slice(0, values.length, null, offset, limit);
+        }
+
+        String word = keyword.toLowerCase(Locale.ROOT);
+        int from = lowerBound(word);
+        int to = prefixEnd(word, from);
+        if (prefixOnly) {
+            return slice(from, to, null, offset, limit);
+        }
+        return slice(from, to, containing(word), offset, limit);
+    }
+
+    /**
+     * 先取前缀区间 [from, to)，再取包含但非前缀的值
+     */
+    private Result slice(int from, int to, int[] others, int offset, int limit) {
+        int prefixCount = to - from;
+        int total = prefixCount + (null == others ? 0 : others.length);
+        List<Object> list = new ArrayList<>(Math.max(0, Math.min(limit, total - offset)));
+        for (int i = offset; i < total && list.size() < limit; i++) {
+            list.add(i < prefixCount ? values[from + i] : values[others[i - prefixCount]]);
+        }
+        return new Result(total, list, truncated);
+    }
+
+    private int lowerBound(String word) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(word) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int prefixEnd(String word, int from) {
+        int low = from;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].startsWith(word)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 包含关键字但不以其开头的值下标，升序
+     */
+    private int[] containing(String word) {
+        int[] candidates = null;
+        if (word.length() >= GRAM) {
+            Map<String, int[]> index = getGrams();
+            for (int i = 0; i + GRAM <= word.length(); i++) {
+                int[] postings = index.get(word.substring(i, i + GRAM));
+                if (null == postings) {
+                    return new int[0];
+                }
+                if (null == candidates || postings.length < candidates.length) {
+                    candidates = postings;
+                }
+            }
+        }
+
+        int size = null == candidates ? keys.length : candidates.length;
+        int[] matches = new int[Math.min(size, 1024)];
+        int count = 0;
+        for (int n = 0; n < size; n++) {
+            int i = null == candidates ? n : candidates[n];
+            String key = keys[i];
+            if (key.length() > word.length() && !key.startsWith(word) && key.contains(word)) {
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, count * 2);
+                }
+                matches[count++] = i;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    private Map<String, int[]> getGrams() {
+        Map<String, int[]> index = grams;
+        if (null == index) {
+            synchronized (this) {
+                index = grams;
+                if (null == index) {
+                    index = buildGrams();
+                    long weight = 0L;
+                    for (int[] postings : index.values()) {
+                        // 三元组与 HashMap 节点开销，下标按每个 2 个字符计
+                        weight += GRAM + 32 + postings.length * 2L;
+                    }
+                    gramWeight = (int) Math.min(Integer.MAX_VALUE, weight);
+                    grams = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private Map<String, int[]> buildGrams() {
+        Map<String, int[]> postings = new HashMap<>();
+        Map<String, Integer> sizes = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            seen.clear();
+            for (int g = 0; g + GRAM <= key.length(); g++) {
+                String gram = key.substring(g, g + GRAM);
+                if (!seen.add(gram)) {
+                    continue;
+                }
+                int[] list = postings.get(gram);
+                int count = sizes.getOrDefault(gram, 0);
+                if (null == list) {
+                    list = new int[4];
+                } else if (count == list.length) {
+                    list = Arrays.copyOf(list, count * 2);
+                }
+                list[count] = i;
+                postings.put(gram, list);
+                sizes.put(gram, count + 1);
+            }
+        }
+        Map<String, int[]> index = new HashMap<>(postings.size() * 2);
+        postings.forEach((gram, list) -> index.put(gram, Arrays.copyOf(list, sizes.get(gram))));
+        return index;
+    }
+
+    public static final class Result {
+
+        private final int total;
+
+        private final List<Object> values;
+
+        private final boolean truncated;
+
+        private Result(int total, List<Object> values, boolean truncated) {
+            this.total = total;
+            this.values = values;
+            this.truncated = truncated;
+        }
+
+        /**
+         * 匹配的值个数，字典被截断时只计截断前的值
+         *
+         * @return
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public List<Object> getValues() {
+            return values;
+        }
+    }
+}
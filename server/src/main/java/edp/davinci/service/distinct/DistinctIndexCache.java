@@ -0,0 +1,197 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.distinct;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.exception.ServerException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 控件去重值字典缓存
+ * <p>
+ * 按 view、列、过滤条件及行权限后的 sql 缓存 {@link DistinctIndex}；
+ * 超过 source.distinct.refresh-seconds 后仍返回旧字典，同时在后台重新查询；
+ * 去重值多于 source.distinct.max-values 时只保留前 max-values 个，并在结果中标记为截断
+ */
+@Slf4j
+@Component
+public class DistinctIndexCache {
+
+    @Value("${source.distinct.max-values:1000000}")
+    private int maxValues;
+
+    @Value("${source.distinct.refresh-seconds:300}")
+    private long refreshSeconds;
+
+    @Value("${source.distinct.expire-seconds:3600}")
+    private long expireSeconds;
+
+    @Value("${source.distinct.cache-max-chars:200000000}")
+    private long cacheMaxChars;
+
+    @Value("${source.distinct.refresh-threads:2}")
+    private int refreshThreads;
+
+    @Value("${source.distinct.max-page-size:100}")
+    private int maxPageSize;
+
+    private Cache<String, Entry> cache;
+
+    private ExecutorService refreshExecutor;
+
+    @FunctionalInterface
+    public interface ValuesLoader {
+        /**
+         * 查询列的去重值
+         *
+         * @param limit 最多返回个数
+         * @return
+         * @throws Exception
+         */
+        List<Object> load(int limit) throws Exception;
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .recordStats()
+                .maximumWeight(cacheMaxChars)
+                .weigher((String key, Entry entry) -> entry.index.weight())
+                .expireAfterAccess(expireSeconds, TimeUnit.SECONDS)
+                .build();
+        refreshExecutor = Executors.newFixedThreadPool(Math.max(1, refreshThreads),
+                new ThreadFactoryBuilder().setNameFormat("distinct-index-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        refreshExecutor.shutdownNow();
+    }
+
+    public int getMaxPageSize() {
+        return maxPageSize;
+    }
+
+    public Cache<String, Entry> getCache() {
+        return cache;
+    }
+
+    public ExecutorService getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * 在字典中查询，参数同 {@link DistinctIndex#search(String, boolean, int, int)}
+     *
+     * @param key
+     * @param loader
+     * @param keyword
+     * @param prefixOnly
+     * @param offset
+     * @param limit
+     * @return
+     * @throws ServerException
+     */
+    public DistinctIndex.Result search(String key, ValuesLoader loader, String keyword, boolean prefixOnly, int offset, int limit) throws ServerException {
+        Entry entry = getEntry(key, loader);
+        boolean indexed = entry.index.isGramIndexed();
+        DistinctIndex.Result result = entry.index.search(keyword, prefixOnly, offset, limit);
+        if (!indexed && entry.index.isGramIndexed()) {
+            // 三元组索引按需构建，重新放入缓存使权重包含索引大小
+            cache.asMap().replace(key, entry, entry);
+        }
+        return result;
+    }
+
+    /**
+     * 获取字典，首次查询时同步加载，过期后异步刷新
+     *
+     * @param key
+     * @param loader
+     * @return
+     * @throws ServerException
+     */
+    public DistinctIndex get(String key, ValuesLoader loader) throws ServerException {
+        return getEntry(key, loader).index;
+    }
+
+    private Entry getEntry(String key, ValuesLoader loader) throws ServerException {
+        Entry entry = cache.get(key, k -> load(k, loader));
+        if (System.currentTimeMillis() - entry.loadedAt >= refreshSeconds * 1000L && entry.refreshing.compareAndSet(false, true)) {
+            try {
+                refreshExecutor.execute(() -> {
+                    try {
+                        cache.put(key, load(key, loader));
+                    } catch (Exception e) {
+                        log.warn("refresh distinct values({}) error: {}", key, e.getMessage());
+                        entry.refreshing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                entry.refreshing.set(false);
+            }
+        }
+        return entry;
+    }
+
+    private Entry load(String key, ValuesLoader loader) {
+        List<Object> values;
+        try {
+            // 多取一个值用于判断是否被截断
+            values = loader.load(maxValues + 1);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServerException(e.getMessage());
+        }
+        boolean truncated = values.size() > maxValues;
+        if (truncated) {
+            log.warn("distinct values({}) are truncated to {}", key, maxValues);
+            values = values.subList(0, maxValues);
+        }
+        return new Entry(DistinctIndex.of(values, truncated));
+    }
+
+    public static final class Entry {
+
+        private final DistinctIndex index;
+
+        private final long loadedAt = System.currentTimeMillis();
+
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        private Entry(DistinctIndex index) {
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package edp.davinci.service.elastic;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按类缓存字段getter的MethodHandle，避免每个对象每个字段都走一次反射查找
+ */
+@Slf4j
+public class DocumentFieldAccessor {
+
+    private static final ClassValue<DocumentFieldAccessor> ACCESSORS = new ClassValue<DocumentFieldAccessor>() {
+        @Override
+        protected DocumentFieldAccessor computeValue(Class<?> type) {
+            return new DocumentFieldAccessor(type);
+        }
+    };
+
+    private final List<String> names;
+
+    private final List<MethodHandle> getters;
+
+    private DocumentFieldAccessor(Class<?> clz) {
+        List<String> names = new ArrayList<>();
+        List<MethodHandle> getters = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        for (Field field : clz.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            String fieldName = field.getName();
+            String getter = "get" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
+            try {
+                Method method = clz.getMethod(getter);
+                names.add(fieldName);
+                getters.add(lookup.unreflect(method));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                // 没有public getter的字段不写入文档
+                log.debug("Field {} of {} has no accessible getter", fieldName, clz.getName());
+            }
+        }
+        this.names = Collections.unmodifiableList(names);
+        this.getters = Collections.unmodifiableList(getters);
+    }
+
+    public static DocumentFieldAccessor of(Class<?> clz) {
+        return ACCESSORS.get(clz);
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+
+    public Map<String, Object> toMap(Object object) {
+        Map<String, Object> map = new LinkedHashMap<>(names.size() * 2);
+        for (int i = 0; i < names.size(); i++) {
+            Object value = null;
+            try {
+                value = getters.get(i).invoke(object);
+            } catch (Throwable e) {
+                log.warn("Read field {} of {} error: {}", names.get(i), object.getClass().getName(), e.getMessage());
+            }
+            map.put(names.get(i), value);
+        }
+        return map;
+    }
+}
@@ -2,69 +2,138 @@ package edp.davinci.service.elastic;
 
 import edp.core.exception.ServerException;
 import lombok.extern.slf4j.Slf4j;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.springframework.stereotype.Component;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import javax.annotation.PostConstruct;
 import java.util.List;
-
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Component
 @Slf4j
 public class ElasticOperationService extends ElasticConfigration {
 
+    private BulkProcessor bulkProcessor;
+
+    private final LongAdder indexedCount = new LongAdder();
+
+    private final LongAdder failedCount = new LongAdder();
+
+    @PostConstruct
+    public void initBulkProcessor() {
+        if (client == null) {
+            return;
+        }
+        initBulkProcessor(client);
+    }
+
+    /**
+     * 按条数、字节数和时间间隔分批刷写，并发中的bulk请求数量受限，超过时add阻塞调用方形成背压；
+     * 被集群拒绝(EsRejectedExecutionException)的条目按指数退避重试
+     *
+     * @param client 可传入本地替身client用于测试
+     */
+    public synchronized void initBulkProcessor(Client client) {
+        if (bulkProcessor != null) {
+            return;
+        }
+
+        int bulkActions = environment.getProperty("statistic.elastic_bulk_actions", Integer.class, 1000);
+        int bulkSizeMb = environment.getProperty("statistic.elastic_bulk_size_mb", Integer.class, 5);
+        int concurrentRequests = environment.getProperty("statistic.elastic_bulk_concurrent_requests", Integer.class, 2);
+        int flushIntervalSeconds = environment.getProperty("statistic.elastic_bulk_flush_interval_seconds", Integer.class, 5);
+        int retries = environment.getProperty("statistic.elastic_bulk_retries", Integer.class, 3);
+
+        this.bulkProcessor = BulkProcessor.builder(client, new BulkListener())
+                .setBulkActions(bulkActions)
+                .setBulkSize(new ByteSizeValue(bulkSizeMb, ByteSizeUnit.MB))
+                .setConcurrentRequests(concurrentRequests)
+                .setFlushInterval(TimeValue.timeValueSeconds(flushIntervalSeconds))
+                .setBackoffPolicy(BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(100), retries))
+                .build();
+    }
+
     public void batchInsert(String index, String type, List<?> objects) {
-        
-        try{
 
-            BulkRequestBuilder bulkRequest = client.prepareBulk();
+        if (bulkProcessor == null) {
+            log.error("ElasticOperation batchInsert error, bulk processor is not initialized.");
+            throw new ServerException("Elasticsearch client is not initialized");
+        }
+
+        for (Object object : objects) {
+            DocumentFieldAccessor accessor = DocumentFieldAccessor.of(object.getClass());
+            bulkProcessor.add(new IndexRequest(index, type).source(accessor.toMap(object)));
+        }
+    }
+
+    public void flush() {
+        if (bulkProcessor != null) {
+            bulkProcessor.flush();
+        }
+    }
+
+    public long getIndexedCount() {
+        return indexedCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
 
-            for(Object object : objects){
-                XContentBuilder builder = jsonBuilder().startObject();
-                String[] fileNames = getFiledName(object);
-                for(String fileName : fileNames){
-                    Object value = getFieldValueByName(fileName, object);
-                    builder.field(fileName, value);
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (bulkProcessor != null) {
+                try {
+                    bulkProcessor.awaitClose(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                builder.endObject();
-                bulkRequest.add(client.prepareIndex(index, type).setSource(builder));
+                bulkProcessor = null;
             }
+        }
+        super.destroy();
+    }
 
-            BulkResponse bulkResponse = bulkRequest.get();
-            if (bulkResponse.hasFailures()) {
-                // process failures by iterating through each bulk response item
-                log.error("ElasticOperation batchInsert failed. {}", bulkResponse.toString());
-            }
+    private class BulkListener implements BulkProcessor.Listener {
 
-        }catch (Exception e){
-            log.error("ElasticOperation batchInsert error. ", e);
-            throw new ServerException(e.getMessage());
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            log.debug("ElasticOperation bulk {} start, actions: {}, bytes: {}", executionId, request.numberOfActions(), request.estimatedSizeInBytes());
         }
-    }
 
-    private static String[] getFiledName(Object o) {
-        Field[] fields = o.getClass().getDeclaredFields();
-        String[] fieldNames = new String[fields.length];
-        for (int i = 0; i < fields.length; i++) {
-            fieldNames[i] = fields[i].getName();
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            if (!response.hasFailures()) {
+                indexedCount.add(request.numberOfActions());
+                return;
+            }
+
+            int failed = 0;
+            for (BulkItemResponse item : response.getItems()) {
+                if (item.isFailed()) {
+                    failed++;
+                }
+            }
+            indexedCount.add(request.numberOfActions() - failed);
+            failedCount.add(failed);
+            log.error("ElasticOperation bulk {} failed {} of {} items. {}", executionId, failed, request.numberOfActions(), response.buildFailureMessage());
         }
-        return fieldNames;
-    }
 
-    private static Object getFieldValueByName(String fieldName, Object o) {
-        try {
-            String firstLetter = fieldName.substring(0, 1).toUpperCase();
-            String getter = "get" + firstLetter + fieldName.substring(1);
-            Method method = o.getClass().getMethod(getter, new Class[]{});
-            Object value = method.invoke(o, new Object[]{});
-            return value;
-        } catch (Exception e) {
-            // ignore
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            failedCount.add(request.numberOfActions());
+            log.error("ElasticOperation bulk {} error, {} items lost.", executionId, request.numberOfActions(), failure);
         }
-        return null;
     }
 }
@@ -0,0 +1,276 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+
+package edp.davinci.service.excel;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.utils.CollectionUtils;
+import edp.davinci.core.enums.DownloadTaskStatus;
+import edp.davinci.dao.DownloadRecordMapper;
+import edp.davinci.dao.ShareDownloadRecordMapper;
+import edp.davinci.model.DownloadRecord;
+import edp.davinci.model.DownloadRecordBaseInfo;
+import edp.davinci.model.ShareDownloadRecord;
+import edp.davinci.service.DownloadService;
+import edp.davinci.service.ShareDownloadService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 持久化的下载任务队列
+ * <p>
+ * 下载与分享下载记录以处理中状态入库即为排队，各节点定时按 job_key 领取：条件更新同一 job_key 下所有未被租用的记录，
+ * 只执行一次并在完成后共用生成的文件。执行期间定期续租，节点宕机或重启后租约过期由其他节点重新领取，
+ * 领取超过 download.queue.max-attempts 次仍未完成的记录置为失败。租约到期时间统一取数据库时间，不受各节点时钟偏差影响。
+ * 多节点部署时 file.userfiles-path 需为共享目录
+ */
+@Slf4j
+@Component
+public class DownloadQueue {
+
+    @Value("${download.queue.concurrency:4}")
+    private int concurrency;
+
+    @Value("${download.queue.poll-interval-ms:2000}")
+    private long pollInterval;
+
+    @Value("${download.queue.lease-seconds:120}")
+    private int leaseSeconds;
+
+    @Value("${download.queue.max-attempts:3}")
+    private int maxAttempts;
+
+    @Autowired
+    private DownloadRecordMapper downloadRecordMapper;
+
+    @Autowired
+    private ShareDownloadRecordMapper shareDownloadRecordMapper;
+
+    @Autowired
+    private DownloadService downloadService;
+
+    @Autowired
+    private ShareDownloadService shareDownloadService;
+
+    private String worker;
+
+    private Semaphore slots;
+
+    private ExecutorService workers;
+
+    private ScheduledExecutorService scheduler;
+
+    private final Set<Job> running = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        worker = host + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+        int threads = Math.max(1, concurrency);
+        slots = new Semaphore(threads);
+        workers = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("Download-worker-%d").setDaemon(true).build());
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Download-queue-%d").setDaemon(true).build());
+
+        long renewInterval = Math.max(1L, leaseSeconds * 1000L / 3);
+        scheduler.scheduleWithFixedDelay(this::poll, pollInterval, Math.max(100L, pollInterval), TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::renew, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdownNow();
+        // 不中断执行中的任务，否则会被记为失败；释放租约后由其他节点或重启后重新领取
+        workers.shutdown();
+        try {
+            downloadRecordMapper.releaseLeases(worker);
+            shareDownloadRecordMapper.releaseLeases(worker);
+        } catch (Exception e) {
+            log.warn("Download queue release leases error: {}", e.getMessage());
+        }
+    }
+
+    private void poll() {
+        try {
+            downloadRecordMapper.failExhausted(maxAttempts);
+            shareDownloadRecordMapper.failExhausted(maxAttempts);
+
+            claim(false);
+            claim(true);
+        } catch (Exception e) {
+            log.error("Download queue poll error", e);
+        }
+    }
+
+    private void claim(boolean share) {
+        int free = slots.availablePermits();
+        if (free <= 0) {
+            return;
+        }
+        List<String> jobKeys = share ? shareDownloadRecordMapper.getQueuedJobKeys(maxAttempts, free)
+                : downloadRecordMapper.getQueuedJobKeys(maxAttempts, free);
+        if (CollectionUtils.isEmpty(jobKeys)) {
+            return;
+        }
+        for (String jobKey : jobKeys) {
+            if (!slots.tryAcquire()) {
+                return;
+            }
+            int claimed = share ? shareDownloadRecordMapper.claim(jobKey, worker, leaseSeconds)
+                    : downloadRecordMapper.claim(jobKey, worker, leaseSeconds);
+            if (claimed <= 0) {
+                // 已被其他节点领取
+                slots.release();
+                continue;
+            }
+            Job job = new Job(share, jobKey);
+            running.add(job);
+            try {
+                workers.execute(() -> run(job));
+            } catch (RejectedExecutionException e) {
+                running.remove(job);
+                slots.release();
+                return;
+            }
+        }
+    }
+
+    private void renew() {
+        if (running.isEmpty()) {
+            return;
+        }
+        for (Job job : running) {
+            try {
+                if (job.share) {
+                    shareDownloadRecordMapper.renewLease(job.jobKey, worker, leaseSeconds);
+                } else {
+                    downloadRecordMapper.renewLease(job.jobKey, worker, leaseSeconds);
+                }
+            } catch (Exception e) {
+                log.warn("Download job({}) renew lease error: {}", job.jobKey, e.getMessage());
+            }
+        }
+    }
+
+    private void run(Job job) {
+        short status = DownloadTaskStatus.FAILED.getStatus();
+        String path = null;
+        try {
+            // 同一 job_key 的记录由第一条执行，其余共用结果
+            DownloadRecordBaseInfo done = null;
+            if (job.share) {
+                List<ShareDownloadRecord> records = shareDownloadRecordMapper.getClaimed(job.jobKey, worker);
+                if (!CollectionUtils.isEmpty(records)) {
+                    ShareDownloadRecord leader = records.get(0);
+                    log.info("Download job({}) start, share record: {}, records: {}", job.jobKey, leader.getId(), records.size());
+                    new WorkbookWorker<String>(shareDownloadService.getQueuedWorkBookContext(leader)).call();
+                    done = shareDownloadRecordMapper.getShareDownloadRecordBy(leader.getId(), leader.getUuid());
+                }
+            } else {
+                List<DownloadRecord> records = downloadRecordMapper.getClaimed(job.jobKey, worker);
+                if (!CollectionUtils.isEmpty(records)) {
+                    DownloadRecord leader = records.get(0);
+                    log.info("Download job({}) start, record: {}, records: {}", job.jobKey, leader.getId(), records.size());
+                    new WorkbookWorker<String>(downloadService.getQueuedWorkBookContext(leader)).call();
+                    done = downloadRecordMapper.getById(leader.getId());
+                }
+            }
+            if (null == done) {
+                return;
+            }
+            if (StringUtils.isNotEmpty(done.getPath()) && (done.getStatus() == DownloadTaskStatus.SUCCESS.getStatus()
+                    || done.getStatus() == DownloadTaskStatus.DOWNLOADED.getStatus())) {
+                status = DownloadTaskStatus.SUCCESS.getStatus();
+                path = done.getPath();
+            }
+        } catch (Exception e) {
+            log.error("Download job({}) execute error", job.jobKey, e);
+        } finally {
+            try {
+                complete(job, status, path);
+            } catch (Exception e) {
+                log.error("Download job({}) complete error", job.jobKey, e);
+            } finally {
+                running.remove(job);
+                slots.release();
+            }
+        }
+    }
+
+    /**
+     * 更新本节点领取及仍在排队的同一 job_key 的记录；成功的文件同时共用给另一张表中排队的相同任务
+     */
+    private void complete(Job job, short status, String path) {
+        boolean success = status == DownloadTaskStatus.SUCCESS.getStatus();
+        int count = 0;
+        if (job.share || success) {
+            count += shareDownloadRecordMapper.complete(job.jobKey, worker, status, path);
+        }
+        if (!job.share || success) {
+            count += downloadRecordMapper.complete(job.jobKey, worker, status, path);
+        }
+        log.info("Download job({}) finish, success: {}, records: {}", job.jobKey, success, count);
+    }
+
+    private static final class Job {
+
+        private final boolean share;
+
+        private final String jobKey;
+
+        private Job(boolean share, String jobKey) {
+            this.share = share;
+            this.jobKey = jobKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Job)) {
+                return false;
+            }
+            Job job = (Job) o;
+            return share == job.share && jobKey.equals(job.jobKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(share, jobKey);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.excel;
+
+import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 排队中的下载任务，以 json 保存在下载记录的 task 列
+ */
+@Data
+public class DownloadTask {
+
+    /**
+     * {@link edp.davinci.core.enums.DownloadType} 的名称
+     */
+    private String type;
+
+    private Long id;
+
+    private Long userId;
+
+    private List<DownloadViewExecuteParam> params;
+}
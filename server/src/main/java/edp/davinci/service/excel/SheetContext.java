@@ -22,6 +22,7 @@ package edp.davinci.service.excel;
 import edp.core.model.QueryColumn;
 import edp.core.utils.SqlUtils;
 import edp.davinci.core.model.ExcelHeader;
+import edp.davinci.model.User;
 import lombok.Data;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
@@ -52,6 +53,8 @@ public class SheetContext implements Serializable {
     private List<ExcelHeader> excelHeaders;
     private Long dashboardId;
     private Long widgetId;
+    private Long viewId;
+    private User user;
     private String name;
     private int sheetNo;
     private MsgWrapper wrapper;
@@ -74,6 +77,8 @@ public class SheetContext implements Serializable {
         private List<ExcelHeader> excelHeaders;
         private Long dashboardId;
         private Long widgetId;
+        private Long viewId;
+        private User user;
         private String name;
         private int sheetNo;
         private MsgWrapper wrapper;
@@ -153,6 +158,16 @@ public class SheetContext implements Serializable {
             return this;
         }
 
+        public SheetContextBuilder withViewId(Long viewId) {
+            this.viewId = viewId;
+            return this;
+        }
+
+        public SheetContextBuilder withUser(User user) {
+            this.user = user;
+            return this;
+        }
+
         public SheetContextBuilder withName(String name) {
             this.name = name;
             return this;
@@ -198,6 +213,8 @@ public class SheetContext implements Serializable {
             sheetContext.setExcelHeaders(excelHeaders);
             sheetContext.setDashboardId(dashboardId);
             sheetContext.setWidgetId(widgetId);
+            sheetContext.setViewId(viewId);
+            sheetContext.setUser(user);
             sheetContext.setName(name);
             sheetContext.setSheetNo(sheetNo);
             sheetContext.setWrapper(wrapper);
@@ -224,6 +241,7 @@ public class SheetContext implements Serializable {
                 ", excelHeaders=" + excelHeaders +
                 ", dashboardId=" + dashboardId +
                 ", widgetId=" + widgetId +
+                ", viewId=" + viewId +
                 ", name='" + name + '\'' +
                 ", sheetNo=" + sheetNo +
                 ", wrapper=" + wrapper +
@@ -21,14 +21,22 @@ package edp.davinci.service.excel;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Maps;
+import edp.core.common.jdbc.QueryLog;
+import edp.core.common.jdbc.QueryRegistry;
+import edp.core.common.jdbc.QuerySession;
+import edp.core.common.jdbc.RunningQuery;
+import edp.core.common.jdbc.WorkloadClass;
+import edp.core.common.jdbc.WorkloadManager;
 import edp.core.enums.DataTypeEnum;
 import edp.core.model.QueryColumn;
 import edp.core.utils.CollectionUtils;
 import edp.core.utils.MD5Util;
 import edp.core.utils.SqlUtils;
+import edp.davinci.core.config.SpringContextHolder;
 import edp.davinci.core.enums.ActionEnum;
 import edp.davinci.core.utils.SqlParseUtils;
 import edp.davinci.dto.cronJobDto.MsgMailExcel;
+import edp.davinci.model.User;
 import org.slf4j.Logger;
 import org.springframework.jdbc.core.JdbcTemplate;
 
@@ -66,13 +74,27 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
         Logger logger = context.getCustomLogger();
         boolean log = context.getCustomLogger() != null;
 
+        QueryRegistry queryRegistry = SpringContextHolder.getBean(QueryRegistry.class);
+        RunningQuery runningQuery = null;
+        WorkloadManager.Admission admission = null;
+        QuerySession querySession = null;
         try {
 
             interrupted(context);
 
-            SqlUtils utils = context.getSqlUtils();
+            User user = context.getUser();
+            runningQuery = null == user ? queryRegistry.register(null, null, null, null)
+                    : queryRegistry.register(user.getId(), user.getUsername(), null, null);
+            SqlUtils utils = context.getSqlUtils().withRunningQuery(runningQuery);
+            // 定时邮件与下载让位于交互查询
+            admission = utils.admit(context.getWrapper().getAction() == ActionEnum.MAIL ? WorkloadClass.SCHEDULED : WorkloadClass.EXPORT);
+            List<String> executeSqlList = getExecuteSqlList();
+            if (!CollectionUtils.isEmpty(executeSqlList)) {
+                // 前置语句与查询在同一连接上执行
+                querySession = utils.openSession();
+                utils.execute(executeSqlList);
+            }
             JdbcTemplate template = utils.jdbcTemplate();
-            propertiesSet(template);
             buildQueryColumn(template);
             super.init(context);
             super.writeHeader(context);
@@ -86,6 +108,7 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
             String sql = context.getQuerySql().get(context.getQuerySql().size() - 1);
             sql = SqlParseUtils.rebuildSqlWithFragment(sql);
             md5 = MD5Util.getMD5(sql, true, 16);
+            runningQuery.setSql(sql);
             Set<String> queryFromsAndJoins = SqlUtils.getQueryFromsAndJoins(sql);
             if (log) {
                 logger.info("Task({}) sheet worker(name:{}, sheetNo:{}, sheetName:{}) query start sql:{}, md5:{}",
@@ -93,17 +116,28 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
             }
 
             final AtomicInteger count = new AtomicInteger(0);
-            template.query(sql, rs -> {
-
-                interrupted(context);
-
-                Map<String, Object> dataMap = Maps.newHashMap();
-                for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-                    dataMap.put(SqlUtils.getColumnLabel(queryFromsAndJoins, rs.getMetaData().getColumnLabel(i)), rs.getObject(rs.getMetaData().getColumnLabel(i)));
-                }
-                writeLine(context, dataMap);
-                count.incrementAndGet();
-            });
+            final long[] bytes = new long[1];
+            long start = System.nanoTime();
+            try {
+                template.query(sql, rs -> {
+
+                    interrupted(context);
+
+                    Map<String, Object> dataMap = Maps.newHashMap();
+                    for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
+                        Object value = rs.getObject(rs.getMetaData().getColumnLabel(i));
+                        dataMap.put(SqlUtils.getColumnLabel(queryFromsAndJoins, rs.getMetaData().getColumnLabel(i)), value);
+                        bytes[0] += QueryLog.sizeOf(value);
+                    }
+                    writeLine(context, dataMap);
+                    count.incrementAndGet();
+                });
+            } catch (RuntimeException e) {
+                utils.logQuery(QueryLog.Kind.EXPORT, context.getViewId(), context.getWidgetId(), sql, start, count.get(), bytes[0], true);
+                throw e;
+            }
+            // 耗时包含写入 sheet
+            utils.logQuery(QueryLog.Kind.EXPORT, context.getViewId(), context.getWidgetId(), sql, start, count.get(), bytes[0], false);
 
             if (log) {
                 logger.info("Task({}) sheet worker(name:{}, sheetNo:{}, sheetName:{}) query finish md5:{}, count:{}",
@@ -124,6 +158,14 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
                 logger.error(e.toString(), e);
             }
             rst = false;
+        } finally {
+            if (null != querySession) {
+                querySession.close();
+            }
+            if (null != admission) {
+                admission.close();
+            }
+            queryRegistry.complete(runningQuery);
         }
 
         Object[] args = {context.getTaskKey(), context.getName(), md5, rst, context.getWrapper().getAction(), context.getWrapper().getxId(),
@@ -151,21 +193,17 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
         }
     }
 
-    private void propertiesSet(JdbcTemplate template) {
+    private List<String> getExecuteSqlList() {
+        List<String> executeSqlList = new ArrayList<>();
         if (!CollectionUtils.isEmpty(context.getExecuteSql())) {
-            context.getExecuteSql().stream().filter(x -> x != null).forEach(x -> {
-                String sql = SqlUtils.filterAnnotate(x);
-                SqlUtils.checkSensitiveSql(sql);
-                template.execute(sql);
-            });
+            context.getExecuteSql().stream().filter(x -> x != null).forEach(executeSqlList::add);
         }
         if (!CollectionUtils.isEmpty(context.getQuerySql())) {
             for (int i = 0; i < context.getQuerySql().size() - 1; i++) {
-                String sql = SqlUtils.filterAnnotate(context.getQuerySql().get(i));
-                SqlUtils.checkSensitiveSql(sql);
-                template.execute(sql);
+                executeSqlList.add(context.getQuerySql().get(i));
             }
         }
+        return executeSqlList;
     }
 
     private void buildQueryColumn(JdbcTemplate template) {
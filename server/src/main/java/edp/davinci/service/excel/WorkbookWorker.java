@@ -227,6 +227,8 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
                     .withExcelHeaders(excelHeaders)
                     .withDashboardId(null != context.getDashboard() ? context.getDashboard().getId() : null)
                     .withWidgetId(context.getWidget().getId())
+                    .withViewId(context.getWidget().getViewId())
+                    .withUser(this.context.getUser())
                     .withName(context.getMemDashboardWidget() == null || StringUtils.isEmpty(context.getMemDashboardWidget().getAlias())
                             ? context.getWidget().getName() : context.getMemDashboardWidget().getAlias())
                     .withWrapper(this.context.getWrapper())
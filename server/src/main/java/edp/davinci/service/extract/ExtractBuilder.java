@@ -0,0 +1,304 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.extract;
+
+import edp.core.model.QueryColumn;
+import edp.davinci.service.compute.ColumnarTable;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.zip.Deflater;
+
+/**
+ * 构建列式 extract 文件
+ * <p>
+ * 文件格式：MAGIC VERSION rowCount columnCount，随后每列 name type kind dictionarySize，
+ * 以及压缩后的字典块与下标块（block: rawLength compressedLength deflate 数据）；
+ * 下标按字典大小以 1/2/4 字节存储，0 表示 null
+ */
+public class ExtractBuilder {
+
+    static final int MAGIC = 0x44565831;
+
+    static final int VERSION = 1;
+
+    static final byte KIND_STRING = 0;
+    static final byte KIND_LONG = 1;
+    static final byte KIND_DOUBLE = 2;
+    static final byte KIND_DECIMAL = 3;
+    static final byte KIND_TIMESTAMP = 4;
+    static final byte KIND_DATE = 5;
+    static final byte KIND_TIME = 6;
+    static final byte KIND_BOOLEAN = 7;
+
+    private static final String DEFAULT_TYPE = "VARCHAR";
+
+    private final List<ColumnBuilder> columns = new ArrayList<>();
+
+    private int rowCount = 0;
+
+    public ExtractBuilder(List<QueryColumn> queryColumns) {
+        for (QueryColumn queryColumn : queryColumns) {
+            columns.add(new ColumnBuilder(queryColumn.getName(), queryColumn.getType()));
+        }
+    }
+
+    /**
+     * 追加一行，值的顺序与列一致
+     *
+     * @param values
+     */
+    public void add(Object[] values) {
+        for (int i = 0; i < columns.size(); i++) {
+            columns.get(i).add(i < values.length ? values[i] : null);
+        }
+        rowCount++;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * 写入文件，返回可直接用于计算的列式表
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public ColumnarTable writeTo(File file) throws IOException {
+        List<ColumnarTable.Column> data = new ArrayList<>(columns.size());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rowCount);
+            out.writeInt(columns.size());
+            for (ColumnBuilder column : columns) {
+                data.add(column.writeTo(out, rowCount));
+            }
+        }
+        return ColumnarTable.of(data, rowCount);
+    }
+
+    private static final class ColumnBuilder {
+
+        private final String name;
+
+        private final String type;
+
+        private final Map<Object, Integer> dictionary = new LinkedHashMap<>();
+
+        private int[] codes = new int[1024];
+
+        private int size = 0;
+
+        private ColumnBuilder(String name, String type) {
+            this.name = name;
+            this.type = null == type || type.trim().isEmpty() ? DEFAULT_TYPE : type;
+        }
+
+        private void add(Object value) {
+            value = ColumnarTable.Column.normalize(value);
+            int code = -1;
+            if (null != value) {
+                Integer c = dictionary.get(value);
+                if (null == c) {
+                    c = dictionary.size();
+                    dictionary.put(value, c);
+                }
+                code = c;
+            }
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, size * 2);
+            }
+            codes[size++] = code;
+        }
+
+        private ColumnarTable.Column writeTo(DataOutputStream out, int rowCount) throws IOException {
+            byte kind = kindOf(dictionary.keySet());
+
+            // 按存储类型转换后可能出现重复值（如 1 与 1.0），重新编码
+            Map<Object, Integer> converted = new LinkedHashMap<>();
+            int[] remap = new int[dictionary.size()];
+            int i = 0;
+            for (Object value : dictionary.keySet()) {
+                Object v = convert(kind, value);
+                Integer code = converted.get(v);
+                if (null == code) {
+                    code = converted.size();
+                    converted.put(v, code);
+                }
+                remap[i++] = code;
+            }
+            int[] rowCodes = new int[rowCount];
+            for (int r = 0; r < rowCount; r++) {
+                rowCodes[r] = codes[r] < 0 ? -1 : remap[codes[r]];
+            }
+            Object[] values = converted.keySet().toArray();
+
+            out.writeUTF(name);
+            out.writeUTF(type);
+            out.writeByte(kind);
+            out.writeInt(values.length);
+
+            ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+            DataOutputStream dictionaryOut = new DataOutputStream(dictionaryBytes);
+            for (Object value : values) {
+                writeValue(dictionaryOut, kind, value);
+            }
+            dictionaryOut.flush();
+            writeBlock(out, dictionaryBytes.toByteArray());
+
+            int width = codeWidth(values.length);
+            byte[] codeBytes = new byte[rowCount * width];
+            for (int r = 0; r < rowCount; r++) {
+                int stored = rowCodes[r] + 1;
+                for (int b = 0; b < width; b++) {
+                    codeBytes[r * width + b] = (byte) (stored >>> (8 * b));
+                }
+            }
+            writeBlock(out, codeBytes);
+
+            return ColumnarTable.Column.of(name, type, values, rowCodes);
+        }
+    }
+
+    static int codeWidth(int dictionarySize) {
+        if (dictionarySize < 0xFF) {
+            return 1;
+        }
+        if (dictionarySize < 0xFFFF) {
+            return 2;
+        }
+        return 4;
+    }
+
+    private static byte kindOf(Collection<Object> values) {
+        if (values.isEmpty()) {
+            return KIND_STRING;
+        }
+        boolean integral = true;
+        boolean floating = true;
+        boolean number = true;
+        boolean timestamp = true;
+        boolean date = true;
+        boolean time = true;
+        boolean bool = true;
+        for (Object value : values) {
+            integral = integral && (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte);
+            floating = floating && (value instanceof Double || value instanceof Float);
+            number = number && value instanceof Number;
+            date = date && value instanceof java.sql.Date;
+            time = time && value instanceof Time;
+            timestamp = timestamp && value instanceof java.util.Date && !(value instanceof java.sql.Date) && !(value instanceof Time);
+            bool = bool && value instanceof Boolean;
+        }
+        if (integral) {
+            return KIND_LONG;
+        }
+        if (floating) {
+            return KIND_DOUBLE;
+        }
+        if (number) {
+            return KIND_DECIMAL;
+        }
+        if (timestamp) {
+            return KIND_TIMESTAMP;
+        }
+        if (date) {
+            return KIND_DATE;
+        }
+        if (time) {
+            return KIND_TIME;
+        }
+        if (bool) {
+            return KIND_BOOLEAN;
+        }
+        return KIND_STRING;
+    }
+
+    private static Object convert(byte kind, Object value) {
+        switch (kind) {
+            case KIND_LONG:
+                return ((Number) value).longValue();
+            case KIND_DOUBLE:
+                return ((Number) value).doubleValue();
+            case KIND_DECIMAL:
+                return value instanceof BigDecimal ? value : new BigDecimal(value.toString());
+            case KIND_TIMESTAMP:
+                return value instanceof Timestamp ? value : new Timestamp(((java.util.Date) value).getTime());
+            case KIND_DATE:
+            case KIND_TIME:
+            case KIND_BOOLEAN:
+                return value;
+            default:
+                return value instanceof String ? value : String.valueOf(value);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, byte kind, Object value) throws IOException {
+        switch (kind) {
+            case KIND_LONG:
+                out.writeLong((Long) value);
+                break;
+            case KIND_DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            case KIND_TIMESTAMP:
+                out.writeLong(((Timestamp) value).getTime());
+                out.writeInt(((Timestamp) value).getNanos());
+                break;
+            case KIND_DATE:
+            case KIND_TIME:
+                out.writeLong(((java.util.Date) value).getTime());
+                break;
+            case KIND_BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            default:
+                byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+        }
+    }
+
+    private static void writeBlock(DataOutputStream out, byte[] raw) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                compressed.write(buffer, 0, n);
+            }
+            out.writeInt(raw.length);
+            out.writeInt(compressed.size());
+            compressed.writeTo(out);
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.extract;
+
+import lombok.Data;
+
+/**
+ * view extract 的状态，保存在 extract 目录的 meta.json 中
+ */
+@Data
+public class ExtractMeta {
+
+    public static final String SUCCESS = "SUCCESS";
+
+    public static final String FAILED = "FAILED";
+
+    public static final String FULL = "FULL";
+
+    public static final String INCREMENTAL = "INCREMENTAL";
+
+    private Long viewId;
+
+    /**
+     * 构建时 source 与 view sql 的签名，view 修改后 extract 失效
+     */
+    private String signature;
+
+    private String status;
+
+    private String file;
+
+    private Integer rowCount;
+
+    private Integer columnCount;
+
+    private Long sizeBytes;
+
+    /**
+     * 最近一次成功构建的时间
+     */
+    private Long builtAt;
+
+    private Long buildMillis;
+
+    private Long lastAttemptAt;
+
+    private String lastError;
+
+    /**
+     * 最近一次成功刷新的方式：FULL / INCREMENTAL
+     */
+    private String refreshMode;
+
+    /**
+     * 最近一次刷新从数据源读取的行数
+     */
+    private Integer fetchedRows;
+
+    /**
+     * 最近一次全量构建的时间
+     */
+    private Long fullBuiltAt;
+
+    private String watermarkColumn;
+
+    private String watermarkKind;
+
+    /**
+     * 当前水位，时间列为毫秒数
+     */
+    private String watermark;
+}
@@ -0,0 +1,143 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.extract;
+
+import edp.davinci.service.compute.ColumnarTable;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static edp.davinci.service.extract.ExtractBuilder.*;
+
+/**
+ * 读取 {@link ExtractBuilder} 写出的 extract 文件
+ * <p>
+ * 列块为压缩数据，需整体解码为字典与下标数组后才能计算，因此按顺序流式读取，不做内存映射
+ */
+public final class ExtractReader {
+
+    private ExtractReader() {
+    }
+
+    public static ColumnarTable read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not an extract file: " + file.getName());
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported extract version: " + version);
+            }
+            int rowCount = in.readInt();
+            int columnCount = in.readInt();
+            List<ColumnarTable.Column> data = new ArrayList<>(columnCount);
+            for (int c = 0; c < columnCount; c++) {
+                String name = in.readUTF();
+                String type = in.readUTF();
+                byte kind = in.readByte();
+                int dictionarySize = in.readInt();
+
+                ByteBuffer dictionaryBytes = ByteBuffer.wrap(readBlock(in));
+                Object[] dictionary = new Object[dictionarySize];
+                for (int i = 0; i < dictionarySize; i++) {
+                    dictionary[i] = readValue(dictionaryBytes, kind);
+                }
+
+                byte[] codeBytes = readBlock(in);
+                int width = codeWidth(dictionarySize);
+                if (codeBytes.length != rowCount * width) {
+                    throw new IOException("corrupted extract column: " + name);
+                }
+                int[] codes = new int[rowCount];
+                for (int r = 0; r < rowCount; r++) {
+                    int stored = 0;
+                    for (int b = 0; b < width; b++) {
+                        stored |= (codeBytes[r * width + b] & 0xFF) << (8 * b);
+                    }
+                    codes[r] = stored - 1;
+                }
+                data.add(ColumnarTable.Column.of(name, type, dictionary, codes));
+            }
+            return ColumnarTable.of(data, rowCount);
+        } catch (EOFException e) {
+            throw new IOException("truncated extract file: " + file.getName(), e);
+        }
+    }
+
+    private static Object readValue(ByteBuffer buffer, byte kind) {
+        switch (kind) {
+            case KIND_LONG:
+                return buffer.getLong();
+            case KIND_DOUBLE:
+                return buffer.getDouble();
+            case KIND_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(buffer.getLong());
+                timestamp.setNanos(buffer.getInt());
+                return timestamp;
+            case KIND_DATE:
+                return new java.sql.Date(buffer.getLong());
+            case KIND_TIME:
+                return new Time(buffer.getLong());
+            case KIND_BOOLEAN:
+                return buffer.get() != 0;
+            default:
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                String value = new String(bytes, StandardCharsets.UTF_8);
+                return kind == KIND_DECIMAL ? new BigDecimal(value) : value;
+        }
+    }
+
+    private static byte[] readBlock(DataInputStream in) throws IOException {
+        int rawLength = in.readInt();
+        int compressedLength = in.readInt();
+        byte[] compressed = new byte[compressedLength];
+        in.readFully(compressed);
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int offset = 0;
+            while (offset < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, offset, rawLength - offset);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += n;
+            }
+            if (offset != rawLength) {
+                throw new IOException("corrupted extract block");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+}
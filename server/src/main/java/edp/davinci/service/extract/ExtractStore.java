@@ -0,0 +1,264 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.extract;
+
+import com.alibaba.fastjson.JSON;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edp.core.consts.Consts;
+import edp.core.utils.FileUtils;
+import edp.davinci.service.compute.ColumnarTable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * view extract 的本地存储
+ * <p>
+ * 每个 view 一个目录：file.userfiles-path/extracts/view_{id}/，包含列式数据文件与 meta.json；
+ * 新文件写完后原子替换，刷新失败时标记为 FAILED，查询回退到数据源；
+ * meta 只由本节点写入，解析后缓存在内存中，查询时不再读取 meta.json
+ */
+@Slf4j
+@Component
+public class ExtractStore {
+
+    private static final String META_FILE = "meta.json";
+
+    private static final String DATA_FILE_PREFIX = "data_";
+
+    private static final String DATA_FILE_SUFFIX = ".dvx";
+
+    @Autowired
+    private FileUtils fileUtils;
+
+    @Value("${source.extract.max-rows:1000000}")
+    private int maxRows;
+
+    @Value("${source.extract.cache-max-cells:100000000}")
+    private long cacheMaxCells;
+
+    @Value("${source.extract.full-refresh-hours:24}")
+    private int fullRefreshHours;
+
+    private Cache<String, ColumnarTable> tableCache;
+
+    private final Map<Long, ExtractMeta> metaCache = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        tableCache = Caffeine.newBuilder()
+                .recordStats()
+                .maximumWeight(cacheMaxCells)
+                .weigher((String key, ColumnarTable table) -> (int) Math.min(Integer.MAX_VALUE, table.getCellCount()))
+                .build();
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * 增量刷新无法感知更新与删除，超过 source.extract.full-refresh-hours 后全量构建
+     *
+     * @param meta
+     * @return
+     */
+    public boolean isFullRefreshDue(ExtractMeta meta) {
+        if (null == meta.getFullBuiltAt()) {
+            return true;
+        }
+        return fullRefreshHours > 0 && System.currentTimeMillis() - meta.getFullBuiltAt() >= fullRefreshHours * 3600000L;
+    }
+
+    public Cache<String, ColumnarTable> getTableCache() {
+        return tableCache;
+    }
+
+    public ExtractMeta getMeta(Long viewId) {
+        ExtractMeta cached = metaCache.get(viewId);
+        if (null != cached) {
+            return cached;
+        }
+        ExtractMeta meta = readMeta(viewId);
+        if (null != meta) {
+            metaCache.putIfAbsent(viewId, meta);
+        }
+        return meta;
+    }
+
+    private ExtractMeta readMeta(Long viewId) {
+        File metaFile = new File(getDir(viewId), META_FILE);
+        if (!metaFile.exists()) {
+            return null;
+        }
+        try {
+            return JSON.parseObject(new String(Files.readAllBytes(metaFile.toPath()), StandardCharsets.UTF_8), ExtractMeta.class);
+        } catch (Exception e) {
+            log.warn("read extract meta of view({}) error: {}", viewId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 获取可用的 extract
+     *
+     * @param viewId
+     * @param signature 当前 source 与 view sql 的签名
+     * @return 未构建、刷新失败或已过期时返回 null
+     */
+    public ColumnarTable getTable(Long viewId, String signature) {
+        ExtractMeta meta = getMeta(viewId);
+        if (null == meta || !ExtractMeta.SUCCESS.equals(meta.getStatus()) || !signature.equals(meta.getSignature())) {
+            return null;
+        }
+        File file = new File(getDir(viewId), meta.getFile());
+        ColumnarTable cached = tableCache.getIfPresent(file.getAbsolutePath());
+        if (null != cached) {
+            return cached;
+        }
+        if (!file.exists()) {
+            return null;
+        }
+        return tableCache.get(file.getAbsolutePath(), path -> {
+            try {
+                return ExtractReader.read(file);
+            } catch (IOException e) {
+                log.warn("read extract of view({}) error: {}", viewId, e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 写入新的 extract 并替换旧文件
+     *
+     * @param viewId
+     * @param meta      预先填写 signature、lastAttemptAt（开始构建的时间）、refreshMode、fetchedRows 与 fullBuiltAt
+     * @param builder
+     * @param watermark view 声明的水位列，可为 null
+     * @return
+     * @throws IOException
+     */
+    public ExtractMeta save(Long viewId, ExtractMeta meta, ExtractBuilder builder, Watermark watermark) throws IOException {
+        File dir = getDir(viewId);
+        if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            throw new IOException("cannot create extract dir: " + dir.getAbsolutePath());
+        }
+        ExtractMeta previous = getMeta(viewId);
+
+        String fileName = DATA_FILE_PREFIX + System.currentTimeMillis() + DATA_FILE_SUFFIX;
+        File temp = new File(dir, fileName + ".tmp");
+        File file = new File(dir, fileName);
+        ColumnarTable table;
+        try {
+            table = builder.writeTo(temp);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+
+        long now = System.currentTimeMillis();
+        meta.setViewId(viewId);
+        meta.setStatus(ExtractMeta.SUCCESS);
+        meta.setFile(fileName);
+        meta.setRowCount(table.getRowCount());
+        meta.setColumnCount(table.getColumns().size());
+        meta.setSizeBytes(file.length());
+        meta.setBuiltAt(now);
+        meta.setBuildMillis(now - meta.getLastAttemptAt());
+        meta.setLastError(null);
+        if (ExtractMeta.FULL.equals(meta.getRefreshMode())) {
+            meta.setFullBuiltAt(now);
+        }
+        if (null != watermark) {
+            ColumnarTable.Column column = table.getColumn(watermark.getColumn());
+            meta.setWatermarkColumn(watermark.getColumn());
+            meta.setWatermarkKind(Watermark.kindOf(column));
+            meta.setWatermark(Watermark.max(column));
+        }
+        writeMeta(viewId, meta);
+
+        tableCache.put(file.getAbsolutePath(), table);
+        if (null != previous && null != previous.getFile() && !fileName.equals(previous.getFile())) {
+            File old = new File(dir, previous.getFile());
+            tableCache.invalidate(old.getAbsolutePath());
+            // 旧文件可能仍被读取，无法立即删除时留到进程退出
+            if (!old.delete()) {
+                old.deleteOnExit();
+            }
+        }
+        return meta;
+    }
+
+    /**
+     * 记录刷新失败，之后的查询回退到数据源，直到下一次成功刷新
+     *
+     * @param viewId
+     * @param startAt
+     * @param error
+     * @return
+     */
+    public ExtractMeta fail(Long viewId, long startAt, String error) {
+        ExtractMeta previous = getMeta(viewId);
+        ExtractMeta meta = new ExtractMeta();
+        if (null != previous) {
+            BeanUtils.copyProperties(previous, meta);
+        }
+        meta.setViewId(viewId);
+        meta.setStatus(ExtractMeta.FAILED);
+        meta.setLastAttemptAt(startAt);
+        meta.setLastError(error);
+        try {
+            File dir = getDir(viewId);
+            if (dir.exists() || dir.mkdirs()) {
+                writeMeta(viewId, meta);
+            }
+        } catch (IOException e) {
+            log.warn("write extract meta of view({}) error: {}", viewId, e.getMessage());
+        }
+        // 即使 meta.json 写入失败，本节点也不再使用旧的 extract
+        metaCache.put(viewId, meta);
+        return meta;
+    }
+
+    private void writeMeta(Long viewId, ExtractMeta meta) throws IOException {
+        File dir = getDir(viewId);
+        File temp = new File(dir, META_FILE + ".tmp");
+        Files.write(temp.toPath(), JSON.toJSONString(meta).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), new File(dir, META_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        metaCache.put(viewId, meta);
+    }
+
+    private File getDir(Long viewId) {
+        return new File(fileUtils.fileBasePath + Consts.DIR_EXTRACT + "view_" + viewId);
+    }
+}
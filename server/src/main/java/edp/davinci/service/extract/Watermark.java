@@ -0,0 +1,205 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.extract;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import edp.davinci.service.compute.ColumnarTable;
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+/**
+ * view 的水位列，用于增量刷新 extract
+ * <p>
+ * 在 view config 中声明：{"watermark": {"column": "event_time", "lateWindow": 3600}}，
+ * lateWindow 为迟到数据窗口，时间列单位为秒，数值列为数值差；
+ * 刷新时只查询 水位列 &gt; 上次水位 - lateWindow 的行，替换 extract 中该范围内的行。
+ * 水位列为 NULL 的行不会被增量查询取到，已有的 NULL 行原样保留，新增或变更的 NULL 行只在定期全量重建时更新
+ */
+@Slf4j
+public class Watermark {
+
+    public static final String KIND_TIME = "TIME";
+
+    public static final String KIND_NUMBER = "NUMBER";
+
+    private static final String WATERMARK = "watermark";
+
+    private static final String COLUMN = "column";
+
+    private static final String LATE_WINDOW = "lateWindow";
+
+    private static final String ALIAS = "WM_T";
+
+    private final String column;
+
+    private final long lateWindow;
+
+    private Watermark(String column, long lateWindow) {
+        this.column = column;
+        this.lateWindow = Math.max(0L, lateWindow);
+    }
+
+    /**
+     * 解析 view config 中的水位声明
+     *
+     * @param viewConfig
+     * @return 未声明时返回 null
+     */
+    public static Watermark of(String viewConfig) {
+        if (null == viewConfig || viewConfig.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            JSONObject config = JSON.parseObject(viewConfig);
+            JSONObject watermark = null == config ? null : config.getJSONObject(WATERMARK);
+            if (null == watermark || null == watermark.getString(COLUMN) || watermark.getString(COLUMN).trim().isEmpty()) {
+                return null;
+            }
+            Long lateWindow = watermark.getLong(LATE_WINDOW);
+            return new Watermark(watermark.getString(COLUMN).trim(), null == lateWindow ? 0L : lateWindow);
+        } catch (Exception e) {
+            log.debug("parse watermark of view config error: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public long getLateWindow() {
+        return lateWindow;
+    }
+
+    /**
+     * 水位列类型，非时间或数值列返回 null
+     *
+     * @param column
+     * @return
+     */
+    public static String kindOf(ColumnarTable.Column column) {
+        if (null == column) {
+            return null;
+        }
+        if (column.isTemporal()) {
+            return KIND_TIME;
+        }
+        if (column.isNumeric()) {
+            return KIND_NUMBER;
+        }
+        return null;
+    }
+
+    /**
+     * 列中的最大值，时间列为毫秒数
+     *
+     * @param column
+     * @return 无值或类型不支持时返回 null
+     */
+    public static String max(ColumnarTable.Column column) {
+        String kind = kindOf(column);
+        if (null == kind || column.getDictionarySize() == 0) {
+            return null;
+        }
+        if (KIND_TIME.equals(kind)) {
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < column.getDictionarySize(); i++) {
+                max = Math.max(max, column.getTime(i));
+            }
+            return String.valueOf(max);
+        }
+        BigDecimal max = null;
+        for (int i = 0; i < column.getDictionarySize(); i++) {
+            BigDecimal value = toDecimal(column.getDictionaryValue(i));
+            if (null == max || value.compareTo(max) > 0) {
+                max = value;
+            }
+        }
+        return max.toPlainString();
+    }
+
+    /**
+     * 增量查询的下界：上次水位 - lateWindow，时间按秒取整
+     *
+     * @param kind
+     * @param watermark
+     * @return 时间列为毫秒数（Long），数值列为 BigDecimal
+     */
+    public Object lowerBound(String kind, String watermark) {
+        if (KIND_TIME.equals(kind)) {
+            long lower = Long.parseLong(watermark) - lateWindow * 1000L;
+            return lower - Math.floorMod(lower, 1000L);
+        }
+        return new BigDecimal(watermark).subtract(BigDecimal.valueOf(lateWindow));
+    }
+
+    /**
+     * 查询下界之后的行，下界为 ? 占位符，按 {@link #bindValue(Object)} 绑定
+     *
+     * @param sql
+     * @param keywordPrefix
+     * @param keywordSuffix
+     * @return
+     */
+    public String incrementalSql(String sql, String keywordPrefix, String keywordSuffix) {
+        return "SELECT * FROM (" + sql + ") " + ALIAS + " WHERE " + ALIAS + "."
+                + (null == keywordPrefix ? "" : keywordPrefix) + column + (null == keywordSuffix ? "" : keywordSuffix)
+                + " > ?";
+    }
+
+    /**
+     * 下界的绑定值：时间列为 Timestamp，与读取时 getObject 的时区换算一致，数值列为 BigDecimal
+     *
+     * @param lowerBound {@link #lowerBound(String, String)}
+     * @return
+     */
+    public static Object bindValue(Object lowerBound) {
+        if (lowerBound instanceof BigDecimal) {
+            return lowerBound;
+        }
+        return new Timestamp((Long) lowerBound);
+    }
+
+    /**
+     * 已有的行是否保留：水位为空或不大于下界，其余行由增量查询重新获取
+     *
+     * @param column
+     * @param row
+     * @param lowerBound
+     * @return
+     */
+    public static boolean isRetained(ColumnarTable.Column column, int row, Object lowerBound) {
+        int code = column.code(row);
+        if (code < 0) {
+            return true;
+        }
+        if (lowerBound instanceof BigDecimal) {
+            return toDecimal(column.getDictionaryValue(code)).compareTo((BigDecimal) lowerBound) <= 0;
+        }
+        return column.getTime(code) <= (Long) lowerBound;
+    }
+
+    private static BigDecimal toDecimal(Object value) {
+        return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+    }
+}
@@ -21,7 +21,8 @@ package edp.davinci.service.impl;
 
 import com.alibaba.druid.util.StringUtils;
 import com.alibaba.fastjson.JSON;
-import edp.core.common.quartz.QuartzJobExecutor;
+import edp.core.common.quartz.ScheduleClusterManager;
+import edp.core.common.quartz.ScheduleJobEngine;
 import edp.core.consts.Consts;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
@@ -39,7 +40,6 @@ import edp.davinci.dto.cronJobDto.CronJobUpdate;
 import edp.davinci.model.CronJob;
 import edp.davinci.model.User;
 import edp.davinci.service.CronJobService;
-import edp.davinci.service.excel.ExecutorUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.quartz.SchedulerException;
 import org.slf4j.Logger;
@@ -48,10 +48,16 @@ import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static edp.core.consts.Consts.EMPTY;
 import static edp.davinci.core.common.Constants.DAVINCI_TOPIC_CHANNEL;
 
 @Slf4j
@@ -77,8 +83,19 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 	@Autowired
 	private WeChatWorkScheduleServiceImpl weChatWorkScheduleService;
 
+	@Autowired
+	private ExtractScheduleServiceImpl extractScheduleService;
+
+	@Autowired
+	private ScheduleJobEngine scheduleJobEngine;
+
+	@Autowired
+	private ScheduleClusterManager scheduleClusterManager;
+
 	private static final CheckEntityEnum entity = CheckEntityEnum.CRONJOB;
 
+	private final AtomicBoolean clusterStarted = new AtomicBoolean(false);
+
 	@Override
 	public boolean isExist(String name, Long id, Long projectId) {
 		Long cronJobId = cronJobMapper.getByNameWithProjectId(name, projectId);
@@ -251,6 +268,7 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 		if (cronJobMapper.deleteById(id) == 1) {
 			optLogger.info("cronjob ({}) is delete by (:{})", cronJob.toString(), user.getId());
 			quartzHandler.removeJob(cronJob);
+			notifyClusterAfterCommit();
 			return true;
 		}
 
@@ -266,10 +284,13 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 		checkWritePermission(entity, cronJob.getProjectId(), user, "start");
 
 		try {
-			quartzHandler.addJob(cronJob);
+			if (scheduleClusterManager.isOwner(cronJob.getId())) {
+				quartzHandler.addJob(cronJob);
+			}
 			cronJob.setJobStatus(CronJobStatusEnum.START.getStatus());
 			cronJob.setUpdateTime(new Date());
 			cronJobMapper.update(cronJob);
+			notifyClusterAfterCommit();
 			return cronJob;
 		} catch (SchedulerException e) {
 			cronJob.setJobStatus(CronJobStatusEnum.FAILED.getStatus());
@@ -306,6 +327,7 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 			quartzHandler.removeJob(cronJob);
 			cronJob.setUpdateTime(new Date());
 			cronJobMapper.update(cronJob);
+			notifyClusterAfterCommit();
 		} catch (ServerException e) {
 			log.error(e.getMessage(), e);
 			cronJob.setJobStatus(CronJobStatusEnum.FAILED.getStatus());
@@ -317,6 +339,17 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 
 	@Override
 	public void startAllJobs() {
+		if (scheduleClusterManager.isEnabled()) {
+			if (clusterStarted.compareAndSet(false, true)) {
+				scheduleClusterManager.addListener(this::rebalanceJobs);
+			}
+			if (!joinCluster()) {
+				// 未能加入集群时本节点不调度任务，由定期校正重试加入
+				scheduleLogger.warn("Schedule cluster unavailable, no job is scheduled on this node until joined");
+			}
+			return;
+		}
+
 		List<CronJob> jobList = cronJobMapper.getStartedJobs();
 		jobList.forEach((cronJob) -> {
 			String key = entity.getSource().toUpperCase() + Consts.UNDERLINE + cronJob.getId() + Consts.UNDERLINE
@@ -335,6 +368,87 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 		});
 	}
 
+	/**
+	 * 集群模式下定期校正：未加入集群时重试加入，加入成功后由成员刷新触发重新平衡
+	 */
+	@Override
+	public void reconcileJobs() {
+		if (!clusterStarted.get()) {
+			return;
+		}
+		if (!scheduleClusterManager.isJoined() && joinCluster()) {
+			return;
+		}
+		rebalanceJobs();
+	}
+
+	private boolean joinCluster() {
+		try {
+			scheduleClusterManager.join();
+		} catch (Exception e) {
+			log.error("Join schedule cluster error: {}", e.getMessage(), e);
+			scheduleLogger.error("Join schedule cluster error: {}", e.getMessage());
+		}
+		return scheduleClusterManager.isJoined();
+	}
+
+	/**
+	 * 按集群分片结果调整本节点调度的任务：添加分配给本节点的已启动任务，移除不再属于本节点或已停止的任务
+	 */
+	@Override
+	public synchronized void rebalanceJobs() {
+		List<CronJob> jobList = cronJobMapper.getStartedJobs();
+		Set<Long> scheduledIds = quartzHandler.getScheduledJobIds();
+		Set<Long> ownedIds = new HashSet<>();
+
+		for (CronJob cronJob : jobList) {
+			if (!scheduleClusterManager.isOwner(cronJob.getId())) {
+				continue;
+			}
+			ownedIds.add(cronJob.getId());
+			if (scheduledIds.contains(cronJob.getId())) {
+				continue;
+			}
+			try {
+				quartzHandler.addJob(cronJob);
+			} catch (SchedulerException | ServerException e) {
+				// 本节点调度失败不改变任务状态，其他节点仍可能正常调度，由下次校正重试
+				log.warn("CronJob: {} (id: {}), schedule on node {} error: {}", cronJob.getName(), cronJob.getId(),
+						scheduleClusterManager.getNodeId(), e.getMessage());
+			}
+		}
+
+		for (Long id : scheduledIds) {
+			if (!ownedIds.contains(id)) {
+				CronJob cronJob = new CronJob();
+				cronJob.setId(id);
+				try {
+					quartzHandler.removeJob(cronJob);
+				} catch (ServerException e) {
+					log.warn("CronJob (id: {}), remove error: {}", id, e.getMessage());
+				}
+			}
+		}
+
+		scheduleLogger.info("Schedule node {} rebalanced, owned jobs: {}", scheduleClusterManager.getNodeId(), ownedIds);
+	}
+
+	private void notifyClusterAfterCommit() {
+		if (!scheduleClusterManager.isEnabled()) {
+			return;
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					scheduleClusterManager.notifyChanged();
+				}
+			});
+		} else {
+			scheduleClusterManager.notifyChanged();
+		}
+	}
+
 	@Override
 	public boolean executeCronJob(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException {
 
@@ -342,12 +456,11 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 
 		checkWritePermission(entity, cronJob.getProjectId(), user, "execute");
 
-		ExecutorUtil.printThreadPoolStatusLog(QuartzJobExecutor.executorService, "Cronjob_Executor", scheduleLogger);
+		String jobType = cronJob.getJobType() == null ? EMPTY : cronJob.getJobType().trim();
 
-		QuartzJobExecutor.executorService.submit(() -> {
+		return scheduleJobEngine.submit(jobType, cronJob.getId(), cronJob.getProjectId(), ScheduleJobEngine.PRIORITY_MANUAL, System.currentTimeMillis(), () -> {
 			if (cronJob.getStartDate().getTime() <= System.currentTimeMillis()
 					&& cronJob.getEndDate().getTime() >= System.currentTimeMillis()) {
-				String jobType = cronJob.getJobType().trim();
 
 				if (!StringUtils.isEmpty(jobType)) {
 					if (jobType.equals("email")) {
@@ -365,6 +478,14 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 							log.error(e.getMessage(), e);
 							scheduleLogger.error(e.getMessage());
 						}
+					} else if (jobType.equals("extract")) {
+						try {
+							// 刷新 view extract
+							extractScheduleService.execute(cronJob.getId());
+						} catch (Exception e) {
+							log.error(e.getMessage(), e);
+							scheduleLogger.error(e.getMessage());
+						}
 					}
 
 				} else {
@@ -383,8 +504,6 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 						args);
 			}
 		});
-
-		return true;
 	}
 
 }
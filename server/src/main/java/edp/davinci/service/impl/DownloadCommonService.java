@@ -19,34 +19,48 @@
 
 package edp.davinci.service.impl;
 
+import com.alibaba.fastjson.JSON;
 import com.google.common.collect.Lists;
+import edp.core.exception.NotFoundException;
 import edp.core.exception.UnAuthorizedException;
 import edp.core.utils.CollectionUtils;
 import edp.core.utils.DateUtils;
+import edp.core.utils.MD5Util;
 import edp.core.utils.TokenUtils;
+import edp.davinci.common.utils.ScriptUtils;
 import edp.davinci.core.common.ErrorMsg;
 import edp.davinci.core.enums.DownloadType;
 import edp.davinci.dao.DashboardMapper;
+import edp.davinci.dao.DownloadRecordMapper;
 import edp.davinci.dao.MemDashboardWidgetMapper;
+import edp.davinci.dao.ShareDownloadRecordMapper;
+import edp.davinci.dao.UserMapper;
+import edp.davinci.dao.ViewMapper;
 import edp.davinci.dao.WidgetMapper;
 import edp.davinci.dto.projectDto.ProjectDetail;
 import edp.davinci.dto.projectDto.ProjectPermission;
 import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
 import edp.davinci.dto.viewDto.ViewExecuteParam;
+import edp.davinci.dto.viewDto.ViewWithProjectAndSource;
 import edp.davinci.model.Dashboard;
 import edp.davinci.model.MemDashboardWidget;
 import edp.davinci.model.User;
 import edp.davinci.model.Widget;
 import edp.davinci.service.ProjectService;
+import edp.davinci.service.ViewService;
+import edp.davinci.service.excel.DownloadTask;
+import edp.davinci.service.excel.SQLContext;
 import edp.davinci.service.excel.WidgetContext;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.File;
 import java.util.*;
 import java.util.stream.Collectors;
 
+import static edp.core.consts.Consts.MINUS;
 import static edp.core.consts.Consts.UNDERLINE;
 
 @Component
@@ -68,9 +82,27 @@ public class DownloadCommonService {
     @Autowired
     protected TokenUtils tokenUtils;
 
+    @Autowired
+    protected DownloadRecordMapper downloadRecordMapper;
+
+    @Autowired
+    protected ShareDownloadRecordMapper shareDownloadRecordMapper;
+
+    @Autowired
+    protected UserMapper userMapper;
+
+    @Autowired
+    private ViewMapper viewMapper;
+
+    @Autowired
+    private ViewService viewService;
+
     @Value("${source.result-limit:1000000}")
     protected int resultLimit;
 
+    @Value("${download.queue.reuse-seconds:300}")
+    private int reuseSeconds;
+
     protected List<WidgetContext> getWidgetContextListByDashBoardId(List<Long> dashboardIds, List<DownloadViewExecuteParam> params) {
         List<WidgetContext> widgetList = Lists.newArrayList();
         if (CollectionUtils.isEmpty(dashboardIds)) {
@@ -201,4 +233,87 @@ public class DownloadCommonService {
         }
         return widgetList;
     }
+
+    /**
+     * 下载任务标识
+     * <p>
+     * 各 sheet 的 widget 配置、数据源及行列权限与参数替换后的 sql 均相同的下载共用一个任务和文件
+     *
+     * @param downloadType
+     * @param id
+     * @param widgetList
+     * @param user
+     * @return
+     */
+    protected String getJobKey(DownloadType downloadType, Long id, List<WidgetContext> widgetList, User user) {
+        StringBuilder sb = new StringBuilder(downloadType.name()).append(MINUS).append(id);
+        try {
+            for (WidgetContext context : widgetList) {
+                Widget widget = context.getWidget();
+                MemDashboardWidget memDashboardWidget = context.getMemDashboardWidget();
+                ViewExecuteParam executeParam;
+                if (context.isHasExecuteParam() && null != context.getExecuteParam()) {
+                    // 生成 sql 时会修改参数，使用副本
+                    executeParam = JSON.parseObject(JSON.toJSONString(context.getExecuteParam()), ViewExecuteParam.class);
+                } else {
+                    executeParam = ScriptUtils.getViewExecuteParam(
+                            context.getDashboard() != null ? context.getDashboard().getConfig() : null,
+                            widget.getConfig(),
+                            memDashboardWidget != null ? memDashboardWidget.getId() : null);
+                }
+                sb.append(MINUS).append(widget.getId())
+                        .append(MINUS).append(widget.getName())
+                        .append(MINUS).append(null == memDashboardWidget ? null : memDashboardWidget.getAlias())
+                        .append(MINUS).append(widget.getConfig());
+
+                ViewWithProjectAndSource viewWithProjectAndSource = viewMapper.getViewWithProjectAndSourceById(widget.getViewId());
+                SQLContext sqlContext = viewService.getSQLContext(context.getIsMaintainer(), viewWithProjectAndSource, executeParam, user);
+                if (null != sqlContext) {
+                    sb.append(MINUS).append(viewWithProjectAndSource.getSourceId())
+                            .append(MINUS).append(sqlContext.getExecuteSql())
+                            .append(MINUS).append(sqlContext.getQuerySql())
+                            .append(MINUS).append(sqlContext.getExcludeColumns())
+                            .append(MINUS).append(JSON.toJSONString(executeParam.getParams()));
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Download job key of {}({}) is not computed, job is not shared: {}", downloadType, id, e.getMessage());
+            return MD5Util.getMD5(UUID.randomUUID().toString(), true, 32);
+        }
+        return MD5Util.getMD5(sb.toString(), true, 32);
+    }
+
+    protected String toTask(DownloadType downloadType, Long id, User user, List<DownloadViewExecuteParam> params) {
+        DownloadTask task = new DownloadTask();
+        task.setType(downloadType.name());
+        task.setId(id);
+        task.setUserId(user.getId());
+        task.setParams(params);
+        return JSON.toJSONString(task);
+    }
+
+    protected User getTaskUser(DownloadTask task) {
+        User user = userMapper.getById(task.getUserId());
+        if (null == user) {
+            throw new NotFoundException("user is not found");
+        }
+        return user;
+    }
+
+    /**
+     * download.queue.reuse-seconds 内已完成的相同任务的文件
+     *
+     * @param jobKey
+     * @return
+     */
+    protected String getReusablePath(String jobKey) {
+        if (reuseSeconds <= 0) {
+            return null;
+        }
+        String path = downloadRecordMapper.getReusablePath(jobKey, reuseSeconds);
+        if (null == path || !new File(path).isFile()) {
+            path = shareDownloadRecordMapper.getReusablePath(jobKey, reuseSeconds);
+        }
+        return null != path && new File(path).isFile() ? path : null;
+    }
 }
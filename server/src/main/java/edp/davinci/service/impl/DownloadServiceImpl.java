@@ -20,25 +20,23 @@
 package edp.davinci.service.impl;
 
 import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.JSON;
 import edp.core.exception.UnAuthorizedException;
 import edp.davinci.core.enums.ActionEnum;
 import edp.davinci.core.enums.DownloadTaskStatus;
 import edp.davinci.core.enums.DownloadType;
 import edp.davinci.core.enums.LogNameEnum;
-import edp.davinci.dao.DownloadRecordMapper;
-import edp.davinci.dao.UserMapper;
 import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
 import edp.davinci.model.DownloadRecord;
 import edp.davinci.model.User;
 import edp.davinci.service.DownloadService;
-import edp.davinci.service.excel.ExecutorUtil;
+import edp.davinci.service.excel.DownloadTask;
 import edp.davinci.service.excel.MsgWrapper;
 import edp.davinci.service.excel.WidgetContext;
 import edp.davinci.service.excel.WorkBookContext;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.Date;
@@ -58,12 +56,6 @@ public class DownloadServiceImpl extends DownloadCommonService implements Downlo
 
     private static final Logger downloadLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_DOWNLOAD.getName());
 
-    @Autowired
-    private DownloadRecordMapper downloadRecordMapper;
-
-    @Autowired
-    private UserMapper userMapper;
-
     @Override
     public List<DownloadRecord> queryDownloadRecordPage(Long userId) {
         return downloadRecordMapper.getDownloadRecordsByUser(userId);
@@ -105,25 +97,40 @@ public class DownloadServiceImpl extends DownloadCommonService implements Downlo
             record.setName(getDownloadFileName(type, id));
             record.setUserId(user.getId());
             record.setCreateTime(new Date());
-            record.setStatus(DownloadTaskStatus.PROCESSING.getStatus());
+            record.setJobKey(getJobKey(type, id, widgetList, user));
+            // 刚完成的相同任务直接共用其文件，否则入队
+            String path = getReusablePath(record.getJobKey());
+            if (null != path) {
+                record.setPath(path);
+                record.setStatus(DownloadTaskStatus.SUCCESS.getStatus());
+                record.setFinishTime(record.getCreateTime());
+            } else {
+                record.setTask(toTask(type, id, user, params));
+                record.setStatus(DownloadTaskStatus.PROCESSING.getStatus());
+            }
             downloadRecordMapper.insert(record);
-            MsgWrapper wrapper = new MsgWrapper(record, ActionEnum.DOWNLOAD, record.getId());
-
-            WorkBookContext workBookContext = WorkBookContext.WorkBookContextBuilder.newBuildder()
-                    .withWrapper(wrapper)
-                    .withWidgets(widgetList)
-                    .withUser(user)
-                    .withResultLimit(resultLimit)
-                    .withTaskKey("DownloadTask_" + id)
-                    .withCustomLogger(downloadLogger)
-                    .build();
-
-            ExecutorUtil.submitWorkbookTask(workBookContext, downloadLogger);
-            log.info("Download task submit:{}", wrapper);
+            log.info("Download task submit: id={}, jobKey={}, reused={}", record.getId(), record.getJobKey(), null != path);
         } catch (Exception e) {
             log.error("Submit download task error", e);
             return false;
         }
         return true;
     }
+
+    @Override
+    public WorkBookContext getQueuedWorkBookContext(DownloadRecord record) {
+        DownloadTask task = JSON.parseObject(record.getTask(), DownloadTask.class);
+        User user = getTaskUser(task);
+        // 重新校验下载权限
+        List<WidgetContext> widgetList = getWidgetContexts(DownloadType.valueOf(task.getType()), task.getId(), user, task.getParams());
+        MsgWrapper wrapper = new MsgWrapper(record, ActionEnum.DOWNLOAD, record.getId());
+        return WorkBookContext.WorkBookContextBuilder.newBuildder()
+                .withWrapper(wrapper)
+                .withWidgets(widgetList)
+                .withUser(user)
+                .withResultLimit(resultLimit)
+                .withTaskKey("DownloadTask_" + task.getId())
+                .withCustomLogger(downloadLogger)
+                .build();
+    }
 }
@@ -21,6 +21,7 @@ package edp.davinci.service.impl;
 
 import com.alibaba.druid.util.StringUtils;
 import com.alibaba.fastjson.JSONObject;
+import edp.core.common.quartz.ScheduleJobEngine;
 import edp.core.common.quartz.ScheduleService;
 import edp.core.enums.MailContentTypeEnum;
 import edp.core.exception.ServerException;
@@ -53,6 +54,7 @@ import edp.davinci.service.excel.MsgWrapper;
 import edp.davinci.service.excel.WidgetContext;
 import edp.davinci.service.excel.WorkBookContext;
 import edp.davinci.service.screenshot.ImageContent;
+import edp.davinci.service.screenshot.ImagePipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
@@ -97,6 +99,12 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
     @Autowired
     private ProjectService projectService;
 
+    @Autowired
+    private ScheduleJobEngine scheduleJobEngine;
+
+    @Autowired
+    private ImagePipeline imagePipeline;
+
     @Value("${source.result-limit:1000000}")
     private int resultLimit;
 
@@ -137,8 +145,18 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
         }
 
         if (cronJobConfig.getType().equals(CronJobMediaType.IMAGEANDEXCEL.getType())) {
-            images = generateImages(jobId, cronJobConfig, creator.getId());
+            // 截图与Excel生成各自使用独立线程池，并行执行
+            final CronJobConfig config = cronJobConfig;
+            Future<List<ImageContent>> imagesFuture = scheduleJobEngine.submitStage(() -> generateImages(jobId, config, creator.getId()));
             excels = generateExcels(jobId, cronJobConfig, creator);
+            images = imagesFuture.get();
+        }
+
+        if (!CollectionUtils.isEmpty(images)) {
+            // 截图压缩，邮件总大小预算扣除 excel 附件
+            long excelBytes = CollectionUtils.isEmpty(excels) ? 0L : excels.stream()
+                    .filter(excel -> null != excel.getFile()).mapToLong(excel -> excel.getFile().length()).sum();
+            imagePipeline.process(jobId, images, imagePipeline.mailBudget(excelBytes));
         }
 
         List<MailAttachment> attachmentList = new ArrayList<>();
@@ -178,8 +196,21 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
         } catch (ServerException e) {
             scheduleLogger.error("CronJob({}) build email content error:{}", jobId, e.getMessage());
         }
-        mailUtils.sendMail(mailContent, null);
-        scheduleLogger.info("CronJob({}) is finish! --------------", jobId);
+
+        // 邮件交给发送队列投递及重试，释放当前任务通道给下一个任务；最终失败时记入任务的执行日志
+        try {
+            mailUtils.sendMailAsync(mailContent, null).whenDone(delivery -> {
+                if (delivery.isSent()) {
+                    scheduleLogger.info("CronJob({}) is finish! email sent after {} attempts --------------", jobId, delivery.getAttempts());
+                    return;
+                }
+                scheduleLogger.error("CronJob({}) send email error after {} attempts:{}", jobId, delivery.getAttempts(), delivery.getLastError());
+                cronJobMapper.updateExecLog(jobId, "send email error: " + delivery.getLastError());
+            });
+        } catch (ServerException e) {
+            scheduleLogger.error("CronJob({}) send email error:{}", jobId, e.getMessage());
+            cronJobMapper.updateExecLog(jobId, "send email error: " + e.getMessage());
+        }
     }
 
     /**
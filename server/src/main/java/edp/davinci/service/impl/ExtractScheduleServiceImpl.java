@@ -0,0 +1,98 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.impl;
+
+import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.JSONObject;
+import edp.core.common.quartz.ScheduleService;
+import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.dao.CronJobMapper;
+import edp.davinci.dao.UserMapper;
+import edp.davinci.model.CronJob;
+import edp.davinci.model.User;
+import edp.davinci.service.ViewService;
+import edp.davinci.service.extract.ExtractMeta;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * 定时刷新 view extract，job config 格式：{"viewId": 1}
+ */
+@Slf4j
+@Service("extractScheduleService")
+public class ExtractScheduleServiceImpl implements ScheduleService {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    private static final String VIEW_ID = "viewId";
+
+    @Autowired
+    private CronJobMapper cronJobMapper;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private ViewService viewService;
+
+    @Override
+    public void execute(long jobId) throws Exception {
+        CronJob cronJob = cronJobMapper.getById(jobId);
+        if (null == cronJob || StringUtils.isEmpty(cronJob.getConfig())) {
+            scheduleLogger.error("CronJob({}) config is empty", jobId);
+            return;
+        }
+        cronJobMapper.updateExecLog(jobId, "");
+
+        Long viewId;
+        try {
+            viewId = JSONObject.parseObject(cronJob.getConfig()).getLong(VIEW_ID);
+        } catch (Exception e) {
+            scheduleLogger.error("Cronjob({}) parse config({}) error:{}", jobId, cronJob.getConfig(), e.getMessage());
+            return;
+        }
+        if (null == viewId) {
+            scheduleLogger.error("Cronjob({}) config viewId is empty", jobId);
+            return;
+        }
+
+        User creator = userMapper.getById(cronJob.getCreateBy());
+        if (null == creator) {
+            scheduleLogger.error("CronJob({}) creator is not found", jobId);
+            return;
+        }
+
+        scheduleLogger.info("CronJob({}) is start! --------------", jobId);
+        try {
+            ExtractMeta meta = viewService.refreshExtract(viewId, creator);
+            scheduleLogger.info("CronJob({}) extract of view({}) refreshed, rows: {}, size: {}, cost: {} ms",
+                    jobId, viewId, meta.getRowCount(), meta.getSizeBytes(), meta.getBuildMillis());
+        } catch (Exception e) {
+            // 刷新失败时查询回退到数据源
+            cronJobMapper.updateExecLog(jobId, e.getMessage());
+            scheduleLogger.error("CronJob({}) refresh extract of view({}) error: {}", jobId, viewId, e.getMessage());
+            throw e;
+        }
+        scheduleLogger.info("CronJob({}) is finish! --------------", jobId);
+    }
+}
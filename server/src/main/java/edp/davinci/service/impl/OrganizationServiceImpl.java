@@ -50,8 +50,6 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -89,8 +87,6 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
 
     private static final CheckEntityEnum entity = CheckEntityEnum.ORGANIZATION;
 
-    private static final ExecutorService FIXED_THREAD_POOL = Executors.newFixedThreadPool(8);
-
     @Override
     public boolean isExist(String name, Long id, Long scopeId) {
         Long orgId = organizationMapper.getIdByName(name);
@@ -433,7 +429,18 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
             Set<User> inviteUsers = users.stream().filter(u -> members.contains(u.getId())).collect(Collectors.toSet());
 
             if (inviteMembers.isNeedConfirm()) {
-                FIXED_THREAD_POOL.execute(() -> inviteUsers.forEach(member -> sendInviteEmail(organization, member, user)));
+                // 邮件在发送队列中投递，不阻塞请求；队列已满等入队失败的返回给调用方
+                Set<UserBaseInfo> failures = new HashSet<>();
+                for (User member : new ArrayList<>(inviteUsers)) {
+                    try {
+                        sendInviteEmail(organization, member, user);
+                    } catch (ServerException e) {
+                        log.warn("send invite email to user({}) of organization({}) error: {}", member.getId(), orgId, e.getMessage());
+                        failures.add(new UserBaseInfo(member));
+                        inviteUsers.remove(member);
+                    }
+                }
+                result.setFailures(failures);
             } else {
                 Set<RelUserOrganization> relUserOrgSet = inviteUsers.stream()
                         .map(u -> new RelUserOrganization(orgId, u.getId(), UserOrgRoleEnum.MEMBER.getRole()))
@@ -446,7 +453,7 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
             }
             log.info("user ({}) invite members join organization ({}), is need confirm: ({}) member id: {}", user.getId(), orgId, inviteMembers.isNeedConfirm(), members);
             Set<UserBaseInfo> success = inviteUsers.stream().map(UserBaseInfo::new).collect(Collectors.toSet());
-            result.setStatus(HttpStatus.OK.value());
+            result.setStatus(success.isEmpty() ? HttpStatus.SERVICE_UNAVAILABLE.value() : HttpStatus.OK.value());
             result.setSuccesses(success);
         }
         return result;
@@ -690,7 +697,12 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
      * @param member
      * @param user
      */
-    private void sendInviteEmail(Organization organization, User member, User user) {
+    /**
+     * 邀请邮件放入发送队列，最终投递失败只记录日志
+     *
+     * @throws ServerException 邮件内容无效或发送队列已满
+     */
+    private void sendInviteEmail(Organization organization, User member, User user) throws ServerException {
         /**
          * 邀请组织成员token生成实体
          * 规则：
@@ -708,18 +720,18 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
         content.put("host", serverUtils.getHost());
         //aes加密token
         content.put("token", AESUtils.encrypt(tokenUtils.generateContinuousToken(orgInviteDetail), null));
-        try {
-            MailContent mailContent = MailContent.MailContentBuilder.builder()
-                    .withSubject(String.format(Constants.INVITE_ORG_MEMBER_MAIL_SUBJECT, user.getUsername(), organization.getName()))
-                    .withTo(member.getEmail())
-                    .withMainContent(MailContentTypeEnum.TEMPLATE)
-                    .withTemplate(Constants.INVITE_ORG_MEMBER_MAIL_TEMPLATE)
-                    .withTemplateContent(content)
-                    .build();
-
-            mailUtils.sendMail(mailContent, null);
-        } catch (ServerException e) {
-            log.error(e.getMessage(), e);
-        }
+        MailContent mailContent = MailContent.MailContentBuilder.builder()
+                .withSubject(String.format(Constants.INVITE_ORG_MEMBER_MAIL_SUBJECT, user.getUsername(), organization.getName()))
+                .withTo(member.getEmail())
+                .withMainContent(MailContentTypeEnum.TEMPLATE)
+                .withTemplate(Constants.INVITE_ORG_MEMBER_MAIL_TEMPLATE)
+                .withTemplateContent(content)
+                .build();
+
+        mailUtils.sendMailAsync(mailContent, null).whenDone(delivery -> {
+            if (!delivery.isSent()) {
+                log.error("send invite email to user({}) of organization({}) error: {}", member.getId(), organization.getId(), delivery.getLastError());
+            }
+        });
     }
 }
@@ -19,20 +19,21 @@
 
 package edp.davinci.service.impl;
 
+import com.alibaba.fastjson.JSON;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedException;
 import edp.davinci.core.common.ErrorMsg;
 import edp.davinci.core.enums.ActionEnum;
 import edp.davinci.core.enums.DownloadTaskStatus;
 import edp.davinci.core.enums.DownloadType;
-import edp.davinci.dao.ShareDownloadRecordMapper;
 import edp.davinci.dto.projectDto.ProjectDetail;
 import edp.davinci.dto.projectDto.ProjectPermission;
 import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
 import edp.davinci.model.ShareDownloadRecord;
+import edp.davinci.model.User;
 import edp.davinci.service.ShareDownloadService;
 import edp.davinci.service.ShareService;
-import edp.davinci.service.excel.ExecutorUtil;
+import edp.davinci.service.excel.DownloadTask;
 import edp.davinci.service.excel.MsgWrapper;
 import edp.davinci.service.excel.WidgetContext;
 import edp.davinci.service.excel.WorkBookContext;
@@ -49,9 +50,6 @@ import java.util.List;
 @Slf4j
 public class ShareDownloadServiceImpl extends DownloadCommonService implements ShareDownloadService {
 
-    @Autowired
-    private ShareDownloadRecordMapper shareDownloadRecordMapper;
-
     @Autowired
     private ShareService shareService;
 
@@ -64,20 +62,20 @@ public class ShareDownloadServiceImpl extends DownloadCommonService implements S
             ShareDownloadRecord record = new ShareDownloadRecord();
             record.setUuid(uuid);
             record.setName(getDownloadFileName(downloadType, shareFactor.getEntityId()));
-            record.setStatus(DownloadTaskStatus.PROCESSING.getStatus());
             record.setCreateTime(new Date());
+            record.setJobKey(getJobKey(downloadType, shareFactor.getEntityId(), widgetList, shareFactor.getUser()));
+            // 刚完成的相同任务直接共用其文件，否则入队
+            String path = getReusablePath(record.getJobKey());
+            if (null != path) {
+                record.setPath(path);
+                record.setStatus(DownloadTaskStatus.SUCCESS.getStatus());
+                record.setFinishTime(record.getCreateTime());
+            } else {
+                record.setTask(toTask(downloadType, shareFactor.getEntityId(), shareFactor.getUser(), params));
+                record.setStatus(DownloadTaskStatus.PROCESSING.getStatus());
+            }
             shareDownloadRecordMapper.insertSelective(record);
-
-            MsgWrapper wrapper = new MsgWrapper(record, ActionEnum.SHAREDOWNLOAD, uuid);
-            WorkBookContext workBookContext = WorkBookContext.WorkBookContextBuilder.newBuildder()
-                    .withWrapper(wrapper)
-                    .withWidgets(widgetList)
-                    .withUser(shareFactor.getUser())
-                    .withResultLimit(resultLimit)
-                    .withTaskKey("ShareDownload_" + uuid)
-                    .build();
-            ExecutorUtil.submitWorkbookTask(workBookContext, null);
-            log.info("Share download task submit: {}", wrapper);
+            log.info("Share download task submit: id={}, uuid={}, jobKey={}, reused={}", record.getId(), uuid, record.getJobKey(), null != path);
             return true;
         } catch (UnAuthorizedException | ServerException e) {
             throw e;
@@ -123,4 +121,20 @@ public class ShareDownloadServiceImpl extends DownloadCommonService implements S
             return null;
         }
     }
+
+    @Override
+    public WorkBookContext getQueuedWorkBookContext(ShareDownloadRecord record) {
+        DownloadTask task = JSON.parseObject(record.getTask(), DownloadTask.class);
+        User user = getTaskUser(task);
+        // 重新校验下载权限
+        List<WidgetContext> widgetList = getWidgetContexts(DownloadType.valueOf(task.getType()), task.getId(), user, task.getParams());
+        MsgWrapper wrapper = new MsgWrapper(record, ActionEnum.SHAREDOWNLOAD, record.getUuid());
+        return WorkBookContext.WorkBookContextBuilder.newBuildder()
+                .withWrapper(wrapper)
+                .withWidgets(widgetList)
+                .withUser(user)
+                .withResultLimit(resultLimit)
+                .withTaskKey("ShareDownload_" + record.getUuid())
+                .build();
+    }
 }
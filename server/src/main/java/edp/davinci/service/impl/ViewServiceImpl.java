@@ -23,11 +23,23 @@ import com.alibaba.druid.util.StringUtils;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import edp.core.common.jdbc.QueryRegistry;
+import edp.core.common.jdbc.QuerySession;
+import edp.core.common.jdbc.RunningQuery;
+import edp.core.common.jdbc.WorkloadClass;
+import edp.core.common.jdbc.WorkloadManager;
+import edp.core.common.jdbc.buffer.BufferedResultList;
+import edp.core.common.jdbc.buffer.SpilledResultList;
+import edp.core.common.metrics.QueryMetrics;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
+import edp.core.exception.ServiceUnavailableException;
+import edp.core.exception.SourceException;
 import edp.core.exception.UnAuthorizedException;
+import edp.core.model.BindVariables;
 import edp.core.model.Paginate;
 import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
 import edp.core.utils.*;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.enums.*;
@@ -45,7 +57,16 @@ import edp.davinci.dto.viewDto.*;
 import edp.davinci.model.*;
 import edp.davinci.service.ProjectService;
 import edp.davinci.service.ViewService;
+import edp.davinci.service.compute.ColumnarTable;
+import edp.davinci.service.compute.LocalComputeEngine;
+import edp.davinci.service.compute.LocalComputeUnsupportedException;
+import edp.davinci.service.distinct.DistinctIndex;
+import edp.davinci.service.distinct.DistinctIndexCache;
 import edp.davinci.service.excel.SQLContext;
+import edp.davinci.service.extract.ExtractBuilder;
+import edp.davinci.service.extract.ExtractMeta;
+import edp.davinci.service.extract.ExtractStore;
+import edp.davinci.service.extract.Watermark;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -100,15 +121,37 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     @Autowired
     private SqlParseUtils sqlParseUtils;
 
+    @Autowired
+    private QueryRegistry queryRegistry;
+
+    @Autowired
+    private LocalComputeEngine localComputeEngine;
+
+    @Autowired
+    private ExtractStore extractStore;
+
+    @Autowired
+    private DistinctIndexCache distinctIndexCache;
+
+    @Autowired
+    private QueryMetrics queryMetrics;
+
     @Value("${sql_template_delimiter:$}")
     private String sqlTempDelimiter;
 
+    @Value("${source.bind-variables:false}")
+    private boolean bindVariablesEnable;
+
     private static final String SQL_VARABLE_KEY = "name";
 
     private static final CheckEntityEnum entity = CheckEntityEnum.VIEW;
     
     private static final  ExecutorService ROLEPARAM_THREADPOOL = Executors.newFixedThreadPool(8);
 
+    public static ExecutorService getRoleParamThreadPool() {
+        return ROLEPARAM_THREADPOOL;
+    }
+
     @Override
     public boolean isExist(String name, Long id, Long projectId) {
         Long viewId = viewMapper.getByNameWithProjectId(name, projectId);
@@ -418,6 +461,9 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
         //结构化Sql
         PaginateWithQueryColumns paginateWithQueryColumns = null;
+        RunningQuery runningQuery = null;
+        WorkloadManager.Admission admission = null;
+        QuerySession querySession = null;
         try {
             SqlEntity sqlEntity = sqlParseUtils.parseSql(executeSql.getSql(), executeSql.getVariables(), sqlTempDelimiter, user, true);
             if (null == sqlUtils || null == sqlEntity || StringUtils.isEmpty(sqlEntity.getSql())) {
@@ -440,14 +486,18 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
             String srcSql = sqlParseUtils.replaceParams(sqlEntity.getSql(), sqlEntity.getQuaryParams(),
                     sqlEntity.getAuthParams(), sqlTempDelimiter);
 
-            SqlUtils sqlUtils = this.sqlUtils.init(source);
+            runningQuery = registerQuery(user, null, null);
+            SqlUtils sqlUtils = this.sqlUtils.init(source).withRunningQuery(runningQuery);
+            admission = sqlUtils.admit(WorkloadClass.ADHOC);
 
             List<String> executeSqlList = sqlParseUtils.getSqls(srcSql, false);
 
             List<String> querySqlList = sqlParseUtils.getSqls(srcSql, true);
 
             if (!CollectionUtils.isEmpty(executeSqlList)) {
-                executeSqlList.forEach(sql -> sqlUtils.execute(sql));
+                // 前置语句与查询在同一连接上执行
+                querySession = sqlUtils.openSession();
+                sqlUtils.execute(executeSqlList);
             }
 
             if (!CollectionUtils.isEmpty(querySqlList)) {
@@ -458,8 +508,18 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                 }
             }
 
+        } catch (ServiceUnavailableException e) {
+            throw e;
         } catch (Exception e) {
-            throw new ServerException(e.getMessage());
+            throw new ServerException(getQueryErrorMessage(runningQuery, e));
+        } finally {
+            if (null != querySession) {
+                querySession.close();
+            }
+            if (null != admission) {
+                admission.close();
+            }
+            queryRegistry.complete(runningQuery);
         }
 
         return paginateWithQueryColumns;
@@ -493,6 +553,209 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         return getResultDataList(projectService.isMaintainer(projectDetail, user), viewWithSource, executeParam, user);
     }
 
+    /**
+     * 刷新 view 的 extract，以维护者身份使用默认查询参数构建
+     *
+     * @param id
+     * @param user
+     * @return
+     * @throws NotFoundException
+     * @throws UnAuthorizedException
+     * @throws ServerException
+     */
+    @Override
+    public ExtractMeta refreshExtract(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException {
+        ViewWithSource viewWithSource = getViewWithSource(id);
+        ProjectDetail projectDetail = projectService.getProjectDetail(viewWithSource.getProjectId(), user, false);
+        if (!projectService.isMaintainer(projectDetail, user)) {
+            throw new UnAuthorizedException("you have not permission to refresh extract");
+        }
+
+        long startAt = System.currentTimeMillis();
+        try {
+            ExtractMeta meta = buildExtract(viewWithSource, user, startAt);
+            log.info("extract of view({}) refreshed({}), fetched: {}, rows: {}, size: {}, cost: {} ms",
+                    id, meta.getRefreshMode(), meta.getFetchedRows(), meta.getRowCount(), meta.getSizeBytes(), meta.getBuildMillis());
+            return meta;
+        } catch (Exception e) {
+            log.error("refresh extract of view({}) error: {}", id, e.getMessage());
+            extractStore.fail(id, startAt, e.getMessage());
+            throw e instanceof ServerException ? (ServerException) e : new ServerException(e.getMessage());
+        }
+    }
+
+    /**
+     * 获取 view extract 的状态
+     *
+     * @param id
+     * @param user
+     * @return 未构建时返回 null
+     * @throws NotFoundException
+     * @throws UnAuthorizedException
+     * @throws ServerException
+     */
+    @Override
+    public ExtractMeta getExtractMeta(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException {
+        ViewWithSource viewWithSource = getViewWithSource(id);
+        ProjectDetail projectDetail = projectService.getProjectDetail(viewWithSource.getProjectId(), user, false);
+        if (!projectService.allowGetData(projectDetail, user)) {
+            throw new UnAuthorizedException("you have not permission to get data");
+        }
+        return extractStore.getMeta(id);
+    }
+
+    private ExtractMeta buildExtract(ViewWithSource viewWithSource, User user, long startAt) throws Exception {
+        Source source = viewWithSource.getSource();
+        if (null == source) {
+            throw new NotFoundException("source is not found");
+        }
+        if (StringUtils.isEmpty(viewWithSource.getSql())) {
+            throw new ServerException("view sql is empty");
+        }
+
+        // 行权限与渠道变量随用户变化，无法共用一份 extract
+        List<SqlVariable> variables = viewWithSource.getVariables();
+        if (!CollectionUtils.isEmpty(variables) && variables.stream()
+                .anyMatch(v -> AUTHVAR == SqlVariableTypeEnum.typeOf(v.getType()) || null != v.getChannel())) {
+            throw new ServerException("view with auth or channel variables can not be extracted");
+        }
+
+        SqlEntity sqlEntity = sqlParseUtils.parseSql(viewWithSource.getSql(), variables, sqlTempDelimiter, user, true);
+        packageParams(true, viewWithSource.getId(), sqlEntity, variables, null, null, user);
+        String srcSql = sqlParseUtils.replaceParams(sqlEntity.getSql(), sqlEntity.getQuaryParams(), sqlEntity.getAuthParams(), sqlTempDelimiter);
+
+        List<String> querySqlList = sqlParseUtils.getSqls(srcSql, true);
+        if (CollectionUtils.isEmpty(querySqlList) || querySqlList.size() != 1) {
+            throw new ServerException("only view with one query can be extracted");
+        }
+
+        SqlUtils sqlUtils = this.sqlUtils.init(source);
+        WorkloadManager.Admission admission = null;
+        QuerySession querySession = null;
+        try {
+            admission = sqlUtils.admit(WorkloadClass.SCHEDULED);
+            List<String> executeSqlList = sqlParseUtils.getSqls(srcSql, false);
+            if (!CollectionUtils.isEmpty(executeSqlList)) {
+                querySession = sqlUtils.openSession();
+                sqlUtils.execute(executeSqlList);
+            }
+
+            String sql = SqlParseUtils.rebuildSqlWithFragment(querySqlList.get(0));
+            String signature = getExtractSignature(viewWithSource);
+            Watermark watermark = Watermark.of(viewWithSource.getConfig());
+
+            ExtractMeta meta = new ExtractMeta();
+            meta.setSignature(signature);
+            meta.setLastAttemptAt(startAt);
+
+            ExtractMeta previous = extractStore.getMeta(viewWithSource.getId());
+            ExtractBuilder builder = null;
+            if (null != watermark && null != previous && null != previous.getWatermark()
+                    && watermark.getColumn().equals(previous.getWatermarkColumn()) && !extractStore.isFullRefreshDue(previous)) {
+                ColumnarTable base = extractStore.getTable(viewWithSource.getId(), signature);
+                if (null != base) {
+                    try {
+                        builder = buildIncrementalExtract(sqlUtils, sql, source, watermark, previous, base, meta);
+                    } catch (Exception e) {
+                        log.warn("incremental refresh extract of view({}) error, rebuild all: {}", viewWithSource.getId(), e.getMessage());
+                    }
+                }
+            }
+
+            if (null == builder) {
+                int maxRows = extractStore.getMaxRows();
+                ExtractBuilder[] holder = new ExtractBuilder[1];
+                sqlUtils.query4Each(sql, maxRows + 1,
+                        columns -> holder[0] = new ExtractBuilder(columns),
+                        values -> addExtractRow(holder[0], values, maxRows));
+                builder = holder[0];
+                meta.setRefreshMode(ExtractMeta.FULL);
+                meta.setFetchedRows(builder.getRowCount());
+            }
+            return extractStore.save(viewWithSource.getId(), meta, builder, watermark);
+        } finally {
+            if (null != querySession) {
+                querySession.close();
+            }
+            if (null != admission) {
+                admission.close();
+            }
+        }
+    }
+
+    /**
+     * 只查询水位之后的行：保留已有 extract 中不大于下界的行，追加新查询的行
+     */
+    private ExtractBuilder buildIncrementalExtract(SqlUtils sqlUtils,
+                                                   String sql,
+                                                   Source source,
+                                                   Watermark watermark,
+                                                   ExtractMeta previous,
+                                                   ColumnarTable base,
+                                                   ExtractMeta meta) throws Exception {
+
+        ColumnarTable.Column watermarkColumn = base.getColumn(watermark.getColumn());
+        if (null == Watermark.kindOf(watermarkColumn) || !Watermark.kindOf(watermarkColumn).equals(previous.getWatermarkKind())) {
+            throw new ServerException("watermark column is not a time or number column: " + watermark.getColumn());
+        }
+        Object lowerBound = watermark.lowerBound(previous.getWatermarkKind(), previous.getWatermark());
+        String incrementalSql = watermark.incrementalSql(sql,
+                SqlUtils.getKeywordPrefix(source.getJdbcUrl(), source.getDbVersion()),
+                SqlUtils.getKeywordSuffix(source.getJdbcUrl(), source.getDbVersion()));
+
+        int maxRows = extractStore.getMaxRows();
+        List<QueryColumn> baseColumns = base.getColumns();
+        ExtractBuilder builder = new ExtractBuilder(baseColumns);
+        int[] fetched = new int[1];
+        sqlUtils.query4Each(incrementalSql, new Object[]{Watermark.bindValue(lowerBound)}, maxRows + 1,
+                columns -> {
+                    if (columns.size() != baseColumns.size()) {
+                        throw new ServerException("view columns changed");
+                    }
+                    for (int i = 0; i < columns.size(); i++) {
+                        if (!columns.get(i).getName().equals(baseColumns.get(i).getName())) {
+                            throw new ServerException("view columns changed");
+                        }
+                    }
+                    List<ColumnarTable.Column> data = new ArrayList<>(baseColumns.size());
+                    baseColumns.forEach(c -> data.add(base.getColumn(c.getName())));
+                    for (int row = 0; row < base.getRowCount(); row++) {
+                        if (Watermark.isRetained(watermarkColumn, row, lowerBound)) {
+                            Object[] values = new Object[data.size()];
+                            for (int i = 0; i < values.length; i++) {
+                                values[i] = data.get(i).valueOf(row);
+                            }
+                            addExtractRow(builder, values, maxRows);
+                        }
+                    }
+                },
+                values -> {
+                    addExtractRow(builder, values, maxRows);
+                    fetched[0]++;
+                });
+
+        meta.setRefreshMode(ExtractMeta.INCREMENTAL);
+        meta.setFetchedRows(fetched[0]);
+        meta.setFullBuiltAt(previous.getFullBuiltAt());
+        return builder;
+    }
+
+    private void addExtractRow(ExtractBuilder builder, Object[] values, int maxRows) {
+        if (builder.getRowCount() >= maxRows) {
+            throw new ServerException("view result exceeds the extract limit: " + maxRows + " rows");
+        }
+        builder.add(values);
+    }
+
+    /**
+     * view sql、变量或数据源变更后签名变化，旧的 extract 不再使用
+     */
+    private String getExtractSignature(ViewWithSource viewWithSource) {
+        Source source = viewWithSource.getSource();
+        return MD5Util.getMD5(source.getId() + MINUS + source.getJdbcUrl() + MINUS + viewWithSource.getSql()
+                + MINUS + viewWithSource.getVariable(), true, 32);
+    }
+
     private ViewWithSource getViewWithSource(Long id) {
         ViewWithSource viewWithSource = viewMapper.getViewWithSource(id);
         if (null == viewWithSource) {
@@ -503,6 +766,10 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     }
 
     public void buildQuerySql(List<String> querySqlList, Source source, ViewExecuteParam executeParam) {
+        buildQuerySql(querySqlList, source, executeParam, null);
+    }
+
+    private void buildQuerySql(List<String> querySqlList, Source source, ViewExecuteParam executeParam, BindVariables bindVariables) {
         if (null == executeParam) {
             return;
         }
@@ -519,7 +786,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
             st.add("aggregators", executeParam.getAggregators(source.getJdbcUrl(), source.getDbVersion()));
         }
         st.add("orders", executeParam.getOrders(source.getJdbcUrl(), source.getDbVersion()));
-        st.add("filters", convertFilters(executeParam.getFilters(), source));
+        st.add("filters", convertFilters(executeParam.getFilters(), source, bindVariables));
         st.add("keywordPrefix", sqlUtils.getKeywordPrefix(source.getJdbcUrl(), source.getDbVersion()));
         st.add("keywordSuffix", sqlUtils.getKeywordSuffix(source.getJdbcUrl(), source.getDbVersion()));
 
@@ -530,6 +797,10 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     }
 
     public List<String> convertFilters(List<String> filterStrs, Source source) {
+        return convertFilters(filterStrs, source, null);
+    }
+
+    private List<String> convertFilters(List<String> filterStrs, Source source, BindVariables bindVariables) {
         List<String> whereClauses = new ArrayList<>();
         List<SqlFilter> filters = new ArrayList<>();
         try {
@@ -544,7 +815,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                 }
                 filters.add(obj);
             }
-            filters.forEach(filter -> whereClauses.add(SqlFilter.dealFilter(filter)));
+            filters.forEach(filter -> whereClauses.add(SqlFilter.dealFilter(filter, bindVariables)));
 
         } catch (Exception e) {
             log.error("convertFilters error . filterStrs = {}, source = {}, filters = {} , whereClauses = {} ",
@@ -582,6 +853,9 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         }
 
         String cacheKey = null;
+        RunningQuery runningQuery = null;
+        SourceAccess sourceAccess = null;
+        QueryMetrics.Scope metricsScope = openMetricsScope(viewWithSource);
         try {
 
             if (StringUtils.isEmpty(viewWithSource.getSql())) {
@@ -589,24 +863,58 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
             }
 
             List<SqlVariable> variables = viewWithSource.getVariables();
+            long stageStart = queryMetrics.start();
             SqlEntity sqlEntity = sqlParseUtils.parseSql(viewWithSource.getSql(), variables, sqlTempDelimiter, user, isMaintainer);
+            queryMetrics.record(QueryMetrics.Stage.PARSE, stageStart);
+            if (isBindVariablesEnable(viewWithSource.getSource())) {
+                sqlEntity.setBindVariables(new BindVariables());
+            }
             Set<String> excludeColumns = new HashSet<>();
+            stageStart = queryMetrics.start();
             packageParams(isMaintainer, viewWithSource.getId(), sqlEntity, variables, executeParam.getParams(), excludeColumns, user);
+            queryMetrics.record(QueryMetrics.Stage.PARAMS, stageStart);
 
+            stageStart = queryMetrics.start();
             String srcSql = sqlParseUtils.replaceParams(sqlEntity.getSql(), sqlEntity.getQuaryParams(), sqlEntity.getAuthParams(), sqlTempDelimiter);
+            queryMetrics.record(QueryMetrics.Stage.REPLACE, stageStart);
 
             Source source = viewWithSource.getSource();
 
-            SqlUtils sqlUtils = this.sqlUtils.init(source);
+            // 未传查询参数时优先使用 extract，不可用时回退到数据源
+            if (CollectionUtils.isEmpty(executeParam.getParams()) && localComputeEngine.isSupported(executeParam)) {
+                ColumnarTable extract = extractStore.getTable(viewWithSource.getId(), getExtractSignature(viewWithSource));
+                if (null != extract) {
+                    paginate = computeLocally(extract, source, executeParam, excludeColumns);
+                    if (null != paginate) {
+                        return paginate;
+                    }
+                }
+            }
+
+            runningQuery = registerQuery(user, executeParam.getQueryKey(), executeParam.getQueryTimeout());
+            boolean resultCache = null != executeParam.getCache() && executeParam.getCache() && executeParam.getExpired() > 0L;
+            SqlUtils sqlUtils = this.sqlUtils.init(source)
+                    .withRunningQuery(runningQuery)
+                    .withCountCache(resultCache ? executeParam.getExpired() : 0L, Boolean.TRUE.equals(executeParam.getFlush()))
+                    .withEstimatedCount(executeParam.isEstimatedCount())
+                    .withBindVariables(sqlEntity.getBindVariables());
 
             List<String> executeSqlList = sqlParseUtils.getSqls(srcSql, false);
-            if (!CollectionUtils.isEmpty(executeSqlList)) {
-                executeSqlList.forEach(sqlUtils::execute);
-            }
+            sourceAccess = new SourceAccess(sqlUtils, executeSqlList);
 
             List<String> querySqlList = sqlParseUtils.getSqls(srcSql, true);
             if (!CollectionUtils.isEmpty(querySqlList)) {
-                buildQuerySql(querySqlList, source, executeParam);
+                // 小结果集的 view 在内存中聚合
+                if (querySqlList.size() == 1 && localComputeEngine.isEnabled() && localComputeEngine.isSupported(executeParam)) {
+                    paginate = localCompute(sourceAccess, source, querySqlList.get(0), executeSqlList, sqlEntity, executeParam, excludeColumns);
+                    if (null != paginate) {
+                        return paginate;
+                    }
+                }
+
+                stageStart = queryMetrics.start();
+                buildQuerySql(querySqlList, source, executeParam, sqlEntity.getBindVariables());
+                queryMetrics.record(QueryMetrics.Stage.RENDER, stageStart);
                 executeParam.addExcludeColumn(excludeColumns, source.getJdbcUrl(), source.getDbVersion());
 
                 if (null != executeParam.getCache() && executeParam.getCache() && executeParam.getExpired() > 0L) {
@@ -618,12 +926,18 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                     saltBuilder.append(MINUS);
                     saltBuilder.append(executeParam.getPageSize());
                     excludeColumns.forEach(saltBuilder::append);
+                    if (null != sqlEntity.getBindVariables()) {
+                        saltBuilder.append(sqlEntity.getBindVariables().getSignature());
+                    }
                     cacheKey = MD5Util.getMD5(saltBuilder.toString() + querySqlList.get(querySqlList.size() - 1), true,
                             32);
                     if (!executeParam.getFlush()) {
 
                         try {
+                            stageStart = queryMetrics.start();
                             Object object = redisUtils.get(cacheKey);
+                            queryMetrics.record(QueryMetrics.Stage.CACHE, stageStart);
+                            queryMetrics.recordCache(QueryMetrics.CACHE_RESULT, null != object);
                             if (null != object && executeParam.getCache()) {
                                 paginate = (PaginateWithQueryColumns) object;
                                 return paginate;
@@ -634,6 +948,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                     }
                 }
 
+                sourceAccess.open();
                 for (String sql : querySqlList) {
                     paginate = sqlUtils.syncQuery4Paginate(SqlParseUtils.rebuildSqlWithFragment(sql),
                             executeParam.getPageNo(), executeParam.getPageSize(), executeParam.getTotalCount(),
@@ -641,13 +956,27 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                 }
             }
 
+        } catch (ServiceUnavailableException e) {
+            throw e;
         } catch (Exception e) {
-            log.error(e.getMessage(), e);
-            throw new ServerException(e.getMessage());
+            if (null != runningQuery && runningQuery.isCancelled()) {
+                log.info("query({}) is cancelled: {}", runningQuery.getId(), runningQuery.getCancelReason());
+            } else {
+                log.error(e.getMessage(), e);
+            }
+            throw new ServerException(getQueryErrorMessage(runningQuery, e));
+        } finally {
+            if (null != sourceAccess) {
+                sourceAccess.close();
+            }
+            queryRegistry.complete(runningQuery);
+            metricsScope.close();
         }
 
+        // 溢写到磁盘的大结果不写入 redis
         if (null != executeParam.getCache() && executeParam.getCache() && executeParam.getExpired() > 0L
-                && null != paginate && !CollectionUtils.isEmpty(paginate.getResultList())) {
+                && null != paginate && !CollectionUtils.isEmpty(paginate.getResultList())
+                && !(paginate.getResultList() instanceof SpilledResultList)) {
             redisUtils.set(cacheKey, paginate, executeParam.getExpired(), TimeUnit.SECONDS);
         }
 
@@ -666,9 +995,83 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     }
 
 
+    /**
+     * 控件去重值搜索，字典按行权限缓存
+     *
+     * @param id
+     * @param param
+     * @param user
+     * @return
+     * @throws NotFoundException
+     * @throws ServerException
+     * @throws UnAuthorizedException
+     */
+    @Override
+    public DistinctPaginate searchDistinctValue(Long id, DistinctSearchParam param, User user) throws NotFoundException, ServerException, UnAuthorizedException {
+        ViewWithSource viewWithSource = getViewWithSource(id);
+        ProjectDetail projectDetail = projectService.getProjectDetail(viewWithSource.getProjectId(), user, false);
+        if (!projectService.allowGetData(projectDetail, user)) {
+            throw new UnAuthorizedException();
+        }
+        if (param.getColumns().size() != 1) {
+            throw new ServerException("only one column can be searched");
+        }
+
+        DistinctPaginate paginate = new DistinctPaginate();
+        if (StringUtils.isEmpty(viewWithSource.getSql())) {
+            return paginate;
+        }
+
+        boolean isMaintainer = projectService.isMaintainer(projectDetail, user);
+        String column = param.getColumns().get(0);
+
+        // 行权限与查询参数替换后的 sql 相同的用户共用字典
+        List<SqlVariable> variables = viewWithSource.getVariables();
+        SqlEntity sqlEntity = sqlParseUtils.parseSql(viewWithSource.getSql(), variables, sqlTempDelimiter, user, isMaintainer);
+        packageParams(isMaintainer, id, sqlEntity, variables, param.getParams(), null, user);
+        String scopeSql = sqlParseUtils.replaceParams(sqlEntity.getSql(), sqlEntity.getQuaryParams(), sqlEntity.getAuthParams(), sqlTempDelimiter);
+        String key = MD5Util.getMD5(viewWithSource.getSourceId() + MINUS + id + MINUS + column + MINUS
+                + JSON.toJSONString(param.getFilters()) + MINUS + scopeSql, true, 32);
+
+        DistinctParam loadParam = new DistinctParam();
+        BeanUtils.copyProperties(param, loadParam);
+        loadParam.setCache(false);
+        loadParam.setQueryKey(null);
+
+        int pageNo = Math.max(1, param.getPageNo());
+        int pageSize = param.getPageSize() < 1 ? 20 : Math.min(param.getPageSize(), distinctIndexCache.getMaxPageSize());
+        DistinctIndex.Result result = distinctIndexCache.search(key, limit -> {
+            List<Map<String, Object>> list = getDistinctValueData(isMaintainer, viewWithSource, loadParam, user, limit);
+            List<Object> values = new ArrayList<>(null == list ? 0 : list.size());
+            if (null != list) {
+                list.forEach(map -> values.add(map.isEmpty() ? null : map.values().iterator().next()));
+                BufferedResultList.release(list);
+            }
+            return values;
+        }, param.getKeyword(), param.isPrefix(), (pageNo - 1) * pageSize, pageSize);
+
+        paginate.setPageNo(pageNo);
+        paginate.setPageSize(pageSize);
+        paginate.setTotalCount(result.getTotal());
+        paginate.setTruncated(result.isTruncated());
+        result.getValues().forEach(value -> {
+            Map<String, Object> map = new HashMap<>();
+            map.put(column, value);
+            paginate.getResultList().add(map);
+        });
+        return paginate;
+    }
+
     @Override
     public List<Map<String, Object>> getDistinctValueData(boolean isMaintainer, ViewWithSource viewWithSource, DistinctParam param, User user) throws ServerException {
+        return getDistinctValueData(isMaintainer, viewWithSource, param, user, -1);
+    }
+
+    private List<Map<String, Object>> getDistinctValueData(boolean isMaintainer, ViewWithSource viewWithSource, DistinctParam param, User user, int limit) throws ServerException {
 
+        RunningQuery runningQuery = null;
+        SourceAccess sourceAccess = null;
+        QueryMetrics.Scope metricsScope = openMetricsScope(viewWithSource);
         try {
 
             if (StringUtils.isEmpty(viewWithSource.getSql())) {
@@ -677,18 +1080,20 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
             List<SqlVariable> variables = viewWithSource.getVariables();
             SqlEntity sqlEntity = sqlParseUtils.parseSql(viewWithSource.getSql(), variables, sqlTempDelimiter, user, isMaintainer);
+            if (isBindVariablesEnable(viewWithSource.getSource())) {
+                sqlEntity.setBindVariables(new BindVariables());
+            }
             packageParams(isMaintainer, viewWithSource.getId(), sqlEntity, variables, param.getParams(), null, user);
 
             String srcSql = sqlParseUtils.replaceParams(sqlEntity.getSql(), sqlEntity.getQuaryParams(), sqlEntity.getAuthParams(), sqlTempDelimiter);
 
             Source source = viewWithSource.getSource();
 
-            SqlUtils sqlUtils = this.sqlUtils.init(source);
-
-            List<String> executeSqlList = sqlParseUtils.getSqls(srcSql, false);
-            if (!CollectionUtils.isEmpty(executeSqlList)) {
-                executeSqlList.forEach(sqlUtils::execute);
-            }
+            runningQuery = registerQuery(user, param.getQueryKey(), param.getQueryTimeout());
+            SqlUtils sqlUtils = this.sqlUtils.init(source)
+                    .withRunningQuery(runningQuery)
+                    .withBindVariables(sqlEntity.getBindVariables());
+            sourceAccess = new SourceAccess(sqlUtils, sqlParseUtils.getSqls(srcSql, false));
 
             List<String> querySqlList = sqlParseUtils.getSqls(srcSql, true);
             if (!CollectionUtils.isEmpty(querySqlList)) {
@@ -697,7 +1102,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                     STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
                     ST st = stg.getInstanceOf("queryDistinctSql");
                     st.add("columns", param.getColumns());
-                    st.add("filters", convertFilters(param.getFilters(), source));
+                    st.add("filters", convertFilters(param.getFilters(), source, sqlEntity.getBindVariables()));
                     st.add("sql", querySqlList.get(querySqlList.size() - 1));
                     st.add("keywordPrefix", SqlUtils.getKeywordPrefix(source.getJdbcUrl(), source.getDbVersion()));
                     st.add("keywordSuffix", SqlUtils.getKeywordSuffix(source.getJdbcUrl(), source.getDbVersion()));
@@ -706,10 +1111,12 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                     querySqlList.set(querySqlList.size() - 1, sql);
 
                     if (null != param.getCache() && param.getCache() && param.getExpired().longValue() > 0L) {
-                        cacheKey = MD5Util.getMD5("DISTINCI" + sql, true, 32);
+                        cacheKey = MD5Util.getMD5("DISTINCI" + sql
+                                + (null == sqlEntity.getBindVariables() ? "" : sqlEntity.getBindVariables().getSignature()), true, 32);
 
                         try {
                             Object object = redisUtils.get(cacheKey);
+                            queryMetrics.recordCache(QueryMetrics.CACHE_RESULT, null != object);
                             if (null != object) {
                                 return (List) object;
                             }
@@ -719,8 +1126,9 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                     }
                 }
                 List<Map<String, Object>> list = null;
+                sourceAccess.open();
                 for (String sql : querySqlList) {
-                    list = sqlUtils.query4List(SqlParseUtils.rebuildSqlWithFragment(sql), -1);
+                    list = sqlUtils.query4List(SqlParseUtils.rebuildSqlWithFragment(sql), limit);
                 }
 
                 if (null != param.getCache() && param.getCache() && param.getExpired().longValue() > 0L) {
@@ -732,14 +1140,107 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                 }
             }
 
+        } catch (ServiceUnavailableException e) {
+            throw e;
         } catch (Exception e) {
-            log.error(e.getMessage(), e);
-            throw new ServerException(e.getMessage());
+            if (null != runningQuery && runningQuery.isCancelled()) {
+                log.info("query({}) is cancelled: {}", runningQuery.getId(), runningQuery.getCancelReason());
+            } else {
+                log.error(e.getMessage(), e);
+            }
+            throw new ServerException(getQueryErrorMessage(runningQuery, e));
+        } finally {
+            if (null != sourceAccess) {
+                sourceAccess.close();
+            }
+            queryRegistry.complete(runningQuery);
+            metricsScope.close();
         }
 
         return null;
     }
 
+    /**
+     * 基础结果按 sql 及参数缓存为列式表，在内存中执行分组、聚合、过滤与排序
+     *
+     * @return 超过行数阈值或查询参数不支持时返回 null，由数据源执行
+     */
+    private PaginateWithQueryColumns localCompute(SourceAccess sourceAccess,
+                                                  Source source,
+                                                  String querySql,
+                                                  List<String> executeSqlList,
+                                                  SqlEntity sqlEntity,
+                                                  ViewExecuteParam executeParam,
+                                                  Set<String> excludeColumns) throws Exception {
+
+        String baseSql = SqlParseUtils.rebuildSqlWithFragment(querySql);
+        StringBuilder keyBuilder = new StringBuilder();
+        keyBuilder.append(source.getId()).append(MINUS);
+        if (!CollectionUtils.isEmpty(executeSqlList)) {
+            executeSqlList.forEach(keyBuilder::append);
+        }
+        if (null != sqlEntity.getBindVariables()) {
+            keyBuilder.append(sqlEntity.getBindVariables().getSignature());
+        }
+        keyBuilder.append(baseSql);
+        String key = MD5Util.getMD5(keyBuilder.toString(), true, 32);
+
+        ColumnarTable table = localComputeEngine.getTable(key, limit -> sourceAccess.open().syncQuery4Paginate(baseSql, null, null, null, limit, null));
+        if (null == table) {
+            return null;
+        }
+        return computeLocally(table, source, executeParam, excludeColumns);
+    }
+
+    /**
+     * 在列式表上执行 widget 查询
+     *
+     * @return 查询参数不支持时返回 null，由数据源执行
+     */
+    private PaginateWithQueryColumns computeLocally(ColumnarTable table,
+                                                    Source source,
+                                                    ViewExecuteParam executeParam,
+                                                    Set<String> excludeColumns) {
+
+        List<SqlFilter> filters = new ArrayList<>();
+        if (!CollectionUtils.isEmpty(executeParam.getFilters())) {
+            executeParam.getFilters().forEach(str -> filters.add(JSON.parseObject(str, SqlFilter.class)));
+        }
+        executeParam.addExcludeColumn(excludeColumns, source.getJdbcUrl(), source.getDbVersion());
+        try {
+            return localComputeEngine.execute(table, executeParam, filters, excludeColumns,
+                    SqlUtils.getKeywordPrefix(source.getJdbcUrl(), source.getDbVersion()),
+                    SqlUtils.getKeywordSuffix(source.getJdbcUrl(), source.getDbVersion()),
+                    SqlUtils.isBinaryStringComparison(source.getJdbcUrl(), source.getDbVersion()));
+        } catch (LocalComputeUnsupportedException e) {
+            log.debug("local compute is not supported: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isBindVariablesEnable(Source source) {
+        return bindVariablesEnable && null != source && SqlUtils.isBindVariablesSupported(source.getJdbcUrl(), source.getDbVersion());
+    }
+
+    private QueryMetrics.Scope openMetricsScope(ViewWithSource viewWithSource) {
+        Source source = viewWithSource.getSource();
+        return queryMetrics.scope(null == source ? null : source.getDatabase(), viewWithSource.getId());
+    }
+
+    private RunningQuery registerQuery(User user, String queryKey, Integer queryTimeout) {
+        if (null == user) {
+            return queryRegistry.register(null, null, null, queryTimeout);
+        }
+        return queryRegistry.register(user.getId(), user.getUsername(), queryKey, queryTimeout);
+    }
+
+    private String getQueryErrorMessage(RunningQuery runningQuery, Exception e) {
+        if (null != runningQuery && runningQuery.isCancelled()) {
+            return "query is cancelled: " + runningQuery.getCancelReason();
+        }
+        return e.getMessage();
+    }
+
     public void packageParams(boolean isProjectMaintainer, Long viewId, SqlEntity sqlEntity, List<SqlVariable> variables, List<Param> paramList, Set<String> excludeColumns, User user) {
 
         List<SqlVariable> queryVariables = getQueryVariables(variables);
@@ -773,11 +1274,22 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                 });
             }
 
+            Map<String, SqlVariable> variableMap = new HashMap<>();
+            queryVariables.forEach(v -> variableMap.put(v.getName().trim(), v));
+            BindVariables bindVariables = sqlEntity.getBindVariables();
             sqlEntity.getQuaryParams().forEach((k, v) -> {
+                Object literal = v;
                 if (v instanceof List && ((List) v).size() > 0) {
-                    v = ((List) v).stream().collect(Collectors.joining(COMMA)).toString();
+                    literal = ((List) v).stream().collect(Collectors.joining(COMMA)).toString();
+                }
+                // 绑定变量模式下 string/date/number 参数使用占位符
+                SqlVariable variable = variableMap.get(k);
+                Object bindValue = null == bindVariables || null == variable ? null
+                        : SqlVariableValueTypeEnum.getBindValue(variable.getValueType(), v, variable.isUdf());
+                if (null != bindValue) {
+                    literal = bindVariables.bind(BindVariables.QUERY_PREFIX, bindValue, String.valueOf(literal));
                 }
-                sqlEntity.getQuaryParams().put(k, v);
+                sqlEntity.getQuaryParams().put(k, literal);
             });
         }
 
@@ -1006,5 +1518,53 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 			}
         });
     }
+    /**
+     * 首次访问数据源时才申请执行名额并执行前置语句，命中缓存的查询不占用名额
+     */
+    private static final class SourceAccess implements AutoCloseable {
+
+        private final SqlUtils sqlUtils;
+
+        private final List<String> executeSqlList;
+
+        private WorkloadManager.Admission admission;
+
+        private QuerySession querySession;
+
+        private SourceAccess(SqlUtils sqlUtils, List<String> executeSqlList) {
+            this.sqlUtils = sqlUtils;
+            this.executeSqlList = executeSqlList;
+        }
+
+        /**
+         * 申请名额，前置语句与查询在同一连接上执行
+         *
+         * @return
+         * @throws ServiceUnavailableException 等待名额超时
+         * @throws SourceException
+         * @throws ServerException
+         */
+        private SqlUtils open() throws ServiceUnavailableException, SourceException, ServerException {
+            if (null != admission) {
+                return sqlUtils;
+            }
+            admission = sqlUtils.admit(WorkloadClass.INTERACTIVE);
+            if (!CollectionUtils.isEmpty(executeSqlList)) {
+                querySession = sqlUtils.openSession();
+                sqlUtils.execute(executeSqlList);
+            }
+            return sqlUtils;
+        }
+
+        @Override
+        public void close() {
+            if (null != querySession) {
+                querySession.close();
+            }
+            if (null != admission) {
+                admission.close();
+            }
+        }
+    }
 }
 
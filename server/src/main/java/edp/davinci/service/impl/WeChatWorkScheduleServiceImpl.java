@@ -19,7 +19,6 @@ import org.springframework.web.client.RestTemplate;
 
 import edp.core.common.quartz.ScheduleService;
 import edp.core.utils.CollectionUtils;
-import edp.core.utils.FileUtils;
 import edp.core.utils.MD5Util;
 import edp.davinci.core.enums.CronJobMediaType;
 import edp.davinci.dao.CronJobMapper;
@@ -28,6 +27,7 @@ import edp.davinci.dto.cronJobDto.CronJobConfig;
 import edp.davinci.model.CronJob;
 import edp.davinci.model.User;
 import edp.davinci.service.screenshot.ImageContent;
+import edp.davinci.service.screenshot.ImagePipeline;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -43,6 +43,9 @@ public class WeChatWorkScheduleServiceImpl extends BaseScheduleService implement
     @Autowired
     private RestTemplate restTemplate;
 
+    @Autowired
+    private ImagePipeline imagePipeline;
+
     @Override
     public void execute(long jobId) throws Exception {
         CronJob cronJob = cronJobMapper.getById(jobId);
@@ -78,6 +81,9 @@ public class WeChatWorkScheduleServiceImpl extends BaseScheduleService implement
             return;
         }
 
+        // 企业微信图片不能超过2M
+        imagePipeline.process(jobId, images, imagePipeline.weChatWorkBudget());
+
         String url = cronJobConfig.getWebHookUrl();
 
         for (ImageContent imageContent : images) {
@@ -85,18 +91,8 @@ public class WeChatWorkScheduleServiceImpl extends BaseScheduleService implement
                 log.error("CronJob({}) image is null !", cronJob.getId());
                 return;
             }
-            File imageContentFile = imageContent.getImageFile();
-            // 将大于2M的图片进行压缩
-            if (imageContentFile.length() > (2 * 1024 * 1024)) {
-                scheduleLogger.info("image size must be less than 2M, the size is {} !", imageContentFile.length());
-
-                scheduleLogger.info("image start to compressed!", imageContentFile.getPath());
-                File file = FileUtils.compressedImage(imageContent.getImageFile().getPath());
-
-                scheduleLogger.info("image compressed successfully! the size is: {}.", file.length());
-                imageContent.setImageFile(file);
-
-                scheduleLogger.info("the original image has been replaced with a new image(path: {})!", imageContentFile.getPath());
+            if (imageContent.getImageFile().length() > ImagePipeline.WECHAT_WORK_MAX_BYTES) {
+                scheduleLogger.warn("CronJob({}) image size must be less than 2M, the size is {} !", jobId, imageContent.getImageFile().length());
             }
             
             scheduleLogger.info("CronJob({}) is ready to request WeChatWork API", cronJob.getId());
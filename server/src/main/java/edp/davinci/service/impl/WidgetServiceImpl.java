@@ -20,6 +20,7 @@
 package edp.davinci.service.impl;
 
 import com.alibaba.druid.util.StringUtils;
+import edp.core.common.jdbc.buffer.BufferedResultList;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedException;
@@ -397,6 +398,7 @@ public class WidgetServiceImpl extends BaseEntityService implements WidgetServic
 
                     filePath = CsvUtils.formatCsvWithFirstAsHeader(rootPath, csvName, columns, paginate.getResultList());
                 }
+                BufferedResultList.release(paginate.getResultList());
             } else if (type.equals(FileTypeEnum.XLSX.getType())) {
 
                 String excelName = widget.getName() + "_" +
@@ -476,6 +478,7 @@ public class WidgetServiceImpl extends BaseEntityService implements WidgetServic
                     sheet = wb.createSheet(sheetName);
                     ExcelUtils.writeSheet(sheet, paginate.getColumns(), paginate.getResultList(), wb, containType,
                             widget.getConfig(), executeParam.getParams());
+                    BufferedResultList.release(paginate.getResultList());
                 } catch (Exception e) {
                     log.error(e.getMessage(), e);
                 } finally {
@@ -10,12 +10,13 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 @Configuration
 @Slf4j
 public class KafkaConfigration {
 
-    protected Producer<String, String> producer;
+    protected volatile Producer<String, String> producer;
 
     private String servers;
 
@@ -46,16 +47,42 @@ public class KafkaConfigration {
         initProducer();
     }
 
-    public void initProducer(){
+    /**
+     * 创建全局唯一的producer，producer本身线程安全且自带重连，发送失败时不再重建
+     */
+    public synchronized void initProducer(){
         if(producer != null){
-            this.producer.flush();
-            this.producer.close();
+            return;
         }
 
-        KafkaProperties producerProps = KafkaProperties.initProducer();
-        producerProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, servers);
+        KafkaProperties producerProps = KafkaProperties.initProducer()
+                .put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, servers)
+                .put(ProducerConfig.LINGER_MS_CONFIG, environment.getProperty("statistic.kafka.linger.ms", "20"))
+                .put(ProducerConfig.BATCH_SIZE_CONFIG, environment.getProperty("statistic.kafka.batch.size", "65536"))
+                .put(ProducerConfig.COMPRESSION_TYPE_CONFIG, environment.getProperty("statistic.kafka.compression.type", "lz4"))
+                .put(ProducerConfig.RETRIES_CONFIG, environment.getProperty("statistic.kafka.retries", "3"))
+                .put(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, environment.getProperty("statistic.kafka.delivery.timeout.ms", "120000"))
+                .put(ProducerConfig.MAX_BLOCK_MS_CONFIG, environment.getProperty("statistic.kafka.max.block.ms", "5000"));
 
         producer = new KafkaProducer<>(producerProps.getProperties());
     }
 
+    /**
+     * 替换producer，便于使用MockProducer等替身进行测试
+     *
+     * @param producer
+     */
+    public synchronized void setProducer(Producer<String, String> producer) {
+        this.producer = producer;
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        if (producer != null) {
+            producer.flush();
+            producer.close();
+            producer = null;
+        }
+    }
+
 }
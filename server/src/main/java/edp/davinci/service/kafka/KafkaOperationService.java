@@ -1,42 +1,114 @@
 package edp.davinci.service.kafka;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
 @Component
 @Slf4j
 public class KafkaOperationService extends KafkaConfigration {
 
+    /**
+     * 发送到投递回调的耗时，按 result(success/error) 区分
+     */
+    public static final String SEND_TIMER = "davinci.statistic.kafka.send";
+
+    /**
+     * 发送失败次数，按 stage 区分：discard(producer 未初始化)、send(同步异常)、delivery(回调失败)
+     */
+    public static final String ERROR_COUNTER = "davinci.statistic.kafka.errors";
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private final LongAdder sendCount = new LongAdder();
+
+    private final LongAdder successCount = new LongAdder();
+
+    private final LongAdder errorCount = new LongAdder();
+
+    /**
+     * 异步发送，调用线程只负责将消息放入producer缓冲区，投递结果在回调中处理
+     * 重试由producer按retries/delivery.timeout.ms有限次执行，不在回调线程中补发
+     *
+     * @param topic
+     * @param msg
+     */
     public void send(String topic, String msg) {
+        Producer<String, String> producer = this.producer;
+        if (producer == null) {
+            log.error("Producer of kafka is null, discard msg. topic = {}, msg = {} ", topic, msg);
+            recordError("discard");
+            return;
+        }
+        doSend(producer, new ProducerRecord<>(topic, msg));
+    }
+
+    private void doSend(Producer<String, String> producer, ProducerRecord<String, String> record) {
+        sendCount.increment();
+        long start = System.nanoTime();
         try {
-            doSend(topic, msg);
-
-        }catch (Exception e){
-            log.error("Send msg to kafka error . topic = {}, msg = {} ", topic, msg, e);
-            super.initProducer();
-
-            //重试
-            for(int i=1; i<=2; i++){
-                log.info("Send msg to kafka retry {} time . topic = {}, msg = {} ", i, topic, msg);
-                try {
-                    doSend(topic, msg);
-                    break;
-                }catch (Exception ex){
-                    log.error("Send msg to kafka retry {} time . topic = {}, msg = {} ", i, topic, msg, ex);
-                }finally {
-                    super.initProducer();
-                }
-            }
+            producer.send(record, new DeliveryCallback(record, start));
+        } catch (Exception e) {
+            // 缓冲区已满(max.block.ms)或序列化失败等同步异常
+            recordError("send");
+            log.error("Send msg to kafka error. topic = {}, msg = {} ", record.topic(), record.value(), e);
         }
     }
 
-    private void doSend(String topic, String msg){
-        if(this.producer == null){
-            throw new RuntimeException("Producer of kafka is null .");
-        }else{
-            this.producer.send(new ProducerRecord<>(topic, msg));
+    public long getSendCount() {
+        return sendCount.sum();
+    }
+
+    public long getSuccessCount() {
+        return successCount.sum();
+    }
+
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    private void recordError(String stage) {
+        errorCount.increment();
+        if (null != meterRegistry) {
+            meterRegistry.counter(ERROR_COUNTER, "stage", stage).increment();
         }
     }
 
+    private class DeliveryCallback implements Callback {
+
+        private final ProducerRecord<String, String> record;
+
+        private final long start;
+
+        DeliveryCallback(ProducerRecord<String, String> record, long start) {
+            this.record = record;
+            this.start = start;
+        }
+
+        @Override
+        public void onCompletion(RecordMetadata metadata, Exception exception) {
+            long latency = System.nanoTime() - start;
+            if (null != meterRegistry) {
+                meterRegistry.timer(SEND_TIMER, "result", exception == null ? "success" : "error")
+                        .record(latency, TimeUnit.NANOSECONDS);
+            }
+
+            if (exception == null) {
+                successCount.increment();
+                return;
+            }
+
+            recordError("delivery");
+            log.error("Send msg to kafka error. topic = {}, msg = {} ", record.topic(), record.value(), exception);
+        }
+    }
 }
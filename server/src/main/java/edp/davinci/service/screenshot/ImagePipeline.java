@@ -0,0 +1,672 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+
+package edp.davinci.service.screenshot;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.utils.CollectionUtils;
+import edp.davinci.core.enums.LogNameEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 截图压缩
+ * <p>
+ * 截图先按 screenshot.image.max_width/max_height 等比缩小，未缩小且不超过单张上限的原图直接使用；
+ * 否则先尝试无损 png（颜色不超过 256 种时为调色板 png），仍超出且允许有损时再量化为 png_colors 色的 png、
+ * 改用 jpeg 并逐步降低质量，仍超出则继续缩小。
+ * 一个任务的图片并行处理，总大小超出预算时按各自大小分摊预算重新压缩，原图在压缩后删除
+ */
+@Component
+public class ImagePipeline {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    /**
+     * 企业微信图片消息大小上限
+     */
+    public static final long WECHAT_WORK_MAX_BYTES = 2L * 1024 * 1024;
+
+    private static final long MIN_IMAGE_BYTES = 64L * 1024;
+
+    private static final int MAX_BUDGET_PASSES = 3;
+
+    private static final int MAX_SCALE_STEPS = 6;
+
+    private static final float QUALITY_STEP = 0.1F;
+
+    private static final String PNG = "png";
+
+    private static final String JPEG = "jpg";
+
+    @Value("${screenshot.image.enable:true}")
+    private boolean enable;
+
+    @Value("${screenshot.image.concurrency:2}")
+    private int concurrency;
+
+    @Value("${screenshot.image.max_width:2048}")
+    private int maxWidth;
+
+    @Value("${screenshot.image.max_height:8192}")
+    private int maxHeight;
+
+    @Value("${screenshot.image.png_colors:256}")
+    private int pngColors;
+
+    @Value("${screenshot.image.jpeg_quality:0.85}")
+    private float jpegQuality;
+
+    @Value("${screenshot.image.min_jpeg_quality:0.5}")
+    private float minJpegQuality;
+
+    @Value("${screenshot.image.mail.lossy:true}")
+    private boolean mailLossy;
+
+    @Value("${screenshot.image.mail.max_image_kb:1024}")
+    private long mailMaxImageKb;
+
+    @Value("${screenshot.image.mail.max_total_mb:10}")
+    private long mailMaxTotalMb;
+
+    private ExecutorService executorService;
+
+    private final AtomicLong images = new AtomicLong();
+
+    private final AtomicLong originalBytes = new AtomicLong();
+
+    private final AtomicLong processedBytes = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        executorService = Executors.newFixedThreadPool(Math.max(1, concurrency),
+                new ThreadFactoryBuilder().setNameFormat("Image-worker-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    public long getImages() {
+        return images.get();
+    }
+
+    public long getOriginalBytes() {
+        return originalBytes.get();
+    }
+
+    public long getProcessedBytes() {
+        return processedBytes.get();
+    }
+
+    /**
+     * 邮件图片预算
+     *
+     * @param reservedBytes 邮件中其他附件的大小
+     * @return
+     */
+    public Budget mailBudget(long reservedBytes) {
+        long total = mailMaxTotalMb * 1024 * 1024;
+        return new Budget(mailMaxImageKb * 1024, total > 0 ? Math.max(MIN_IMAGE_BYTES, total - reservedBytes) : 0L, mailLossy);
+    }
+
+    public Budget weChatWorkBudget() {
+        return new Budget(WECHAT_WORK_MAX_BYTES, 0L, true);
+    }
+
+    /**
+     * 压缩任务的截图，替换 ImageContent 中的文件
+     *
+     * @param jobId
+     * @param imageContents 截图失败（无文件）的跳过
+     * @param budget
+     * @return 压缩前后的总大小
+     */
+    public Summary process(long jobId, List<ImageContent> imageContents, Budget budget) {
+        List<ImageContent> contents = new ArrayList<>();
+        if (!CollectionUtils.isEmpty(imageContents)) {
+            for (ImageContent content : imageContents) {
+                if (null != content && null != content.getImageFile() && content.getImageFile().exists()) {
+                    contents.add(content);
+                }
+            }
+        }
+        long start = System.currentTimeMillis();
+        int count = contents.size();
+        long before = contents.stream().mapToLong(c -> c.getImageFile().length()).sum();
+        if (!enable || count == 0) {
+            return new Summary(count, before, before, 0L);
+        }
+
+        long[] limits = new long[count];
+        Arrays.fill(limits, budget.maxImageBytes);
+        Encoded[] results = new Encoded[count];
+        for (int pass = 0; pass < MAX_BUDGET_PASSES; pass++) {
+            encodeAll(jobId, contents, limits, budget.lossy, results);
+            long total = Arrays.stream(results).mapToLong(Encoded::length).sum();
+            if (budget.maxTotalBytes <= 0L || total <= budget.maxTotalBytes) {
+                break;
+            }
+            // 超出总预算的按各自大小分摊
+            boolean retry = false;
+            for (int i = 0; i < count; i++) {
+                long share = Math.max(MIN_IMAGE_BYTES, budget.maxTotalBytes * results[i].length() / total);
+                if (results[i].length() > share && pass < MAX_BUDGET_PASSES - 1) {
+                    limits[i] = share;
+                    results[i] = null;
+                    retry = true;
+                }
+            }
+            if (!retry) {
+                scheduleLogger.warn("Cronjob({}) images size {} exceeds budget {}", jobId, total, budget.maxTotalBytes);
+                break;
+            }
+        }
+
+        long after = 0L;
+        for (int i = 0; i < count; i++) {
+            ImageContent content = contents.get(i);
+            try {
+                content.setImageFile(write(content.getImageFile(), results[i]));
+            } catch (IOException e) {
+                scheduleLogger.error("Cronjob({}) write compressed image({}) error: {}", jobId, content.getImageFile().getName(), e.getMessage());
+            }
+            after += content.getImageFile().length();
+        }
+
+        Summary summary = new Summary(count, before, after, System.currentTimeMillis() - start);
+        images.addAndGet(count);
+        originalBytes.addAndGet(before);
+        processedBytes.addAndGet(after);
+        scheduleLogger.info("Cronjob({}) images compressed: {}", jobId, summary);
+        return summary;
+    }
+
+    private void encodeAll(long jobId, List<ImageContent> contents, long[] limits, boolean lossy, Encoded[] results) {
+        List<Future<Encoded>> futures = new ArrayList<>(contents.size());
+        for (int i = 0; i < contents.size(); i++) {
+            File file = contents.get(i).getImageFile();
+            long limit = limits[i];
+            futures.add(null != results[i] ? null : executorService.submit(() -> encode(file, limit, lossy)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            if (null == futures.get(i)) {
+                continue;
+            }
+            File file = contents.get(i).getImageFile();
+            try {
+                results[i] = futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results[i] = Encoded.original(file);
+            } catch (Exception e) {
+                scheduleLogger.error("Cronjob({}) compress image({}) error: {}", jobId, file.getName(), e.getMessage());
+                results[i] = Encoded.original(file);
+            }
+        }
+    }
+
+    /**
+     * 压缩单张图片，limit 不大于 0 时不限制大小
+     */
+    Encoded encode(File file, long limit, boolean lossy) throws IOException {
+        BufferedImage source = ImageIO.read(file);
+        if (null == source) {
+            return Encoded.original(file);
+        }
+        BufferedImage image = fit(toRgb(source));
+        boolean resized = image.getWidth() != source.getWidth() || image.getHeight() != source.getHeight();
+        Encoded best = resized ? null : Encoded.original(file);
+        if (null != best && fits(best, limit)) {
+            return best;
+        }
+
+        for (int step = 0; ; step++) {
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            byte[] indices = new byte[pixels.length];
+            // 颜色不超过 256 种时调色板无损，否则为真彩色 png
+            int[] palette = exactPalette(pixels, indices);
+            best = smaller(best, encodePng(image, palette, indices));
+            if (fits(best, limit)) {
+                return best;
+            }
+            if (lossy) {
+                if (null == palette && pngColors > 0) {
+                    best = smaller(best, encodePng(image, quantize(pixels, indices, Math.min(256, pngColors)), indices));
+                    if (fits(best, limit)) {
+                        return best;
+                    }
+                }
+                for (float quality = jpegQuality; quality >= minJpegQuality - 0.001F; quality -= QUALITY_STEP) {
+                    best = smaller(best, encodeJpeg(image, quality));
+                    if (fits(best, limit)) {
+                        return best;
+                    }
+                    // 降低质量难以减小一半以上，直接缩小
+                    if (best.length() > limit * 2) {
+                        break;
+                    }
+                }
+            }
+            if (step >= MAX_SCALE_STEPS) {
+                return best;
+            }
+            double scale = Math.min(0.9D, Math.max(0.5D, Math.sqrt((double) limit / best.length()) * 0.95D));
+            image = scale(image, Math.max(1, (int) (image.getWidth() * scale)), Math.max(1, (int) (image.getHeight() * scale)));
+        }
+    }
+
+    private static boolean fits(Encoded encoded, long limit) {
+        return limit <= 0L || encoded.length() <= limit;
+    }
+
+    private static Encoded smaller(Encoded a, Encoded b) {
+        return null == a || b.length() < a.length() ? b : a;
+    }
+
+    private static File write(File original, Encoded encoded) throws IOException {
+        if (null == encoded.data) {
+            return original;
+        }
+        String name = original.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        File target = new File(original.getParentFile(), baseName + "_" + encoded.width + "x" + encoded.height + "." + encoded.format);
+        Files.write(target.toPath(), encoded.data);
+        if (!original.delete()) {
+            original.deleteOnExit();
+        }
+        return target;
+    }
+
+    private static BufferedImage toRgb(BufferedImage source) {
+        if (source.getType() == BufferedImage.TYPE_INT_RGB) {
+            return source;
+        }
+        BufferedImage image = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            // 透明部分按白色背景
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+            graphics.drawImage(source, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    private BufferedImage fit(BufferedImage image) {
+        double scale = 1D;
+        if (maxWidth > 0 && image.getWidth() > maxWidth) {
+            scale = (double) maxWidth / image.getWidth();
+        }
+        if (maxHeight > 0 && image.getHeight() * scale > maxHeight) {
+            scale = (double) maxHeight / image.getHeight();
+        }
+        if (scale >= 1D) {
+            return image;
+        }
+        return scale(image, Math.max(1, (int) (image.getWidth() * scale)), Math.max(1, (int) (image.getHeight() * scale)));
+    }
+
+    /**
+     * 逐次减半后再缩放到目标大小，避免一次缩小过多时双线性插值丢失细节
+     */
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        return current.getWidth() == width && current.getHeight() == height ? current : draw(current, width, height);
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * palette 为 null 时输出真彩色 png
+     */
+    private static Encoded encodePng(BufferedImage image, int[] palette, byte[] indices) throws IOException {
+        BufferedImage output = image;
+        if (null != palette) {
+            byte[] r = new byte[palette.length];
+            byte[] g = new byte[palette.length];
+            byte[] b = new byte[palette.length];
+            for (int i = 0; i < palette.length; i++) {
+                r[i] = (byte) (palette[i] >> 16);
+                g[i] = (byte) (palette[i] >> 8);
+                b[i] = (byte) palette[i];
+            }
+            output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_INDEXED,
+                    new IndexColorModel(8, palette.length, r, g, b));
+            byte[] data = ((DataBufferByte) output.getRaster().getDataBuffer()).getData();
+            System.arraycopy(indices, 0, data, 0, indices.length);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(output, PNG, out);
+        return new Encoded(out.toByteArray(), PNG, image.getWidth(), image.getHeight());
+    }
+
+    private static Encoded encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return new Encoded(out.toByteArray(), JPEG, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * 颜色不超过 256 种时返回调色板并填充各像素的下标，否则返回 null
+     */
+    static int[] exactPalette(int[] pixels, byte[] indices) {
+        // 开放寻址，容量为 256 的 4 倍
+        int mask = 1023;
+        int[] keys = new int[mask + 1];
+        byte[] values = new byte[mask + 1];
+        Arrays.fill(keys, -1);
+        int[] palette = new int[256];
+        int size = 0;
+        int last = -1;
+        byte lastIndex = 0;
+        for (int p = 0; p < pixels.length; p++) {
+            int rgb = pixels[p] & 0xFFFFFF;
+            if (rgb != last) {
+                int slot = (rgb * 0x9E3779B1) >>> 22;
+                while (keys[slot] != -1 && keys[slot] != rgb) {
+                    slot = (slot + 1) & mask;
+                }
+                if (keys[slot] == -1) {
+                    if (size == 256) {
+                        return null;
+                    }
+                    keys[slot] = rgb;
+                    values[slot] = (byte) size;
+                    palette[size++] = rgb;
+                }
+                last = rgb;
+                lastIndex = values[slot];
+            }
+            indices[p] = lastIndex;
+        }
+        return Arrays.copyOf(palette, size);
+    }
+
+    /**
+     * 中位切分量化：按每通道 5 位统计直方图，反复沿跨度最大的通道切分像素最多的颜色盒
+     */
+    static int[] quantize(int[] pixels, byte[] indices, int colors) {
+        int[] histogram = new int[1 << 15];
+        long[] sums = new long[3 << 15];
+        for (int pixel : pixels) {
+            int bin = bin(pixel);
+            histogram[bin]++;
+            sums[bin * 3] += (pixel >> 16) & 0xFF;
+            sums[bin * 3 + 1] += (pixel >> 8) & 0xFF;
+            sums[bin * 3 + 2] += pixel & 0xFF;
+        }
+        int used = 0;
+        for (int count : histogram) {
+            if (count > 0) {
+                used++;
+            }
+        }
+        int[] bins = new int[used];
+        for (int bin = 0, i = 0; bin < histogram.length; bin++) {
+            if (histogram[bin] > 0) {
+                bins[i++] = bin;
+            }
+        }
+
+        List<int[]> boxes = new ArrayList<>();
+        boxes.add(bins);
+        while (boxes.size() < colors) {
+            int target = -1;
+            long targetScore = 0L;
+            for (int i = 0; i < boxes.size(); i++) {
+                int[] box = boxes.get(i);
+                if (box.length < 2) {
+                    continue;
+                }
+                long score = (long) count(box, histogram) * (range(box)[1] + 1);
+                if (score > targetScore) {
+                    targetScore = score;
+                    target = i;
+                }
+            }
+            if (target < 0) {
+                break;
+            }
+            int[] box = boxes.get(target);
+            int[][] halves = split(box, histogram, range(box)[0]);
+            boxes.set(target, halves[0]);
+            boxes.add(halves[1]);
+        }
+
+        int[] palette = new int[boxes.size()];
+        byte[] lookup = new byte[1 << 15];
+        for (int i = 0; i < boxes.size(); i++) {
+            long r = 0L, g = 0L, b = 0L, n = 0L;
+            for (int bin : boxes.get(i)) {
+                r += sums[bin * 3];
+                g += sums[bin * 3 + 1];
+                b += sums[bin * 3 + 2];
+                n += histogram[bin];
+                lookup[bin] = (byte) i;
+            }
+            palette[i] = (int) (r / n) << 16 | (int) (g / n) << 8 | (int) (b / n);
+        }
+        for (int p = 0; p < pixels.length; p++) {
+            indices[p] = lookup[bin(pixels[p])];
+        }
+        return palette;
+    }
+
+    private static int bin(int pixel) {
+        return ((pixel >> 19) & 0x1F) << 10 | ((pixel >> 11) & 0x1F) << 5 | ((pixel >> 3) & 0x1F);
+    }
+
+    private static int component(int bin, int channel) {
+        return (bin >> (10 - channel * 5)) & 0x1F;
+    }
+
+    private static int count(int[] box, int[] histogram) {
+        int count = 0;
+        for (int bin : box) {
+            count += histogram[bin];
+        }
+        return count;
+    }
+
+    /**
+     * @return {跨度最大的通道, 跨度}
+     */
+    private static int[] range(int[] box) {
+        int[] result = {0, -1};
+        for (int channel = 0; channel < 3; channel++) {
+            int min = 31, max = 0;
+            for (int bin : box) {
+                int value = component(bin, channel);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > result[1]) {
+                result[0] = channel;
+                result[1] = max - min;
+            }
+        }
+        return result;
+    }
+
+    private static int[][] split(int[] box, int[] histogram, int channel) {
+        int[] sorted = new int[box.length];
+        for (int i = 0; i < box.length; i++) {
+            sorted[i] = component(box[i], channel) << 15 | box[i];
+        }
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] &= 0x7FFF;
+        }
+        int half = count(sorted, histogram) / 2;
+        int at = 1;
+        for (int acc = histogram[sorted[0]]; at < sorted.length - 1 && acc + histogram[sorted[at]] <= half; at++) {
+            acc += histogram[sorted[at]];
+        }
+        return new int[][]{Arrays.copyOfRange(sorted, 0, at), Arrays.copyOfRange(sorted, at, sorted.length)};
+    }
+
+    /**
+     * 图片预算，大小为 0 表示不限制
+     */
+    public static final class Budget {
+
+        private final long maxImageBytes;
+
+        private final long maxTotalBytes;
+
+        private final boolean lossy;
+
+        public Budget(long maxImageBytes, long maxTotalBytes, boolean lossy) {
+            this.maxImageBytes = maxImageBytes;
+            this.maxTotalBytes = maxTotalBytes;
+            this.lossy = lossy;
+        }
+    }
+
+    public static final class Summary {
+
+        private final int count;
+
+        private final long originalBytes;
+
+        private final long bytes;
+
+        private final long millis;
+
+        private Summary(int count, long originalBytes, long bytes, long millis) {
+            this.count = count;
+            this.originalBytes = originalBytes;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getOriginalBytes() {
+            return originalBytes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return count + " images, " + originalBytes + " -> " + bytes + " bytes, cost " + millis + " ms";
+        }
+    }
+
+    static final class Encoded {
+
+        private final byte[] data;
+
+        private final File original;
+
+        private final String format;
+
+        private final int width;
+
+        private final int height;
+
+        private Encoded(byte[] data, String format, int width, int height) {
+            this.data = data;
+            this.original = null;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+        }
+
+        private Encoded(File original) {
+            this.data = null;
+            this.original = original;
+            this.format = null;
+            this.width = 0;
+            this.height = 0;
+        }
+
+        static Encoded original(File file) {
+            return new Encoded(file);
+        }
+
+        long length() {
+            return null != data ? data.length : original.length();
+        }
+    }
+}
@@ -20,6 +20,7 @@
 package edp.davinci.service.screenshot;
 
 import com.alibaba.druid.util.StringUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import edp.core.consts.Consts;
 import edp.core.utils.DateUtils;
 import edp.core.utils.FileUtils;
@@ -46,6 +47,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -78,33 +81,92 @@ public class ScreenshotUtil {
     @Value("${screenshot.timeout_second:600}")
     private int timeOutSecond;
 
+    @Value("${screenshot.pool.max_size:8}")
+    private int poolMaxSize;
+
+    @Value("${screenshot.pool.max_pages_per_driver:50}")
+    private int maxPagesPerDriver;
+
+    @Value("${screenshot.pool.borrow_timeout_second:600}")
+    private int borrowTimeOutSecond;
+
+    @Value("${screenshot.max_concurrency_per_job:4}")
+    private int maxConcurrencyPerJob;
+
     private static final int DEFAULT_SCREENSHOT_WIDTH = 1920;
     private static final int DEFAULT_SCREENSHOT_HEIGHT = 1080;
 
-    private static final ExecutorService executorService = Executors.newFixedThreadPool(8);
+    /**
+     * 调整窗口后等待旧的渲染标记失效的最长时间，页面未重新渲染时不再等待
+     */
+    private static final int RERENDER_TIMEOUT_SECOND = 10;
+
+    private ExecutorService executorService;
+
+    private WebDriverPool webDriverPool;
 
     @Autowired
     private FileUtils fileUtils;
 
+    @PostConstruct
+    public void init() {
+        executorService = Executors.newFixedThreadPool(Math.max(1, poolMaxSize),
+                new ThreadFactoryBuilder().setNameFormat("Screenshot-worker-%d").setDaemon(true).build());
+        webDriverPool = new WebDriverPool(this::generateWebDriver, poolMaxSize, maxPagesPerDriver);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executorService.shutdownNow();
+        webDriverPool.close();
+    }
+
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    public WebDriverPool getWebDriverPool() {
+        return webDriverPool;
+    }
+
+    /**
+     * 替换浏览器会话的创建方式，便于测试时使用桩WebDriver
+     *
+     * @param factory
+     */
+    public void setWebDriverFactory(WebDriverFactory factory) {
+        WebDriverPool old = this.webDriverPool;
+        this.webDriverPool = new WebDriverPool(factory, poolMaxSize, maxPagesPerDriver);
+        if (old != null) {
+            old.close();
+        }
+    }
+
     public void screenshot(long jobId, List<ImageContent> imageContents, Integer imageWidth) {
     	scheduleLogger.info("Start screenshot for job({})", jobId);
         try {
         	int contentsSize = imageContents.size();
             List<Future> futures = new ArrayList<>(contentsSize);
             final AtomicInteger index = new AtomicInteger(1);
-            imageContents.forEach(content -> futures.add(executorService.submit(() -> {
-            	scheduleLogger.info("Cronjob({}) thread({}) for screenshot start, type:{}, id:{}, total:{}", jobId, index.get(), content.getDesc(), content.getCId(), contentsSize);
-                try {
-                    File image = doScreenshot(jobId, content.getUrl(), imageWidth);
-                    content.setContent(image);
-                } catch (Exception e) {
-                	scheduleLogger.error("Cronjob({}) thread({}) screenshot error", jobId, index.get());
-                	scheduleLogger.error(e.getMessage(), e);
-                } finally {
-                    scheduleLogger.info("Cronjob({}) thread({}) for screenshot finish, type:{}, id:{}, total:{}", jobId, index.get(), content.getDesc(), content.getCId(), contentsSize);
-                    index.incrementAndGet();
-                }
-            })));
+            // 单个任务同时占用的浏览器会话数量受限，避免大任务独占整个池
+            final Semaphore jobPermits = new Semaphore(Math.max(1, maxConcurrencyPerJob));
+            for (ImageContent content : imageContents) {
+                jobPermits.acquire();
+                futures.add(executorService.submit(() -> {
+                    scheduleLogger.info("Cronjob({}) thread({}) for screenshot start, type:{}, id:{}, total:{}", jobId, index.get(), content.getDesc(), content.getCId(), contentsSize);
+                    try {
+                        File image = doScreenshot(jobId, content.getUrl(), imageWidth);
+                        content.setContent(image);
+                    } catch (Exception e) {
+                        scheduleLogger.error("Cronjob({}) thread({}) screenshot error", jobId, index.get());
+                        scheduleLogger.error(e.getMessage(), e);
+                    } finally {
+                        scheduleLogger.info("Cronjob({}) thread({}) for screenshot finish, type:{}, id:{}, total:{}", jobId, index.get(), content.getDesc(), content.getCId(), contentsSize);
+                        index.incrementAndGet();
+                        jobPermits.release();
+                    }
+                }));
+            }
 
             try {
                 for (Future future : futures) {
@@ -124,11 +186,15 @@ public class ScreenshotUtil {
     }
 
     private File doScreenshot(long jobId, String url, Integer imageWidth) throws Exception {
-        WebDriver driver = generateWebDriver(jobId, imageWidth);
+        WebDriverPool.PooledWebDriver pooled = webDriverPool.borrow(borrowTimeOutSecond, TimeUnit.SECONDS);
+        WebDriver driver = pooled.getDriver();
+        boolean broken = false;
 
-        driver.get(url);
         scheduleLogger.info("Cronjob({}) do screenshot url={}, timeout={} start", jobId, url, timeOutSecond);
         try {
+            driver.manage().window().setSize(new Dimension(imageWidth != null && imageWidth > 0 ? imageWidth : DEFAULT_SCREENSHOT_WIDTH, DEFAULT_SCREENSHOT_HEIGHT));
+            driver.get(url);
+
             WebDriverWait wait = new WebDriverWait(driver, timeOutSecond);
             ExpectedCondition<WebElement> ConditionOfSign = ExpectedConditions.presenceOfElementLocated(By.id("headlessBrowserRenderSign"));
             ExpectedCondition<WebElement> ConditionOfWidth = ExpectedConditions.presenceOfElementLocated(By.id("width"));
@@ -150,8 +216,19 @@ public class ScreenshotUtil {
                 height = Integer.parseInt(heightVal);
             }
 
-            driver.manage().window().setSize(new Dimension(width, height));
-            Thread.sleep(2000);
+            // 调整窗口后页面重新渲染，等旧的标记失效后再等新的标记出现
+            Dimension size = new Dimension(width, height);
+            List<WebElement> signs = driver.findElements(By.id("headlessBrowserRenderSign"));
+            boolean resized = !size.equals(driver.manage().window().getSize());
+            driver.manage().window().setSize(size);
+            if (resized && !signs.isEmpty()) {
+                try {
+                    new WebDriverWait(driver, Math.min(timeOutSecond, RERENDER_TIMEOUT_SECOND)).until(ExpectedConditions.stalenessOf(signs.get(0)));
+                } catch (TimeoutException e) {
+                    scheduleLogger.info("Cronjob({}) render sign is not refreshed after resize, url={}", jobId, url);
+                }
+            }
+            wait.until(ConditionOfSign);
             File tempImage = ((TakesScreenshot) driver).getScreenshotAs(OutputType.FILE);
             File tempDir = new File(fileUtils.fileBasePath + Consts.DIR_TEMP + DateUtils.getNowDateYYYYMMDD());
             if (!tempDir.exists()) {
@@ -164,6 +241,7 @@ public class ScreenshotUtil {
             }
 
         } catch (TimeoutException te) {
+            broken = true;
             String text = driver.findElements(By.tagName("html")).get(0).getAttribute("innerText");
             scheduleLogger.info("Cronjob({}) do screenshot url={} text=\n{}", text);
             LogEntries logEntries = driver.manage().logs().get(LogType.BROWSER);
@@ -171,31 +249,28 @@ public class ScreenshotUtil {
                 scheduleLogger.info(entry.getLevel() + " " + entry.getMessage());
             }
             scheduleLogger.error(te.getMessage(), te);
-        } catch (InterruptedException e) {
-            LogEntries logEntries= driver.manage().logs().get(LogType.BROWSER);
-            for (LogEntry entry : logEntries) {
-                scheduleLogger.info(entry.getLevel() + " " + entry.getMessage());
-            }
-        	scheduleLogger.error(e.getMessage(), e);
+        } catch (RuntimeException e) {
+            broken = true;
+            throw e;
         } finally {
         	scheduleLogger.info("Cronjob({}) do screenshot url={} finish", jobId, url);
-            driver.quit();
+            webDriverPool.release(pooled, broken);
         }
 
         return null;
     }
 
-    private WebDriver generateWebDriver(Long jobId, Integer imageWidth) throws ExecutionException {
+    private WebDriver generateWebDriver() throws ExecutionException {
         WebDriver driver;
         BrowserEnum browserEnum = valueOf(DEFAULT_BROWSER);
         switch (browserEnum) {
             case CHROME:
                 driver = generateChromeDriver();
-                scheduleLogger.info("Cronjob({}) generating chrome driver({})...", jobId, driver.getClass().toString());
+                scheduleLogger.info("Generating chrome driver({})...", driver.getClass().toString());
                 break;
             case PHANTOMJS:
                 driver = generatePhantomJsDriver();
-                scheduleLogger.info("Cronjob({}) generating PhantomJs driver({})...", jobId, PHANTOMJS_PATH);
+                scheduleLogger.info("Generating PhantomJs driver({})...", PHANTOMJS_PATH);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown Web browser:" + DEFAULT_BROWSER);
@@ -203,8 +278,7 @@ public class ScreenshotUtil {
 
         driver.manage().timeouts().implicitlyWait(3, TimeUnit.MINUTES);
         driver.manage().window().maximize();
-        driver.manage().window().setSize(new Dimension(imageWidth != null && imageWidth > 0 ? imageWidth : DEFAULT_SCREENSHOT_WIDTH, DEFAULT_SCREENSHOT_HEIGHT));
-        
+
         return driver;
     }
 
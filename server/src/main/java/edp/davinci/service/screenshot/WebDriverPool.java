@@ -0,0 +1,189 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.screenshot;
+
+import lombok.extern.slf4j.Slf4j;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 保持一组预热的浏览器会话，截图时借出、用完归还；
+ * 归还时清除 cookie 与 storage，避免上一个任务的登录状态带到下一个任务，
+ * 借出前做健康检查，服务页面数达到上限或会话失效时回收重建
+ */
+@Slf4j
+public class WebDriverPool {
+
+    private static final String CLEAR_STORAGE_SCRIPT = "try { window.localStorage.clear(); window.sessionStorage.clear(); } catch (e) {}";
+
+    private final WebDriverFactory factory;
+
+    private final int maxSize;
+
+    private final int maxPagesPerDriver;
+
+    private final LinkedBlockingDeque<PooledWebDriver> idle = new LinkedBlockingDeque<>();
+
+    private final AtomicInteger total = new AtomicInteger();
+
+    private volatile boolean closed = false;
+
+    public WebDriverPool(WebDriverFactory factory, int maxSize, int maxPagesPerDriver) {
+        this.factory = factory;
+        this.maxSize = Math.max(1, maxSize);
+        this.maxPagesPerDriver = Math.max(1, maxPagesPerDriver);
+    }
+
+    public PooledWebDriver borrow(long timeout, TimeUnit unit) throws ExecutionException, InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!closed) {
+            PooledWebDriver pooled = idle.pollFirst();
+            if (pooled != null) {
+                if (isHealthy(pooled)) {
+                    return pooled;
+                }
+                destroy(pooled);
+                continue;
+            }
+
+            if (tryReserve()) {
+                try {
+                    return new PooledWebDriver(factory.create());
+                } catch (ExecutionException | RuntimeException e) {
+                    total.decrementAndGet();
+                    throw e;
+                }
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("Wait for web driver timeout, pool size: " + maxSize);
+            }
+            // 分段等待，以便其他线程销毁会话后能及时补建
+            pooled = idle.pollFirst(Math.min(remaining, TimeUnit.SECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+            if (pooled != null) {
+                idle.offerFirst(pooled);
+            }
+        }
+        throw new IllegalStateException("Web driver pool is closed");
+    }
+
+    /**
+     * 归还会话
+     *
+     * @param pooled
+     * @param broken 本次使用中出现异常时不再复用
+     */
+    public void release(PooledWebDriver pooled, boolean broken) {
+        if (pooled == null) {
+            return;
+        }
+        if (closed || broken || pooled.incrementPages() >= maxPagesPerDriver || !reset(pooled)) {
+            destroy(pooled);
+            return;
+        }
+        idle.offerFirst(pooled);
+    }
+
+    public int getTotal() {
+        return total.get();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public void close() {
+        closed = true;
+        PooledWebDriver pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    private boolean tryReserve() {
+        int current;
+        do {
+            current = total.get();
+            if (current >= maxSize) {
+                return false;
+            }
+        } while (!total.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private boolean isHealthy(PooledWebDriver pooled) {
+        try {
+            pooled.getDriver().getWindowHandle();
+            return true;
+        } catch (Exception e) {
+            log.warn("Web driver is unavailable, recycle it: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean reset(PooledWebDriver pooled) {
+        try {
+            WebDriver driver = pooled.getDriver();
+            driver.manage().deleteAllCookies();
+            if (driver instanceof JavascriptExecutor) {
+                ((JavascriptExecutor) driver).executeScript(CLEAR_STORAGE_SCRIPT);
+            }
+            return true;
+        } catch (Exception e) {
+            log.warn("Reset web driver error, recycle it: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void destroy(PooledWebDriver pooled) {
+        total.decrementAndGet();
+        try {
+            pooled.getDriver().quit();
+        } catch (Exception e) {
+            log.warn("Quit web driver error: {}", e.getMessage());
+        }
+    }
+
+    public static class PooledWebDriver {
+
+        private final WebDriver driver;
+
+        private int pages = 0;
+
+        PooledWebDriver(WebDriver driver) {
+            this.driver = driver;
+        }
+
+        public WebDriver getDriver() {
+            return driver;
+        }
+
+        int incrementPages() {
+            return ++pages;
+        }
+    }
+}
@@ -5226,6 +5226,10 @@ function getFormattedDataRows(widgetConfigJson, dataRows) {
     if (!widgetConfigJson) {
         return dataRows
     }
+    // ScriptUtils.formatCellValue 以 JSON 字符串传入数据行
+    if (typeof dataRows === 'string') {
+        dataRows = JSON.parse(dataRows)
+    }
     if (!dataRows || !dataRows.length) {
         return dataRows
     }
@@ -0,0 +1,114 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+import edp.core.model.BindVariables;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BoundSqlTest {
+
+    private BindVariables bindVariables;
+
+    @Before
+    public void setUp() {
+        bindVariables = new BindVariables();
+    }
+
+    @Test
+    public void bindPredicateLiterals() {
+        String name = bindVariables.bind(BindVariables.FILTER_PREFIX, "east", "'east'");
+        String ids = bindVariables.bind(BindVariables.FILTER_PREFIX, Arrays.asList(1, 2), "1,2");
+
+        BoundSql boundSql = BoundSql.of("SELECT a FROM t WHERE b = " + name + " AND c IN (" + ids + ")", bindVariables);
+
+        assertEquals("SELECT a FROM t WHERE b = ? AND c IN (?, ?)", boundSql.getSql());
+        assertArrayEquals(new Object[]{"east", 1, 2}, boundSql.getArgs());
+    }
+
+    @Test
+    public void bindJoinAndHavingPredicates() {
+        String on = bindVariables.bind(BindVariables.QUERY_PREFIX, "x", "'x'");
+        String having = bindVariables.bind(BindVariables.FILTER_PREFIX, new BigDecimal("10"), "10");
+
+        BoundSql boundSql = BoundSql.of("SELECT t.a, count(1) FROM t JOIN u ON t.id = u.id AND u.k = " + on
+                + " GROUP BY t.a HAVING count(1) > " + having, bindVariables);
+
+        assertEquals("SELECT t.a, count(1) FROM t JOIN u ON t.id = u.id AND u.k = ? GROUP BY t.a HAVING count(1) > ?", boundSql.getSql());
+        assertArrayEquals(new Object[]{"x", new BigDecimal("10")}, boundSql.getArgs());
+    }
+
+    @Test
+    public void inlineOutsidePredicates() {
+        String column = bindVariables.bind(BindVariables.QUERY_PREFIX, "amount", "amount");
+
+        BoundSql boundSql = BoundSql.of("SELECT " + column + " FROM t WHERE " + column + " > 0 ORDER BY " + column, bindVariables);
+
+        assertEquals("SELECT amount FROM t WHERE amount > 0 ORDER BY amount", boundSql.getSql());
+        assertFalse(boundSql.hasArgs());
+    }
+
+    @Test
+    public void inlineSubSelectColumns() {
+        String value = bindVariables.bind(BindVariables.QUERY_PREFIX, "k", "'k'");
+
+        BoundSql boundSql = BoundSql.of("SELECT a FROM t WHERE b IN (SELECT " + value + " FROM u)", bindVariables);
+
+        assertEquals("SELECT a FROM t WHERE b IN (SELECT 'k' FROM u)", boundSql.getSql());
+        assertFalse(boundSql.hasArgs());
+    }
+
+    @Test
+    public void inlineQuotedPlaceholders() {
+        String value = bindVariables.bind(BindVariables.QUERY_PREFIX, "2019", "2019");
+
+        BoundSql boundSql = BoundSql.of("SELECT a FROM t WHERE b = '" + value + "' AND c = " + value, bindVariables);
+
+        assertEquals("SELECT a FROM t WHERE b = '2019' AND c = 2019", boundSql.getSql());
+        assertFalse(boundSql.hasArgs());
+    }
+
+    @Test
+    public void inlineUnparseableSql() {
+        String value = bindVariables.bind(BindVariables.FILTER_PREFIX, "a", "'a'");
+
+        BoundSql boundSql = BoundSql.of("SELECT a FROM t WHERE b = " + value + " QUALIFY ROW_NUMBER() OVER (PARTITION BY", bindVariables);
+
+        assertEquals("SELECT a FROM t WHERE b = 'a' QUALIFY ROW_NUMBER() OVER (PARTITION BY", boundSql.getSql());
+        assertFalse(boundSql.hasArgs());
+    }
+
+    @Test
+    public void keepUserColons() {
+        String value = bindVariables.bind(BindVariables.FILTER_PREFIX, "a", "'a'");
+
+        BoundSql boundSql = BoundSql.of("SELECT '10:30' AS t, :other FROM t -- :dv_f0\nWHERE b = " + value, bindVariables);
+
+        assertTrue(boundSql.getSql().startsWith("SELECT '10:30' AS t, :other FROM t -- :dv_f0\nWHERE b = "));
+    }
+}
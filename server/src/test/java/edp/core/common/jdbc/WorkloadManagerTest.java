@@ -0,0 +1,93 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.*;
+
+public class WorkloadManagerTest {
+
+    private static final String SOURCE = "root@jdbc:mysql://localhost/davinci";
+
+    private WorkloadManager workloadManager;
+
+    @Before
+    public void setUp() {
+        workloadManager = new WorkloadManager();
+        ReflectionTestUtils.setField(workloadManager, "enable", true);
+        ReflectionTestUtils.setField(workloadManager, "maxConcurrency", 2);
+        ReflectionTestUtils.setField(workloadManager, "interactiveConcurrency", 2);
+        ReflectionTestUtils.setField(workloadManager, "interactiveMaxWait", 10L);
+        ReflectionTestUtils.setField(workloadManager, "adhocConcurrency", 1);
+        ReflectionTestUtils.setField(workloadManager, "adhocMaxWait", 10L);
+        ReflectionTestUtils.setField(workloadManager, "exportConcurrency", 1);
+        ReflectionTestUtils.setField(workloadManager, "exportMaxWait", 10L);
+        ReflectionTestUtils.setField(workloadManager, "scheduledConcurrency", 1);
+        ReflectionTestUtils.setField(workloadManager, "scheduledMaxWait", 10L);
+        workloadManager.init();
+    }
+
+    @Test
+    public void tryAdmitCountsAgainstSourceQuota() {
+        WorkloadManager.Admission page = workloadManager.admit(SOURCE, WorkloadClass.INTERACTIVE, null);
+        WorkloadManager.Admission count = workloadManager.tryAdmit(SOURCE, WorkloadClass.INTERACTIVE);
+        assertNotNull(count);
+
+        assertNull(workloadManager.tryAdmit(SOURCE, WorkloadClass.INTERACTIVE));
+
+        count.close();
+        WorkloadManager.Admission next = workloadManager.tryAdmit(SOURCE, WorkloadClass.INTERACTIVE);
+        assertNotNull(next);
+        next.close();
+        page.close();
+    }
+
+    @Test
+    public void tryAdmitRespectsClassQuota() {
+        WorkloadManager.Admission page = workloadManager.admit(SOURCE, WorkloadClass.ADHOC, null);
+
+        assertNull(workloadManager.tryAdmit(SOURCE, WorkloadClass.ADHOC));
+        page.close();
+    }
+
+    @Test
+    public void closeReleasesOnlyOnce() {
+        WorkloadManager.Admission first = workloadManager.admit(SOURCE, WorkloadClass.INTERACTIVE, null);
+        WorkloadManager.Admission second = workloadManager.admit(SOURCE, WorkloadClass.INTERACTIVE, null);
+
+        second.close();
+        second.close();
+
+        WorkloadManager.Admission third = workloadManager.tryAdmit(SOURCE, WorkloadClass.INTERACTIVE);
+        assertNotNull(third);
+        assertNull(workloadManager.tryAdmit(SOURCE, WorkloadClass.INTERACTIVE));
+        third.close();
+        first.close();
+    }
+
+    @Test
+    public void disabledAdmitsWithoutQuota() {
+        ReflectionTestUtils.setField(workloadManager, "enable", false);
+
+        assertSame(WorkloadManager.Admission.NONE, workloadManager.tryAdmit(SOURCE, WorkloadClass.EXPORT));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc.dialect;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PaginationDialectEnumTest {
+
+    private static final PaginationDialect ROWNUM = PaginationDialectEnum.ROWNUM;
+
+    @Test
+    public void wrapsWithRownum() {
+        assertEquals("SELECT DAVINCI_T_.*, ROWNUM DAVINCI_RN_ FROM (select id, name from t) DAVINCI_T_ WHERE ROWNUM <= 20",
+                ROWNUM.paginate("select id, name from t;", 0, 20));
+        assertEquals("SELECT * FROM (SELECT DAVINCI_T_.*, ROWNUM DAVINCI_RN_ FROM (select id, name from t) DAVINCI_T_ WHERE ROWNUM <= 30)"
+                        + " WHERE DAVINCI_RN_ > 10",
+                ROWNUM.paginate("select id, name from t", 10, 20));
+        assertEquals("DAVINCI_RN_", ROWNUM.getRowNumberColumn());
+    }
+
+    @Test
+    public void wrapsProjectionsWithUniqueColumns() {
+        assertNotNull(ROWNUM.paginate("select * from t", 0, 10));
+        assertNotNull(ROWNUM.paginate("select t.* from t", 0, 10));
+        assertNotNull(ROWNUM.paginate("select a.id, b.id as b_id from a join b on a.id = b.a_id", 0, 10));
+        assertNotNull(ROWNUM.paginate("select \"id\", id from t", 0, 10));
+        assertNotNull(ROWNUM.paginate("select * from (select id, name from t) s", 0, 10));
+        assertNotNull(ROWNUM.paginate("select id, count(*) from a group by id union all select id, count(*) from b group by id", 0, 10));
+    }
+
+    @Test
+    public void fallsBackOnDuplicateColumns() {
+        assertNull(ROWNUM.paginate("select a.id, b.id from a join b on a.id = b.a_id", 0, 10));
+        assertNull(ROWNUM.paginate("select id, ID from t", 0, 10));
+        assertNull(ROWNUM.paginate("select name as x, code x from t", 0, 10));
+        assertNull(ROWNUM.paginate("select count(*), count(*) from t", 0, 10));
+        assertNull(ROWNUM.paginate("select * from (select a.id, b.id from a join b on a.id = b.a_id) s", 0, 10));
+        assertNull(ROWNUM.paginate("select id, id from a union all select id, name from b", 0, 10));
+        // limit 无法下推时保持原 sql，由客户端 setMaxRows
+        String sql = "select a.id, b.id from a join b on a.id = b.a_id";
+        assertEquals(sql, ROWNUM.limit(sql, 10));
+    }
+
+    @Test
+    public void fallsBackWhenColumnsAreUnknown() {
+        assertNull(ROWNUM.paginate("select * from a join b on a.id = b.a_id", 0, 10));
+        assertNull(ROWNUM.paginate("select a.*, b.name from a, b", 0, 10));
+        assertNull(ROWNUM.paginate("with x as (select id, id from t) select * from x", 0, 10));
+        assertNull(ROWNUM.paginate("select id from t where", 0, 10));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.mail;
+
+import org.junit.Test;
+import org.springframework.mail.MailSendException;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import static org.junit.Assert.*;
+
+public class MailQueueTest {
+
+    @Test
+    public void retriesOnlyValidUnsentRecipientsAfterPartialDelivery() throws AddressException {
+        SendFailedException e = new SendFailedException("partial", null,
+                addresses("sent@davinci.cn"), addresses("unsent@davinci.cn", "later@davinci.cn"), addresses("bad@davinci.cn"));
+
+        assertArrayEquals(addresses("unsent@davinci.cn", "later@davinci.cn"), MailQueue.getRetryRecipients(e));
+    }
+
+    @Test
+    public void retriesNobodyWhenOnlyRejectedRecipientsAreLeft() throws AddressException {
+        SendFailedException e = new SendFailedException("partial", null,
+                addresses("sent@davinci.cn"), null, addresses("bad@davinci.cn"));
+
+        assertEquals(0, MailQueue.getRetryRecipients(e).length);
+    }
+
+    @Test
+    public void keepsRecipientsWhenNothingWasDelivered() throws AddressException {
+        SendFailedException e = new SendFailedException("failed", null,
+                null, addresses("unsent@davinci.cn"), addresses("bad@davinci.cn"));
+
+        assertNull(MailQueue.getRetryRecipients(e));
+        assertNull(MailQueue.getRetryRecipients(new MessagingException("connection reset")));
+    }
+
+    @Test
+    public void findsPartialDeliveryInCause() throws AddressException {
+        SendFailedException e = new SendFailedException("partial", null,
+                addresses("sent@davinci.cn"), addresses("unsent@davinci.cn"), null);
+
+        assertArrayEquals(addresses("unsent@davinci.cn"),
+                MailQueue.getRetryRecipients(new MailSendException("send failed", new MessagingException("wrapped", e))));
+    }
+
+    private static Address[] addresses(String... emails) throws AddressException {
+        Address[] addresses = new Address[emails.length];
+        for (int i = 0; i < emails.length; i++) {
+            addresses[i] = new InternetAddress(emails[i]);
+        }
+        return addresses;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.quartz;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.listen.ListenerContainer;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScheduleClusterManagerTest {
+
+    private static final int JOBS = 100;
+
+    private TestingServer server;
+
+    private final List<ScheduleClusterManager> managers = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestingServer(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        managers.forEach(ScheduleClusterManager::destroy);
+        server.close();
+    }
+
+    @Test
+    public void ownsAllJobsWhenClusterDisabled() {
+        ScheduleClusterManager manager = manager(false);
+
+        assertTrue(manager.isOwner(1L));
+    }
+
+    @Test
+    public void ownsNothingBeforeJoined() {
+        ScheduleClusterManager manager = manager(true);
+
+        assertFalse(manager.isOwner(1L));
+    }
+
+    @Test
+    public void eachJobHasExactlyOneOwner() throws Exception {
+        ScheduleClusterManager a = join("a");
+        assertEquals(JOBS, owned(a));
+
+        ScheduleClusterManager b = join("b");
+        await(() -> owned(a) + owned(b) == JOBS && owned(a) > 0 && owned(b) > 0);
+        for (long id = 0; id < JOBS; id++) {
+            assertTrue(a.isOwner(id) ^ b.isOwner(id));
+        }
+    }
+
+    @Test
+    public void stopsFiringWhileDisconnected() throws Exception {
+        ScheduleClusterManager a = join("a");
+        assertEquals(JOBS, owned(a));
+
+        server.stop();
+        await(() -> owned(a) == 0);
+
+        server.restart();
+        await(() -> owned(a) == JOBS);
+    }
+
+    @Test
+    public void rejoinDoesNotDuplicateConnectionListener() throws Exception {
+        ScheduleClusterManager a = manager(true);
+        CuratorFramework client = client();
+        a.join(client, "a");
+        a.join(client, "a");
+
+        assertEquals(1, ((ListenerContainer<?>) client.getConnectionStateListenable()).size());
+    }
+
+    private ScheduleClusterManager join(String nodeId) throws Exception {
+        ScheduleClusterManager manager = manager(true);
+        manager.join(client(), nodeId);
+        return manager;
+    }
+
+    private CuratorFramework client() {
+        CuratorFramework client = CuratorFrameworkFactory.builder()
+                .connectString(server.getConnectString())
+                .sessionTimeoutMs(10000)
+                .connectionTimeoutMs(1000)
+                .retryPolicy(new RetryOneTime(100))
+                .build();
+        client.start();
+        return client;
+    }
+
+    private ScheduleClusterManager manager(boolean enable) {
+        ScheduleClusterManager manager = new ScheduleClusterManager();
+        ReflectionTestUtils.setField(manager, "environment",
+                new MockEnvironment().withProperty("schedule.cluster.enable", String.valueOf(enable)));
+        managers.add(manager);
+        return manager;
+    }
+
+    private static int owned(ScheduleClusterManager manager) {
+        int owned = 0;
+        for (long id = 0; id < JOBS; id++) {
+            if (manager.isOwner(id)) {
+                owned++;
+            }
+        }
+        return owned;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000L;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("condition not met in time");
+            }
+            Thread.sleep(50L);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.utils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class DownloadUtilsTest {
+
+    private static final String CONTENT = "0123456789";
+
+    private static final long LAST_MODIFIED = 1546300800000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    private String etag;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("download.xlsx");
+        Files.write(file.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(LAST_MODIFIED));
+        etag = send(request()).getHeader("ETag");
+    }
+
+    @Test
+    public void parsesSingleRange() {
+        assertArrayEquals(new long[]{0L, 4L}, DownloadUtils.parseRange("bytes=0-4", 10L));
+        assertArrayEquals(new long[]{9L, 9L}, DownloadUtils.parseRange("bytes=9-9", 10L));
+        // 结束位置超出文件时截断
+        assertArrayEquals(new long[]{5L, 9L}, DownloadUtils.parseRange("bytes=5-100", 10L));
+    }
+
+    @Test
+    public void parsesSuffixRange() {
+        assertArrayEquals(new long[]{7L, 9L}, DownloadUtils.parseRange("bytes=-3", 10L));
+        assertArrayEquals(new long[]{0L, 9L}, DownloadUtils.parseRange("bytes=-20", 10L));
+        assertEquals(0, DownloadUtils.parseRange("bytes=-0", 10L).length);
+        assertEquals(0, DownloadUtils.parseRange("bytes=-5", 0L).length);
+    }
+
+    @Test
+    public void parsesOpenEndedRange() {
+        assertArrayEquals(new long[]{3L, 9L}, DownloadUtils.parseRange("bytes=3-", 10L));
+        assertArrayEquals(new long[]{0L, 9L}, DownloadUtils.parseRange("bytes=0-", 10L));
+    }
+
+    @Test
+    public void rejectsUnsatisfiableRange() {
+        assertEquals(0, DownloadUtils.parseRange("bytes=10-", 10L).length);
+        assertEquals(0, DownloadUtils.parseRange("bytes=10-20", 10L).length);
+        assertEquals(0, DownloadUtils.parseRange("bytes=0-", 0L).length);
+    }
+
+    @Test
+    public void ignoresMultipleAndMalformedRanges() {
+        assertNull(DownloadUtils.parseRange("bytes=0-1,3-4", 10L));
+        assertNull(DownloadUtils.parseRange("items=0-1", 10L));
+        assertNull(DownloadUtils.parseRange("bytes=5-2", 10L));
+        assertNull(DownloadUtils.parseRange("bytes=a-b", 10L));
+        assertNull(DownloadUtils.parseRange("bytes=3", 10L));
+    }
+
+    @Test
+    public void sendsWholeFile() throws IOException {
+        MockHttpServletResponse response = send(request());
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertNotNull(response.getHeader("Last-Modified"));
+        assertEquals(CONTENT, response.getContentAsString());
+        assertEquals(CONTENT.length(), response.getContentLength());
+    }
+
+    @Test
+    public void sendsRequestedRange() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader("Range", "bytes=2-5");
+        MockHttpServletResponse response = send(request);
+
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        assertEquals("bytes 2-5/10", response.getHeader("Content-Range"));
+        assertEquals("2345", response.getContentAsString());
+
+        request = request();
+        request.addHeader("Range", "bytes=-3");
+        response = send(request);
+        assertEquals("bytes 7-9/10", response.getHeader("Content-Range"));
+        assertEquals("789", response.getContentAsString());
+
+        request = request();
+        request.addHeader("Range", "bytes=6-");
+        assertEquals("6789", send(request).getContentAsString());
+    }
+
+    @Test
+    public void answersUnsatisfiableRangeWith416() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader("Range", "bytes=20-");
+        MockHttpServletResponse response = send(request);
+
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+        assertEquals("bytes */10", response.getHeader("Content-Range"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void sendsWholeFileForMultipleRanges() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader("Range", "bytes=0-1,4-5");
+        MockHttpServletResponse response = send(request);
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertNull(response.getHeader("Content-Range"));
+        assertEquals(CONTENT, response.getContentAsString());
+    }
+
+    @Test
+    public void answersMatchingIfNoneMatchWith304() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader("If-None-Match", "\"other\", " + etag);
+        MockHttpServletResponse response = send(request);
+
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        request = request();
+        request.addHeader("If-None-Match", "\"other\"");
+        assertEquals(CONTENT, send(request).getContentAsString());
+    }
+
+    @Test
+    public void sendsRangeOnlyWhenIfRangeMatches() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader("Range", "bytes=0-1");
+        request.addHeader("If-Range", etag);
+        assertEquals("01", send(request).getContentAsString());
+
+        request = request();
+        request.addHeader("Range", "bytes=0-1");
+        request.addHeader("If-Range", new Date(LAST_MODIFIED));
+        assertEquals("01", send(request).getContentAsString());
+
+        // 文件已变化时发送整个文件
+        request = request();
+        request.addHeader("Range", "bytes=0-1");
+        request.addHeader("If-Range", "\"stale\"");
+        MockHttpServletResponse response = send(request);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals(CONTENT, response.getContentAsString());
+
+        // If-Range 不接受弱校验
+        request = request();
+        request.addHeader("Range", "bytes=0-1");
+        request.addHeader("If-Range", "W/" + etag);
+        assertEquals(CONTENT, send(request).getContentAsString());
+    }
+
+    @Test
+    public void sendsHeadersOnlyForHead() throws IOException {
+        MockHttpServletRequest request = request();
+        request.setMethod("HEAD");
+        MockHttpServletResponse response = send(request);
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals(etag, response.getHeader("ETag"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void answersMissingFileWith404() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        DownloadUtils.sendFile(new File(folder.getRoot(), "missing.xlsx"), request(), response);
+
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+    }
+
+    private MockHttpServletRequest request() {
+        return new MockHttpServletRequest("GET", "/download");
+    }
+
+    private MockHttpServletResponse send(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        DownloadUtils.sendFile(file, request, response);
+        return response;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dao;
+
+import edp.davinci.model.DownloadRecord;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 下载队列租约相关语句，租约时间均取数据库时间
+ */
+public class DownloadQueueMapperTest {
+
+    private static final AtomicInteger DATABASE = new AtomicInteger();
+
+    private static final String COLUMNS = "`id` bigint AUTO_INCREMENT PRIMARY KEY, `name` varchar(255) NOT NULL,"
+            + " `path` varchar(255), `status` smallint NOT NULL, `create_time` datetime NOT NULL,"
+            + " `last_download_time` datetime, `job_key` varchar(32), `task` text, `worker` varchar(128),"
+            + " `lease_expire_time` datetime, `attempts` int NOT NULL DEFAULT 0, `finish_time` datetime";
+
+    private SqlSession session;
+
+    private DownloadRecordMapper downloadRecordMapper;
+
+    private ShareDownloadRecordMapper shareDownloadRecordMapper;
+
+    @Before
+    public void setUp() throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:download_queue_" + DATABASE.incrementAndGet() + ";MODE=MySQL");
+
+        Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        configuration.setMapUnderscoreToCamelCase(true);
+        configuration.addMapper(DownloadRecordMapper.class);
+        configuration.addMapper(ShareDownloadRecordMapper.class);
+        session = new SqlSessionFactoryBuilder().build(configuration).openSession(true);
+        downloadRecordMapper = session.getMapper(DownloadRecordMapper.class);
+        shareDownloadRecordMapper = session.getMapper(ShareDownloadRecordMapper.class);
+
+        execute("CREATE TABLE download_record (" + COLUMNS + ", `user_id` bigint NOT NULL)");
+        execute("CREATE TABLE share_download_record (" + COLUMNS + ", `uuid` varchar(50))");
+    }
+
+    @After
+    public void tearDown() {
+        // 内存库随唯一的连接关闭而释放
+        session.close();
+    }
+
+    @Test
+    public void claimsAllQueuedRecordsOfAJobOnce() throws SQLException {
+        queue("a", "b", "a", "a");
+
+        assertEquals(Arrays.asList("a", "b"), downloadRecordMapper.getQueuedJobKeys(3, 10));
+        assertEquals(Collections.singletonList("a"), downloadRecordMapper.getQueuedJobKeys(3, 1));
+
+        assertEquals(3, downloadRecordMapper.claim("a", "node1", 60));
+        // 同一任务已被租用，其他节点领取不到
+        assertEquals(0, downloadRecordMapper.claim("a", "node2", 60));
+        assertEquals(Collections.singletonList("b"), downloadRecordMapper.getQueuedJobKeys(3, 10));
+
+        List<DownloadRecord> claimed = downloadRecordMapper.getClaimed("a", "node1");
+        assertEquals(3, claimed.size());
+        assertEquals(Long.valueOf(1L), claimed.get(0).getId());
+        assertTrue(downloadRecordMapper.getClaimed("a", "node2").isEmpty());
+        assertEquals(3, count("download_record", "lease_expire_time > NOW() and attempts = 1"));
+    }
+
+    @Test
+    public void reclaimsExpiredLeasesUntilExhausted() throws SQLException {
+        queue("a", "a");
+        assertEquals(2, downloadRecordMapper.claim("a", "node1", 60));
+        assertEquals(0, downloadRecordMapper.failExhausted(1));
+
+        expireLeases("download_record");
+        assertEquals(Collections.singletonList("a"), downloadRecordMapper.getQueuedJobKeys(3, 10));
+        assertEquals(2, downloadRecordMapper.claim("a", "node2", 60));
+        assertEquals(2, downloadRecordMapper.getClaimed("a", "node2").size());
+        assertTrue(downloadRecordMapper.getClaimed("a", "node1").isEmpty());
+
+        // 租约有效期间不判定为失败
+        assertEquals(0, downloadRecordMapper.failExhausted(2));
+        expireLeases("download_record");
+        assertTrue(downloadRecordMapper.getQueuedJobKeys(2, 10).isEmpty());
+        assertEquals(2, downloadRecordMapper.failExhausted(2));
+        assertEquals(2, count("download_record", "status = 3 and finish_time is not null and worker is null"));
+    }
+
+    @Test
+    public void renewsAndReleasesOnlyOwnLeases() throws SQLException {
+        queue("a", "b");
+        downloadRecordMapper.claim("a", "node1", 60);
+        downloadRecordMapper.claim("b", "node2", 60);
+        expireLeases("download_record");
+
+        assertEquals(1, downloadRecordMapper.renewLease("a", "node1", 60));
+        assertEquals(0, downloadRecordMapper.renewLease("b", "node1", 60));
+        assertEquals(Collections.singletonList("b"), downloadRecordMapper.getQueuedJobKeys(3, 10));
+
+        assertEquals(1, downloadRecordMapper.releaseLeases("node1"));
+        assertEquals(Arrays.asList("a", "b"), downloadRecordMapper.getQueuedJobKeys(3, 10));
+    }
+
+    @Test
+    public void completesClaimedAndQueuedRecordsOfAJob() throws SQLException {
+        queue("a", "a", "a", "a");
+        execute("update download_record set worker = 'node1', lease_expire_time = TIMESTAMPADD(SECOND, 60, NOW()) where id = 1");
+        // 其他节点仍持有有效租约的记录与已下载的记录不受影响
+        execute("update download_record set worker = 'node2', lease_expire_time = TIMESTAMPADD(SECOND, 60, NOW()) where id = 2");
+        execute("update download_record set status = 4, path = 'old' where id = 3");
+
+        assertEquals(2, downloadRecordMapper.complete("a", "node1", (short) 2, "/tmp/a.xlsx"));
+
+        assertEquals(2, count("download_record", "id in (1, 4) and status = 2 and path = '/tmp/a.xlsx'"
+                + " and finish_time is not null and worker is null and lease_expire_time is null"));
+        assertEquals(1, count("download_record", "id = 2 and status = 1 and worker = 'node2'"));
+        assertEquals(1, count("download_record", "id = 3 and status = 4 and path = 'old'"));
+    }
+
+    @Test
+    public void reusesRecentlyFinishedFiles() throws SQLException {
+        queue("a");
+        downloadRecordMapper.claim("a", "node1", 60);
+        downloadRecordMapper.complete("a", "node1", (short) 2, "/tmp/a.xlsx");
+
+        assertEquals("/tmp/a.xlsx", downloadRecordMapper.getReusablePath("a", 300));
+        assertNull(downloadRecordMapper.getReusablePath("b", 300));
+
+        execute("update download_record set finish_time = TIMESTAMPADD(SECOND, -600, NOW())");
+        assertNull(downloadRecordMapper.getReusablePath("a", 300));
+    }
+
+    @Test
+    public void shareRecordsUseTheSameLeases() throws SQLException {
+        execute("insert into share_download_record (name, uuid, status, create_time, job_key, task)"
+                + " values ('s', 'u', 1, NOW(), 'a', '{}'), ('s', 'u', 1, NOW(), 'a', '{}')");
+
+        assertEquals(Collections.singletonList("a"), shareDownloadRecordMapper.getQueuedJobKeys(3, 10));
+        assertEquals(2, shareDownloadRecordMapper.claim("a", "node1", 60));
+        assertEquals(0, shareDownloadRecordMapper.claim("a", "node2", 60));
+        assertEquals(2, shareDownloadRecordMapper.renewLease("a", "node1", 60));
+        assertEquals(2, shareDownloadRecordMapper.complete("a", "node1", (short) 2, "/tmp/s.xlsx"));
+        assertEquals("/tmp/s.xlsx", shareDownloadRecordMapper.getReusablePath("a", 300));
+
+        execute("insert into share_download_record (name, uuid, status, create_time, job_key, task, attempts)"
+                + " values ('s', 'u', 1, NOW(), 'b', '{}', 3)");
+        assertEquals(1, shareDownloadRecordMapper.failExhausted(3));
+    }
+
+    private void queue(String... jobKeys) throws SQLException {
+        for (String jobKey : jobKeys) {
+            execute("insert into download_record (name, user_id, status, create_time, job_key, task)"
+                    + " values ('d', 1, 1, NOW(), '" + jobKey + "', '{}')");
+        }
+    }
+
+    private void expireLeases(String table) throws SQLException {
+        execute("update " + table + " set lease_expire_time = TIMESTAMPADD(SECOND, -1, NOW()) where lease_expire_time is not null");
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = session.getConnection().createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private int count(String table, String condition) throws SQLException {
+        Connection connection = session.getConnection();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select count(1) from " + table + " where " + condition)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
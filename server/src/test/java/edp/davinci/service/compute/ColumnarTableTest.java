@@ -0,0 +1,105 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.compute;
+
+import edp.core.model.QueryColumn;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static edp.davinci.service.compute.LocalComputeEngineTest.paginate;
+import static edp.davinci.service.compute.LocalComputeEngineTest.row;
+import static org.junit.Assert.*;
+
+public class ColumnarTableTest {
+
+    @Test
+    public void encodesRowsWithDictionary() {
+        ColumnarTable table = ColumnarTable.of(paginate(Collections.singletonList(new QueryColumn("City", "VARCHAR")),
+                row("a"), row((Object) null), row("b"), row("a")));
+
+        ColumnarTable.Column column = table.getColumn("city");
+        assertSame(column, table.getColumn("City"));
+        assertEquals(4, table.getRowCount());
+        assertEquals(2, column.getDictionarySize());
+        assertArrayEquals(new int[]{0, -1, 1, 0}, column.getCodes());
+        assertNull(column.valueOf(1));
+        assertFalse(column.isNumeric());
+        assertFalse(column.isTemporal());
+    }
+
+    @Test
+    public void classifiesNumericColumns() {
+        ColumnarTable table = ColumnarTable.of(paginate(
+                Arrays.asList(new QueryColumn("i", "INT"), new QueryColumn("d", "DECIMAL"),
+                        new QueryColumn("f", "DOUBLE"), new QueryColumn("u", "BIGINT UNSIGNED")),
+                row(1, new BigDecimal("1.5"), 1.5, BigInteger.ONE.shiftLeft(64)),
+                row(2L, new BigDecimal("2"), 2.5, BigInteger.ONE)));
+
+        assertTrue(table.getColumn("i").isIntegral());
+        assertFalse(table.getColumn("i").isDecimal());
+        assertFalse(table.getColumn("d").isIntegral());
+        assertTrue(table.getColumn("d").isDecimal());
+        assertFalse(table.getColumn("f").isIntegral());
+        assertFalse(table.getColumn("f").isDecimal());
+        // 超出 long 的整数按 DECIMAL 处理
+        assertFalse(table.getColumn("u").isIntegral());
+        assertTrue(table.getColumn("u").isDecimal());
+        assertEquals(new BigDecimal(BigInteger.ONE.shiftLeft(64)), table.getColumn("u").getDecimal(0));
+    }
+
+    @Test
+    public void ranksLargeIntegersExactly() {
+        ColumnarTable table = ColumnarTable.of(paginate(Collections.singletonList(new QueryColumn("id", "BIGINT")),
+                row(9007199254740993L), row(9007199254740992L), row(-1L)));
+
+        assertArrayEquals(new int[]{2, 1, 0}, table.getColumn("id").getRanks());
+    }
+
+    @Test
+    public void normalizesJavaTimeValues() {
+        LocalDateTime time = LocalDateTime.of(2019, 1, 1, 10, 0);
+        ColumnarTable table = ColumnarTable.of(paginate(Collections.singletonList(new QueryColumn("t", "DATETIME")),
+                row(time), row(Timestamp.valueOf(time))));
+
+        ColumnarTable.Column column = table.getColumn("t");
+        assertTrue(column.isTemporal());
+        assertEquals(1, column.getDictionarySize());
+        assertEquals(Timestamp.valueOf(time).getTime(), column.getTime(0));
+    }
+
+    @Test
+    public void comparesNumbersExactlyUnlessFloating() {
+        assertTrue(ColumnarTable.compareValues(9007199254740993L, new BigDecimal("9007199254740992")) > 0);
+        assertEquals(0, ColumnarTable.compareValues(new BigDecimal("1.50"), new BigDecimal("1.5")));
+        assertEquals(0, ColumnarTable.compareValues(1.5d, new BigDecimal("1.5")));
+        assertTrue(ColumnarTable.compareValues("b", "a") > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsColumnsOfDifferentLength() {
+        ColumnarTable.Column column = ColumnarTable.Column.of("c", "INT", new Object[]{1}, new int[]{0, 0});
+        ColumnarTable.of(Collections.singletonList(column), 1);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.compute;
+
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.davinci.core.model.SqlFilter;
+import edp.davinci.dto.viewDto.Aggregator;
+import edp.davinci.dto.viewDto.Order;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 期望值为同一数据在 mysql 上执行对应 sql 的结果
+ */
+public class LocalComputeEngineTest {
+
+    private static final long BIG = 9007199254740993L;
+
+    private LocalComputeEngine engine;
+
+    private ColumnarTable table;
+
+    @Before
+    public void setUp() {
+        engine = new LocalComputeEngine();
+        ReflectionTestUtils.setField(engine, "maxRows", 1000);
+        ReflectionTestUtils.setField(engine, "cacheExpireSeconds", 60L);
+        ReflectionTestUtils.setField(engine, "cacheMaxCells", 100000L);
+        ReflectionTestUtils.setField(engine, "parallelism", 2);
+        // 小块使过滤与聚合跨块并行并合并
+        ReflectionTestUtils.setField(engine, "chunkSize", 2);
+        ReflectionTestUtils.setField(engine, "resultLimit", 1000);
+        engine.init();
+
+        table = ColumnarTable.of(paginate(
+                Arrays.asList(new QueryColumn("region", "VARCHAR"), new QueryColumn("city", "VARCHAR"),
+                        new QueryColumn("amount", "BIGINT"), new QueryColumn("price", "DECIMAL")),
+                row("east", "Hangzhou", 10L, new BigDecimal("1.10")),
+                row("east", "hangzhou", 20L, new BigDecimal("2.20")),
+                row("west", null, BIG, new BigDecimal("3.30")),
+                row(null, "Chengdu", null, null),
+                row("west", "Chengdu", 5L, new BigDecimal("4.40"))));
+    }
+
+    @After
+    public void tearDown() {
+        engine.destroy();
+    }
+
+    @Test
+    public void groupAggregatesSkipNullsAndSortNullGroupFirst() {
+        // SELECT region, SUM(amount), COUNT(amount), AVG(price) FROM t GROUP BY region ORDER BY region
+        ViewExecuteParam param = param(Collections.singletonList("region"),
+                Arrays.asList(new Aggregator("amount", "sum"), new Aggregator("amount", "count"), new Aggregator("price", "avg")));
+        param.setOrders(Collections.singletonList(new Order("region", "asc")));
+
+        List<Map<String, Object>> rows = execute(param, null, false);
+
+        assertEquals(3, rows.size());
+        assertNull(rows.get(0).get("region"));
+        assertNull(rows.get(0).get("sum(amount)"));
+        assertEquals(0L, rows.get(0).get("count(amount)"));
+        assertNull(rows.get(0).get("avg(price)"));
+
+        assertEquals("east", rows.get(1).get("region"));
+        assertEquals(30L, rows.get(1).get("sum(amount)"));
+        assertEquals(2L, rows.get(1).get("count(amount)"));
+        assertDecimal("1.65", rows.get(1).get("avg(price)"));
+
+        assertEquals("west", rows.get(2).get("region"));
+        // 超过 2^53 的整数和不经 double
+        assertEquals(BIG + 5L, rows.get(2).get("sum(amount)"));
+        assertDecimal("3.85", rows.get(2).get("avg(price)"));
+    }
+
+    @Test
+    public void aggregateWithoutGroupReturnsOneRowOnEmptyInput() {
+        // SELECT SUM(amount), COUNT(amount), MAX(amount) FROM t WHERE amount > 1e20
+        List<Map<String, Object>> rows = execute(param(null,
+                Arrays.asList(new Aggregator("amount", "sum"), new Aggregator("amount", "count"), new Aggregator("amount", "max"))),
+                Collections.singletonList(filter("amount", ">", "100000000000000000000")), false);
+
+        assertEquals(1, rows.size());
+        assertNull(rows.get(0).get("sum(amount)"));
+        assertEquals(0L, rows.get(0).get("count(amount)"));
+        assertNull(rows.get(0).get("max(amount)"));
+    }
+
+    @Test
+    public void maxOfLargeIntegersIsExact() {
+        List<Map<String, Object>> rows = execute(param(null,
+                Arrays.asList(new Aggregator("amount", "max"), new Aggregator("amount", "min"), new Aggregator("city", "countdistinct"))),
+                null, false);
+
+        assertEquals(BIG, rows.get(0).get("max(amount)"));
+        assertEquals(5L, rows.get(0).get("min(amount)"));
+        assertEquals(3L, rows.get(0).get("COUNTDISTINCT(city)"));
+    }
+
+    @Test
+    public void nativeQueryReturnsFilteredRows() {
+        ViewExecuteParam param = param(null, Collections.singletonList(new Aggregator("amount", null)));
+        param.setNativeQuery(true);
+        param.setOrders(Collections.singletonList(new Order("amount", "desc")));
+
+        // amount = 10 OR amount IS NULL
+        SqlFilter or = new SqlFilter();
+        or.setType(SqlFilter.Type.relation);
+        or.setValue(SqlFilter.Type.or);
+        or.setChildren(Arrays.asList(filter("amount", "=", "10"), filter("amount", "IS NULL", null)));
+
+        List<Map<String, Object>> rows = execute(param, Collections.singletonList(or), false);
+
+        assertEquals(2, rows.size());
+        assertEquals(10L, rows.get(0).get("amount"));
+        // desc 时 null 在后
+        assertNull(rows.get(1).get("amount"));
+    }
+
+    @Test
+    public void paginatesAfterSort() {
+        // SELECT city, COUNT(city) FROM t GROUP BY city ORDER BY COUNT(city) DESC LIMIT 1
+        ViewExecuteParam param = param(Collections.singletonList("city"), Collections.singletonList(new Aggregator("city", "count")));
+        param.setOrders(Collections.singletonList(new Order("count(city)", "desc")));
+        param.setPageNo(1);
+        param.setPageSize(1);
+
+        PaginateWithQueryColumns paginate = engine.execute(table, param, null, null, null, null, false);
+
+        assertEquals(4L, paginate.getTotalCount());
+        assertEquals(1, paginate.getResultList().size());
+        assertEquals("Chengdu", paginate.getResultList().get(0).get("city"));
+    }
+
+    @Test
+    public void excludedColumnsAreHidden() {
+        ViewExecuteParam param = param(Collections.singletonList("region"), Collections.singletonList(new Aggregator("amount", "sum")));
+
+        PaginateWithQueryColumns paginate = engine.execute(table, param, null,
+                new HashSet<>(Collections.singletonList("sum(amount)")), null, null, false);
+
+        assertEquals(1, paginate.getColumns().size());
+        assertEquals(Collections.singleton("region"), paginate.getResultList().get(0).keySet());
+    }
+
+    @Test(expected = LocalComputeUnsupportedException.class)
+    public void sumOnStringColumnIsUnsupported() {
+        execute(param(null, Collections.singletonList(new Aggregator("city", "sum"))), null, false);
+    }
+
+    private List<Map<String, Object>> execute(ViewExecuteParam param, List<SqlFilter> filters, boolean binaryStrings) {
+        return engine.execute(table, param, filters, null, null, null, binaryStrings).getResultList();
+    }
+
+    private static void assertDecimal(String expected, Object actual) {
+        assertEquals(0, new BigDecimal(expected).compareTo((BigDecimal) actual));
+    }
+
+    static ViewExecuteParam param(List<String> groups, List<Aggregator> aggregators) {
+        ViewExecuteParam param = new ViewExecuteParam();
+        param.setGroups(groups);
+        param.setAggregators(aggregators);
+        return param;
+    }
+
+    static SqlFilter filter(String name, String operator, Object value) {
+        SqlFilter filter = new SqlFilter();
+        filter.setType(SqlFilter.Type.filter);
+        filter.setName(name);
+        filter.setOperator(operator);
+        filter.setValue(value);
+        return filter;
+    }
+
+    static PaginateWithQueryColumns paginate(List<QueryColumn> columns, Object[]... rows) {
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setColumns(columns);
+        List<Map<String, Object>> resultList = new ArrayList<>();
+        for (Object[] values : rows) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < values.length; i++) {
+                map.put(columns.get(i).getName(), values[i]);
+            }
+            resultList.add(map);
+        }
+        paginate.setResultList(resultList);
+        return paginate;
+    }
+
+    static Object[] row(Object... values) {
+        return values;
+    }
+}
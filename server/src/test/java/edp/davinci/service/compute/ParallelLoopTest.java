@@ -0,0 +1,87 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.compute;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParallelLoopTest {
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void mapsChunksInOrder() {
+        List<int[]> chunks = new ParallelLoop(pool, 3).map(10, (from, to) -> new int[]{from, to});
+
+        assertEquals(4, chunks.size());
+        assertArrayEquals(new int[]{0, 3}, chunks.get(0));
+        assertArrayEquals(new int[]{3, 6}, chunks.get(1));
+        assertArrayEquals(new int[]{6, 9}, chunks.get(2));
+        assertArrayEquals(new int[]{9, 10}, chunks.get(3));
+    }
+
+    @Test
+    public void runsSingleChunkInCallerThread() {
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = new ParallelLoop(pool, 16).map(10, (from, to) -> Thread.currentThread());
+
+        assertEquals(Collections.singletonList(caller), threads);
+        assertEquals(Collections.singletonList(0), new ParallelLoop(pool, 16).map(0, (from, to) -> to - from));
+    }
+
+    @Test
+    public void forEachCoversEveryIndexOnce() {
+        int[] hits = new int[1000];
+        new ParallelLoop(pool, 7).forEach(hits.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                hits[i]++;
+            }
+        });
+
+        int[] expected = new int[hits.length];
+        Arrays.fill(expected, 1);
+        assertArrayEquals(expected, hits);
+    }
+
+    @Test(expected = LocalComputeUnsupportedException.class)
+    public void rethrowsTaskException() {
+        new ParallelLoop(pool, 1).forEach(4, (from, to) -> {
+            throw new LocalComputeUnsupportedException("unsupported");
+        });
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.compute;
+
+import edp.core.model.QueryColumn;
+import edp.davinci.core.model.SqlFilter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+
+import static edp.davinci.service.compute.LocalComputeEngineTest.filter;
+import static edp.davinci.service.compute.LocalComputeEngineTest.paginate;
+import static edp.davinci.service.compute.LocalComputeEngineTest.row;
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * 期望的行掩码与 sql 的 WHERE 结果一致：null 值只匹配 IS NULL
+ */
+public class RowFilterTest {
+
+    private static ForkJoinPool pool;
+
+    private static ColumnarTable table;
+
+    @BeforeClass
+    public static void setUp() {
+        pool = new ForkJoinPool(2);
+        table = ColumnarTable.of(paginate(
+                Arrays.asList(new QueryColumn("id", "BIGINT"), new QueryColumn("name", "VARCHAR"),
+                        new QueryColumn("price", "DECIMAL"), new QueryColumn("ratio", "DOUBLE"),
+                        new QueryColumn("created", "DATETIME")),
+                row(9007199254740993L, "Apple", new BigDecimal("12345678901234567890.01"), 0.5, Timestamp.valueOf("2019-01-01 10:00:00")),
+                row(9007199254740992L, "apple", new BigDecimal("12345678901234567890.02"), 1.5, Timestamp.valueOf("2019-01-02 00:00:00")),
+                row(1L, "a_b", new BigDecimal("1.50"), null, null),
+                row(null, null, null, 2.5, Timestamp.valueOf("2019-01-03 00:00:00"))));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void integerComparisonIsExact() {
+        assertMask(false, "id", "=", "9007199254740992", false, true, false, false);
+        assertMask(false, "id", ">", "9007199254740992", true, false, false, false);
+        assertMask(false, "id", "IN", Arrays.asList("1", "9007199254740993"), true, false, true, false);
+    }
+
+    @Test
+    public void decimalComparisonIsExactAndIgnoresScale() {
+        assertMask(false, "price", "=", "12345678901234567890.02", false, true, false, false);
+        assertMask(false, "price", "=", "1.5", false, false, true, false);
+        assertMask(false, "price", "BETWEEN", Arrays.asList("1", "12345678901234567890.01"), true, false, true, false);
+    }
+
+    @Test
+    public void nullOnlyMatchesIsNull() {
+        assertMask(false, "ratio", "!=", "1.5", true, false, false, true);
+        assertMask(false, "ratio", "NOT IN", Collections.singletonList("0.5"), false, true, false, true);
+        assertMask(false, "ratio", "IS NULL", null, false, false, true, false);
+        assertMask(false, "ratio", "IS NOT NULL", null, true, true, false, true);
+    }
+
+    @Test
+    public void timeComparisonParsesDateLiterals() {
+        assertMask(false, "created", ">=", "'2019-01-02'", false, true, false, true);
+        assertMask(false, "created", "<", "2019-01-01 10:00:01", true, false, false, false);
+    }
+
+    @Test
+    public void relationsCombineConditions() {
+        SqlFilter and = new SqlFilter();
+        and.setType(SqlFilter.Type.relation);
+        and.setValue(SqlFilter.Type.and);
+        and.setChildren(Arrays.asList(filter("id", ">", "1"), filter("ratio", "<", "1")));
+
+        assertArrayEquals(new boolean[]{true, false, false, false},
+                new RowFilter(table, loop(), null, null, false).evaluate(Collections.singletonList(and)));
+    }
+
+    @Test
+    public void binaryStringsCompareCaseSensitive() {
+        assertMask(true, "`name`", "=", "'apple'", false, true, false, false);
+        assertMask(true, "name", "IN", Arrays.asList("'Apple'", "'a_b'"), true, false, true, false);
+        assertMask(true, "name", "LIKE", "'A%'", true, false, false, false);
+        // 转义的 _ 按字面匹配
+        assertMask(true, "name", "LIKE", "'a\\_%'", false, false, true, false);
+        assertMask(true, "name", "NOT LIKE", "'a%'", true, false, false, false);
+    }
+
+    @Test(expected = LocalComputeUnsupportedException.class)
+    public void stringFilterDependsOnCollation() {
+        // mysql 默认排序规则下 'apple' 同时匹配 Apple 与 apple
+        new RowFilter(table, loop(), null, null, false).evaluate(Collections.singletonList(filter("name", "=", "'apple'")));
+    }
+
+    @Test(expected = LocalComputeUnsupportedException.class)
+    public void stringRangeFilterIsUnsupported() {
+        new RowFilter(table, loop(), null, null, true).evaluate(Collections.singletonList(filter("name", ">", "'a'")));
+    }
+
+    @Test(expected = LocalComputeUnsupportedException.class)
+    public void invalidNumberIsUnsupported() {
+        new RowFilter(table, loop(), null, null, false).evaluate(Collections.singletonList(filter("id", "=", "'x'")));
+    }
+
+    private static void assertMask(boolean binaryStrings, String column, String operator, Object value, boolean... expected) {
+        boolean[] mask = new RowFilter(table, loop(), "`", "`", binaryStrings)
+                .evaluate(Collections.singletonList(filter(column, operator, value)));
+        assertArrayEquals(column + " " + operator + " " + value, expected, mask);
+    }
+
+    private static ParallelLoop loop() {
+        return new ParallelLoop(pool, 2);
+    }
+}
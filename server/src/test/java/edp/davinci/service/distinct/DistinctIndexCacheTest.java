@@ -0,0 +1,102 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.distinct;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DistinctIndexCacheTest {
+
+    private DistinctIndexCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new DistinctIndexCache();
+        ReflectionTestUtils.setField(cache, "maxValues", 3);
+        ReflectionTestUtils.setField(cache, "refreshSeconds", 300L);
+        ReflectionTestUtils.setField(cache, "expireSeconds", 3600L);
+        ReflectionTestUtils.setField(cache, "cacheMaxChars", 1000000L);
+        ReflectionTestUtils.setField(cache, "refreshThreads", 1);
+        ReflectionTestUtils.setField(cache, "maxPageSize", 100);
+        cache.init();
+    }
+
+    @After
+    public void tearDown() {
+        cache.destroy();
+    }
+
+    @Test
+    public void marksValuesBeyondMaxValuesAsTruncated() {
+        AtomicInteger requested = new AtomicInteger();
+        DistinctIndex.Result result = cache.search("k", limit -> {
+            requested.set(limit);
+            return values(limit);
+        }, null, false, 0, 10);
+
+        assertEquals(4, requested.get());
+        assertTrue(result.isTruncated());
+        assertEquals(3, result.getTotal());
+        assertEquals(Arrays.asList("v0", "v1", "v2"), result.getValues());
+    }
+
+    @Test
+    public void keepsCompleteValuesUntruncated() {
+        DistinctIndex.Result result = cache.search("k", limit -> values(3), null, false, 0, 10);
+
+        assertFalse(result.isTruncated());
+        assertEquals(3, result.getTotal());
+    }
+
+    @Test
+    public void reweighsAfterBuildingGramIndex() {
+        DistinctIndexCache.ValuesLoader loader = limit -> Arrays.asList("Beijing", "Hebei", "Taibei");
+        cache.search("k", loader, "bei", true, 0, 10);
+        long weight = weightedSize();
+
+        DistinctIndex.Result result = cache.search("k", loader, "bei", false, 0, 10);
+
+        assertEquals(3, result.getTotal());
+        assertTrue(cache.get("k", loader).isGramIndexed());
+        assertEquals(cache.get("k", loader).weight(), weightedSize());
+        assertTrue(weightedSize() > weight);
+    }
+
+    private long weightedSize() {
+        cache.getCache().cleanUp();
+        return cache.getCache().policy().eviction().get().weightedSize().getAsLong();
+    }
+
+    private static List<Object> values(int count) {
+        List<Object> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add("v" + i);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.distinct;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class DistinctIndexTest {
+
+    private static final List<Object> CITIES = Arrays.asList("Beijing", "Shanghai", "beihai", null, "Hebei", "Baotou",
+            "Shenzhen", "Bei'an", "Taibei", "Nanjing", "Shijiazhuang");
+
+    @Test
+    public void returnsAllValuesInOrderWithoutKeyword() {
+        DistinctIndex index = DistinctIndex.of(CITIES);
+
+        assertEquals(10, index.size());
+        DistinctIndex.Result result = index.search(null, false, 0, 3);
+        assertEquals(10, result.getTotal());
+        assertEquals(Arrays.asList("Baotou", "Bei'an", "beihai"), result.getValues());
+        assertEquals(Arrays.asList("Shijiazhuang", "Taibei"), index.search("", false, 8, 5).getValues());
+        assertFalse(result.isTruncated());
+    }
+
+    @Test
+    public void searchesPrefixIgnoringCase() {
+        DistinctIndex index = DistinctIndex.of(CITIES);
+
+        DistinctIndex.Result result = index.search("BEI", true, 0, 10);
+        assertEquals(3, result.getTotal());
+        assertEquals(Arrays.asList("Bei'an", "beihai", "Beijing"), result.getValues());
+
+        assertEquals(Arrays.asList("Shanghai", "Shenzhen"), index.search("sh", true, 0, 2).getValues());
+        assertEquals(Collections.singletonList("Shijiazhuang"), index.search("sh", true, 2, 2).getValues());
+        assertEquals(0, index.search("x", true, 0, 10).getTotal());
+        assertEquals(0, index.search("sh", true, 10, 10).getValues().size());
+    }
+
+    @Test
+    public void searchesSubstringAfterPrefix() {
+        DistinctIndex index = DistinctIndex.of(CITIES);
+        assertFalse(index.isGramIndexed());
+
+        // 前缀匹配在前，其余按字典序
+        DistinctIndex.Result result = index.search("bei", false, 0, 10);
+        assertEquals(5, result.getTotal());
+        assertEquals(Arrays.asList("Bei'an", "beihai", "Beijing", "Hebei", "Taibei"), result.getValues());
+        assertTrue(index.isGramIndexed());
+
+        assertEquals(Arrays.asList("Hebei", "Taibei"), index.search("bei", false, 3, 10).getValues());
+        assertEquals(Arrays.asList("Beijing", "Nanjing"), index.search("jing", false, 0, 10).getValues());
+        assertEquals(0, index.search("bein", false, 0, 10).getTotal());
+    }
+
+    @Test
+    public void searchesShortSubstringWithoutGrams() {
+        DistinctIndex index = DistinctIndex.of(CITIES);
+
+        DistinctIndex.Result result = index.search("ai", false, 0, 10);
+        assertEquals(Arrays.asList("beihai", "Shanghai", "Taibei"), result.getValues());
+        assertFalse(index.isGramIndexed());
+    }
+
+    @Test
+    public void lowerCasesIndependentOfDefaultLocale() {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            DistinctIndex index = DistinctIndex.of(Arrays.asList("TITLE", "INDIA"));
+
+            assertEquals(Collections.singletonList("TITLE"), index.search("title", true, 0, 10).getValues());
+            assertEquals(Collections.singletonList("INDIA"), index.search("Indi", false, 0, 10).getValues());
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void weightIncludesGramIndex() {
+        DistinctIndex index = DistinctIndex.of(CITIES);
+        int weight = index.weight();
+
+        index.search("hai", false, 0, 10);
+
+        assertTrue(index.weight() > weight);
+    }
+
+    @Test
+    public void marksTruncatedResults() {
+        DistinctIndex index = DistinctIndex.of(CITIES, true);
+
+        assertTrue(index.isTruncated());
+        assertTrue(index.search("bei", false, 0, 10).isTruncated());
+        assertTrue(index.search(null, false, 0, 10).isTruncated());
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.elastic;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ElasticOperationServiceTest {
+
+    private static final String INDEX = "davinci_statistic_test";
+
+    private StandInClient standInClient;
+
+    private ElasticOperationService service;
+
+    private MockEnvironment environment;
+
+    @Before
+    public void setUp() {
+        standInClient = new StandInClient();
+        environment = new MockEnvironment()
+                .withProperty("statistic.elastic_bulk_actions", "100")
+                .withProperty("statistic.elastic_bulk_flush_interval_seconds", "3600")
+                // 同步执行 bulk，重试在调用线程退避
+                .withProperty("statistic.elastic_bulk_concurrent_requests", "0")
+                .withProperty("statistic.elastic_bulk_retries", "3");
+        service = new ElasticOperationService();
+        service.environment = environment;
+    }
+
+    @After
+    public void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    public void flushSendsQueuedDocuments() {
+        service.initBulkProcessor(standInClient.client);
+
+        service.batchInsert(INDEX, INDEX, documents(3));
+        assertEquals(0, standInClient.bulkSizes.size());
+
+        service.flush();
+        assertEquals(Arrays.asList(3), standInClient.bulkSizes);
+        assertEquals(3L, service.getIndexedCount());
+        assertEquals(0L, service.getFailedCount());
+    }
+
+    @Test
+    public void bulkActionsSplitBatches() {
+        environment.setProperty("statistic.elastic_bulk_actions", "2");
+        service.initBulkProcessor(standInClient.client);
+
+        service.batchInsert(INDEX, INDEX, documents(5));
+        service.flush();
+
+        assertEquals(Arrays.asList(2, 2, 1), standInClient.bulkSizes);
+        assertEquals(5L, service.getIndexedCount());
+    }
+
+    @Test
+    public void retryRejectedItems() {
+        standInClient.rejectedBulks = 2;
+        service.initBulkProcessor(standInClient.client);
+
+        service.batchInsert(INDEX, INDEX, documents(3));
+        service.flush();
+
+        // 每次只重发被拒绝的最后一条
+        assertEquals(Arrays.asList(3, 1, 1), standInClient.bulkSizes);
+        assertEquals(3L, service.getIndexedCount());
+        assertEquals(0L, service.getFailedCount());
+    }
+
+    @Test
+    public void countRejectedItemsAfterRetries() {
+        environment.setProperty("statistic.elastic_bulk_retries", "1");
+        standInClient.rejectedBulks = Integer.MAX_VALUE;
+        service.initBulkProcessor(standInClient.client);
+
+        service.batchInsert(INDEX, INDEX, documents(3));
+        service.flush();
+
+        assertEquals(Arrays.asList(3, 1), standInClient.bulkSizes);
+        assertEquals(2L, service.getIndexedCount());
+        assertEquals(1L, service.getFailedCount());
+    }
+
+    private static List<Document> documents(int count) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            documents.add(new Document("user" + i, i));
+        }
+        return documents;
+    }
+
+    public static class Document {
+        private final String user;
+        private final int value;
+
+        Document(String user, int value) {
+            this.user = user;
+            this.value = value;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public int getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * 记录每次 bulk 的条数，前 rejectedBulks 次拒绝请求中的最后一条
+     */
+    private static final class StandInClient {
+
+        private final Client client = mock(Client.class);
+
+        private final List<Integer> bulkSizes = new CopyOnWriteArrayList<>();
+
+        private volatile int rejectedBulks = 0;
+
+        @SuppressWarnings("unchecked")
+        private StandInClient() {
+            when(client.settings()).thenReturn(Settings.EMPTY);
+            doAnswer(invocation -> {
+                ActionListener<BulkResponse> listener = invocation.getArgument(1);
+                listener.onResponse(respond(invocation.getArgument(0)));
+                return null;
+            }).when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+            when(client.bulk(any(BulkRequest.class))).thenAnswer(invocation -> {
+                PlainActionFuture<BulkResponse> future = PlainActionFuture.newFuture();
+                future.onResponse(respond(invocation.getArgument(0)));
+                return future;
+            });
+        }
+
+        private BulkResponse respond(BulkRequest request) {
+            int size = request.numberOfActions();
+            boolean reject = bulkSizes.size() < rejectedBulks;
+            bulkSizes.add(size);
+            BulkItemResponse[] items = new BulkItemResponse[size];
+            for (int i = 0; i < size; i++) {
+                items[i] = item(i, reject && i == size - 1);
+            }
+            return new BulkResponse(items, 1L);
+        }
+
+        private static BulkItemResponse item(int id, boolean rejected) {
+            BulkItemResponse item = mock(BulkItemResponse.class);
+            when(item.getItemId()).thenReturn(id);
+            when(item.isFailed()).thenReturn(rejected);
+            if (rejected) {
+                BulkItemResponse.Failure failure = mock(BulkItemResponse.Failure.class);
+                when(failure.getCause()).thenReturn(new EsRejectedExecutionException("rejected by stand-in"));
+                when(item.getFailure()).thenReturn(failure);
+                when(item.getFailureMessage()).thenReturn("rejected by stand-in");
+            }
+            return item;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.extract;
+
+import edp.core.model.QueryColumn;
+import edp.davinci.service.compute.ColumnarTable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ExtractBuilderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesAndReadsBackAllKinds() throws IOException {
+        ExtractBuilder builder = new ExtractBuilder(Arrays.asList(
+                new QueryColumn("name", "VARCHAR"), new QueryColumn("amount", "BIGINT"),
+                new QueryColumn("price", "DOUBLE"), new QueryColumn("rate", "DECIMAL"),
+                new QueryColumn("created", "TIMESTAMP"), new QueryColumn("enabled", "BOOLEAN")));
+        Timestamp created = Timestamp.valueOf("2019-01-02 03:04:05.123456789");
+        builder.add(new Object[]{"北京", 1L, 1.5, new BigDecimal("0.10"), created, true});
+        builder.add(new Object[]{null, 2, null, new BigDecimal("12345678901234567890.5"), null, false});
+        builder.add(new Object[]{"北京", 1L, 1.5});
+
+        File file = folder.newFile("data.dvx");
+        ColumnarTable written = builder.writeTo(file);
+        ColumnarTable read = ExtractReader.read(file);
+
+        assertEquals(3, read.getRowCount());
+        assertEquals(written.getRowCount(), read.getRowCount());
+        for (QueryColumn queryColumn : written.getColumns()) {
+            ColumnarTable.Column expected = written.getColumn(queryColumn.getName());
+            ColumnarTable.Column actual = read.getColumn(queryColumn.getName());
+            assertEquals(expected.getType(), actual.getType());
+            assertArrayEquals(expected.getCodes(), actual.getCodes());
+            for (int r = 0; r < read.getRowCount(); r++) {
+                assertEquals(expected.valueOf(r), actual.valueOf(r));
+            }
+        }
+        assertEquals(1, read.getColumn("name").getDictionarySize());
+        assertEquals(2L, read.getColumn("amount").valueOf(1));
+        assertTrue(read.getColumn("amount").isIntegral());
+        assertEquals(new BigDecimal("12345678901234567890.5"), read.getColumn("rate").valueOf(1));
+        assertEquals(created, read.getColumn("created").valueOf(0));
+        assertNull(read.getColumn("created").valueOf(2));
+        assertEquals(Boolean.FALSE, read.getColumn("enabled").valueOf(1));
+    }
+
+    @Test
+    public void mergesValuesEqualAfterConversion() throws IOException {
+        ExtractBuilder builder = new ExtractBuilder(Collections.singletonList(new QueryColumn("n", "INT")));
+        builder.add(new Object[]{1});
+        builder.add(new Object[]{1L});
+        builder.add(new Object[]{(short) 2});
+
+        File file = folder.newFile("data.dvx");
+        builder.writeTo(file);
+        ColumnarTable.Column column = ExtractReader.read(file).getColumn("n");
+
+        assertEquals(2, column.getDictionarySize());
+        assertArrayEquals(new int[]{0, 0, 1}, column.getCodes());
+    }
+
+    @Test
+    public void storesWideDictionaryCodes() throws IOException {
+        ExtractBuilder builder = new ExtractBuilder(Collections.singletonList(new QueryColumn("id", "BIGINT")));
+        int rows = 70000;
+        for (int i = 0; i < rows; i++) {
+            builder.add(new Object[]{i % 2 == 0 ? null : (long) i});
+        }
+
+        File file = folder.newFile("data.dvx");
+        builder.writeTo(file);
+        ColumnarTable.Column column = ExtractReader.read(file).getColumn("id");
+
+        assertEquals(rows / 2, column.getDictionarySize());
+        assertNull(column.valueOf(0));
+        assertEquals((long) rows - 1, column.valueOf(rows - 1));
+    }
+
+    @Test
+    public void rejectsForeignAndTruncatedFiles() throws IOException {
+        File foreign = folder.newFile("foreign.dvx");
+        Files.write(foreign.toPath(), "not an extract".getBytes());
+        try {
+            ExtractReader.read(foreign);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("not an extract file"));
+        }
+
+        ExtractBuilder builder = new ExtractBuilder(Collections.singletonList(new QueryColumn("name", "VARCHAR")));
+        builder.add(new Object[]{"a"});
+        File truncated = folder.newFile("truncated.dvx");
+        builder.writeTo(truncated);
+        try (RandomAccessFile raf = new RandomAccessFile(truncated, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        try {
+            ExtractReader.read(truncated);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("truncated"));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.extract;
+
+import edp.core.model.QueryColumn;
+import edp.core.utils.FileUtils;
+import edp.davinci.service.compute.ColumnarTable;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ExtractStoreTest {
+
+    private static final Long VIEW_ID = 1L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileUtils fileUtils;
+
+    private ExtractStore store;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        fileUtils = new FileUtils();
+        fileUtils.fileBasePath = folder.getRoot().getCanonicalPath();
+        dir = new File(fileUtils.fileBasePath + "/extracts/view_" + VIEW_ID);
+
+        store = new ExtractStore();
+        ReflectionTestUtils.setField(store, "fileUtils", fileUtils);
+        ReflectionTestUtils.setField(store, "maxRows", 1000);
+        ReflectionTestUtils.setField(store, "cacheMaxCells", 1000L);
+        ReflectionTestUtils.setField(store, "fullRefreshHours", 24);
+        store.init();
+    }
+
+    @Test
+    public void savesAndServesTable() throws IOException {
+        ExtractMeta meta = save("sig", "a", "b");
+
+        assertEquals(ExtractMeta.SUCCESS, meta.getStatus());
+        assertEquals(Integer.valueOf(2), meta.getRowCount());
+        assertNotNull(meta.getFullBuiltAt());
+        assertTrue(new File(dir, "meta.json").exists());
+        assertTrue(new File(dir, meta.getFile()).exists());
+
+        ColumnarTable table = store.getTable(VIEW_ID, "sig");
+        assertNotNull(table);
+        assertEquals("b", table.getColumn("name").valueOf(1));
+        assertNull(store.getTable(VIEW_ID, "changed"));
+    }
+
+    @Test
+    public void servesMetaAndTableFromMemory() throws IOException {
+        ExtractMeta meta = save("sig", "a");
+        ColumnarTable table = store.getTable(VIEW_ID, "sig");
+
+        Files.delete(new File(dir, "meta.json").toPath());
+        Files.delete(new File(dir, meta.getFile()).toPath());
+
+        assertSame(meta, store.getMeta(VIEW_ID));
+        assertSame(table, store.getTable(VIEW_ID, "sig"));
+    }
+
+    @Test
+    public void loadsPersistedMetaAndTable() throws IOException {
+        ExtractMeta meta = save("sig", "a");
+
+        ExtractStore restarted = new ExtractStore();
+        ReflectionTestUtils.setField(restarted, "fileUtils", fileUtils);
+        ReflectionTestUtils.setField(restarted, "cacheMaxCells", 1000L);
+        restarted.init();
+
+        ExtractMeta loaded = restarted.getMeta(VIEW_ID);
+        assertEquals(meta.getFile(), loaded.getFile());
+        assertSame(loaded, restarted.getMeta(VIEW_ID));
+        assertEquals("a", restarted.getTable(VIEW_ID, "sig").getColumn("name").valueOf(0));
+    }
+
+    @Test
+    public void replacesPreviousFile() throws IOException, InterruptedException {
+        ExtractMeta first = save("sig", "a");
+        Thread.sleep(2);
+        ExtractMeta second = save("sig", "b");
+
+        assertNotEquals(first.getFile(), second.getFile());
+        assertFalse(new File(dir, first.getFile()).exists());
+        assertEquals("b", store.getTable(VIEW_ID, "sig").getColumn("name").valueOf(0));
+    }
+
+    @Test
+    public void failureHidesTableButKeepsHistory() throws IOException {
+        ExtractMeta saved = save("sig", "a");
+
+        ExtractMeta failed = store.fail(VIEW_ID, 100L, "timeout");
+
+        assertEquals(ExtractMeta.FAILED, failed.getStatus());
+        assertEquals("timeout", failed.getLastError());
+        assertEquals(saved.getFile(), failed.getFile());
+        // 失败不修改已缓存的成功状态对象
+        assertEquals(ExtractMeta.SUCCESS, saved.getStatus());
+        assertSame(failed, store.getMeta(VIEW_ID));
+        assertNull(store.getTable(VIEW_ID, "sig"));
+    }
+
+    private ExtractMeta save(String signature, String... names) throws IOException {
+        ExtractBuilder builder = new ExtractBuilder(Collections.singletonList(new QueryColumn("name", "VARCHAR")));
+        for (String name : names) {
+            builder.add(new Object[]{name});
+        }
+        ExtractMeta meta = new ExtractMeta();
+        meta.setSignature(signature);
+        meta.setLastAttemptAt(System.currentTimeMillis());
+        meta.setRefreshMode(ExtractMeta.FULL);
+        return store.save(VIEW_ID, meta, builder, null);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.impl;
+
+import edp.core.common.quartz.ScheduleClusterManager;
+import edp.core.exception.ServerException;
+import edp.core.model.ScheduleJob;
+import edp.core.utils.QuartzHandler;
+import edp.davinci.dao.CronJobMapper;
+import edp.davinci.model.CronJob;
+import org.junit.Before;
+import org.junit.Test;
+import org.quartz.SchedulerException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CronJobServiceImplTest {
+
+    private CronJobServiceImpl cronJobService;
+
+    private StandInCoordinator coordinator;
+
+    private LocalQuartzHandler quartzHandler;
+
+    private CronJobMapper cronJobMapper;
+
+    @Before
+    public void setUp() {
+        cronJobService = new CronJobServiceImpl();
+        coordinator = new StandInCoordinator();
+        quartzHandler = new LocalQuartzHandler();
+        cronJobMapper = mock(CronJobMapper.class);
+        when(cronJobMapper.getStartedJobs()).thenReturn(Arrays.asList(job(1L), job(2L)));
+
+        ReflectionTestUtils.setField(cronJobService, "scheduleClusterManager", coordinator);
+        ReflectionTestUtils.setField(cronJobService, "quartzHandler", quartzHandler);
+        ReflectionTestUtils.setField(cronJobService, "cronJobMapper", cronJobMapper);
+    }
+
+    @Test
+    public void scheduleNothingUntilJoined() {
+        coordinator.available = false;
+
+        cronJobService.startAllJobs();
+
+        assertEquals(1, coordinator.joinAttempts);
+        assertEquals(Collections.emptySet(), quartzHandler.scheduled);
+    }
+
+    @Test
+    public void reconcileRetriesJoinUntilAvailable() {
+        coordinator.available = false;
+        cronJobService.startAllJobs();
+
+        when(cronJobMapper.getStartedJobs()).thenReturn(Arrays.asList(job(1L), job(2L), job(3L)));
+        cronJobService.reconcileJobs();
+        assertEquals(2, coordinator.joinAttempts);
+        assertEquals(Collections.emptySet(), quartzHandler.scheduled);
+
+        coordinator.available = true;
+        coordinator.owned = Collections.singleton(3L);
+        cronJobService.reconcileJobs();
+        assertEquals(3, coordinator.joinAttempts);
+        assertEquals(Collections.singleton(3L), quartzHandler.scheduled);
+
+        cronJobService.reconcileJobs();
+        assertEquals(3, coordinator.joinAttempts);
+        assertEquals(Collections.singleton(3L), quartzHandler.scheduled);
+    }
+
+    @Test
+    public void scheduleOwnedJobsWhenJoined() {
+        coordinator.owned = Collections.singleton(2L);
+
+        cronJobService.startAllJobs();
+
+        assertEquals(1, coordinator.joinAttempts);
+        assertEquals(Collections.singleton(2L), quartzHandler.scheduled);
+    }
+
+    @Test
+    public void localScheduleErrorIsNotPersisted() {
+        coordinator.owned = new HashSet<>(Arrays.asList(1L, 2L));
+        quartzHandler.failing.add(1L);
+
+        cronJobService.startAllJobs();
+
+        assertEquals(Collections.singleton(2L), quartzHandler.scheduled);
+        verify(cronJobMapper, never()).update(any(CronJob.class));
+
+        // 下次校正重试
+        quartzHandler.failing.clear();
+        cronJobService.reconcileJobs();
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), quartzHandler.scheduled);
+    }
+
+    @Test
+    public void reconcileIgnoredBeforeStart() {
+        cronJobService.reconcileJobs();
+
+        assertEquals(0, coordinator.joinAttempts);
+        assertEquals(Collections.emptySet(), quartzHandler.scheduled);
+    }
+
+    private static CronJob job(Long id) {
+        CronJob cronJob = new CronJob();
+        cronJob.setId(id);
+        cronJob.setName("job" + id);
+        cronJob.setStartDate(new Date(0L));
+        cronJob.setEndDate(new Date(Long.MAX_VALUE));
+        return cronJob;
+    }
+
+    /**
+     * 代替zookeeper的集群协调，加入成功后与真实实现一样回调监听
+     */
+    private static class StandInCoordinator extends ScheduleClusterManager {
+
+        private boolean available = true;
+
+        private boolean joined = false;
+
+        private int joinAttempts = 0;
+
+        private Set<Long> owned = Collections.emptySet();
+
+        private final List<Runnable> listeners = new ArrayList<>();
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isJoined() {
+            return joined;
+        }
+
+        @Override
+        public synchronized void join() throws Exception {
+            joinAttempts++;
+            if (!available) {
+                throw new IllegalStateException("zookeeper unavailable");
+            }
+            joined = true;
+            listeners.forEach(Runnable::run);
+        }
+
+        @Override
+        public boolean isOwner(long jobId) {
+            return joined && owned.contains(jobId);
+        }
+
+        @Override
+        public void addListener(Runnable listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public String getNodeId() {
+            return "stand-in";
+        }
+    }
+
+    private static class LocalQuartzHandler extends QuartzHandler {
+
+        private final Set<Long> scheduled = new HashSet<>();
+
+        private final Set<Long> failing = new HashSet<>();
+
+        @Override
+        public void addJob(ScheduleJob scheduleJob) throws ServerException, SchedulerException {
+            if (failing.contains(scheduleJob.getId())) {
+                throw new SchedulerException("stand-in schedule error");
+            }
+            scheduled.add(scheduleJob.getId());
+        }
+
+        @Override
+        public void removeJob(ScheduleJob scheduleJob) throws ServerException {
+            scheduled.remove(scheduleJob.getId());
+        }
+
+        @Override
+        public Set<Long> getScheduledJobIds() throws ServerException {
+            return new HashSet<>(scheduled);
+        }
+    }
+}
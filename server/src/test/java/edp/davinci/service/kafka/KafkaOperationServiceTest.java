@@ -0,0 +1,141 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.kafka;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KafkaOperationServiceTest {
+
+    private static final String TOPIC = "davinci_statistic_test";
+
+    private MockProducer<String, String> producer;
+
+    private KafkaOperationService service;
+
+    private MeterRegistry meterRegistry;
+
+    @Before
+    public void setUp() {
+        // 不自动完成，由测试控制投递结果
+        producer = new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+        meterRegistry = new SimpleMeterRegistry();
+        service = new KafkaOperationService();
+        service.meterRegistry = meterRegistry;
+        service.setProducer(producer);
+    }
+
+    @Test
+    public void sendIsAsynchronous() {
+        service.send(TOPIC, "a");
+        service.send(TOPIC, "b");
+
+        assertEquals(2L, service.getSendCount());
+        assertEquals(0L, service.getSuccessCount());
+
+        List<ProducerRecord<String, String>> history = producer.history();
+        assertEquals(2, history.size());
+        assertEquals(TOPIC, history.get(0).topic());
+        assertEquals("a", history.get(0).value());
+        assertEquals("b", history.get(1).value());
+    }
+
+    @Test
+    public void countDeliveredMessages() {
+        service.send(TOPIC, "a");
+        service.send(TOPIC, "b");
+
+        assertTrue(producer.completeNext());
+        assertTrue(producer.completeNext());
+
+        assertEquals(2L, service.getSuccessCount());
+        assertEquals(0L, service.getErrorCount());
+        assertEquals(2L, meterRegistry.get(KafkaOperationService.SEND_TIMER).tag("result", "success").timer().count());
+    }
+
+    @Test
+    public void countFailedDelivery() {
+        service.send(TOPIC, "a");
+        service.send(TOPIC, "b");
+
+        assertTrue(producer.errorNext(new TimeoutException("expired in stand-in")));
+        assertTrue(producer.completeNext());
+
+        assertEquals(1L, service.getSuccessCount());
+        assertEquals(1L, service.getErrorCount());
+        assertEquals(1L, meterRegistry.get(KafkaOperationService.SEND_TIMER).tag("result", "error").timer().count());
+        assertEquals(1.0, meterRegistry.get(KafkaOperationService.ERROR_COUNTER).tag("stage", "delivery").counter().count(), 0.0);
+        // 失败的消息不在回调中补发
+        assertEquals(2, producer.history().size());
+    }
+
+    @Test
+    public void countSynchronousSendFailure() {
+        service.setProducer(new MockProducer<String, String>(true, new StringSerializer(), new StringSerializer()) {
+            @Override
+            public synchronized Future<RecordMetadata> send(ProducerRecord<String, String> record, Callback callback) {
+                throw new TimeoutException("buffer full in stand-in");
+            }
+        });
+
+        service.send(TOPIC, "a");
+
+        assertEquals(1L, service.getSendCount());
+        assertEquals(1L, service.getErrorCount());
+        assertEquals(0L, service.getSuccessCount());
+        assertEquals(1.0, meterRegistry.get(KafkaOperationService.ERROR_COUNTER).tag("stage", "send").counter().count(), 0.0);
+    }
+
+    @Test
+    public void discardWithoutProducer() {
+        service.setProducer(null);
+
+        service.send(TOPIC, "a");
+
+        assertEquals(0L, service.getSendCount());
+        assertEquals(1L, service.getErrorCount());
+        assertEquals(1.0, meterRegistry.get(KafkaOperationService.ERROR_COUNTER).tag("stage", "discard").counter().count(), 0.0);
+    }
+
+    @Test
+    public void destroyFlushesAndClosesProducer() {
+        service.send(TOPIC, "a");
+
+        service.destroy();
+
+        assertTrue(producer.flushed());
+        assertTrue(producer.closed());
+        assertEquals(1L, service.getSuccessCount());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * <<
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.screenshot;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class WebDriverPoolTest {
+
+    private final List<WebDriver> created = new ArrayList<>();
+
+    private WebDriverFactory factory;
+
+    @Before
+    public void setUp() {
+        factory = () -> {
+            WebDriver driver = mock(WebDriver.class, withSettings().extraInterfaces(JavascriptExecutor.class));
+            when(driver.manage()).thenReturn(mock(WebDriver.Options.class));
+            created.add(driver);
+            return driver;
+        };
+    }
+
+    @Test
+    public void borrowUpToMaxSize() throws Exception {
+        WebDriverPool pool = new WebDriverPool(factory, 2, 10);
+
+        pool.borrow(1, TimeUnit.SECONDS);
+        pool.borrow(1, TimeUnit.SECONDS);
+        assertEquals(2, pool.getTotal());
+
+        try {
+            pool.borrow(100, TimeUnit.MILLISECONDS);
+            throw new AssertionError("borrow should time out when pool is exhausted");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertEquals(2, created.size());
+    }
+
+    @Test
+    public void releaseClearsSessionAndReuses() throws Exception {
+        WebDriverPool pool = new WebDriverPool(factory, 2, 10);
+
+        WebDriverPool.PooledWebDriver pooled = pool.borrow(1, TimeUnit.SECONDS);
+        WebDriver driver = pooled.getDriver();
+        pool.release(pooled, false);
+
+        assertEquals(1, pool.getIdle());
+        verify(driver.manage()).deleteAllCookies();
+        verify((JavascriptExecutor) driver).executeScript(contains("localStorage.clear()"));
+        verify((JavascriptExecutor) driver).executeScript(contains("sessionStorage.clear()"));
+        verify(driver, never()).quit();
+
+        assertSame(driver, pool.borrow(1, TimeUnit.SECONDS).getDriver());
+        assertEquals(1, created.size());
+    }
+
+    @Test
+    public void releaseBrokenInvalidates() throws Exception {
+        WebDriverPool pool = new WebDriverPool(factory, 1, 10);
+
+        WebDriverPool.PooledWebDriver pooled = pool.borrow(1, TimeUnit.SECONDS);
+        pool.release(pooled, true);
+
+        verify(pooled.getDriver()).quit();
+        assertEquals(0, pool.getTotal());
+        assertEquals(0, pool.getIdle());
+        assertNotSame(pooled.getDriver(), pool.borrow(1, TimeUnit.SECONDS).getDriver());
+    }
+
+    @Test
+    public void releaseAfterMaxPagesInvalidates() throws Exception {
+        WebDriverPool pool = new WebDriverPool(factory, 1, 2);
+
+        WebDriverPool.PooledWebDriver pooled = pool.borrow(1, TimeUnit.SECONDS);
+        pool.release(pooled, false);
+        pool.release(pool.borrow(1, TimeUnit.SECONDS), false);
+
+        verify(pooled.getDriver()).quit();
+        assertEquals(0, pool.getTotal());
+    }
+
+    @Test
+    public void resetFailureInvalidates() throws Exception {
+        WebDriverPool pool = new WebDriverPool(factory, 1, 10);
+
+        WebDriverPool.PooledWebDriver pooled = pool.borrow(1, TimeUnit.SECONDS);
+        doThrow(new WebDriverException("session deleted")).when(pooled.getDriver().manage()).deleteAllCookies();
+        pool.release(pooled, false);
+
+        verify(pooled.getDriver()).quit();
+        assertEquals(0, pool.getIdle());
+    }
+
+    @Test
+    public void borrowReplacesUnhealthyDriver() throws Exception {
+        WebDriverPool pool = new WebDriverPool(factory, 1, 10);
+
+        WebDriverPool.PooledWebDriver pooled = pool.borrow(1, TimeUnit.SECONDS);
+        pool.release(pooled, false);
+        when(pooled.getDriver().getWindowHandle()).thenThrow(new WebDriverException("no such window"));
+
+        WebDriverPool.PooledWebDriver next = pool.borrow(1, TimeUnit.SECONDS);
+        verify(pooled.getDriver()).quit();
+        assertNotSame(pooled.getDriver(), next.getDriver());
+        assertEquals(1, pool.getTotal());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closeQuitsIdleDrivers() throws Exception {
+        WebDriverPool pool = new WebDriverPool(factory, 2, 10);
+
+        WebDriverPool.PooledWebDriver pooled = pool.borrow(1, TimeUnit.SECONDS);
+        pool.release(pooled, false);
+        pool.close();
+
+        verify(pooled.getDriver()).quit();
+        assertEquals(0, pool.getTotal());
+        pool.borrow(1, TimeUnit.SECONDS);
+    }
+}